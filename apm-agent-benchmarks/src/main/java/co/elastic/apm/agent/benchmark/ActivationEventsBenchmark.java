@@ -0,0 +1,157 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.benchmark;
+
+import co.elastic.apm.agent.impl.transaction.TraceContext;
+import co.elastic.apm.agent.profiler.SamplingProfiler;
+import co.elastic.apm.agent.profiler.SystemNanoClock;
+import co.elastic.apm.agent.util.ExecutorUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ClosedByInterruptException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Measures the overhead of recording activation events when many application threads activate spans concurrently.
+ * A background thread consumes the events, like the profiling thread does during a profiling session.
+ * <p>
+ * {@link #activateDeactivateOnNewThread()} measures the memory each thread needs for its ring buffer.
+ * As the buffers of terminated threads are recycled, {@code gc.alloc.rate.norm} is mostly the allocation of the thread itself
+ * and the number of allocated buffers, which is printed after each iteration, stays around the number of benchmark threads.
+ * </p>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Threads(8)
+public class ActivationEventsBenchmark extends AbstractMockApmServerBenchmark {
+
+    /**
+     * sizeof(ActivationEvent) is 176B and each ring buffer holds 256 of them
+     */
+    private static final long RING_BUFFER_BYTES = 176 * 256;
+
+    private SamplingProfiler samplingProfiler;
+    private TraceContext parent;
+    private TraceContext child;
+    private Thread consumer;
+    private final AtomicInteger startedThreads = new AtomicInteger();
+    private int reportedBuffers;
+    private final Runnable activateDeactivate = new Runnable() {
+        @Override
+        public void run() {
+            activateDeactivate();
+        }
+    };
+
+    public ActivationEventsBenchmark() {
+        super(true);
+    }
+
+    public static void main(String[] args) throws Exception {
+        run(ActivationEventsBenchmark.class);
+    }
+
+    @Setup
+    public void setUpProfiler() throws Exception {
+        samplingProfiler = new SamplingProfiler(tracer,
+            ExecutorUtils.createSingleThreadSchedulingDeamonPool("sampling-profiler"),
+            new SystemNanoClock(),
+            File.createTempFile("apm-activation-events-", ".bin"),
+            File.createTempFile("apm-traces-", ".jfr"));
+        samplingProfiler.setProfilingSessionOngoing(true);
+        parent = TraceContext.with64BitId(tracer);
+        child = TraceContext.with64BitId(tracer);
+        consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (!Thread.currentThread().isInterrupted()) {
+                        if (!samplingProfiler.consumeActivationEventsAndWriteToFile()) {
+                            LockSupport.parkNanos(100_000);
+                        }
+                        // the content of the file does not matter, prevent it from growing
+                        samplingProfiler.resetActivationEventBuffer();
+                    }
+                } catch (ClosedByInterruptException ignore) {
+                    // the benchmark is over
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        }, "activation-events-consumer");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    @TearDown(Level.Iteration)
+    public void reportAllocatedBuffers() {
+        int threads = startedThreads.getAndSet(0);
+        int allocatedBuffers = samplingProfiler.getAllocatedActivationEventBuffers();
+        int newBuffers = allocatedBuffers - reportedBuffers;
+        reportedBuffers = allocatedBuffers;
+        if (threads > 0) {
+            System.out.printf("%n%d threads, %d new ring buffers (%d in total), %.1f bytes of ring buffers per thread%n",
+                threads, newBuffers, allocatedBuffers, (double) newBuffers * RING_BUFFER_BYTES / threads);
+        }
+    }
+
+    @TearDown
+    public void tearDownProfiler() throws Exception {
+        consumer.interrupt();
+        consumer.join();
+        samplingProfiler.stop();
+    }
+
+    /**
+     * The previously active context is not {@code null} so that async-profiler's thread filter is not involved
+     */
+    @Benchmark
+    public boolean activateDeactivate() {
+        return samplingProfiler.onActivation(child, parent) & samplingProfiler.onDeactivation(child, parent);
+    }
+
+    @Benchmark
+    public void activateDeactivateOnNewThread() throws InterruptedException {
+        Thread thread = new Thread(activateDeactivate);
+        thread.start();
+        thread.join();
+        startedThreads.incrementAndGet();
+    }
+
+}
@@ -0,0 +1,163 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.benchmark;
+
+import co.elastic.apm.agent.benchmark.sql.BlackholeConnection;
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.report.Reporter;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.DispatcherType;
+import javax.servlet.ServletException;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This benchmark evaluates the overhead of recording an asynchronous Servlet API-based HTTP request.
+ * <p>
+ * The request goes through the typical stages of asynchronous processing:
+ * the servlet starts the asynchronous processing, hands off a JDBC query to {@link AsyncContext#start(Runnable)}
+ * and registers a {@link WriteListener}.
+ * Afterwards, the container runs the task, invokes the listener and dispatches the request back to the servlet,
+ * which completes the request.
+ * In each of these stages, the agent has to hand off the transaction to the code which is executed.
+ * </p>
+ * <p>
+ * Like {@link ElasticApmContinuousBenchmark}, this benchmark does not use a real application server.
+ * The stages are executed on the benchmark thread, one after another,
+ * so that the measurement is not dominated by the latency of thread hand-offs which would be there without the agent as well.
+ * </p>
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public abstract class AsyncServletBenchmark extends AbstractMockApmServerBenchmark {
+
+    protected HttpServlet httpServlet;
+
+    public AsyncServletBenchmark(boolean apmEnabled) {
+        super(apmEnabled);
+    }
+
+    @Override
+    public void setUp(Blackhole blackhole) throws IOException {
+        super.setUp(blackhole);
+        final BlackholeConnection blackholeConnection = BlackholeConnection.INSTANCE;
+        blackholeConnection.init(blackhole);
+        httpServlet = new AsyncServlet(blackholeConnection, tracer, blackhole);
+        System.getProperties().put(Reporter.class.getName(), tracer.getReporter());
+    }
+
+    protected int processAsyncRequest(RequestState requestState) throws IOException, ServletException {
+        final MockHttpServletRequest request = requestState.request;
+        final MockHttpServletResponse response = requestState.response;
+        httpServlet.service(request, response);
+        // simulates the threads of the container which process the request after the servlet has returned
+        request.getAsyncContext().runStartedTask();
+        response.getOutputStream().notifyWritePossible();
+        request.setDispatcherType(DispatcherType.ASYNC);
+        httpServlet.service(request, response);
+        request.recycle();
+        return response.getStatus();
+    }
+
+    @State(Scope.Thread)
+    public static class RequestState {
+
+        MockHttpServletRequest request;
+        MockHttpServletResponse response;
+
+        @Setup
+        public void setUp() {
+            request = new MockHttpServletRequest("GET", "http://localhost:8080/app/async");
+            request.setContextPath("/app");
+            request.setRequestURI("/app/async");
+            request.setServletPath("/async");
+            request.setServerName("localhost");
+            response = new MockHttpServletResponse();
+        }
+    }
+
+    private static class AsyncServlet extends HttpServlet {
+
+        private final Reporter reporter;
+        private final Runnable queryTask;
+        private final WriteListener writeListener;
+
+        private AsyncServlet(final Connection connection, ElasticApmTracer tracer, final Blackhole blackhole) {
+            this.reporter = tracer.getReporter();
+            this.queryTask = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        final PreparedStatement preparedStatement = connection
+                            .prepareStatement("SELECT * FROM ELASTIC_APM WHERE foo=?");
+                        preparedStatement.setInt(1, 1);
+                        blackhole.consume(preparedStatement.executeQuery());
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            };
+            this.writeListener = new WriteListener() {
+                @Override
+                public void onWritePossible() {
+                    blackhole.consume(this);
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    blackhole.consume(t);
+                }
+            };
+        }
+
+        @Override
+        public void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+            if (request.getDispatcherType() == DispatcherType.ASYNC) {
+                // makes sure the reporting can't be eliminated by JIT
+                response.setStatus((int) reporter.getDropped());
+                request.getAsyncContext().complete();
+                return;
+            }
+            final AsyncContext asyncContext = request.startAsync(request, response);
+            asyncContext.start(queryTask);
+            response.getOutputStream().setWriteListener(writeListener);
+        }
+    }
+}
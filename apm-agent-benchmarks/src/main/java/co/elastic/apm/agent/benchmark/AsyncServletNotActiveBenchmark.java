@@ -0,0 +1,47 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.runner.RunnerException;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+
+public class AsyncServletNotActiveBenchmark extends AsyncServletBenchmark {
+
+    public AsyncServletNotActiveBenchmark() {
+        super(false);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        run(AsyncServletNotActiveBenchmark.class);
+    }
+
+    @Benchmark
+    public int benchmarkWithoutApm(RequestState requestState) throws IOException, ServletException {
+        return processAsyncRequest(requestState);
+    }
+}
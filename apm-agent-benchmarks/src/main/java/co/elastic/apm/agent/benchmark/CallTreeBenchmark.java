@@ -0,0 +1,193 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.benchmark;
+
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.transaction.StackFrame;
+import co.elastic.apm.agent.impl.transaction.TraceContext;
+import co.elastic.apm.agent.matcher.WildcardMatcher;
+import co.elastic.apm.agent.objectpool.ObjectPool;
+import co.elastic.apm.agent.objectpool.impl.ListBasedObjectPool;
+import co.elastic.apm.agent.profiler.CallTree;
+import co.elastic.apm.agent.profiler.asyncprofiler.JfrParser;
+import org.ehcache.sizeof.SizeOf;
+import org.ehcache.sizeof.filters.SizeOfFilter;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how fast {@link CallTree}s are built from the stack traces of a real JFR file
+ * and how many bytes the call tree retains per inferred span.
+ * <p>
+ * The inferred spans are the nodes which would be converted to spans by {@link CallTree.Root#spanify()}
+ * after the call tree has been {@linkplain CallTree.Root#end ended}.
+ * That's less than the number of nodes as fast nodes are removed and pillars are not converted to spans.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+public class CallTreeBenchmark extends AbstractMockApmServerBenchmark {
+
+    private final List<List<StackFrame>> stackTraces = new ArrayList<>();
+    private final List<Long> timestamps = new ArrayList<>();
+    private final ObjectPool<CallTree> callTreePool = ListBasedObjectPool.ofRecyclable(16 * 1024, CallTree::new);
+    private ObjectPool<CallTree.Root> rootPool;
+    private byte[] traceContext;
+
+    public CallTreeBenchmark() {
+        super(true);
+    }
+
+    public static void main(String[] args) throws Exception {
+        run(CallTreeBenchmark.class);
+    }
+
+    @Setup
+    public void setUpCallTreeBenchmark() throws Exception {
+        final ElasticApmTracer tracer = this.tracer;
+        rootPool = ListBasedObjectPool.ofRecyclable(1, () -> new CallTree.Root(tracer));
+        traceContext = tracer.startRootTransaction(null).getTraceContext().serialize();
+
+        JfrParser jfrParser = new JfrParser();
+        jfrParser.parse(new File(getClass().getClassLoader().getResource("apm-traces.jfr").toURI()),
+            Collections.<WildcardMatcher>emptyList(), WildcardMatcher.matchAllList());
+        // the stack traces of a single thread, in the order they have been recorded
+        Map<Long, List<long[]>> eventsByThread = new HashMap<>();
+        jfrParser.consumeStackTraces((threadId, stackTraceId, nanoTime) ->
+            eventsByThread.computeIfAbsent(threadId, id -> new ArrayList<>()).add(new long[]{nanoTime, stackTraceId}));
+        List<long[]> events = Collections.max(eventsByThread.values(), (a, b) -> Integer.compare(a.size(), b.size()));
+        events.sort((a, b) -> Long.compare(a[0], b[0]));
+        for (long[] event : events) {
+            List<StackFrame> stackFrames = new ArrayList<>();
+            jfrParser.resolveStackTrace(event[1], true, stackFrames, 256);
+            if (!stackFrames.isEmpty()) {
+                timestamps.add(event[0]);
+                stackTraces.add(stackFrames);
+            }
+        }
+        jfrParser.resetState();
+    }
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class InferredSpans {
+        public long inferredSpans;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            inferredSpans = 0;
+        }
+    }
+
+    @Benchmark
+    public void buildCallTree(InferredSpans counter) {
+        CallTree.Root root = buildCallTree();
+        root.end(callTreePool, 0);
+        counter.inferredSpans += countInferredSpans(root);
+        root.recycle(callTreePool);
+        rootPool.recycle(root);
+    }
+
+    @TearDown
+    public void printRetainedBytesPerInferredSpan() {
+        CallTree.Root root = buildCallTree();
+        // frames are shared between call trees and trace contexts are owned by the spans, only measure the tree itself
+        SizeOf sizeOf = SizeOf.newInstance(new SizeOfFilter() {
+            @Override
+            public Collection<Field> filterFields(Class<?> klazz, Collection<Field> fields) {
+                return fields;
+            }
+
+            @Override
+            public boolean filterClass(Class<?> klazz) {
+                return klazz != StackFrame.class && klazz != TraceContext.class && klazz != ElasticApmTracer.class;
+            }
+        });
+        root.end(callTreePool, 0);
+        long inferredSpans = countInferredSpans(root);
+        System.out.println("call tree nodes: " + countNodes(root));
+        System.out.println("inferred spans: " + inferredSpans);
+        System.out.println("retained bytes per inferred span: " + sizeOf.deepSizeOf(root) / inferredSpans);
+        root.recycle(callTreePool);
+        rootPool.recycle(root);
+    }
+
+    private CallTree.Root buildCallTree() {
+        CallTree.Root root = CallTree.createRoot(rootPool, traceContext, "benchmark", timestamps.get(0) - 1);
+        for (int i = 0, size = stackTraces.size(); i < size; i++) {
+            root.addStackTrace(tracer, stackTraces.get(i), timestamps.get(i), callTreePool, 0);
+        }
+        return root;
+    }
+
+    /**
+     * Counts the nodes {@link CallTree.Root#spanify()} would create a span for, which are all except the root and pillars
+     */
+    private static long countInferredSpans(CallTree.Root root) {
+        long inferredSpans = 0;
+        for (int i = 0, size = root.getChildCount(); i < size; i++) {
+            inferredSpans += countInferredSpans(root.getChild(i));
+        }
+        return inferredSpans;
+    }
+
+    private static long countInferredSpans(CallTree callTree) {
+        int childCount = callTree.getChildCount();
+        boolean pillar = childCount == 1 && callTree.getChild(0).getCount() == callTree.getCount();
+        long inferredSpans = pillar ? 0 : 1;
+        for (int i = 0; i < childCount; i++) {
+            inferredSpans += countInferredSpans(callTree.getChild(i));
+        }
+        return inferredSpans;
+    }
+
+    private static long countNodes(CallTree callTree) {
+        long nodes = 1;
+        for (int i = 0, size = callTree.getChildCount(); i < size; i++) {
+            nodes += countNodes(callTree.getChild(i));
+        }
+        return nodes;
+    }
+
+}
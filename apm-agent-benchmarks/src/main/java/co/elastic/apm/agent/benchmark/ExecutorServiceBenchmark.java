@@ -0,0 +1,169 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.benchmark;
+
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This benchmark evaluates the overhead of propagating the active transaction to the tasks of an {@link java.util.concurrent.ExecutorService}.
+ * <p>
+ * Each operation submits a batch of tasks within a transaction and waits for their results.
+ * The tasks are either lambdas, which the agent wraps, or instances of a regular class,
+ * whose context the agent has to look up when they are executed.
+ * </p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public abstract class ExecutorServiceBenchmark extends AbstractMockApmServerBenchmark {
+
+    private static final int TASKS_PER_OPERATION = 16;
+
+    private final Future<?>[] futures = new Future<?>[TASKS_PER_OPERATION];
+    private BenchmarkExecutorService executor;
+    private Blackhole blackhole;
+
+    public ExecutorServiceBenchmark(boolean apmEnabled) {
+        super(apmEnabled);
+    }
+
+    @Override
+    public void setUp(Blackhole blackhole) throws IOException {
+        super.setUp(blackhole);
+        this.blackhole = blackhole;
+        // the JDK executors are excluded from instrumentation, see AbstractMockApmServerBenchmark
+        executor = new BenchmarkExecutorService(Runtime.getRuntime().availableProcessors());
+        executor.prestartAllCoreThreads();
+    }
+
+    @Override
+    public void tearDown() throws ExecutionException, InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        super.tearDown();
+    }
+
+    protected int submitLambdas() throws ExecutionException, InterruptedException {
+        final Transaction transaction = startTransaction();
+        try {
+            for (int i = 0; i < TASKS_PER_OPERATION; i++) {
+                futures[i] = executor.submit(() -> blackhole.consume(this));
+            }
+            return awaitFutures();
+        } finally {
+            endTransaction(transaction);
+        }
+    }
+
+    protected int submitCallables() throws ExecutionException, InterruptedException {
+        final Transaction transaction = startTransaction();
+        try {
+            for (int i = 0; i < TASKS_PER_OPERATION; i++) {
+                futures[i] = executor.submit(new ConsumingCallable(blackhole));
+            }
+            return awaitFutures();
+        } finally {
+            endTransaction(transaction);
+        }
+    }
+
+    private Transaction startTransaction() {
+        final Transaction transaction = tracer.startRootTransaction(null);
+        if (transaction != null) {
+            transaction.withName("ExecutorServiceBenchmark").activate();
+        }
+        return transaction;
+    }
+
+    private void endTransaction(Transaction transaction) {
+        if (transaction != null) {
+            transaction.deactivate().end();
+        }
+    }
+
+    private int awaitFutures() throws ExecutionException, InterruptedException {
+        int completed = 0;
+        for (int i = 0; i < TASKS_PER_OPERATION; i++) {
+            futures[i].get();
+            futures[i] = null;
+            completed++;
+        }
+        return completed;
+    }
+
+    private static class ConsumingCallable implements Callable<Object> {
+
+        private final Blackhole blackhole;
+
+        private ConsumingCallable(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public Object call() {
+            blackhole.consume(this);
+            return this;
+        }
+    }
+
+    /**
+     * Declares the methods which are instrumented by the agent, so that they are not excluded along with the {@code java.*} classes.
+     */
+    private static class BenchmarkExecutorService extends ThreadPoolExecutor {
+
+        private BenchmarkExecutorService(int threads) {
+            super(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        }
+
+        @Override
+        public void execute(Runnable command) {
+            super.execute(command);
+        }
+
+        @Override
+        public Future<?> submit(Runnable task) {
+            return super.submit(task);
+        }
+
+        @Override
+        public <T> Future<T> submit(Callable<T> task) {
+            return super.submit(task);
+        }
+    }
+}
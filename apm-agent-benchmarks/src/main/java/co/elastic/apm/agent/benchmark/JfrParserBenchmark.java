@@ -0,0 +1,80 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.benchmark;
+
+import co.elastic.apm.agent.impl.transaction.StackFrame;
+import co.elastic.apm.agent.matcher.WildcardMatcher;
+import co.elastic.apm.agent.profiler.asyncprofiler.JfrParser;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+public class JfrParserBenchmark extends AbstractBenchmark {
+
+    @Param({"false", "true"})
+    public boolean memoryMapped;
+
+    private JfrParser jfrParser;
+    private File jfrFile;
+    private final List<StackFrame> stackFrames = new ArrayList<>();
+
+    public static void main(String[] args) throws Exception {
+        run(JfrParserBenchmark.class);
+    }
+
+    @Setup
+    public void setUp() throws Exception {
+        jfrParser = new JfrParser(memoryMapped);
+        jfrFile = new File(getClass().getClassLoader().getResource("apm-traces.jfr").toURI());
+    }
+
+    @Benchmark
+    public void parseAndResolveStackTraces(Blackhole blackhole) throws IOException {
+        jfrParser.parse(jfrFile, Collections.<WildcardMatcher>emptyList(), WildcardMatcher.matchAllList());
+        jfrParser.consumeStackTraces((threadId, stackTraceId, nanoTime) -> {
+            jfrParser.resolveStackTrace(stackTraceId, true, stackFrames, 256);
+            blackhole.consume(stackFrames.size());
+            stackFrames.clear();
+        });
+        jfrParser.resetState();
+    }
+
+}
@@ -0,0 +1,149 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.benchmark;
+
+import javax.annotation.Nullable;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A minimal {@link AsyncContext} which doesn't hand off work to other threads by itself.
+ * Instead, the benchmark simulates the container by invoking {@link #runStartedTask()} and {@link #complete()}.
+ */
+public class MockAsyncContext implements AsyncContext {
+
+    private final List<AsyncListener> listeners = new ArrayList<>();
+    private final List<ServletRequest> listenerRequests = new ArrayList<>();
+    private final List<ServletResponse> listenerResponses = new ArrayList<>();
+    @Nullable
+    private ServletRequest request;
+    @Nullable
+    private ServletResponse response;
+    @Nullable
+    private Runnable startedTask;
+    private long timeout;
+
+    void init(ServletRequest request, ServletResponse response) {
+        this.request = request;
+        this.response = response;
+    }
+
+    void recycle() {
+        listeners.clear();
+        listenerRequests.clear();
+        listenerResponses.clear();
+        request = null;
+        response = null;
+        startedTask = null;
+    }
+
+    /**
+     * Runs the task which has been passed to {@link #start(Runnable)}, like a thread of the container would
+     */
+    public void runStartedTask() {
+        final Runnable task = startedTask;
+        startedTask = null;
+        if (task != null) {
+            task.run();
+        }
+    }
+
+    @Override
+    public ServletRequest getRequest() {
+        return request;
+    }
+
+    @Override
+    public ServletResponse getResponse() {
+        return response;
+    }
+
+    @Override
+    public boolean hasOriginalRequestAndResponse() {
+        return true;
+    }
+
+    @Override
+    public void dispatch() {
+    }
+
+    @Override
+    public void dispatch(String path) {
+    }
+
+    @Override
+    public void dispatch(ServletContext context, String path) {
+    }
+
+    @Override
+    public void complete() {
+        for (int i = 0; i < listeners.size(); i++) {
+            try {
+                listeners.get(i).onComplete(new AsyncEvent(this, listenerRequests.get(i), listenerResponses.get(i)));
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    @Override
+    public void start(Runnable run) {
+        startedTask = run;
+    }
+
+    @Override
+    public void addListener(AsyncListener listener) {
+        addListener(listener, request, response);
+    }
+
+    @Override
+    public void addListener(AsyncListener listener, ServletRequest servletRequest, ServletResponse servletResponse) {
+        listeners.add(listener);
+        listenerRequests.add(servletRequest);
+        listenerResponses.add(servletResponse);
+    }
+
+    @Override
+    public <T extends AsyncListener> T createListener(Class<T> clazz) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    @Override
+    public long getTimeout() {
+        return timeout;
+    }
+}
@@ -64,6 +64,9 @@ public class MockHttpServletRequest implements HttpServletRequest {
     private String servletPath;
     private String serverName;
     private MockServletContext servletContext = new MockServletContext();
+    private DispatcherType dispatcherType = DispatcherType.REQUEST;
+    private final MockAsyncContext asyncContext = new MockAsyncContext();
+    private boolean asyncStarted;
 
     public MockHttpServletRequest(String method, String requestUrl) {
         this.method = method;
@@ -390,27 +393,43 @@ public class MockHttpServletRequest implements HttpServletRequest {
 
     @Override
     public AsyncContext startAsync(ServletRequest servletRequest, ServletResponse servletResponse) throws IllegalStateException {
-        return null;
+        asyncStarted = true;
+        asyncContext.init(servletRequest, servletResponse);
+        return asyncContext;
     }
 
     @Override
     public boolean isAsyncStarted() {
-        return false;
+        return asyncStarted;
     }
 
     @Override
     public boolean isAsyncSupported() {
-        return false;
+        return true;
     }
 
     @Override
-    public AsyncContext getAsyncContext() {
-        return null;
+    public MockAsyncContext getAsyncContext() {
+        return asyncContext;
     }
 
     @Override
     public DispatcherType getDispatcherType() {
-        return DispatcherType.REQUEST;
+        return dispatcherType;
+    }
+
+    public void setDispatcherType(DispatcherType dispatcherType) {
+        this.dispatcherType = dispatcherType;
+    }
+
+    /**
+     * Resets the state of an asynchronous request so that this instance can be reused for the next request
+     */
+    public void recycle() {
+        attributes.clear();
+        dispatcherType = DispatcherType.REQUEST;
+        asyncStarted = false;
+        asyncContext.recycle();
     }
 
     public void setContextPath(String contextPath) {
@@ -24,7 +24,6 @@
  */
 package co.elastic.apm.agent.benchmark;
 
-import javax.servlet.ServletOutputStream;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
@@ -38,6 +37,7 @@ public class MockHttpServletResponse implements HttpServletResponse {
 
     private int status = 200;
     private final HashMap<String, String> headers = new HashMap<>();
+    private final MockServletOutputStream outputStream = new MockServletOutputStream();
 
     @Override
     public void addCookie(Cookie cookie) {
@@ -165,8 +165,8 @@ public class MockHttpServletResponse implements HttpServletResponse {
     }
 
     @Override
-    public ServletOutputStream getOutputStream() throws IOException {
-        return null;
+    public MockServletOutputStream getOutputStream() throws IOException {
+        return outputStream;
     }
 
     @Override
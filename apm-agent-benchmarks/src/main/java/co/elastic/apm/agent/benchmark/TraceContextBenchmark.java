@@ -0,0 +1,159 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.benchmark;
+
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.ElasticApmTracerBuilder;
+import co.elastic.apm.agent.impl.transaction.AbstractHeaderGetter;
+import co.elastic.apm.agent.impl.transaction.BinaryHeaderSetter;
+import co.elastic.apm.agent.impl.transaction.TextHeaderGetter;
+import co.elastic.apm.agent.impl.transaction.TextHeaderSetter;
+import co.elastic.apm.agent.impl.transaction.TraceContext;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.runner.RunnerException;
+
+import javax.annotation.Nullable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of parsing incoming and rendering outgoing {@code traceparent} and {@code tracestate} headers.
+ * <p>
+ * Run with {@code -prof gc} to verify the allocation rate of each operation.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TraceContextBenchmark extends AbstractBenchmark {
+
+    private ElasticApmTracer tracer;
+    private Transaction incoming;
+    private Transaction outgoing;
+    private Map<String, String> incomingHeaders;
+    private Map<String, String> outgoingHeaders;
+    private Map<String, byte[]> outgoingBinaryHeaders;
+
+    public static void main(String[] args) throws RunnerException {
+        run(TraceContextBenchmark.class);
+    }
+
+    @Setup
+    public void setUp() {
+        tracer = new ElasticApmTracerBuilder().build();
+        tracer.start();
+        incomingHeaders = new HashMap<>();
+        incomingHeaders.put(TraceContext.W3C_TRACE_PARENT_TEXTUAL_HEADER_NAME, "00-0af7651916cd43dd8448eb211c80319c-b9c7c989f97918e1-01");
+        incomingHeaders.put(TraceContext.TRACESTATE_HEADER_NAME, "foo=bar,baz=qux");
+        outgoingHeaders = new HashMap<>();
+        outgoingBinaryHeaders = new HashMap<>();
+        incoming = new Transaction(tracer);
+        outgoing = new Transaction(tracer);
+        TraceContext.<Map<String, String>>getFromTraceContextTextHeaders().asChildOf(outgoing.getTraceContext(), incomingHeaders, MapHeaderAccessor.INSTANCE);
+    }
+
+    @TearDown
+    public void tearDown() {
+        tracer.stop();
+    }
+
+    @Benchmark
+    public boolean parseTraceContextHeaders() {
+        TraceContext traceContext = incoming.getTraceContext();
+        traceContext.resetState();
+        return TraceContext.<Map<String, String>>getFromTraceContextTextHeaders().asChildOf(traceContext, incomingHeaders, MapHeaderAccessor.INSTANCE);
+    }
+
+    /**
+     * Simulates fan-out calls from the same span, which re-use the rendered headers
+     */
+    @Benchmark
+    public Map<String, String> propagateTraceContextHeaders() {
+        outgoing.propagateTraceContext(outgoingHeaders, MapHeaderAccessor.INSTANCE);
+        return outgoingHeaders;
+    }
+
+    /**
+     * Simulates a producer sending many messages within the same span, which re-use the rendered binary header
+     */
+    @Benchmark
+    public Map<String, byte[]> propagateTraceContextBinaryHeader() {
+        outgoing.propagateTraceContext(outgoingBinaryHeaders, BinaryMapHeaderAccessor.INSTANCE);
+        return outgoingBinaryHeaders;
+    }
+
+    /**
+     * Parses the incoming headers and renders the outgoing headers once, as for a service that makes one downstream call per request
+     */
+    @Benchmark
+    public Map<String, String> parseAndPropagateTraceContextHeaders() {
+        parseTraceContextHeaders();
+        incoming.propagateTraceContext(outgoingHeaders, MapHeaderAccessor.INSTANCE);
+        return outgoingHeaders;
+    }
+
+    private static class MapHeaderAccessor extends AbstractHeaderGetter<String, Map<String, String>>
+        implements TextHeaderGetter<Map<String, String>>, TextHeaderSetter<Map<String, String>> {
+
+        private static final MapHeaderAccessor INSTANCE = new MapHeaderAccessor();
+
+        @Nullable
+        @Override
+        public String getFirstHeader(String headerName, Map<String, String> carrier) {
+            return carrier.get(headerName);
+        }
+
+        @Override
+        public void setHeader(String headerName, String headerValue, Map<String, String> carrier) {
+            carrier.put(headerName, headerValue);
+        }
+    }
+
+    private static class BinaryMapHeaderAccessor implements BinaryHeaderSetter<Map<String, byte[]>> {
+
+        private static final BinaryMapHeaderAccessor INSTANCE = new BinaryMapHeaderAccessor();
+
+        private final byte[] buffer = new byte[TraceContext.BINARY_FORMAT_EXPECTED_LENGTH];
+
+        @Override
+        public byte[] getFixedLengthByteArray(String headerName, int length) {
+            return buffer;
+        }
+
+        @Override
+        public void setHeader(String headerName, byte[] headerValue, Map<String, byte[]> carrier) {
+            carrier.put(headerName, headerValue);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.benchmark;
+
+import co.elastic.apm.agent.bci.ElasticApmAgent;
+import co.elastic.apm.agent.configuration.CoreConfiguration;
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.ElasticApmTracerBuilder;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import net.bytebuddy.agent.ByteBuddyAgent;
+import org.stagemonitor.configuration.ConfigurationOptionProvider;
+import org.stagemonitor.configuration.ConfigurationRegistry;
+import org.stagemonitor.configuration.source.SimpleSource;
+
+import java.lang.reflect.Method;
+import java.util.ServiceLoader;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Measures the heap retained per parked virtual thread which has been started within a transaction (JDK 21+).
+ * <p>
+ * Run it once with the agent enabled and once disabled to get the overhead of the context propagation:
+ * {@code java -cp apm-agent-benchmarks/target/benchmarks.jar co.elastic.apm.agent.benchmark.VirtualThreadMemoryBenchmark [true|false]}
+ * </p>
+ * <p>
+ * The virtual thread API is called via reflection, as the benchmarks are compiled for older JDKs.
+ * </p>
+ */
+public class VirtualThreadMemoryBenchmark {
+
+    private static final int THREADS = 100_000;
+
+    public static void main(String[] args) throws Exception {
+        // lets Byte Buddy instrument the class files of JDKs it does not officially support yet
+        if (System.getProperty("net.bytebuddy.experimental") == null) {
+            System.setProperty("net.bytebuddy.experimental", "true");
+        }
+        final boolean apmEnabled = args.length == 0 || Boolean.parseBoolean(args[0]);
+        final Method startVirtualThread;
+        try {
+            startVirtualThread = Thread.class.getMethod("startVirtualThread", Runnable.class);
+        } catch (NoSuchMethodException e) {
+            System.out.println("Virtual threads require JDK 21+");
+            return;
+        }
+
+        ElasticApmTracer tracer = new ElasticApmTracerBuilder()
+            .configurationRegistry(ConfigurationRegistry.builder()
+                .addConfigSource(new SimpleSource()
+                    .add(CoreConfiguration.SERVICE_NAME, "benchmark")
+                    .add(CoreConfiguration.INSTRUMENT, Boolean.toString(apmEnabled))
+                    .add("active", Boolean.toString(apmEnabled))
+                    .add("central_config", "false"))
+                .optionProviders(ServiceLoader.load(ConfigurationOptionProvider.class))
+                .build())
+            .build();
+        tracer.start();
+        ElasticApmAgent.initInstrumentation(tracer, ByteBuddyAgent.install());
+
+        final CountDownLatch started = new CountDownLatch(THREADS);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Runnable task = () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        final Thread[] threads = new Thread[THREADS];
+
+        final Transaction transaction = tracer.startRootTransaction(null);
+        if (transaction != null) {
+            transaction.withName("VirtualThreadMemoryBenchmark").activate();
+        }
+        try {
+            final long usedBefore = usedHeapAfterGc();
+            for (int i = 0; i < THREADS; i++) {
+                threads[i] = (Thread) startVirtualThread.invoke(null, task);
+            }
+            started.await();
+            final long usedWhileParked = usedHeapAfterGc();
+            release.countDown();
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            System.out.println("apm enabled: " + apmEnabled);
+            System.out.println("virtual threads: " + THREADS);
+            System.out.println("bytes per virtual thread: " + (usedWhileParked - usedBefore) / THREADS);
+        } finally {
+            if (transaction != null) {
+                transaction.deactivate().end();
+            }
+            tracer.stop();
+        }
+    }
+
+    private static long usedHeapAfterGc() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,111 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.benchmark;
+
+import co.elastic.apm.agent.matcher.CompiledWildcardMatcherList;
+import co.elastic.apm.agent.matcher.WildcardMatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.runner.RunnerException;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares evaluating a list of {@link WildcardMatcher}s one by one with evaluating a {@link CompiledWildcardMatcherList}.
+ * <p>
+ * The patterns are a mix of prefix, suffix, infix and compound patterns, as typically used for {@code ignore_urls}.
+ * Most inputs don't match any pattern, which is the common case and requires evaluating all of them.
+ * </p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class WildcardMatcherBenchmark extends AbstractBenchmark {
+
+    private static final String[] URLS = {
+        "/api/v1/orders/12345/items",
+        "/app/customers/search",
+        "/static/js/app.7f3a2b.js",
+        "/favicon.ico"
+    };
+
+    @Param({"4", "16", "64"})
+    public int patterns;
+
+    private List<WildcardMatcher> matchers;
+    private List<WildcardMatcher> compiledMatchers;
+    private int index;
+
+    public static void main(String[] args) throws RunnerException {
+        run(WildcardMatcherBenchmark.class);
+    }
+
+    @Setup
+    public void setUp() {
+        matchers = new ArrayList<>(patterns);
+        for (int i = 0; i < patterns; i++) {
+            switch (i % 4) {
+                case 0:
+                    matchers.add(WildcardMatcher.valueOf("/static" + i + "/*"));
+                    break;
+                case 1:
+                    matchers.add(WildcardMatcher.valueOf("*.ext" + i));
+                    break;
+                case 2:
+                    matchers.add(WildcardMatcher.valueOf("*secret" + i + "*"));
+                    break;
+                default:
+                    matchers.add(WildcardMatcher.valueOf("/api/v" + i + "/*/health"));
+                    break;
+            }
+        }
+        compiledMatchers = CompiledWildcardMatcherList.compile(matchers);
+    }
+
+    @Benchmark
+    @Nullable
+    public WildcardMatcher anyMatch() {
+        return WildcardMatcher.anyMatch(matchers, nextUrl());
+    }
+
+    @Benchmark
+    @Nullable
+    public WildcardMatcher anyMatchCompiled() {
+        return WildcardMatcher.anyMatch(compiledMatchers, nextUrl());
+    }
+
+    private String nextUrl() {
+        return URLS[index++ & (URLS.length - 1)];
+    }
+}
@@ -0,0 +1,103 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.benchmark.sql;
+
+import co.elastic.apm.agent.benchmark.AbstractMockApmServerBenchmark;
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.RunnerException;
+
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead of repeatedly executing the same instrumented {@link PreparedStatement}.
+ * <p>
+ * The signature and the connection metadata are resolved on the first execution and cached for the statement,
+ * so that this benchmark mostly measures creating and reporting the span.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PreparedStatementBenchmark extends AbstractMockApmServerBenchmark {
+
+    private PreparedStatement preparedStatement;
+
+    public PreparedStatementBenchmark() {
+        super(true);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        run(PreparedStatementBenchmark.class);
+    }
+
+    @Override
+    public void setUp(Blackhole blackhole) throws IOException {
+        super.setUp(blackhole);
+        BlackholeConnection connection = BlackholeConnection.INSTANCE;
+        connection.init(blackhole);
+        try {
+            preparedStatement = connection.prepareStatement("SELECT o.id, o.status FROM orders o JOIN customers c ON o.customer_id = c.id WHERE c.id = ?");
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class TransactionState {
+
+        private Transaction transaction;
+
+        @Setup
+        public void setUp(PreparedStatementBenchmark benchmark) {
+            ElasticApmTracer tracer = benchmark.tracer;
+            transaction = tracer.startRootTransaction(null).withName("benchmark").activate();
+        }
+
+        @TearDown
+        public void tearDown() {
+            transaction.deactivate().end();
+        }
+    }
+
+    @Benchmark
+    public ResultSet executeQuery(TransactionState transactionState) throws SQLException {
+        preparedStatement.setInt(1, 42);
+        return preparedStatement.executeQuery();
+    }
+}
@@ -33,9 +33,11 @@ import org.openjdk.jmh.annotations.OutputTimeUnit;
 import org.openjdk.jmh.annotations.Scope;
 import org.openjdk.jmh.annotations.Setup;
 import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
 import org.openjdk.jmh.infra.Blackhole;
 import org.openjdk.jmh.runner.RunnerException;
 
+import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
 @State(Scope.Thread)
@@ -43,8 +45,12 @@ import java.util.concurrent.TimeUnit;
 @OutputTimeUnit(TimeUnit.NANOSECONDS)
 public class SignatureParserBenchmark extends AbstractBenchmark {
 
+    private static final int QUERY_MIX_SIZE = 4096;
+
     private SignatureParser signatureParser;
     private StringBuilder stringBuilder;
+    private String[] queryMix;
+    private int queryMixIndex;
 
     public static void main(String[] args) throws RunnerException {
         run(SignatureParserBenchmark.class);
@@ -54,6 +60,41 @@ public class SignatureParserBenchmark extends AbstractBenchmark {
     public void setUp() {
         stringBuilder = new StringBuilder();
         signatureParser = new SignatureParser();
+        queryMix = createQueryMix(new Random(42));
+    }
+
+    /**
+     * Creates a mix of prepared statements, statements with inline literals which only differ in their values
+     * and a few dynamically created statements which are never repeated.
+     */
+    private static String[] createQueryMix(Random random) {
+        String[] queries = new String[QUERY_MIX_SIZE];
+        for (int i = 0; i < queries.length; i++) {
+            int kind = random.nextInt(10);
+            if (kind < 4) {
+                queries[i] = "SELECT o.id, o.status, o.total FROM orders o JOIN customers c ON o.customer_id = c.id WHERE c.id = ? AND o.status = ?";
+            } else if (kind < 6) {
+                queries[i] = "SELECT p.id, p.name, p.price FROM products p WHERE p.category_id = " + random.nextInt(1000)
+                    + " AND p.name LIKE '%" + Integer.toHexString(random.nextInt()) + "%'";
+            } else if (kind < 8) {
+                StringBuilder inList = new StringBuilder();
+                for (int j = random.nextInt(20); j >= 0; j--) {
+                    inList.append(random.nextInt(100_000)).append(j > 0 ? ", " : "");
+                }
+                queries[i] = "SELECT i.id, i.order_id, i.quantity FROM order_items i WHERE i.order_id IN (" + inList + ")";
+            } else if (kind < 9) {
+                queries[i] = "UPDATE customers SET last_login = '2020-0" + (1 + random.nextInt(9)) + "-1" + random.nextInt(10) + "' WHERE id = " + random.nextInt(100_000);
+            } else {
+                // a dynamic table name which defeats caching
+                queries[i] = "SELECT COUNT(*) FROM audit_log_" + random.nextInt(100_000) + " WHERE created_at > CURRENT_TIMESTAMP - 1";
+            }
+        }
+        return queries;
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.println("Signature cache hit rate: " + SignatureParser.getCacheHitRate());
     }
 
     @Benchmark
@@ -70,6 +111,13 @@ public class SignatureParserBenchmark extends AbstractBenchmark {
         return stringBuilder;
     }
 
+    @Benchmark
+    public StringBuilder parseQueryMix() {
+        stringBuilder.setLength(0);
+        signatureParser.querySignature(queryMix[queryMixIndex++ & (QUERY_MIX_SIZE - 1)], stringBuilder, false);
+        return stringBuilder;
+    }
+
     @Benchmark
     public void consumeCpu() {
         // to get a feel for the jitter of this machine (most notable in higher percentiles)
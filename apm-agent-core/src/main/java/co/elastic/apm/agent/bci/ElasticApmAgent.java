@@ -437,6 +437,9 @@ public class ElasticApmAgent {
                             .or(named("java.lang.ProcessImpl"))
                             .or(named("java.lang.Process"))
                             .or(named("java.lang.UNIXProcess"))
+                            // virtual threads (JDK 21+)
+                            .or(named("java.lang.Thread"))
+                            .or(named("java.lang.ThreadBuilders$VirtualThreadBuilder"))
                     )
                 )
             )
@@ -24,7 +24,10 @@
  */
 package co.elastic.apm.agent.bci;
 
+import co.elastic.apm.agent.collections.WeakMapSupplier;
+import co.elastic.apm.agent.configuration.CoreConfiguration;
 import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.util.ExecutorUtils;
 import com.blogspot.mydailyjava.weaklockfree.WeakConcurrentMap;
 import net.bytebuddy.description.type.TypeDescription;
 import net.bytebuddy.dynamic.ClassFileLocator;
@@ -45,6 +48,8 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 
 /**
  * This class helps to overcome the fact that the agent classes can't access the classes they want to instrument.
@@ -84,6 +89,7 @@ public abstract class HelperClassManager<T> {
     protected final ElasticApmTracer tracer;
     protected final String implementation;
     protected final String[] additionalHelpers;
+    private final WeakConcurrentMap<ClassLoader, Boolean> preWarmedClassLoaders = WeakMapSupplier.createMap();
 
     protected HelperClassManager(ElasticApmTracer tracer, String implementation, String[] additionalHelpers) {
         this.tracer = tracer;
@@ -91,6 +97,52 @@ public abstract class HelperClassManager<T> {
         this.additionalHelpers = additionalHelpers;
     }
 
+    /**
+     * Loads the helper for the class loader of {@code classNameOfTargetClassLoader} on a background thread,
+     * so that the first advice invocation does not have to pay for the helper class loading.
+     * <p>
+     * This is meant to be called from {@link ElasticApmInstrumentation#onTypeMatch}.
+     * The class loader of the helper is determined the same way the advice does it:
+     * by resolving {@code classNameOfTargetClassLoader} (the class the advice passes to {@link #getForClassLoaderOfClass(Class)})
+     * through the class loader of the matched type.
+     * </p>
+     * <p>
+     * Pre-warming is best-effort.
+     * Failures are not cached, so that the helper is still loaded lazily on the first invocation,
+     * when the class path is guaranteed to be set up properly.
+     * </p>
+     *
+     * @param matchedClassLoader           the class loader of the type that matched an instrumentation
+     * @param classNameOfTargetClassLoader the name of a class loaded by the class loader we want to load the helper class from
+     */
+    public void preWarm(@Nullable final ClassLoader matchedClassLoader, final String classNameOfTargetClassLoader) {
+        if (matchedClassLoader == null || !isPreWarmingEnabled() || preWarmedClassLoaders.putIfAbsent(matchedClassLoader, Boolean.TRUE) != null) {
+            return;
+        }
+        try {
+            PreWarmer.executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        doPreWarm(Class.forName(classNameOfTargetClassLoader, false, matchedClassLoader));
+                    } catch (Throwable throwable) {
+                        logger.debug("Failed to pre-warm helper class {} for class loader {}, will retry lazily on first use",
+                            implementation, matchedClassLoader, throwable);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            // the helper is just going to be loaded lazily
+            preWarmedClassLoaders.remove(matchedClassLoader);
+        }
+    }
+
+    private boolean isPreWarmingEnabled() {
+        CoreConfiguration coreConfiguration = tracer.getConfig(CoreConfiguration.class);
+        // null when the tracer is a mock
+        return coreConfiguration != null && coreConfiguration.isHelperClassPreWarmingEnabled();
+    }
+
     @Nullable
     public T getForClassLoaderOfClass(Class<?> classOfTargetClassLoader) {
         T ret = null;
@@ -115,6 +167,15 @@ public abstract class HelperClassManager<T> {
     @Nullable
     protected abstract T doGetForClassLoaderOfClass(Class<?> classOfTargetClassLoader) throws Exception;
 
+    /**
+     * Eagerly loads the helper class for the class loader of the provided class, if not already loaded.
+     * As opposed to {@link #doGetForClassLoaderOfClass(Class)}, failures are not remembered.
+     *
+     * @param classOfTargetClassLoader a class loaded by the class loader we want to load the helper class from
+     * @throws Exception most likely related to a class loading error
+     */
+    abstract void doPreWarm(Class<?> classOfTargetClassLoader) throws Exception;
+
     /**
      * This helper class manager assumes that there is only one {@link ClassLoader} which loads the classes,
      * the helper class references.
@@ -186,6 +247,18 @@ public abstract class HelperClassManager<T> {
             }
             return localHelper;
         }
+
+        @Override
+        void doPreWarm(Class<?> classOfTargetClassLoader) {
+            if (failed || this.helperImplementation != null) {
+                return;
+            }
+            synchronized (this) {
+                if (this.helperImplementation == null) {
+                    this.helperImplementation = createHelper(classOfTargetClassLoader.getClassLoader(), tracer, implementation, additionalHelpers);
+                }
+            }
+        }
     }
 
     /**
@@ -226,15 +299,22 @@ public abstract class HelperClassManager<T> {
             final ClassLoader targetCl = classOfTargetClassLoader.getClassLoader();
             WeakReference<T> helperRef = clId2helperMap.get(targetCl);
             if (helperRef == null) {
-                return loadAndReferenceHelper(classOfTargetClassLoader);
+                return loadAndReferenceHelper(classOfTargetClassLoader, true);
             } else {
                 return helperRef.get();
             }
         }
 
+        @Override
+        void doPreWarm(Class<?> classOfTargetClassLoader) throws Exception {
+            if (clId2helperMap.get(classOfTargetClassLoader.getClassLoader()) == null) {
+                loadAndReferenceHelper(classOfTargetClassLoader, false);
+            }
+        }
+
         @SuppressWarnings("Java8CollectionRemoveIf")
         @Nullable
-        private synchronized T loadAndReferenceHelper(Class<?> classOfTargetClassLoader) throws Exception {
+        private synchronized T loadAndReferenceHelper(Class<?> classOfTargetClassLoader, boolean cacheFailure) throws Exception {
             T helper;
             ClassLoader targetCl = classOfTargetClassLoader.getClassLoader();
             WeakReference<T> helperRef = clId2helperMap.get(targetCl);
@@ -262,7 +342,9 @@ public abstract class HelperClassManager<T> {
                     helperImplList.add(helper);
                     clId2helperMap.put(targetCl, new WeakReference<>(helper));
                 } catch (Throwable throwable) {
-                    clId2helperMap.putIfAbsent(targetCl, new WeakReference<>((T) null));
+                    if (cacheFailure) {
+                        clId2helperMap.putIfAbsent(targetCl, new WeakReference<>((T) null));
+                    }
                     throw throwable;
                 }
             } else {
@@ -272,6 +354,13 @@ public abstract class HelperClassManager<T> {
         }
     }
 
+    /**
+     * Lazily creates the single pre-warming thread on the first call to {@link #preWarm(ClassLoader, String)}
+     */
+    private static class PreWarmer {
+        private static final ThreadPoolExecutor executor = ExecutorUtils.createSingleThreadDeamonPool("helper-class-pre-warmer", 1024);
+    }
+
     static Class injectClass(@Nullable ClassLoader targetClassLoader, @Nullable ProtectionDomain pd, String className, boolean isBootstrapClass) throws IOException, ClassNotFoundException {
         if (targetClassLoader == null) {
             if (isBootstrapClass) {
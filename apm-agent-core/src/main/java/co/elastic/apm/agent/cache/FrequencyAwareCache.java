@@ -0,0 +1,147 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.cache;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A bounded, concurrent cache with a frequency-aware eviction policy, loosely based on W-TinyLFU.
+ * <p>
+ * New entries are always admitted to a small admission window.
+ * When an entry is evicted from the window, it is only admitted to the main space if it has been
+ * {@linkplain FrequencySketch#frequency(Object) requested more often} than the least frequent of a few sampled entries of the main space.
+ * That protects the frequently used entries from being evicted by a burst of keys which are never repeated,
+ * while allowing the cache to adapt when the workload changes.
+ * </p>
+ * <p>
+ * Lookups are lock-free.
+ * Adding an entry requires a lock but if another thread holds the lock, the entry is just not added,
+ * so that threads never block on the cache.
+ * </p>
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public class FrequencyAwareCache<K, V> {
+
+    /**
+     * The number of entries of the main space which are considered as eviction victims
+     */
+    private static final int VICTIM_SAMPLE_SIZE = 4;
+
+    private final ConcurrentMap<K, V> entries;
+    private final FrequencySketch sketch;
+    private final ReentrantLock evictionLock = new ReentrantLock();
+    // the following fields are guarded by the evictionLock
+    private final Object[] window;
+    private int windowIndex;
+    private final Object[] main;
+    private int mainSize;
+    private int mainIndex;
+
+    public FrequencyAwareCache(int maximumSize) {
+        entries = new ConcurrentHashMap<K, V>(maximumSize * 2, 0.75f, Runtime.getRuntime().availableProcessors());
+        sketch = new FrequencySketch(maximumSize);
+        // like W-TinyLFU, the window takes 1% of the capacity
+        int windowSize = Math.max(1, maximumSize / 100);
+        window = new Object[windowSize];
+        main = new Object[Math.max(1, maximumSize - windowSize)];
+    }
+
+    /**
+     * Looks up the value and records the access, regardless of whether the key is cached.
+     */
+    @Nullable
+    public V get(K key) {
+        sketch.increment(key);
+        return entries.get(key);
+    }
+
+    /**
+     * Looks up the value and only records the access if the key is cached.
+     */
+    @Nullable
+    public V getIfPresent(K key) {
+        final V value = entries.get(key);
+        if (value != null) {
+            sketch.increment(key);
+        }
+        return value;
+    }
+
+    /**
+     * Adds an entry, unless the key is already cached or another thread is currently adding an entry.
+     */
+    public void put(K key, V value) {
+        if (!evictionLock.tryLock()) {
+            return;
+        }
+        try {
+            if (entries.containsKey(key)) {
+                return;
+            }
+            entries.put(key, value);
+            final Object evictedFromWindow = window[windowIndex];
+            window[windowIndex] = key;
+            windowIndex = (windowIndex + 1) % window.length;
+            if (evictedFromWindow != null) {
+                admitToMain(evictedFromWindow);
+            }
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private void admitToMain(Object candidate) {
+        if (mainSize < main.length) {
+            main[mainSize++] = candidate;
+            return;
+        }
+        int victimIndex = mainIndex;
+        int victimFrequency = Integer.MAX_VALUE;
+        for (int i = 0; i < VICTIM_SAMPLE_SIZE; i++) {
+            final int index = (mainIndex + i) % main.length;
+            final int frequency = sketch.frequency(main[index]);
+            if (frequency < victimFrequency) {
+                victimIndex = index;
+                victimFrequency = frequency;
+            }
+        }
+        mainIndex = (mainIndex + VICTIM_SAMPLE_SIZE) % main.length;
+        if (sketch.frequency(candidate) > victimFrequency) {
+            entries.remove(main[victimIndex]);
+            main[victimIndex] = candidate;
+        } else {
+            entries.remove(candidate);
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+}
@@ -27,11 +27,13 @@ package co.elastic.apm.agent.configuration;
 import co.elastic.apm.agent.bci.ElasticApmAgent;
 import co.elastic.apm.agent.bci.methodmatching.MethodMatcher;
 import co.elastic.apm.agent.bci.methodmatching.configuration.MethodMatcherValueConverter;
-import co.elastic.apm.agent.configuration.converter.ListValueConverter;
+import co.elastic.apm.agent.configuration.converter.ByteValue;
+import co.elastic.apm.agent.configuration.converter.ByteValueConverter;
 import co.elastic.apm.agent.configuration.converter.TimeDuration;
 import co.elastic.apm.agent.configuration.converter.TimeDurationValueConverter;
 import co.elastic.apm.agent.configuration.validation.RegexValidator;
 import co.elastic.apm.agent.impl.transaction.Span;
+import co.elastic.apm.agent.matcher.CompiledWildcardMatcherList;
 import co.elastic.apm.agent.matcher.WildcardMatcher;
 import co.elastic.apm.agent.matcher.WildcardMatcherValueConverter;
 import org.stagemonitor.configuration.ConfigurationOption;
@@ -165,6 +167,26 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
         .addValidator(isInRange(0d, 1d))
         .buildWithDefault(1.0);
 
+    private final ConfigurationOption<Integer> sampleTargetThroughput = ConfigurationOption.integerOption()
+        .key("transaction_sample_target_throughput")
+        .configurationCategory(CORE_CATEGORY)
+        .tags("added[1.18.0]", "performance")
+        .description("Instead of sampling a fixed percentage of transactions,\n" +
+            "adapts the sample rate so that roughly this number of transactions per second is sampled.\n" +
+            "The sample rate never exceeds <<config-transaction-sample-rate,`transaction_sample_rate`>>,\n" +
+            "so that the sample rate is lowered at peak traffic and raised up to `transaction_sample_rate` when the traffic decreases.\n" +
+            "\n" +
+            "The decision is made when a transaction starts, before its name is known.\n" +
+            "Therefore, the targeted throughput applies to all transactions of the service.\n" +
+            "\n" +
+            "The currently effective sample rate and the estimated throughput are reported as the metrics\n" +
+            "`agent.sampling.rate` and `agent.sampling.throughput`.\n" +
+            "\n" +
+            "Set to 0 to disable.")
+        .dynamic(true)
+        .addValidator(isInRange(0, Integer.MAX_VALUE))
+        .buildWithDefault(0);
+
     private final ConfigurationOption<Integer> transactionMaxSpans = ConfigurationOption.integerOption()
         .key("transaction_max_spans")
         .configurationCategory(CORE_CATEGORY)
@@ -177,7 +199,7 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
         .buildWithDefault(500);
 
     private final ConfigurationOption<List<WildcardMatcher>> sanitizeFieldNames = ConfigurationOption
-        .builder(new ListValueConverter<>(new WildcardMatcherValueConverter()), List.class)
+        .builder(WildcardMatcherValueConverter.LIST, List.class)
         .key("sanitize_field_names")
         .configurationCategory(CORE_CATEGORY)
         .description("Sometimes it is necessary to sanitize the data sent to Elastic APM,\n" +
@@ -205,7 +227,7 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
         )
         .dynamic(true)
         .tags("security")
-        .buildWithDefault(Arrays.asList(
+        .buildWithDefault(CompiledWildcardMatcherList.compile(Arrays.asList(
             WildcardMatcher.valueOf("password"),
             WildcardMatcher.valueOf("passwd"),
             WildcardMatcher.valueOf("pwd"),
@@ -219,7 +241,7 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
             WildcardMatcher.valueOf("authorization"),
             // HTTP response header which can contain session ids
             WildcardMatcher.valueOf("set-cookie")
-        ));
+        )));
 
     private final ConfigurationOption<Collection<String>> disabledInstrumentations = ConfigurationOption.stringsOption()
         .key("disable_instrumentations")
@@ -235,7 +257,7 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
         .buildWithDefault(Collections.<String>singleton("experimental"));
 
     private final ConfigurationOption<List<WildcardMatcher>> unnestExceptions = ConfigurationOption
-        .builder(new ListValueConverter<>(new WildcardMatcherValueConverter()), List.class)
+        .builder(WildcardMatcherValueConverter.LIST, List.class)
         .key("unnest_exceptions")
         .configurationCategory(CORE_CATEGORY)
         .description("When reporting exceptions,\n" +
@@ -248,7 +270,7 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
         .buildWithDefault(Collections.singletonList(WildcardMatcher.valueOf("(?-i)*Nested*Exception")));
 
     private final ConfigurationOption<List<WildcardMatcher>> ignoreExceptions = ConfigurationOption
-        .builder(new ListValueConverter<>(new WildcardMatcherValueConverter()), List.class)
+        .builder(WildcardMatcherValueConverter.LIST, List.class)
         .key("ignore_exceptions")
         .tags("added[1.11.0]")
         .configurationCategory(CORE_CATEGORY)
@@ -280,7 +302,8 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
             "\n" +
             "This option is case-insensitive.\n" +
             "\n" +
-            "NOTE: Currently, only UTF-8 encoded plain text HTTP content types are supported.\n" +
+            "NOTE: Currently, only plain text HTTP content types are supported.\n" +
+            "The body is decoded with the character encoding of the request, or with UTF-8 if the request does not declare one.\n" +
             "The option <<config-capture-body-content-types>> determines which content types are captured.\n" +
             "\n" +
             "WARNING: Request bodies often contain sensitive values like passwords, credit card numbers etc.\n" +
@@ -290,6 +313,20 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
         .dynamic(true)
         .buildWithDefault(EventType.OFF);
 
+    private final ConfigurationOption<ByteValue> captureBodyMemoryLimit = ByteValueConverter.byteOption()
+        .key("capture_body_memory_limit")
+        .configurationCategory(CORE_CATEGORY)
+        .tags("added[1.18.0]", "performance")
+        .description("The maximum amount of heap memory which may be occupied by the request bodies that are captured at the same time,\n" +
+            "see <<config-capture-body>>.\n" +
+            "Each captured body occupies a fixed size buffer until the transaction has been reported.\n" +
+            "When the limit is reached, the bodies of further requests are not captured and shown as [REDACTED]\n" +
+            "until the bodies of ongoing requests have been reported.\n" +
+            "\n" +
+            "Allowed byte units are `b`, `kb` and `mb`. `1kb` is equal to `1024b`.")
+        .dynamic(true)
+        .buildWithDefault(ByteValue.of("10mb"));
+
     private final ConfigurationOption<Boolean> captureHeaders = ConfigurationOption.booleanOption()
         .key("capture_headers")
         .configurationCategory(CORE_CATEGORY)
@@ -338,8 +375,17 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
             "is available somewhere in the classpath where it never gets loaded unless this matching is applied.")
         .buildWithDefault(true);
 
+    private final ConfigurationOption<Boolean> helperClassPreWarming = ConfigurationOption.booleanOption()
+        .key("enable_helper_class_pre_warming")
+        .configurationCategory(CORE_CATEGORY)
+        .tags("internal")
+        .description("When enabled, helper classes are loaded on a background thread as soon as a type matches an instrumentation,\n" +
+            "instead of on the first invocation of the instrumented method.\n" +
+            "This avoids that the first request through a newly instrumented library pays for the helper class loading.")
+        .buildWithDefault(true);
+
     private final ConfigurationOption<List<WildcardMatcher>> classesExcludedFromInstrumentation = ConfigurationOption
-        .builder(new ListValueConverter<>(new WildcardMatcherValueConverter()), List.class)
+        .builder(WildcardMatcherValueConverter.LIST, List.class)
         .key("classes_excluded_from_instrumentation")
         .configurationCategory(CORE_CATEGORY)
         .description("Use to exclude specific classes from being instrumented. In order to exclude entire packages, \n" +
@@ -350,7 +396,7 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
         .buildWithDefault(Collections.<WildcardMatcher>emptyList());
 
     private final ConfigurationOption<List<WildcardMatcher>> defaultClassesExcludedFromInstrumentation = ConfigurationOption
-        .builder(new ListValueConverter<>(new WildcardMatcherValueConverter()), List.class)
+        .builder(WildcardMatcherValueConverter.LIST, List.class)
         .key("classes_excluded_from_instrumentation_default")
         .configurationCategory(CORE_CATEGORY)
         .tags("internal")
@@ -358,7 +404,7 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
             "\n" +
             WildcardMatcher.DOCUMENTATION)
         .dynamic(false)
-        .buildWithDefault(Arrays.asList(
+        .buildWithDefault(CompiledWildcardMatcherList.compile(Arrays.asList(
             WildcardMatcher.valueOf("(?-i)org.infinispan*"),
             WildcardMatcher.valueOf("(?-i)org.apache.xerces*"),
             WildcardMatcher.valueOf("(?-i)org.jboss.as.*"),
@@ -366,10 +412,10 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
             WildcardMatcher.valueOf("(?-i)org.eclipse.jdt.ecj*"),
             WildcardMatcher.valueOf("(?-i)org.wildfly.extension.*"),
             WildcardMatcher.valueOf("(?-i)org.wildfly.security*")
-        ));
+        )));
 
     private final ConfigurationOption<List<WildcardMatcher>> methodsExcludedFromInstrumentation = ConfigurationOption
-        .builder(new ListValueConverter<>(new WildcardMatcherValueConverter()), List.class)
+        .builder(WildcardMatcherValueConverter.LIST, List.class)
         .key("methods_excluded_from_instrumentation")
         .configurationCategory(CORE_CATEGORY)
         .tags("internal")
@@ -572,6 +618,84 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
         .dynamic(true)
         .buildWithDefault(TimeDuration.of("0ms"));
 
+    private final ConfigurationOption<Boolean> tailSamplingEnabled = ConfigurationOption.booleanOption()
+        .key("tail_sampling_enabled")
+        .tags("added[1.18.0]", "experimental")
+        .configurationCategory(CORE_CATEGORY)
+        .description("When enabled, transactions which are not sampled according to <<config-transaction-sample-rate,`transaction_sample_rate`>>\n" +
+            "are recorded anyway and the decision whether to keep them is deferred until they end.\n" +
+            "Their spans are buffered in memory until then.\n" +
+            "\n" +
+            "Such transactions are kept, including their spans and context, if one of the following applies:\n" +
+            " - An error has been captured within the transaction.\n" +
+            " - The duration of the transaction is at least <<config-tail-sampling-duration-threshold,`tail_sampling_duration_threshold`>>.\n" +
+            " - The result of the transaction matches <<config-tail-sampling-results,`tail_sampling_results`>>.\n" +
+            "\n" +
+            "Otherwise, they are reported as non-sampled transactions.\n" +
+            "\n" +
+            "NOTE: The decision is local to this service.\n" +
+            "Downstream services are still called with the sampling decision of <<config-transaction-sample-rate,`transaction_sample_rate`>>.")
+        .dynamic(true)
+        .buildWithDefault(false);
+
+    private final ConfigurationOption<TimeDuration> tailSamplingDurationThreshold = TimeDurationValueConverter.durationOption("ms")
+        .key("tail_sampling_duration_threshold")
+        .tags("added[1.18.0]", "experimental")
+        .configurationCategory(CORE_CATEGORY)
+        .description("If <<config-tail-sampling-enabled,`tail_sampling_enabled`>> is set,\n" +
+            "transactions that take at least this long are kept, regardless of the head-based sampling decision.")
+        .dynamic(true)
+        .buildWithDefault(TimeDuration.of("1s"));
+
+    private final ConfigurationOption<List<WildcardMatcher>> tailSamplingResults = ConfigurationOption
+        .builder(WildcardMatcherValueConverter.LIST, List.class)
+        .key("tail_sampling_results")
+        .tags("added[1.18.0]", "experimental")
+        .configurationCategory(CORE_CATEGORY)
+        .description("If <<config-tail-sampling-enabled,`tail_sampling_enabled`>> is set,\n" +
+            "transactions whose result matches one of these patterns are kept, regardless of the head-based sampling decision.\n" +
+            "\n" +
+            WildcardMatcher.DOCUMENTATION)
+        .dynamic(true)
+        .buildWithDefault(Collections.singletonList(WildcardMatcher.valueOf("HTTP 5xx")));
+
+    private final ConfigurationOption<Integer> tailSamplingMaxBufferedSpans = ConfigurationOption.integerOption()
+        .key("tail_sampling_max_buffered_spans")
+        .tags("added[1.18.0]", "experimental")
+        .configurationCategory(CORE_CATEGORY)
+        .description("If <<config-tail-sampling-enabled,`tail_sampling_enabled`>> is set,\n" +
+            "limits the amount of spans that are buffered across all transactions which await their tail-based sampling decision.\n" +
+            "\n" +
+            "When the limit is reached, the transaction which tries to buffer a span falls back to the head-based sampling decision.")
+        .dynamic(true)
+        .buildWithDefault(1000);
+
+    private final ConfigurationOption<Boolean> spanCompressionEnabled = ConfigurationOption.booleanOption()
+        .key("span_compression_enabled")
+        .tags("added[1.18.0]", "experimental")
+        .configurationCategory(CORE_CATEGORY)
+        .description("When enabled, consecutive sibling exit spans, such as the queries of an N+1 loop, are compressed into a single composite span\n" +
+            "if they have the same type, subtype, name and destination.\n" +
+            "The composite span records how many spans it represents and their total duration.\n" +
+            "\n" +
+            "Spans that propagate the trace context to downstream services or that lead to an error are never compressed.\n" +
+            "To make them eligible for compression, JDBC spans are recorded as exit spans while this option is enabled.\n" +
+            "As a consequence, spans the JDBC driver creates for its own remote calls, such as HTTP requests, are not recorded.\n" +
+            "\n" +
+            "NOTE: The APM Server and Kibana versions in use need to support composite spans to display them as such.")
+        .dynamic(true)
+        .buildWithDefault(false);
+
+    private final ConfigurationOption<TimeDuration> spanCompressionExactMatchMaxDuration = TimeDurationValueConverter.durationOption("ms")
+        .key("span_compression_exact_match_max_duration")
+        .tags("added[1.18.0]", "experimental")
+        .configurationCategory(CORE_CATEGORY)
+        .description("If <<config-span-compression-enabled,`span_compression_enabled`>> is set,\n" +
+            "only spans that are faster than this threshold are compressed.\n" +
+            "Slower spans are always reported individually.")
+        .dynamic(true)
+        .buildWithDefault(TimeDuration.of("50ms"));
+
     public boolean isInstrument() {
         return instrument.get();
     }
@@ -617,6 +741,10 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
         return sampleRate;
     }
 
+    public ConfigurationOption<Integer> getSampleTargetThroughput() {
+        return sampleTargetThroughput;
+    }
+
     public int getTransactionMaxSpans() {
         return transactionMaxSpans.get();
     }
@@ -641,6 +769,10 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
         return captureBody.get();
     }
 
+    public long getCaptureBodyMemoryLimit() {
+        return captureBodyMemoryLimit.get().getBytes();
+    }
+
     public boolean isCaptureHeaders() {
         return captureHeaders.get();
     }
@@ -657,6 +789,10 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
         return classLoadingMatchingPreFilter.get();
     }
 
+    public boolean isHelperClassPreWarmingEnabled() {
+        return helperClassPreWarming.get();
+    }
+
     public List<WildcardMatcher> getClassesExcludedFromInstrumentation() {
         return classesExcludedFromInstrumentation.get();
     }
@@ -716,6 +852,30 @@ public class CoreConfiguration extends ConfigurationOptionProvider {
         return spanMinDuration.get();
     }
 
+    public boolean isTailSamplingEnabled() {
+        return tailSamplingEnabled.get();
+    }
+
+    public TimeDuration getTailSamplingDurationThreshold() {
+        return tailSamplingDurationThreshold.get();
+    }
+
+    public List<WildcardMatcher> getTailSamplingResults() {
+        return tailSamplingResults.get();
+    }
+
+    public int getTailSamplingMaxBufferedSpans() {
+        return tailSamplingMaxBufferedSpans.get();
+    }
+
+    public boolean isSpanCompressionEnabled() {
+        return spanCompressionEnabled.get();
+    }
+
+    public TimeDuration getSpanCompressionExactMatchMaxDuration() {
+        return spanCompressionExactMatchMaxDuration.get();
+    }
+
     /*
      * Makes sure to not initialize ConfigurationOption, which would initialize the logger
      */
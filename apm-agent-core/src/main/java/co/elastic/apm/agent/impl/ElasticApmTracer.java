@@ -29,8 +29,10 @@ import co.elastic.apm.agent.configuration.CoreConfiguration;
 import co.elastic.apm.agent.configuration.ServiceNameUtil;
 import co.elastic.apm.agent.context.LifecycleListener;
 import co.elastic.apm.agent.impl.error.ErrorCapture;
+import co.elastic.apm.agent.impl.sampling.AdaptiveSampler;
 import co.elastic.apm.agent.impl.sampling.ProbabilitySampler;
 import co.elastic.apm.agent.impl.sampling.Sampler;
+import co.elastic.apm.agent.impl.sampling.TailSampler;
 import co.elastic.apm.agent.impl.stacktrace.StacktraceConfiguration;
 import co.elastic.apm.agent.impl.transaction.AbstractSpan;
 import co.elastic.apm.agent.impl.transaction.BinaryHeaderGetter;
@@ -40,6 +42,8 @@ import co.elastic.apm.agent.impl.transaction.TextHeaderGetter;
 import co.elastic.apm.agent.impl.transaction.TraceContext;
 import co.elastic.apm.agent.impl.transaction.Transaction;
 import co.elastic.apm.agent.matcher.WildcardMatcher;
+import co.elastic.apm.agent.metrics.DoubleSupplier;
+import co.elastic.apm.agent.metrics.Labels;
 import co.elastic.apm.agent.metrics.MetricRegistry;
 import co.elastic.apm.agent.objectpool.ObjectPool;
 import co.elastic.apm.agent.objectpool.ObjectPoolFactory;
@@ -86,17 +90,15 @@ public class ElasticApmTracer {
     // Maintains a stack of all the activated spans
     // This way its easy to retrieve the bottom of the stack (the transaction)
     // Also, the caller does not have to keep a reference to the previously active span, as that is maintained by the stack
-    private final ThreadLocal<Deque<AbstractSpan<?>>> activeStack = new ThreadLocal<Deque<AbstractSpan<?>>>() {
-        @Override
-        protected Deque<AbstractSpan<?>> initialValue() {
-            return new ArrayDeque<AbstractSpan<?>>();
-        }
-    };
+    // The stack is only allocated when a span is activated on a thread for the first time,
+    // so that threads which merely check for an active span, like most short-lived virtual threads, don't allocate a stack
+    private final ThreadLocal<Deque<AbstractSpan<?>>> activeStack = new ThreadLocal<Deque<AbstractSpan<?>>>();
 
     private final CoreConfiguration coreConfiguration;
     private final List<ActivationListener> activationListeners;
     private final MetricRegistry metricRegistry;
-    private Sampler sampler;
+    private volatile Sampler sampler;
+    private final TailSampler tailSampler;
     boolean assertionsEnabled = false;
 
     /**
@@ -136,13 +138,21 @@ public class ElasticApmTracer {
         // we are assuming that we don't need as many errors as spans or transactions
         errorPool = poolFactory.createErrorPool(maxPooledElements / 2, this);
 
-        sampler = ProbabilitySampler.of(coreConfiguration.getSampleRate().get());
+        sampler = createSampler();
         coreConfiguration.getSampleRate().addChangeListener(new ConfigurationOption.ChangeListener<Double>() {
             @Override
             public void onChange(ConfigurationOption<?> configurationOption, Double oldValue, Double newValue) {
-                sampler = ProbabilitySampler.of(newValue);
+                sampler = createSampler();
+            }
+        });
+        coreConfiguration.getSampleTargetThroughput().addChangeListener(new ConfigurationOption.ChangeListener<Integer>() {
+            @Override
+            public void onChange(ConfigurationOption<?> configurationOption, Integer oldValue, Integer newValue) {
+                sampler = createSampler();
             }
         });
+        registerSamplingMetrics();
+        tailSampler = new TailSampler(coreConfiguration);
         this.activationListeners = DependencyInjectingServiceLoader.load(ActivationListener.class, this);
         reporter.scheduleMetricReporting(metricRegistry, configurationRegistry.getConfig(ReporterConfiguration.class).getMetricsIntervalMs(), this);
 
@@ -151,6 +161,39 @@ public class ElasticApmTracer {
         assert assertionsEnabled = true;
     }
 
+    private Sampler createSampler() {
+        double sampleRate = coreConfiguration.getSampleRate().get();
+        int targetThroughput = coreConfiguration.getSampleTargetThroughput().get();
+        if (targetThroughput > 0 && sampleRate > 0) {
+            return new AdaptiveSampler(targetThroughput, sampleRate);
+        }
+        return ProbabilitySampler.of(sampleRate);
+    }
+
+    /**
+     * The gauges are only reported while an {@link AdaptiveSampler} is in effect, as NaN values are not reported
+     */
+    private void registerSamplingMetrics() {
+        metricRegistry.add("agent.sampling.rate", Labels.EMPTY, new DoubleSupplier() {
+            @Override
+            public double get() {
+                Sampler sampler = ElasticApmTracer.this.sampler;
+                return sampler instanceof AdaptiveSampler ? ((AdaptiveSampler) sampler).getSamplingRate() : Double.NaN;
+            }
+        });
+        metricRegistry.add("agent.sampling.throughput", Labels.EMPTY, new DoubleSupplier() {
+            @Override
+            public double get() {
+                Sampler sampler = ElasticApmTracer.this.sampler;
+                if (sampler instanceof AdaptiveSampler) {
+                    double throughput = ((AdaptiveSampler) sampler).getEstimatedThroughput();
+                    return throughput >= 0 ? throughput : Double.NaN;
+                }
+                return Double.NaN;
+            }
+        });
+    }
+
     /**
      * Starts a trace-root transaction
      *
@@ -296,7 +339,8 @@ public class ElasticApmTracer {
 
     @Nullable
     public Transaction currentTransaction() {
-        final AbstractSpan<?> bottomOfStack = activeStack.get().peekLast();
+        final Deque<AbstractSpan<?>> stack = activeStack.get();
+        final AbstractSpan<?> bottomOfStack = stack != null ? stack.peekLast() : null;
         return bottomOfStack != null ? bottomOfStack.getTransaction() : null;
     }
 
@@ -381,6 +425,10 @@ public class ElasticApmTracer {
                 error.asChildOf(parent);
                 // don't discard spans leading up to an error, otherwise they'd point to an invalid parent
                 parent.setNonDiscardable();
+                Transaction transaction = parent.getTransaction();
+                if (transaction != null) {
+                    transaction.onErrorCaptured();
+                }
             } else {
                 error.getTraceContext().getId().setToRandomValue();
                 error.getTraceContext().setServiceName(getServiceName(initiatingClassLoader));
@@ -432,10 +480,73 @@ public class ElasticApmTracer {
             span.decrementReferences();
             return;
         }
-        reportSpan(span);
+        Transaction transaction = span.getTransaction();
+        boolean tailSamplingCandidate = transaction != null && span.getTraceContext().isTailSamplingCandidate();
+        if (tailSamplingCandidate) {
+            // the span may still be reported, so its parents must not be discarded in the meantime
+            span.setNonDiscardable();
+        }
+        // the stack trace has to be captured while the span ends,
+        // as it may be reported later if it's buffered for tail-based sampling or for compression
+        captureStackTrace(span);
+        if (tailSamplingCandidate) {
+            if (transaction.bufferForTailSampling(span)) {
+                return;
+            }
+            if (!transaction.isSampled()) {
+                logger.debug("Dropping span as its transaction has not been kept by tail-based sampling {}", span);
+                transaction.getSpanCount().getDropped().incrementAndGet();
+                span.decrementReferences();
+                return;
+            }
+        }
+        reportOrCompress(span);
+    }
+
+    private void captureStackTrace(Span span) {
+        long spanFramesMinDurationMs = stacktraceConfiguration.getSpanFramesMinDurationMs();
+        if (spanFramesMinDurationMs != 0 && span.getStackFrames() == null && span.getStacktrace() == null
+            && span.getDurationMs() >= spanFramesMinDurationMs
+            // the stack trace would prevent the span from being compressed
+            && !isCompressionEligible(span)) {
+            span.withStacktrace(new Throwable());
+        }
+    }
+
+    private boolean isCompressionEligible(Span span) {
+        return span.getParent() != null
+            && coreConfiguration.isSpanCompressionEnabled()
+            && span.isCompressionEligible(coreConfiguration.getSpanCompressionExactMatchMaxDuration().getMillis() * 1000);
+    }
+
+    private void reportOrCompress(Span span) {
+        AbstractSpan<?> parent = span.getParent();
+        if (parent == null || !coreConfiguration.isSpanCompressionEnabled()) {
+            reportSpan(span);
+            return;
+        }
+        if (isCompressionEligible(span)) {
+            Span toReport = parent.compressOrBuffer(span);
+            if (toReport != null) {
+                reportSpan(toReport);
+            }
+        } else {
+            // only consecutive siblings are compressed
+            Span buffered = parent.takeBufferedSpan();
+            if (buffered != null) {
+                reportSpan(buffered);
+            }
+            reportSpan(span);
+        }
     }
 
-    private void reportSpan(Span span) {
+    /**
+     * Reports a span which has already been ended via {@link #endSpan(Span)},
+     * for example a span that has been buffered for compression.
+     *
+     * @param span the span to report
+     */
+    public void reportSpan(Span span) {
         AbstractSpan<?> parent = span.getParent();
         if (parent != null && parent.isDiscarded()) {
             logger.warn("Reporting a child of an discarded span. The current span '{}' will not be shown in the UI. Consider deactivating span_min_duration.", span);
@@ -446,12 +557,6 @@ public class ElasticApmTracer {
         }
         // makes sure that parents are also non-discardable
         span.setNonDiscardable();
-        long spanFramesMinDurationMs = stacktraceConfiguration.getSpanFramesMinDurationMs();
-        if (spanFramesMinDurationMs != 0 && span.isSampled() && span.getStackFrames() == null) {
-            if (span.getDurationMs() >= spanFramesMinDurationMs) {
-                span.withStacktrace(new Throwable());
-            }
-        }
         reporter.report(span);
     }
 
@@ -502,13 +607,18 @@ public class ElasticApmTracer {
         return sampler;
     }
 
+    public TailSampler getTailSampler() {
+        return tailSampler;
+    }
+
     public ObjectPoolFactory getObjectPoolFactory() {
         return objectPoolFactory;
     }
 
     @Nullable
     public AbstractSpan<?> getActive() {
-        return activeStack.get().peek();
+        final Deque<AbstractSpan<?>> stack = activeStack.get();
+        return stack != null ? stack.peek() : null;
     }
 
     public void registerSpanListener(ActivationListener activationListener) {
@@ -679,7 +789,13 @@ public class ElasticApmTracer {
                 logger.warn("Exception while calling {}#beforeActivate", activationListeners.get(i).getClass().getSimpleName(), t);
             }
         }
-        activeStack.get().push(span);
+        Deque<AbstractSpan<?>> stack = activeStack.get();
+        if (stack == null) {
+            // usually, a thread only activates a transaction and a few nested spans at once
+            stack = new ArrayDeque<AbstractSpan<?>>(4);
+            activeStack.set(stack);
+        }
+        stack.push(span);
     }
 
     public void deactivate(AbstractSpan<?> span) {
@@ -688,7 +804,7 @@ public class ElasticApmTracer {
         }
         try {
             final Deque<AbstractSpan<?>> stack = activeStack.get();
-            assertIsActive(span, stack.poll());
+            assertIsActive(span, stack != null ? stack.poll() : null);
             List<ActivationListener> activationListeners = getActivationListeners();
             for (int i = 0, size = activationListeners.size(); i < size; i++) {
                 try {
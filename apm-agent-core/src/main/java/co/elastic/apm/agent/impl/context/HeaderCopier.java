@@ -0,0 +1,40 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.impl.context;
+
+/**
+ * Copies the headers of a request or response, like a {@code HttpServletRequest}, into the context.
+ * <p>
+ * Used to defer copying the headers until it's known that they are actually reported,
+ * see {@link Request#withLazyHeaders(Object, HeaderCopier)} and {@link Response#withLazyHeaders(Object, HeaderCopier)}.
+ * </p>
+ *
+ * @param <C> the type of the header source
+ * @param <T> the type of the context the headers are copied into, {@link Request} or {@link Response}
+ */
+public interface HeaderCopier<C, T> {
+
+    void copyHeaders(C source, T target);
+}
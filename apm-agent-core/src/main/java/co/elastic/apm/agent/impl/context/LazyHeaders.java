@@ -0,0 +1,73 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.impl.context;
+
+import co.elastic.apm.agent.objectpool.Recyclable;
+
+import javax.annotation.Nullable;
+
+/**
+ * Holds a reference to the source of headers until they are copied into the context, or until the context is recycled.
+ *
+ * @param <T> the type of the context the headers are copied into
+ */
+class LazyHeaders<T> implements Recyclable {
+
+    @Nullable
+    private Object source;
+    @Nullable
+    private HeaderCopier<Object, T> copier;
+
+    @SuppressWarnings("unchecked")
+    <C> void set(C source, HeaderCopier<C, T> copier) {
+        this.source = source;
+        this.copier = (HeaderCopier<Object, T>) copier;
+    }
+
+    /**
+     * Copies the headers into the provided target and releases the reference to the source
+     */
+    void materialize(T target) {
+        copyTo(target);
+        resetState();
+    }
+
+    /**
+     * Copies the headers into the provided target, without releasing the reference to the source
+     */
+    void copyTo(T target) {
+        final Object source = this.source;
+        final HeaderCopier<Object, T> copier = this.copier;
+        if (source != null && copier != null) {
+            copier.copyHeaders(source, target);
+        }
+    }
+
+    @Override
+    public void resetState() {
+        source = null;
+        copier = null;
+    }
+}
@@ -37,6 +37,7 @@ import javax.annotation.Nullable;
 import java.nio.Buffer;
 import java.nio.CharBuffer;
 import java.util.Enumeration;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static co.elastic.apm.agent.impl.context.AbstractContext.REDACTED_CONTEXT_STRING;
 
@@ -63,6 +64,16 @@ public class Request implements Recyclable {
             }
         });
 
+    /**
+     * The heap memory occupied by a body buffer, as each char takes two bytes
+     */
+    private static final long BODY_BUFFER_BYTES = DslJsonSerializer.MAX_LONG_STRING_VALUE_LENGTH * 2L;
+
+    /**
+     * The heap memory occupied by the body buffers of all requests which have not been recycled yet
+     */
+    private static final AtomicLong bodyBufferBytesInFlight = new AtomicLong();
+
     private final PotentiallyMultiValuedMap postParams = new PotentiallyMultiValuedMap();
     /**
      * Should include any headers sent by the requester. Map<String, String> </String,>will be taken by headers if supplied.
@@ -78,6 +89,7 @@ public class Request implements Recyclable {
      * A parsed key-value object of cookies
      */
     private final PotentiallyMultiValuedMap cookies = new PotentiallyMultiValuedMap();
+    private final LazyHeaders<Request> lazyHeaders = new LazyHeaders<>();
     /**
      * Data should only contain the request body (not the query string). It can either be a dictionary (for standard HTTP requests) or a raw request body.
      */
@@ -124,10 +136,7 @@ public class Request implements Recyclable {
      */
     public void setRawBody(String rawBody) {
         postParams.resetState();
-        if (bodyBuffer != null) {
-            charBufferPool.recycle(bodyBuffer);
-            bodyBuffer = null;
-        }
+        releaseBodyBuffer();
         this.rawBody = rawBody;
     }
 
@@ -158,11 +167,43 @@ public class Request implements Recyclable {
      */
     public CharBuffer withBodyBuffer() {
         if (this.bodyBuffer == null) {
+            bodyBufferBytesInFlight.addAndGet(BODY_BUFFER_BYTES);
             this.bodyBuffer = charBufferPool.createInstance();
         }
         return this.bodyBuffer;
     }
 
+    /**
+     * Same as {@link #withBodyBuffer()}, except that it does not associate a buffer with this instance if that would mean
+     * that the body buffers of all requests which have not been recycled yet occupy more than the provided amount of memory.
+     *
+     * @param maxBytesInFlight the maximum amount of memory the body buffers of all requests may occupy
+     * @return a {@link CharBuffer} to record the request body, or {@code null} if the memory limit has been reached
+     */
+    @Nullable
+    public CharBuffer withBodyBuffer(long maxBytesInFlight) {
+        if (this.bodyBuffer == null) {
+            if (bodyBufferBytesInFlight.addAndGet(BODY_BUFFER_BYTES) > maxBytesInFlight) {
+                bodyBufferBytesInFlight.addAndGet(-BODY_BUFFER_BYTES);
+                return null;
+            }
+            this.bodyBuffer = charBufferPool.createInstance();
+        }
+        return this.bodyBuffer;
+    }
+
+    private void releaseBodyBuffer() {
+        if (bodyBuffer != null) {
+            charBufferPool.recycle(bodyBuffer);
+            bodyBuffer = null;
+            bodyBufferBytesInFlight.addAndGet(-BODY_BUFFER_BYTES);
+        }
+    }
+
+    static long getBodyBufferBytesInFlight() {
+        return bodyBufferBytesInFlight.get();
+    }
+
     public void endOfBufferInput() {
         if (bodyBuffer != null && !bodyBufferFinished) {
             bodyBufferFinished = true;
@@ -219,6 +260,30 @@ public class Request implements Recyclable {
         return this;
     }
 
+    /**
+     * Defers copying the headers and cookies of the provided source into this object until {@link #materializeHeaders()} is called.
+     * <p>
+     * This object only references the source until then, or until it is recycled.
+     * Therefore, the headers have to be materialized while the source is still valid.
+     * </p>
+     *
+     * @param source the source of the headers and cookies, for example a {@code HttpServletRequest}
+     * @param copier copies the headers and cookies of the source into this object
+     * @param <C>    the type of the source
+     * @return {@code this}, for fluent method chaining
+     */
+    public <C> Request withLazyHeaders(C source, HeaderCopier<C, Request> copier) {
+        lazyHeaders.set(source, copier);
+        return this;
+    }
+
+    /**
+     * Copies the headers and cookies which have been registered via {@link #withLazyHeaders(Object, HeaderCopier)}, if any.
+     */
+    public void materializeHeaders() {
+        lazyHeaders.materialize(this);
+    }
+
     /**
      * Should include any headers sent by the requester.
      */
@@ -291,11 +356,9 @@ public class Request implements Recyclable {
         socket.resetState();
         url.resetState();
         cookies.resetState();
+        lazyHeaders.resetState();
         bodyBufferFinished = false;
-        if (bodyBuffer != null) {
-            charBufferPool.recycle(bodyBuffer);
-            bodyBuffer = null;
-        }
+        releaseBodyBuffer();
         rawBody = null;
     }
 
@@ -307,6 +370,9 @@ public class Request implements Recyclable {
         this.socket.copyFrom(other.socket);
         this.url.copyFrom(other.url);
         this.cookies.copyFrom(other.cookies);
+        // copying from the source directly, instead of materializing the headers of the other request,
+        // doesn't modify the other request which might concurrently be accessed by another thread
+        other.lazyHeaders.copyTo(this);
         if (other.bodyBuffer != null) {
             final CharBuffer otherBuffer = other.bodyBuffer;
             final CharBuffer thisBuffer = this.withBodyBuffer();
@@ -29,13 +29,17 @@ import co.elastic.apm.agent.util.PotentiallyMultiValuedMap;
 
 import javax.annotation.Nullable;
 import java.util.Collection;
+import java.util.concurrent.TimeUnit;
 
 public class Response implements Recyclable {
 
+    private static final double MS_IN_MICROS = TimeUnit.MILLISECONDS.toMicros(1);
+
     /**
      * A mapping of HTTP headers of the response object
      */
     private final PotentiallyMultiValuedMap headers = new PotentiallyMultiValuedMap();
+    private final LazyHeaders<Response> lazyHeaders = new LazyHeaders<>();
     /**
      * A boolean indicating whether the response was finished or not
      */
@@ -45,6 +49,16 @@ public class Response implements Recyclable {
      * The HTTP status code of the response.
      */
     private int statusCode;
+    /**
+     * The number of bytes of the response body which have been written by the application,
+     * or {@code -1} if the size of the response body is not tracked
+     */
+    private long encodedBodySize = -1;
+    /**
+     * The time in microseconds from the start of the transaction until the application has written the first byte of the response body,
+     * or {@code -1} if nothing has been written yet
+     */
+    private long timeToFirstByteUs = -1;
 
     /**
      * A boolean indicating whether the response was finished or not
@@ -82,6 +96,30 @@ public class Response implements Recyclable {
         return this;
     }
 
+    /**
+     * Defers copying the headers of the provided source into this object until {@link #materializeHeaders()} is called.
+     * <p>
+     * This object only references the source until then, or until it is recycled.
+     * Therefore, the headers have to be materialized while the source is still valid.
+     * </p>
+     *
+     * @param source the source of the headers, for example a {@code HttpServletResponse}
+     * @param copier copies the headers of the source into this object
+     * @param <C>    the type of the source
+     * @return {@code this}, for fluent method chaining
+     */
+    public <C> Response withLazyHeaders(C source, HeaderCopier<C, Response> copier) {
+        lazyHeaders.set(source, copier);
+        return this;
+    }
+
+    /**
+     * Copies the headers which have been registered via {@link #withLazyHeaders(Object, HeaderCopier)}, if any.
+     */
+    public void materializeHeaders() {
+        lazyHeaders.materialize(this);
+    }
+
     /**
      * A mapping of HTTP headers of the response object
      */
@@ -114,19 +152,57 @@ public class Response implements Recyclable {
         return this;
     }
 
+    /**
+     * The number of bytes of the response body which have been written by the application,
+     * or {@code -1} if the size of the response body is not tracked
+     */
+    public long getEncodedBodySize() {
+        return encodedBodySize;
+    }
+
+    public Response withEncodedBodySize(long encodedBodySize) {
+        this.encodedBodySize = encodedBodySize;
+        return this;
+    }
+
+    /**
+     * The time in microseconds from the start of the transaction until the application has written the first byte of the response body,
+     * or {@code -1} if nothing has been written yet
+     */
+    public long getTimeToFirstByteUs() {
+        return timeToFirstByteUs;
+    }
+
+    public double getTimeToFirstByteMs() {
+        return timeToFirstByteUs / MS_IN_MICROS;
+    }
+
+    public Response withTimeToFirstByteUs(long timeToFirstByteUs) {
+        this.timeToFirstByteUs = timeToFirstByteUs;
+        return this;
+    }
+
     @Override
     public void resetState() {
         finished = false;
         headers.resetState();
+        lazyHeaders.resetState();
         headersSent = false;
         statusCode = 0;
+        encodedBodySize = -1;
+        timeToFirstByteUs = -1;
     }
 
     public void copyFrom(Response other) {
         this.finished = other.finished;
         this.headers.copyFrom(other.headers);
+        // copying from the source directly, instead of materializing the headers of the other response,
+        // doesn't modify the other response which might concurrently be accessed by another thread
+        other.lazyHeaders.copyTo(this);
         this.headersSent = other.headersSent;
         this.statusCode = other.statusCode;
+        this.encodedBodySize = other.encodedBodySize;
+        this.timeToFirstByteUs = other.timeToFirstByteUs;
     }
 
     public boolean hasContent() {
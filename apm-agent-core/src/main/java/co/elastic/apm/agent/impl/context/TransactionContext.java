@@ -123,4 +123,15 @@ public class TransactionContext extends AbstractContext {
         request.onTransactionEnd();
     }
 
+    /**
+     * Copies the headers of the request and the response which have been registered to be copied lazily.
+     *
+     * @see Request#withLazyHeaders(Object, HeaderCopier)
+     * @see Response#withLazyHeaders(Object, HeaderCopier)
+     */
+    public void materializeHeaders() {
+        request.materializeHeaders();
+        response.materializeHeaders();
+    }
+
 }
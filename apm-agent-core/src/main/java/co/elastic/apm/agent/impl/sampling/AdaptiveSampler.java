@@ -0,0 +1,129 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.impl.sampling;
+
+import co.elastic.apm.agent.impl.transaction.Id;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This implementation of {@link Sampler} adapts the sampling rate so that roughly a configured number of transactions per second are
+ * {@linkplain Sampler sampled}, regardless of how much traffic the service currently receives.
+ * <p>
+ * Implementation notes:
+ * </p>
+ * Every call to {@link #isSampled(Id)} increments a counter.
+ * The first thread that observes that the current window of one second has elapsed
+ * updates an exponentially weighted moving average of the throughput
+ * and derives the sampling rate which is needed to sample the targeted throughput.
+ * The rate never exceeds the configured maximum sampling rate.
+ * <p>
+ * The decision itself works the same way as in {@link ProbabilitySampler}.
+ * That means that for a given rate, the decision is deterministic for a given trace id.
+ * </p>
+ * <p>
+ * No locks are involved, the state is only updated via CAS operations and volatile writes.
+ * </p>
+ */
+public class AdaptiveSampler implements Sampler {
+
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    /**
+     * The weight of the most recent window when updating the estimated throughput
+     */
+    private static final double SMOOTHING_FACTOR = 0.5;
+
+    private final double targetThroughput;
+    private final double maxSamplingRate;
+    private final AtomicLong windowStart;
+    private final AtomicLong windowCount = new AtomicLong();
+    private volatile double estimatedThroughput = -1;
+    private volatile double samplingRate;
+    private volatile long higherBound;
+
+    public AdaptiveSampler(double targetThroughput, double maxSamplingRate) {
+        this(targetThroughput, maxSamplingRate, System.nanoTime());
+    }
+
+    AdaptiveSampler(double targetThroughput, double maxSamplingRate, long nanoTime) {
+        this.targetThroughput = targetThroughput;
+        this.maxSamplingRate = maxSamplingRate;
+        this.windowStart = new AtomicLong(nanoTime);
+        setSamplingRate(maxSamplingRate);
+    }
+
+    @Override
+    public boolean isSampled(Id traceId) {
+        return isSampled(traceId, System.nanoTime());
+    }
+
+    boolean isSampled(Id traceId, long nanoTime) {
+        final long start = windowStart.get();
+        final long elapsed = nanoTime - start;
+        if (elapsed >= WINDOW_NANOS && windowStart.compareAndSet(start, nanoTime)) {
+            // only the thread that has won the race to start the next window adjusts the rate
+            adjustSamplingRate(windowCount.getAndSet(0), elapsed);
+        }
+        windowCount.incrementAndGet();
+        final long leastSignificantBits = traceId.getLeastSignificantBits();
+        final long bound = higherBound;
+        return leastSignificantBits > -bound && leastSignificantBits < bound;
+    }
+
+    private void adjustSamplingRate(long count, long elapsedNanos) {
+        double throughput = count * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+        double previousEstimate = estimatedThroughput;
+        if (previousEstimate >= 0) {
+            throughput = SMOOTHING_FACTOR * throughput + (1 - SMOOTHING_FACTOR) * previousEstimate;
+        }
+        estimatedThroughput = throughput;
+        if (throughput <= targetThroughput) {
+            setSamplingRate(maxSamplingRate);
+        } else {
+            setSamplingRate(Math.min(maxSamplingRate, targetThroughput / throughput));
+        }
+    }
+
+    private void setSamplingRate(double samplingRate) {
+        this.higherBound = (long) (Long.MAX_VALUE * samplingRate);
+        this.samplingRate = samplingRate;
+    }
+
+    /**
+     * @return the sampling rate which is currently in effect
+     */
+    public double getSamplingRate() {
+        return samplingRate;
+    }
+
+    /**
+     * @return the estimated number of calls to {@link #isSampled(Id)} per second,
+     * or a negative number if there is no estimation yet
+     */
+    public double getEstimatedThroughput() {
+        return estimatedThroughput;
+    }
+}
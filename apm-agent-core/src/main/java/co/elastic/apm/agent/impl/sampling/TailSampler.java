@@ -0,0 +1,104 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.impl.sampling;
+
+import co.elastic.apm.agent.configuration.CoreConfiguration;
+import co.elastic.apm.agent.matcher.WildcardMatcher;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides whether to keep a transaction at the end of the transaction,
+ * as opposed to a {@link Sampler} which decides at the start of the trace.
+ * <p>
+ * Only transactions that are not sampled by the head-based {@link Sampler} are candidates for tail-based sampling.
+ * Until the decision is made, the spans of such a transaction are buffered in memory.
+ * The total amount of buffered spans is limited by {@link CoreConfiguration#getTailSamplingMaxBufferedSpans()}.
+ * </p>
+ */
+public class TailSampler {
+
+    private final CoreConfiguration coreConfiguration;
+    private final AtomicInteger bufferedSpans = new AtomicInteger();
+
+    public TailSampler(CoreConfiguration coreConfiguration) {
+        this.coreConfiguration = coreConfiguration;
+    }
+
+    public boolean isEnabled() {
+        return coreConfiguration.isTailSamplingEnabled();
+    }
+
+    /**
+     * Tries to reserve space for one more buffered span.
+     *
+     * @return {@code true} if the span may be buffered, {@code false} if the limit of buffered spans has been reached
+     */
+    public boolean tryReserveSpan() {
+        final int maxBufferedSpans = coreConfiguration.getTailSamplingMaxBufferedSpans();
+        int current;
+        do {
+            current = bufferedSpans.get();
+            if (current >= maxBufferedSpans) {
+                return false;
+            }
+        } while (!bufferedSpans.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * Releases the space of spans which have previously been reserved via {@link #tryReserveSpan()}.
+     *
+     * @param spans the number of spans that are no longer buffered
+     */
+    public void releaseSpans(int spans) {
+        if (spans > 0) {
+            bufferedSpans.addAndGet(-spans);
+        }
+    }
+
+    public int getBufferedSpans() {
+        return bufferedSpans.get();
+    }
+
+    /**
+     * Decides whether to keep a transaction which is a candidate for tail-based sampling.
+     *
+     * @param durationMicros the duration of the transaction
+     * @param result         the result of the transaction
+     * @param errorCaptured  whether an error has been captured within the transaction
+     * @return {@code true} if the transaction should be kept, {@code false} otherwise
+     */
+    public boolean shouldKeep(long durationMicros, @Nullable String result, boolean errorCaptured) {
+        if (errorCaptured) {
+            return true;
+        }
+        if (durationMicros >= coreConfiguration.getTailSamplingDurationThreshold().getMillis() * 1000) {
+            return true;
+        }
+        return result != null && WildcardMatcher.isAnyMatch(coreConfiguration.getTailSamplingResults(), result);
+    }
+}
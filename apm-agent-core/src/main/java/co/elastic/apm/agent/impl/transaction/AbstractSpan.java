@@ -95,6 +95,13 @@ public abstract class AbstractSpan<T extends AbstractSpan<T>> implements Recycla
      */
     @Nullable
     private LongList childIds;
+    /**
+     * An ended child span which is held back so that it can be compressed with its next sibling,
+     * see {@link #compressOrBuffer(Span)}.
+     * Guarded by {@code this}.
+     */
+    @Nullable
+    private Span bufferedSpan;
 
     public int getReferenceCount() {
         return references.get();
@@ -325,6 +332,7 @@ public abstract class AbstractSpan<T extends AbstractSpan<T>> implements Recycla
         discardRequested = false;
         isExit = false;
         childIds = null;
+        bufferedSpan = null;
     }
 
     public Span createSpan() {
@@ -419,6 +427,11 @@ public abstract class AbstractSpan<T extends AbstractSpan<T>> implements Recycla
             childDurations.onSpanEnd(epochMicros);
             beforeEnd(epochMicros);
             this.finished = true;
+            // children which end after this point are reported right away, see compressOrBuffer
+            Span buffered = takeBufferedSpan();
+            if (buffered != null) {
+                tracer.reportSpan(buffered);
+            }
             afterEnd();
         } else {
             logger.warn("End has already been called: {}", this);
@@ -426,6 +439,57 @@ public abstract class AbstractSpan<T extends AbstractSpan<T>> implements Recycla
         }
     }
 
+    /**
+     * Tries to compress an ended child span with the previously ended child,
+     * or buffers it so that it can be compressed with the next child.
+     * <p>
+     * When the provided span has been compressed into the buffered one, it is recycled.
+     * </p>
+     *
+     * @param child an ended child span which is {@linkplain Span#isCompressionEligible(long) eligible for compression}
+     * @return the span which has to be reported now:
+     * the previously buffered span if it could not be compressed with the provided one,
+     * the provided span if this span has already ended,
+     * or {@code null} if nothing has to be reported
+     */
+    @Nullable
+    public Span compressOrBuffer(Span child) {
+        synchronized (this) {
+            if (finished) {
+                return child;
+            }
+            Span buffered = bufferedSpan;
+            if (buffered == null) {
+                bufferedSpan = child;
+                return null;
+            }
+            if (!buffered.tryToCompress(child)) {
+                bufferedSpan = child;
+                return buffered;
+            }
+        }
+        Transaction transaction = child.getTransaction();
+        if (transaction != null) {
+            transaction.getSpanCount().getCompressed().incrementAndGet();
+        }
+        child.decrementReferences();
+        return null;
+    }
+
+    /**
+     * Removes the child span which has been buffered for compression.
+     *
+     * @return the buffered span which has to be reported, or {@code null}
+     */
+    @Nullable
+    public Span takeBufferedSpan() {
+        synchronized (this) {
+            Span buffered = bufferedSpan;
+            bufferedSpan = null;
+            return buffered;
+        }
+    }
+
     protected abstract void beforeEnd(long epochMicros);
 
     protected abstract void afterEnd();
@@ -569,6 +633,13 @@ public abstract class AbstractSpan<T extends AbstractSpan<T>> implements Recycla
         return getTraceContext().isSampled();
     }
 
+    /**
+     * @return {@code true} if this span has {@linkplain #end() ended} or has not been started yet
+     */
+    public boolean isFinished() {
+        return finished;
+    }
+
     public T withChildIds(@Nullable LongList childIds) {
         this.childIds = childIds;
         return thiz();
@@ -0,0 +1,100 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.impl.transaction;
+
+import co.elastic.apm.agent.objectpool.Recyclable;
+
+/**
+ * Describes the spans a composite span has been compressed from.
+ * <p>
+ * See also {@link co.elastic.apm.agent.configuration.CoreConfiguration#isSpanCompressionEnabled()}.
+ * </p>
+ */
+public class Composite implements Recyclable {
+
+    public static final String EXACT_MATCH = "exact_match";
+
+    private int count;
+    // in microseconds
+    private long sum;
+    private long min;
+    private long max;
+
+    /**
+     * Adds the duration of a compressed span
+     *
+     * @param duration the duration of the span in microseconds
+     */
+    void add(long duration) {
+        if (count == 0 || duration < min) {
+            min = duration;
+        }
+        if (count == 0 || duration > max) {
+            max = duration;
+        }
+        sum += duration;
+        count++;
+    }
+
+    /**
+     * @return the number of spans this composite span has been compressed from, {@code 0} if it is a regular span
+     */
+    public int getCount() {
+        return count;
+    }
+
+    /**
+     * @return the sum of the durations of the compressed spans in microseconds
+     */
+    public long getSum() {
+        return sum;
+    }
+
+    public double getSumMs() {
+        return sum / AbstractSpan.MS_IN_MICROS;
+    }
+
+    /**
+     * @return the duration of the fastest compressed span in microseconds
+     */
+    public long getMin() {
+        return min;
+    }
+
+    /**
+     * @return the duration of the slowest compressed span in microseconds
+     */
+    public long getMax() {
+        return max;
+    }
+
+    @Override
+    public void resetState() {
+        count = 0;
+        sum = 0;
+        min = 0;
+        max = 0;
+    }
+}
@@ -65,7 +65,7 @@ public class Id implements Recyclable {
         onMutation(false);
     }
 
-    public void fromHexString(String hexEncodedString, int offset) {
+    public void fromHexString(CharSequence hexEncodedString, int offset) {
         HexUtils.nextBytes(hexEncodedString, offset, data);
         onMutation();
     }
@@ -173,6 +173,17 @@ public class Id implements Recyclable {
         HexUtils.writeBytesAsHex(data, sb);
     }
 
+    /**
+     * Writes the hex representation of this id into the provided buffer
+     *
+     * @param buffer the buffer to write to
+     * @param offset the offset in the buffer
+     * @return the offset in the buffer after the last written char
+     */
+    public int writeAsHex(char[] buffer, int offset) {
+        return HexUtils.writeBytesAsHex(data, buffer, offset);
+    }
+
     /**
      * Returns the last 8 bytes of this id as a {@code long}.
      * <p>
@@ -26,6 +26,7 @@ package co.elastic.apm.agent.impl.transaction;
 
 import co.elastic.apm.agent.configuration.CoreConfiguration;
 import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.context.Destination;
 import co.elastic.apm.agent.impl.context.SpanContext;
 import co.elastic.apm.agent.objectpool.Recyclable;
 import org.slf4j.Logger;
@@ -74,6 +75,7 @@ public class Span extends AbstractSpan<Span> implements Recyclable {
     private Transaction transaction;
     @Nullable
     private List<StackFrame> stackFrames;
+    private final Composite composite = new Composite();
 
     /**
      * If a span is non-discardable, all the spans leading up to it are non-discardable as well
@@ -239,13 +241,88 @@ public class Span extends AbstractSpan<Span> implements Recyclable {
         }
         if (parent != null) {
             parent.onChildEnd(epochMicros);
-            parent.decrementReferences();
         }
     }
 
     @Override
     protected void afterEnd() {
+        // the parent is referenced until the span has been handed over to the tracer,
+        // as the span might be buffered in its parent for compression
+        AbstractSpan<?> parent = this.parent;
         this.tracer.endSpan(this);
+        if (parent != null) {
+            parent.decrementReferences();
+        }
+    }
+
+    /**
+     * Determines whether this ended span can be compressed with its siblings.
+     * <p>
+     * Only fast exit spans which did not propagate their context and did not lead to an error can be compressed,
+     * as there's nothing that could refer to their id.
+     * Spans with a stack trace are not compressed either, as it would only be retained for one of the compressed spans.
+     * </p>
+     *
+     * @param maxDuration the maximum duration of a span to be compressed in microseconds
+     * @return {@code true} if this span can be compressed
+     */
+    public boolean isCompressionEligible(long maxDuration) {
+        return isExit()
+            && isDiscardable()
+            && duration <= maxDuration
+            && stackFrames == null
+            && stacktrace == null;
+    }
+
+    /**
+     * Tries to compress the next sibling into this span, which turns this span into a composite span.
+     *
+     * @param sibling an ended sibling that started after this span
+     * @return {@code true} if the sibling has been compressed into this span and can be recycled
+     */
+    boolean tryToCompress(Span sibling) {
+        if (!isSameKind(sibling) || !contentEquals(name, sibling.name)) {
+            return false;
+        }
+        if (composite.getCount() == 0) {
+            composite.add(duration);
+        }
+        composite.add(sibling.duration);
+        duration = Math.max(duration, sibling.getTimestamp() + sibling.duration - getTimestamp());
+        return true;
+    }
+
+    private boolean isSameKind(Span other) {
+        Destination destination = context.getDestination();
+        Destination otherDestination = other.context.getDestination();
+        return equals(type, other.type)
+            && equals(subtype, other.subtype)
+            && destination.getPort() == otherDestination.getPort()
+            && contentEquals(destination.getAddress(), otherDestination.getAddress())
+            && contentEquals(destination.getService().getResource(), otherDestination.getService().getResource());
+    }
+
+    private static boolean equals(@Nullable String s1, @Nullable String s2) {
+        return s1 == null ? s2 == null : s1.equals(s2);
+    }
+
+    private static boolean contentEquals(StringBuilder sb1, StringBuilder sb2) {
+        if (sb1.length() != sb2.length()) {
+            return false;
+        }
+        for (int i = 0; i < sb1.length(); i++) {
+            if (sb1.charAt(i) != sb2.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the spans this span has been compressed from, {@link Composite#getCount()} is {@code 0} for regular spans
+     */
+    public Composite getComposite() {
+        return composite;
     }
 
     @Override
@@ -263,6 +340,7 @@ public class Span extends AbstractSpan<Span> implements Recyclable {
         // when trying to recycle this list by clearing it, we increase the static memory overhead of the agent
         // because all spans in the pool contain that list even if they are not used as inferred spans
         stackFrames = null;
+        composite.resetState();
     }
 
     @Override
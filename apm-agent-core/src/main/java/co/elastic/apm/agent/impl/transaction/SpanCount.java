@@ -34,6 +34,10 @@ public class SpanCount implements Recyclable {
     private final AtomicInteger dropped = new AtomicInteger(0);
     private final AtomicInteger reported = new AtomicInteger(0);
     private final AtomicInteger total = new AtomicInteger(0);
+    /**
+     * The number of spans which have been compressed into a composite sibling
+     */
+    private final AtomicInteger compressed = new AtomicInteger(0);
 
     public AtomicInteger getDropped() {
         return dropped;
@@ -47,8 +51,12 @@ public class SpanCount implements Recyclable {
         return total;
     }
 
+    public AtomicInteger getCompressed() {
+        return compressed;
+    }
+
     public boolean isSpanLimitReached(int maxSpans) {
-        return maxSpans <= total.get() - dropped.get();
+        return maxSpans <= total.get() - dropped.get() - compressed.get();
     }
 
     @Override
@@ -56,5 +64,6 @@ public class SpanCount implements Recyclable {
         dropped.set(0);
         reported.set(0);
         total.set(0);
+        compressed.set(0);
     }
 }
@@ -218,12 +218,35 @@ public class TraceContext implements Recyclable {
     // ???????1 -> maybe recorded
     // ???????0 -> not recorded
     private static final byte FLAG_RECORDED = 0b0000_0001;
+    // 1??????? -> local tail-based sampling candidate
+    // never propagated to downstream services and stripped from incoming headers
+    private static final byte FLAG_TAIL_SAMPLING_CANDIDATE = (byte) 0b1000_0000;
     private final Id traceId = Id.new128BitId();
     private final ElasticApmTracer tracer;
     private final Id id;
     private final Id parentId = Id.new64BitId();
     private final Id transactionId = Id.new64BitId();
-    private final StringBuilder outgoingTextHeader = new StringBuilder(TEXT_HEADER_EXPECTED_LENGTH);
+    /**
+     * Reused buffer the outgoing {@code traceparent} header is rendered into
+     */
+    private final char[] outgoingTextHeader;
+    /**
+     * The outgoing {@code traceparent} header, rendered at most once per mutation of this context,
+     * so that multiple outgoing calls of the same span share the same instance
+     */
+    @Nullable
+    private String outgoingTextHeaderString;
+    /**
+     * The joined {@link #tracestate} entries, rendered at most once per mutation of this context
+     */
+    @Nullable
+    private String outgoingTracestate;
+    /**
+     * The binary representation of the outgoing {@code traceparent} header,
+     * only valid if {@link #outgoingBinaryHeaderRendered} is {@code true}
+     */
+    private final byte[] outgoingBinaryHeader = new byte[BINARY_FORMAT_EXPECTED_LENGTH];
+    private boolean outgoingBinaryHeaderRendered;
     private byte flags;
     private boolean discardable = true;
     // weakly referencing to avoid CL leaks in case of leaked spans
@@ -247,6 +270,8 @@ public class TraceContext implements Recyclable {
         coreConfiguration = tracer.getConfig(CoreConfiguration.class);
         this.tracer = tracer;
         this.id = id;
+        // the version, the trace id, the id and the flags, separated by dashes
+        outgoingTextHeader = new char[2 + 1 + traceId.getLength() * 2 + 1 + id.getLength() * 2 + 1 + 2];
     }
 
     /**
@@ -297,38 +322,53 @@ public class TraceContext implements Recyclable {
         return AS_ROOT;
     }
 
-    boolean asChildOf(String traceParentHeader) {
-        traceParentHeader = traceParentHeader.trim();
+    /**
+     * Parses the {@code traceparent} header in place, without allocating.
+     *
+     * @param traceParentHeader the {@code traceparent} header, leading and trailing whitespace is ignored
+     * @return {@code true} if the header is valid and this context has been set up as a child of it
+     */
+    boolean asChildOf(CharSequence traceParentHeader) {
+        // trimming based on indices, as opposed to String#trim, avoids allocations for headers with surrounding whitespace
+        int start = 0;
+        int end = traceParentHeader.length();
+        while (start < end && traceParentHeader.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && traceParentHeader.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        final int length = end - start;
         try {
-            if (traceParentHeader.length() < TEXT_HEADER_EXPECTED_LENGTH) {
+            if (length < TEXT_HEADER_EXPECTED_LENGTH) {
                 logger.warn("The traceparent header has to be at least 55 chars long, but was '{}'", traceParentHeader);
                 return false;
             }
-            if (noDashAtPosition(traceParentHeader, TEXT_HEADER_TRACE_ID_OFFSET - 1)
-                || noDashAtPosition(traceParentHeader, TEXT_HEADER_PARENT_ID_OFFSET - 1)
-                || noDashAtPosition(traceParentHeader, TEXT_HEADER_FLAGS_OFFSET - 1)) {
+            if (noDashAtPosition(traceParentHeader, start + TEXT_HEADER_TRACE_ID_OFFSET - 1)
+                || noDashAtPosition(traceParentHeader, start + TEXT_HEADER_PARENT_ID_OFFSET - 1)
+                || noDashAtPosition(traceParentHeader, start + TEXT_HEADER_FLAGS_OFFSET - 1)) {
                 logger.warn("The traceparent header has an invalid format: '{}'", traceParentHeader);
                 return false;
             }
-            if (traceParentHeader.length() > TEXT_HEADER_EXPECTED_LENGTH
-                && noDashAtPosition(traceParentHeader, TEXT_HEADER_EXPECTED_LENGTH)) {
+            if (length > TEXT_HEADER_EXPECTED_LENGTH
+                && noDashAtPosition(traceParentHeader, start + TEXT_HEADER_EXPECTED_LENGTH)) {
                 logger.warn("The traceparent header has an invalid format: '{}'", traceParentHeader);
                 return false;
             }
-            if (traceParentHeader.startsWith("ff")) {
+            if (traceParentHeader.charAt(start) == 'f' && traceParentHeader.charAt(start + 1) == 'f') {
                 logger.warn("Version ff is not supported");
                 return false;
             }
-            byte version = HexUtils.getNextByte(traceParentHeader, 0);
-            if (version == 0 && traceParentHeader.length() > TEXT_HEADER_EXPECTED_LENGTH) {
+            byte version = HexUtils.getNextByte(traceParentHeader, start);
+            if (version == 0 && length > TEXT_HEADER_EXPECTED_LENGTH) {
                 logger.warn("The traceparent header has to be exactly 55 chars long for version 00, but was '{}'", traceParentHeader);
                 return false;
             }
-            traceId.fromHexString(traceParentHeader, TEXT_HEADER_TRACE_ID_OFFSET);
+            traceId.fromHexString(traceParentHeader, start + TEXT_HEADER_TRACE_ID_OFFSET);
             if (traceId.isEmpty()) {
                 return false;
             }
-            parentId.fromHexString(traceParentHeader, TEXT_HEADER_PARENT_ID_OFFSET);
+            parentId.fromHexString(traceParentHeader, start + TEXT_HEADER_PARENT_ID_OFFSET);
             if (parentId.isEmpty()) {
                 return false;
             }
@@ -337,7 +377,7 @@ public class TraceContext implements Recyclable {
             // TODO don't blindly trust the flags from the caller
             // consider implement rate limiting and/or having a list of trusted sources
             // trace the request if it's either requested or if the parent has recorded it
-            flags = HexUtils.getNextByte(traceParentHeader, TEXT_HEADER_FLAGS_OFFSET);
+            flags = (byte) (HexUtils.getNextByte(traceParentHeader, start + TEXT_HEADER_FLAGS_OFFSET) & ~FLAG_TAIL_SAMPLING_CANDIDATE);
             clock.init();
             return true;
         } catch (IllegalArgumentException e) {
@@ -389,7 +429,7 @@ public class TraceContext implements Recyclable {
             // TODO don't blindly trust the flags from the caller
             // consider implement rate limiting and/or having a list of trusted sources
             // trace the request if it's either requested or if the parent has recorded it
-            flags = traceParentHeader[BINARY_FORMAT_FLAGS_OFFSET + 1];
+            flags = (byte) (traceParentHeader[BINARY_FORMAT_FLAGS_OFFSET + 1] & ~FLAG_TAIL_SAMPLING_CANDIDATE);
             clock.init();
             return true;
         } catch (IllegalArgumentException e) {
@@ -400,7 +440,7 @@ public class TraceContext implements Recyclable {
         }
     }
 
-    private boolean noDashAtPosition(String traceParentHeader, int index) {
+    private boolean noDashAtPosition(CharSequence traceParentHeader, int index) {
         return traceParentHeader.charAt(index) != '-';
     }
 
@@ -437,7 +477,9 @@ public class TraceContext implements Recyclable {
         id.resetState();
         parentId.resetState();
         transactionId.resetState();
-        outgoingTextHeader.setLength(0);
+        outgoingTextHeaderString = null;
+        outgoingTracestate = null;
+        outgoingBinaryHeaderRendered = false;
         flags = 0;
         discardable = true;
         clock.resetState();
@@ -477,12 +519,13 @@ public class TraceContext implements Recyclable {
     }
 
     /**
-     * An alias for {@link #isRecorded()}
+     * Returns {@code true} if this span is either {@linkplain #isRecorded() recorded}
+     * or a {@linkplain #isTailSamplingCandidate() candidate for tail-based sampling}.
      *
      * @return {@code true} when this span should be sampled, {@code false} otherwise
      */
     public boolean isSampled() {
-        return isRecorded();
+        return (flags & (FLAG_RECORDED | FLAG_TAIL_SAMPLING_CANDIDATE)) != 0;
     }
 
     /**
@@ -498,8 +541,32 @@ public class TraceContext implements Recyclable {
         if (recorded) {
             flags |= FLAG_RECORDED;
         } else {
-            flags &= ~FLAG_RECORDED;
+            flags &= ~(FLAG_RECORDED | FLAG_TAIL_SAMPLING_CANDIDATE);
         }
+        // the flags are part of the outgoing header
+        onMutation();
+    }
+
+    /**
+     * When {@code true}, the head-based sampler has decided not to record this trace,
+     * but the span is recorded locally anyway so that it can still be kept when its transaction ends.
+     * <p>
+     * This is a local-only state which is not propagated to downstream services.
+     * </p>
+     *
+     * @return {@code true} when this span is a candidate for tail-based sampling, {@code false} otherwise
+     */
+    public boolean isTailSamplingCandidate() {
+        return (flags & FLAG_TAIL_SAMPLING_CANDIDATE) != 0;
+    }
+
+    void setTailSamplingCandidate(boolean candidate) {
+        if (candidate) {
+            flags |= FLAG_TAIL_SAMPLING_CANDIDATE;
+        } else {
+            flags &= ~FLAG_TAIL_SAMPLING_CANDIDATE;
+        }
+        // the sampled flag is only propagated based on isRecorded, so the outgoing headers are not affected
     }
 
     void setNonDiscardable() {
@@ -515,9 +582,8 @@ public class TraceContext implements Recyclable {
      * Returns the value of the {@code traceparent} header, as it was received.
      */
     String getIncomingTraceParentHeader() {
-        final StringBuilder sb = new StringBuilder(TEXT_HEADER_EXPECTED_LENGTH);
-        fillTraceParentHeader(sb, parentId);
-        return sb.toString();
+        final char[] buffer = new char[TEXT_HEADER_EXPECTED_LENGTH];
+        return new String(buffer, 0, fillTraceParentHeader(buffer, parentId));
     }
 
     /**
@@ -528,18 +594,36 @@ public class TraceContext implements Recyclable {
      * @param <C>          the header carrier type, for example - an HTTP request
      */
     <C> void propagateTraceContext(C carrier, TextHeaderSetter<C> headerSetter) {
-        headerSetter.setHeader(W3C_TRACE_PARENT_TEXTUAL_HEADER_NAME, getOutgoingTraceParentTextHeader().toString(), carrier);
+        String outgoingTraceParent = getOutgoingTraceParentTextHeader();
+        headerSetter.setHeader(W3C_TRACE_PARENT_TEXTUAL_HEADER_NAME, outgoingTraceParent, carrier);
         if (coreConfiguration.isElasticTraceparentHeaderEnabled()) {
-            headerSetter.setHeader(ELASTIC_TRACE_PARENT_TEXTUAL_HEADER_NAME, getOutgoingTraceParentTextHeader().toString(), carrier);
+            headerSetter.setHeader(ELASTIC_TRACE_PARENT_TEXTUAL_HEADER_NAME, outgoingTraceParent, carrier);
         }
-        if (tracestate.size() == 1) {
-            headerSetter.setHeader(TRACESTATE_HEADER_NAME, tracestate.get(0), carrier);
-        } else if (!tracestate.isEmpty()) {
-            String tracestateHeaderValue = TextTracestateAppender.instance().join(tracestate, coreConfiguration.getTracestateSizeLimit());
+        String tracestateHeaderValue = getOutgoingTracestate();
+        if (tracestateHeaderValue != null) {
             headerSetter.setHeader(TRACESTATE_HEADER_NAME, tracestateHeaderValue, carrier);
         }
     }
 
+    /**
+     * Returns the value of the {@code tracestate} header for downstream services.
+     * Multiple {@code tracestate} entries are only joined once per mutation of this context.
+     */
+    @Nullable
+    private String getOutgoingTracestate() {
+        if (tracestate.isEmpty()) {
+            return null;
+        } else if (tracestate.size() == 1) {
+            return tracestate.get(0);
+        }
+        String tracestateHeaderValue = outgoingTracestate;
+        if (tracestateHeaderValue == null) {
+            tracestateHeaderValue = TextTracestateAppender.instance().join(tracestate, coreConfiguration.getTracestateSizeLimit());
+            outgoingTracestate = tracestateHeaderValue;
+        }
+        return tracestateHeaderValue;
+    }
+
     /**
      * Sets Trace context binary headers, using this context as parent, on the provided carrier using the provided setter
      *
@@ -564,28 +648,42 @@ public class TraceContext implements Recyclable {
 
     /**
      * Returns the value of the {@code traceparent} header for downstream services.
+     * <p>
+     * The header is rendered into a reused buffer at most once per mutation of this context,
+     * so that fan-out calls from the same span share the same {@link String} instance.
+     * </p>
      */
-    StringBuilder getOutgoingTraceParentTextHeader() {
-        if (outgoingTextHeader.length() == 0) {
+    String getOutgoingTraceParentTextHeader() {
+        String header = outgoingTextHeaderString;
+        if (header == null) {
             // for unsampled traces, propagate the ID of the transaction in calls to downstream services
             // such that the parentID of those transactions point to a transaction that exists
             // remember that we do report unsampled transactions
-            fillTraceParentHeader(outgoingTextHeader, isSampled() ? id : transactionId);
+            int length = fillTraceParentHeader(outgoingTextHeader, isRecorded() ? id : transactionId);
+            header = new String(outgoingTextHeader, 0, length);
+            outgoingTextHeaderString = header;
         }
-        return outgoingTextHeader;
+        return header;
     }
 
-    private void fillTraceParentHeader(StringBuilder sb, Id spanId) {
-        sb.append("00-");
-        traceId.writeAsHex(sb);
-        sb.append('-');
-        spanId.writeAsHex(sb);
-        sb.append('-');
-        HexUtils.writeByteAsHex(flags, sb);
+    private int fillTraceParentHeader(char[] buffer, Id spanId) {
+        int offset = 0;
+        buffer[offset++] = '0';
+        buffer[offset++] = '0';
+        buffer[offset++] = '-';
+        offset = traceId.writeAsHex(buffer, offset);
+        buffer[offset++] = '-';
+        offset = spanId.writeAsHex(buffer, offset);
+        buffer[offset++] = '-';
+        return HexUtils.writeByteAsHex(getOutgoingFlags(), buffer, offset);
     }
 
     /**
      * Fills the given byte array with a binary representation of the {@code traceparent} header for downstream services.
+     * <p>
+     * The header is rendered at most once per mutation of this context,
+     * subsequent calls just copy the already rendered bytes.
+     * </p>
      *
      * @param buffer buffer to fill
      * @return true if buffer was filled, false otherwise
@@ -595,6 +693,15 @@ public class TraceContext implements Recyclable {
             logger.warn("Given byte array does not have the minimal required length - {}", BINARY_FORMAT_EXPECTED_LENGTH);
             return false;
         }
+        if (!outgoingBinaryHeaderRendered) {
+            renderOutgoingTraceParentBinaryHeader(outgoingBinaryHeader);
+            outgoingBinaryHeaderRendered = true;
+        }
+        System.arraycopy(outgoingBinaryHeader, 0, buffer, 0, BINARY_FORMAT_EXPECTED_LENGTH);
+        return true;
+    }
+
+    private void renderOutgoingTraceParentBinaryHeader(byte[] buffer) {
         buffer[0] = BINARY_FORMAT_CURRENT_VERSION;
         buffer[BINARY_FORMAT_TRACE_ID_OFFSET] = BINARY_FORMAT_TRACE_ID_FIELD_ID;
         traceId.toBytes(buffer, BINARY_FORMAT_TRACE_ID_OFFSET + 1);
@@ -602,11 +709,14 @@ public class TraceContext implements Recyclable {
         // for unsampled traces, propagate the ID of the transaction in calls to downstream services
         // such that the parentID of those transactions point to a transaction that exists
         // remember that we do report unsampled transactions
-        Id parentId = isSampled() ? id : transactionId;
+        Id parentId = isRecorded() ? id : transactionId;
         parentId.toBytes(buffer, BINARY_FORMAT_PARENT_ID_OFFSET + 1);
         buffer[BINARY_FORMAT_FLAGS_OFFSET] = BINARY_FORMAT_FLAGS_FIELD_ID;
-        buffer[BINARY_FORMAT_FLAGS_OFFSET + 1] = flags;
-        return true;
+        buffer[BINARY_FORMAT_FLAGS_OFFSET + 1] = getOutgoingFlags();
+    }
+
+    private byte getOutgoingFlags() {
+        return (byte) (flags & ~FLAG_TAIL_SAMPLING_CANDIDATE);
     }
 
     public boolean isChildOf(TraceContext other) {
@@ -633,11 +743,13 @@ public class TraceContext implements Recyclable {
 
     @Override
     public String toString() {
-        return getOutgoingTraceParentTextHeader().toString();
+        return getOutgoingTraceParentTextHeader();
     }
 
     private void onMutation() {
-        outgoingTextHeader.setLength(0);
+        outgoingTextHeaderString = null;
+        outgoingTracestate = null;
+        outgoingBinaryHeaderRendered = false;
     }
 
     public boolean isRoot() {
@@ -708,6 +820,7 @@ public class TraceContext implements Recyclable {
 
     public void addTracestate(String headerValue) {
         tracestate.add(headerValue);
+        outgoingTracestate = null;
     }
 
     public byte[] serialize() {
@@ -26,6 +26,7 @@ package co.elastic.apm.agent.impl.transaction;
 
 import co.elastic.apm.agent.configuration.CoreConfiguration;
 import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.context.Response;
 import co.elastic.apm.agent.impl.context.TransactionContext;
 import co.elastic.apm.agent.impl.sampling.Sampler;
 import co.elastic.apm.agent.metrics.Labels;
@@ -37,6 +38,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -100,6 +102,16 @@ public class Transaction extends AbstractSpan<Transaction> {
     @Nullable
     private String frameworkVersion;
 
+    /**
+     * Spans which have ended while this transaction awaits its tail-based sampling decision.
+     * <p>
+     * Also serves as the lock guarding {@link #tailSamplingDecided}.
+     * </p>
+     */
+    private final List<Span> tailSamplingBuffer = new ArrayList<>();
+    private boolean tailSamplingDecided;
+    private volatile boolean errorCaptured;
+
     @Override
     public Transaction getTransaction() {
         return this;
@@ -126,10 +138,15 @@ public class Transaction extends AbstractSpan<Transaction> {
     }
 
     private void onTransactionStart(boolean startedAsChild, long epochMicros, Sampler sampler) {
-        maxSpans = tracer.getConfig(CoreConfiguration.class).getTransactionMaxSpans();
+        CoreConfiguration coreConfiguration = tracer.getConfig(CoreConfiguration.class);
+        maxSpans = coreConfiguration.getTransactionMaxSpans();
         if (!startedAsChild) {
             traceContext.asRootSpan(sampler);
         }
+        if (!traceContext.isSampled() && coreConfiguration.isTailSamplingEnabled()) {
+            // record the transaction anyways and decide whether to keep it when it ends
+            traceContext.setTailSamplingCandidate(true);
+        }
         if (epochMicros >= 0) {
             setStartTimestamp(epochMicros);
         } else {
@@ -214,12 +231,20 @@ public class Transaction extends AbstractSpan<Transaction> {
 
     @Override
     public void beforeEnd(long epochMicros) {
-        if (!isSampled()) {
-            context.resetState();
+        if (traceContext.isTailSamplingCandidate()) {
+            decideTailSampling(!noop && tracer.getTailSampler().shouldKeep(getDuration(), result, errorCaptured));
         }
         if (type == null) {
             type = "custom";
         }
+        // has to be done before the context of non-sampled transactions is reset
+        trackResponseMetrics();
+        if (!isSampled()) {
+            context.resetState();
+        } else {
+            // the sampling decision is final now and the headers are actually going to be reported
+            context.materializeHeaders();
+        }
         context.onTransactionEnd();
         incrementTimer("app", null, getSelfDuration());
     }
@@ -234,6 +259,60 @@ public class Transaction extends AbstractSpan<Transaction> {
         return spanCount;
     }
 
+    /**
+     * Buffers an ended span of this transaction until the tail-based sampling decision has been made.
+     *
+     * @param span the span to buffer
+     * @return {@code true} if the span has been buffered,
+     * {@code false} if the decision has already been made, in which case {@link #isSampled()} tells whether to report the span
+     */
+    public boolean bufferForTailSampling(Span span) {
+        synchronized (tailSamplingBuffer) {
+            if (tailSamplingDecided) {
+                return false;
+            }
+            if (tracer.getTailSampler().tryReserveSpan()) {
+                tailSamplingBuffer.add(span);
+                return true;
+            }
+        }
+        logger.debug("Max buffered spans for tail-based sampling reached, falling back to the head-based sampling decision for {}", this);
+        decideTailSampling(false);
+        return false;
+    }
+
+    private void decideTailSampling(boolean keep) {
+        synchronized (tailSamplingBuffer) {
+            if (tailSamplingDecided) {
+                return;
+            }
+            tailSamplingDecided = true;
+            if (!keep) {
+                traceContext.setTailSamplingCandidate(false);
+            }
+        }
+        // no spans are added to the buffer once the decision has been made
+        tracer.getTailSampler().releaseSpans(tailSamplingBuffer.size());
+        for (int i = 0, size = tailSamplingBuffer.size(); i < size; i++) {
+            Span span = tailSamplingBuffer.get(i);
+            if (keep) {
+                tracer.endSpan(span);
+            } else {
+                spanCount.getDropped().incrementAndGet();
+                span.decrementReferences();
+            }
+        }
+        tailSamplingBuffer.clear();
+    }
+
+    /**
+     * Called when an error has been captured within this transaction,
+     * which makes sure a transaction that is a candidate for tail-based sampling is kept.
+     */
+    public void onErrorCaptured() {
+        errorCaptured = true;
+    }
+
     boolean isSpanLimitReached() {
         return getSpanCount().isSpanLimitReached(maxSpans);
     }
@@ -253,6 +332,9 @@ public class Transaction extends AbstractSpan<Transaction> {
         maxSpans = 0;
         frameworkName = null;
         frameworkVersion = null;
+        tailSamplingBuffer.clear();
+        tailSamplingDecided = false;
+        errorCaptured = false;
         // don't clear timerBySpanTypeAndSubtype map (see field-level javadoc)
     }
 
@@ -364,6 +446,29 @@ public class Transaction extends AbstractSpan<Transaction> {
         }
     }
 
+    private void trackResponseMetrics() {
+        final Response response = context.getResponse();
+        if (!collectBreakdownMetrics || (response.getEncodedBodySize() < 0 && response.getTimeToFirstByteUs() < 0)) {
+            return;
+        }
+        final Labels.Mutable labels = labelsThreadLocal.get();
+        labels.resetState();
+        labels.transactionName(name).transactionType(type);
+        final MetricRegistry metricRegistry = tracer.getMetricRegistry();
+        long criticalValueAtEnter = metricRegistry.writerCriticalSectionEnter();
+        try {
+            if (response.getEncodedBodySize() >= 0) {
+                metricRegistry.incrementCounter("transaction.response.body.count", labels);
+                metricRegistry.addToCounter("transaction.response.body.bytes", labels, response.getEncodedBodySize());
+            }
+            if (response.getTimeToFirstByteUs() >= 0) {
+                metricRegistry.updateTimer("transaction.response.first_byte", labels, response.getTimeToFirstByteUs());
+            }
+        } finally {
+            metricRegistry.writerCriticalSectionExit(criticalValueAtEnter);
+        }
+    }
+
     private void trackMetrics() {
         try {
             phaser.readerLock();
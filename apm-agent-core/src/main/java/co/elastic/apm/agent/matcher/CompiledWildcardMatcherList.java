@@ -0,0 +1,356 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.matcher;
+
+import javax.annotation.Nullable;
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.RandomAccess;
+
+import static co.elastic.apm.agent.matcher.WildcardMatcher.charAt;
+
+/**
+ * A list of {@link WildcardMatcher}s which is compiled so that {@link WildcardMatcher#anyMatch(List, CharSequence, CharSequence)}
+ * does not have to evaluate each matcher in turn.
+ * <p>
+ * The literal anchor of every matcher is added to one of three case-insensitive tries:
+ * </p>
+ * <ul>
+ *     <li>{@code foo*}, {@code foo} and {@code foo*bar}: a prefix trie which is walked from the start of the input</li>
+ *     <li>{@code *foo} and {@code *foo*bar}: a suffix trie which is walked from the end of the input</li>
+ *     <li>{@code *foo*} and {@code *foo*bar*}: an Aho-Corasick automaton which finds all infixes in a single pass</li>
+ * </ul>
+ * <p>
+ * A case-insensitive matcher without wildcards in the middle matches as soon as its anchor has been found.
+ * Case-sensitive and compound matchers are only candidates and are verified with {@link WildcardMatcher#matches(CharSequence, CharSequence)}.
+ * Matchers without a literal anchor, like {@code *}, are always evaluated directly.
+ * As with {@link WildcardMatcher#anyMatch(List, CharSequence, CharSequence)},
+ * the first matcher in list order wins.
+ * Matching is allocation free.
+ * </p>
+ * <p>
+ * Instances are immutable and are meant to be created once per configuration change,
+ * see {@link WildcardMatcherValueConverter#LIST}.
+ * </p>
+ */
+// don't use for-each as it allocates memory by instantiating an iterator
+@SuppressWarnings("ForLoopReplaceableByForEach")
+public final class CompiledWildcardMatcherList extends AbstractList<WildcardMatcher> implements RandomAccess {
+
+    /**
+     * Below this size, evaluating the matchers one by one is about as fast as walking the tries.
+     */
+    static final int MIN_SIZE_TO_COMPILE = 4;
+
+    private final List<WildcardMatcher> matchers;
+    /**
+     * Whether finding the anchor of the matcher at the corresponding index is sufficient for a match
+     */
+    private final boolean[] anchorIsMatch;
+    private final Node prefixTrie = new Node();
+    private final Node suffixTrie = new Node();
+    private final Node infixAutomaton = new Node();
+    private final int[] unanchored;
+
+    private CompiledWildcardMatcherList(List<WildcardMatcher> matchers) {
+        this.matchers = matchers;
+        this.anchorIsMatch = new boolean[matchers.size()];
+        List<Integer> unanchored = new ArrayList<>();
+        for (int i = 0; i < matchers.size(); i++) {
+            if (!addAnchor(i, matchers.get(i))) {
+                unanchored.add(i);
+            }
+        }
+        this.unanchored = toIntArray(unanchored);
+        computeFailureLinks(infixAutomaton);
+    }
+
+    /**
+     * Compiles the provided matchers, unless there are so few of them that compiling would not pay off.
+     *
+     * @param matchers the matchers to compile
+     * @return a list containing the same matchers in the same order,
+     * which is evaluated in a single pass by {@link WildcardMatcher#anyMatch(List, CharSequence, CharSequence)}
+     */
+    public static List<WildcardMatcher> compile(List<WildcardMatcher> matchers) {
+        if (matchers instanceof CompiledWildcardMatcherList || matchers.size() < MIN_SIZE_TO_COMPILE) {
+            return matchers;
+        }
+        return new CompiledWildcardMatcherList(Collections.unmodifiableList(new ArrayList<>(matchers)));
+    }
+
+    private boolean addAnchor(int index, WildcardMatcher matcher) {
+        if (matcher instanceof WildcardMatcher.SimpleWildcardMatcher) {
+            WildcardMatcher.SimpleWildcardMatcher simpleMatcher = (WildcardMatcher.SimpleWildcardMatcher) matcher;
+            String literal = simpleMatcher.getMatcher();
+            if (literal.isEmpty()) {
+                return false;
+            }
+            anchorIsMatch[index] = simpleMatcher.isIgnoreCase();
+            if (simpleMatcher.isWildcardAtBeginning() && simpleMatcher.isWildcardAtEnd()) {
+                infixAutomaton.add(literal, false).addAccept(index);
+            } else if (simpleMatcher.isWildcardAtBeginning()) {
+                suffixTrie.add(literal, true).addAccept(index);
+            } else if (simpleMatcher.isWildcardAtEnd()) {
+                prefixTrie.add(literal, false).addAccept(index);
+            } else {
+                prefixTrie.add(literal, false).addExactAccept(index);
+            }
+            return true;
+        } else if (matcher instanceof WildcardMatcher.CompoundWildcardMatcher) {
+            List<WildcardMatcher.SimpleWildcardMatcher> parts = ((WildcardMatcher.CompoundWildcardMatcher) matcher).getWildcardMatchers();
+            if (parts.isEmpty()) {
+                return false;
+            }
+            WildcardMatcher.SimpleWildcardMatcher first = parts.get(0);
+            WildcardMatcher.SimpleWildcardMatcher last = parts.get(parts.size() - 1);
+            if (!first.isWildcardAtBeginning() && !first.getMatcher().isEmpty()) {
+                prefixTrie.add(first.getMatcher(), false).addAccept(index);
+                return true;
+            }
+            if (!last.isWildcardAtEnd() && !last.getMatcher().isEmpty()) {
+                suffixTrie.add(last.getMatcher(), true).addAccept(index);
+                return true;
+            }
+            for (int i = 0; i < parts.size(); i++) {
+                if (!parts.get(i).getMatcher().isEmpty()) {
+                    infixAutomaton.add(parts.get(i).getMatcher(), false).addAccept(index);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the first {@link WildcardMatcher} {@linkplain WildcardMatcher#matches(CharSequence, CharSequence) matching}
+     * the provided partitioned string.
+     *
+     * @param firstPart  The first part of the string to match against.
+     * @param secondPart The second part of the string to match against.
+     * @return the first matching {@link WildcardMatcher}, or {@code null} if none match.
+     */
+    @Nullable
+    public WildcardMatcher firstMatch(CharSequence firstPart, @Nullable CharSequence secondPart) {
+        if (secondPart == null) {
+            secondPart = "";
+        }
+        final int firstPartLength = firstPart.length();
+        final int totalLength = firstPartLength + secondPart.length();
+        int best = matchers.size();
+
+        Node node = prefixTrie;
+        for (int i = 0; i < totalLength && node.hasChildren() && best > 0; i++) {
+            node = node.get(Character.toLowerCase(charAt(i, firstPart, secondPart, firstPartLength)));
+            if (node == null) {
+                break;
+            }
+            best = firstMatch(node.accept, best, firstPart, secondPart);
+            if (i == totalLength - 1) {
+                best = firstMatch(node.exactAccept, best, firstPart, secondPart);
+            }
+        }
+
+        node = suffixTrie;
+        for (int i = totalLength - 1; i >= 0 && node.hasChildren() && best > 0; i--) {
+            node = node.get(Character.toLowerCase(charAt(i, firstPart, secondPart, firstPartLength)));
+            if (node == null) {
+                break;
+            }
+            best = firstMatch(node.accept, best, firstPart, secondPart);
+        }
+
+        if (infixAutomaton.hasChildren()) {
+            node = infixAutomaton;
+            for (int i = 0; i < totalLength && best > 0; i++) {
+                char c = Character.toLowerCase(charAt(i, firstPart, secondPart, firstPartLength));
+                Node next = node.get(c);
+                while (next == null && node != infixAutomaton) {
+                    node = node.failure;
+                    next = node.get(c);
+                }
+                node = next != null ? next : infixAutomaton;
+                best = firstMatch(node.accept, best, firstPart, secondPart);
+            }
+        }
+
+        for (int i = 0; i < unanchored.length; i++) {
+            int index = unanchored[i];
+            if (index >= best) {
+                break;
+            }
+            if (matchers.get(index).matches(firstPart, secondPart)) {
+                best = index;
+                break;
+            }
+        }
+        return best < matchers.size() ? matchers.get(best) : null;
+    }
+
+    /**
+     * @param candidates matcher indices in ascending order
+     * @return the first index of a matcher which matches and is lower than {@code best}, or {@code best}
+     */
+    private int firstMatch(int[] candidates, int best, CharSequence firstPart, CharSequence secondPart) {
+        for (int i = 0; i < candidates.length; i++) {
+            int index = candidates[i];
+            if (index >= best) {
+                return best;
+            }
+            if (anchorIsMatch[index] || matchers.get(index).matches(firstPart, secondPart)) {
+                return index;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public WildcardMatcher get(int index) {
+        return matchers.get(index);
+    }
+
+    @Override
+    public int size() {
+        return matchers.size();
+    }
+
+    /**
+     * Computes the Aho-Corasick failure links in breadth first order
+     * and merges the accepted indices of each node with the ones of the longest proper suffix which is also in the automaton.
+     */
+    private static void computeFailureLinks(Node root) {
+        Queue<Node> queue = new ArrayDeque<>();
+        for (int i = 0; i < root.children.length; i++) {
+            root.children[i].failure = root;
+            queue.add(root.children[i]);
+        }
+        while (!queue.isEmpty()) {
+            Node node = queue.remove();
+            for (int i = 0; i < node.children.length; i++) {
+                char c = node.keys[i];
+                Node child = node.children[i];
+                Node failure = node.failure;
+                while (failure.get(c) == null && failure != root) {
+                    failure = failure.failure;
+                }
+                Node failureChild = failure.get(c);
+                child.failure = failureChild != null ? failureChild : root;
+                child.accept = merge(child.accept, child.failure.accept);
+                queue.add(child);
+            }
+        }
+    }
+
+    private static int[] merge(int[] a, int[] b) {
+        if (b.length == 0) {
+            return a;
+        }
+        int[] merged = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, merged, a.length, b.length);
+        Arrays.sort(merged);
+        return merged;
+    }
+
+    private static int[] toIntArray(List<Integer> list) {
+        int[] array = new int[list.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i);
+        }
+        return array;
+    }
+
+    /**
+     * A trie node whose children are looked up via a binary search over the sorted, lower case keys.
+     */
+    private static class Node {
+        private static final int[] NONE = new int[0];
+
+        // the root of a trie never accepts, as matchers without an anchor are evaluated directly
+        char[] keys = new char[0];
+        Node[] children = new Node[0];
+        // indices are added in ascending order
+        int[] accept = NONE;
+        int[] exactAccept = NONE;
+        Node failure;
+
+        @Nullable
+        Node get(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            return i >= 0 ? children[i] : null;
+        }
+
+        boolean hasChildren() {
+            return children.length > 0;
+        }
+
+        Node add(String literal, boolean reverse) {
+            Node node = this;
+            for (int i = 0; i < literal.length(); i++) {
+                char c = Character.toLowerCase(literal.charAt(reverse ? literal.length() - 1 - i : i));
+                node = node.getOrCreate(c);
+            }
+            return node;
+        }
+
+        private Node getOrCreate(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            if (i >= 0) {
+                return children[i];
+            }
+            int insertionPoint = -i - 1;
+            Node child = new Node();
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, insertionPoint);
+            System.arraycopy(children, 0, newChildren, 0, insertionPoint);
+            newKeys[insertionPoint] = c;
+            newChildren[insertionPoint] = child;
+            System.arraycopy(keys, insertionPoint, newKeys, insertionPoint + 1, keys.length - insertionPoint);
+            System.arraycopy(children, insertionPoint, newChildren, insertionPoint + 1, children.length - insertionPoint);
+            keys = newKeys;
+            children = newChildren;
+            return child;
+        }
+
+        void addAccept(int index) {
+            accept = append(accept, index);
+        }
+
+        void addExactAccept(int index) {
+            exactAccept = append(exactAccept, index);
+        }
+
+        private static int[] append(int[] array, int value) {
+            int[] newArray = Arrays.copyOf(array, array.length + 1);
+            newArray[array.length] = value;
+            return newArray;
+        }
+    }
+}
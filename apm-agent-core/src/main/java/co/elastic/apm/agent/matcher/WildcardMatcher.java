@@ -187,6 +187,9 @@ public abstract class WildcardMatcher {
      */
     @Nullable
     public static WildcardMatcher anyMatch(List<WildcardMatcher> matchers, CharSequence firstPart, @Nullable CharSequence secondPart) {
+        if (matchers instanceof CompiledWildcardMatcherList) {
+            return ((CompiledWildcardMatcherList) matchers).firstMatch(firstPart, secondPart);
+        }
         for (int i = 0; i < matchers.size(); i++) {
             if (matchers.get(i).matches(firstPart, secondPart)) {
                 return matchers.get(i);
@@ -335,6 +338,10 @@ public abstract class WildcardMatcher {
         public String getMatcher() {
             return matcher;
         }
+
+        List<SimpleWildcardMatcher> getWildcardMatchers() {
+            return wildcardMatchers;
+        }
     }
 
     /**
@@ -402,5 +409,17 @@ public abstract class WildcardMatcher {
         public String getMatcher() {
             return matcher;
         }
+
+        boolean isWildcardAtBeginning() {
+            return wildcardAtBeginning;
+        }
+
+        boolean isWildcardAtEnd() {
+            return wildcardAtEnd;
+        }
+
+        boolean isIgnoreCase() {
+            return ignoreCase;
+        }
     }
 }
@@ -24,13 +24,27 @@
  */
 package co.elastic.apm.agent.matcher;
 
+import co.elastic.apm.agent.configuration.converter.ListValueConverter;
 import org.stagemonitor.configuration.converter.ValueConverter;
 
+import java.util.List;
+
 /**
  * This class is used to be able to use {@link WildcardMatcher} in a {@link org.stagemonitor.configuration.ConfigurationOption}.
  */
 public class WildcardMatcherValueConverter implements ValueConverter<WildcardMatcher> {
 
+    /**
+     * Converts a comma separated list of wildcard matchers into a {@link CompiledWildcardMatcherList},
+     * so that the matchers are compiled once per configuration change.
+     */
+    public static final ListValueConverter<WildcardMatcher> LIST = new ListValueConverter<WildcardMatcher>(new WildcardMatcherValueConverter()) {
+        @Override
+        public List<WildcardMatcher> convert(String s) {
+            return CompiledWildcardMatcherList.compile(super.convert(s));
+        }
+    };
+
     @Override
     public WildcardMatcher convert(String s) {
         return WildcardMatcher.valueOf(s);
@@ -225,11 +225,23 @@ public class MetricRegistry {
     }
 
     public void incrementCounter(String name, Labels labels) {
+        addToCounter(name, labels, 1);
+    }
+
+    /**
+     * Adds the provided value to a counter which is reset after each report.
+     *
+     * @param name   the name of the counter
+     * @param labels labels for the metric.
+     *               Note that there will be a {@link MetricSet} created for each distinct set of labels.
+     * @param delta  the value to add to the counter
+     */
+    public void addToCounter(String name, Labels labels, long delta) {
         long criticalValueAtEnter = phaser.writerCriticalSectionEnter();
         try {
             final MetricSet metricSet = getOrCreateMetricSet(labels);
             if (metricSet != null) {
-                metricSet.incrementCounter(name);
+                metricSet.addToCounter(name, delta);
             }
         } finally {
             phaser.writerCriticalSectionExit(criticalValueAtEnter);
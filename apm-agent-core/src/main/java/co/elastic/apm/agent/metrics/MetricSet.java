@@ -90,13 +90,17 @@ public class MetricSet {
     }
 
     public void incrementCounter(String name) {
+        addToCounter(name, 1);
+    }
+
+    public void addToCounter(String name, long delta) {
         hasNonEmptyCounter = true;
         AtomicLong counter = counters.get(name);
         if (counter == null) {
             counters.putIfAbsent(name, new AtomicLong());
             counter = counters.get(name);
         }
-        counter.incrementAndGet();
+        counter.addAndGet(delta);
     }
 
     public Map<String, Timer> getTimers() {
@@ -32,7 +32,6 @@ import co.elastic.apm.agent.matcher.WildcardMatcher;
 import co.elastic.apm.agent.matcher.WildcardMatcherValueConverter;
 import org.stagemonitor.configuration.ConfigurationOption;
 import org.stagemonitor.configuration.ConfigurationOptionProvider;
-import org.stagemonitor.configuration.converter.ListValueConverter;
 import org.stagemonitor.configuration.converter.UrlValueConverter;
 
 import javax.annotation.Nullable;
@@ -169,7 +168,7 @@ public class ReporterConfiguration extends ConfigurationOptionProvider {
         .buildWithDefault(TimeDuration.of("30s"));
 
     private final ConfigurationOption<List<WildcardMatcher>> disableMetrics = ConfigurationOption
-        .builder(new ListValueConverter<>(new WildcardMatcherValueConverter()), List.class)
+        .builder(WildcardMatcherValueConverter.LIST, List.class)
         .key("disable_metrics")
         .tags("added[1.3.0]")
         .configurationCategory(REPORTER_CATEGORY)
@@ -48,6 +48,7 @@ import co.elastic.apm.agent.impl.payload.RuntimeInfo;
 import co.elastic.apm.agent.impl.payload.Service;
 import co.elastic.apm.agent.impl.payload.SystemInfo;
 import co.elastic.apm.agent.impl.stacktrace.StacktraceConfiguration;
+import co.elastic.apm.agent.impl.transaction.Composite;
 import co.elastic.apm.agent.impl.transaction.Id;
 import co.elastic.apm.agent.impl.transaction.Span;
 import co.elastic.apm.agent.impl.transaction.SpanCount;
@@ -513,6 +514,7 @@ public class DslJsonSerializer implements PayloadSerializer, MetricRegistry.Metr
         writeField("duration", transaction.getDurationMs());
         writeField("result", transaction.getResult());
         serializeContext(transaction, transaction.getContext(), transaction.getTraceContext());
+        serializeMarks(transaction.getContext().getResponse());
         serializeSpanCount(transaction.getSpanCount());
         writeLastField("sampled", transaction.isSampled());
         jw.writeByte(OBJECT_END);
@@ -559,6 +561,7 @@ public class DslJsonSerializer implements PayloadSerializer, MetricRegistry.Metr
         }
         serializeSpanContext(span.getContext(), span.getTraceContext());
         writeHexArray("child_ids", span.getChildIds());
+        serializeComposite(span.getComposite());
         serializeSpanType(span);
         jw.writeByte(OBJECT_END);
     }
@@ -868,6 +871,35 @@ public class DslJsonSerializer implements PayloadSerializer, MetricRegistry.Metr
         }
     }
 
+    private void serializeComposite(final Composite composite) {
+        if (composite.getCount() > 0) {
+            writeFieldName("composite");
+            jw.writeByte(OBJECT_START);
+            writeField("count", composite.getCount());
+            writeField("sum", composite.getSumMs());
+            writeLastField("compression_strategy", Composite.EXACT_MATCH);
+            jw.writeByte(OBJECT_END);
+            jw.writeByte(COMMA);
+        }
+    }
+
+    /**
+     * Serializes the points in time, relative to the start of the transaction, at which the application has reached certain milestones.
+     */
+    private void serializeMarks(final Response response) {
+        if (response.getTimeToFirstByteUs() >= 0) {
+            writeFieldName("marks");
+            jw.writeByte(OBJECT_START);
+            writeFieldName("response");
+            jw.writeByte(OBJECT_START);
+            writeFieldName("first_byte");
+            NumberConverter.serialize(response.getTimeToFirstByteMs(), jw);
+            jw.writeByte(OBJECT_END);
+            jw.writeByte(OBJECT_END);
+            jw.writeByte(COMMA);
+        }
+    }
+
     private void serializeSpanCount(final SpanCount spanCount) {
         writeFieldName("span_count");
         jw.writeByte(OBJECT_START);
@@ -1027,6 +1059,9 @@ public class DslJsonSerializer implements PayloadSerializer, MetricRegistry.Metr
             writeField("headers", response.getHeaders());
             writeField("finished", response.isFinished());
             writeField("headers_sent", response.isHeadersSent());
+            if (response.getEncodedBodySize() >= 0) {
+                writeField("encoded_body_size", response.getEncodedBodySize());
+            }
             writeFieldName("status_code");
             NumberConverter.serialize(response.getStatusCode(), jw);
             jw.writeByte(OBJECT_END);
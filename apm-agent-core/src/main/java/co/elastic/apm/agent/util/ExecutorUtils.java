@@ -49,7 +49,13 @@ public final class ExecutorUtils {
     public static ThreadPoolExecutor createSingleThreadDeamonPool(final String threadPurpose, int queueCapacity) {
         String threadName = ThreadUtils.addElasticApmThreadPrefix(threadPurpose);
         final ThreadFactory daemonThreadFactory = new NamedThreadFactory(threadName);
-        return new NamedDaemonThreadPoolExecutor(queueCapacity, daemonThreadFactory, threadName);
+        return new NamedDaemonThreadPoolExecutor(1, queueCapacity, daemonThreadFactory, threadName);
+    }
+
+    public static ThreadPoolExecutor createThreadDaemonPool(final String threadPurpose, int poolSize, int queueCapacity) {
+        String threadName = ThreadUtils.addElasticApmThreadPrefix(threadPurpose);
+        final ThreadFactory daemonThreadFactory = new NamedThreadFactory(threadName);
+        return new NamedDaemonThreadPoolExecutor(poolSize, queueCapacity, daemonThreadFactory, threadName);
     }
 
     public static class NamedThreadFactory implements ThreadFactory {
@@ -71,8 +77,8 @@ public final class ExecutorUtils {
     private static class NamedDaemonThreadPoolExecutor extends ThreadPoolExecutor {
         private final String threadName;
 
-        NamedDaemonThreadPoolExecutor(int queueCapacity, ThreadFactory daemonThreadFactory, String threadName) {
-            super(1, 1, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(queueCapacity), daemonThreadFactory);
+        NamedDaemonThreadPoolExecutor(int poolSize, int queueCapacity, ThreadFactory daemonThreadFactory, String threadName) {
+            super(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(queueCapacity), daemonThreadFactory);
             this.threadName = threadName;
         }
 
@@ -77,7 +77,29 @@ public class HexUtils {
         sb.append(hexArray[v & 0x0F]);
     }
 
-    public static byte getNextByte(String hexEncodedString, int offset) {
+    /**
+     * Writes the hex representation of the provided bytes into a char buffer, without allocating.
+     *
+     * @param bytes  the bytes to encode
+     * @param buffer the buffer to write to, must have at least {@code bytes.length * 2} chars left, starting at {@code offset}
+     * @param offset the offset in the buffer
+     * @return the offset in the buffer after the last written char
+     */
+    public static int writeBytesAsHex(byte[] bytes, char[] buffer, int offset) {
+        for (int i = 0; i < bytes.length; i++) {
+            offset = writeByteAsHex(bytes[i], buffer, offset);
+        }
+        return offset;
+    }
+
+    public static int writeByteAsHex(byte b, char[] buffer, int offset) {
+        int v = b & 0xFF;
+        buffer[offset++] = hexArray[v >>> 4];
+        buffer[offset++] = hexArray[v & 0x0F];
+        return offset;
+    }
+
+    public static byte getNextByte(CharSequence hexEncodedString, int offset) {
         final int hi = hexCharToBinary(hexEncodedString.charAt(offset));
         final int lo = hexCharToBinary(hexEncodedString.charAt(offset + 1));
         if (hi == -1 || lo == -1) {
@@ -99,7 +121,7 @@ public class HexUtils {
         return -1;
     }
 
-    public static void nextBytes(String hexEncodedString, int offset, byte[] bytes) {
+    public static void nextBytes(CharSequence hexEncodedString, int offset, byte[] bytes) {
         final int charsToRead = bytes.length * 2;
         if (hexEncodedString.length() < offset + charsToRead) {
             throw new IllegalArgumentException(String.format("Can't read %d bytes from string %s with offset %d", bytes.length, hexEncodedString, offset));
@@ -109,7 +131,7 @@ public class HexUtils {
         }
     }
 
-    public static void decode(String hexEncodedString, int srcOffset, int srcLength, byte[] bytes, int destOffset) {
+    public static void decode(CharSequence hexEncodedString, int srcOffset, int srcLength, byte[] bytes, int destOffset) {
         if (hexEncodedString.length() < srcOffset + srcLength) {
             throw new IllegalArgumentException(String.format("Can't read %d chars from string %s with offset %d", srcLength, hexEncodedString, srcOffset));
         }
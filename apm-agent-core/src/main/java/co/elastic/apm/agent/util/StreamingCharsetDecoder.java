@@ -0,0 +1,157 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.util;
+
+import co.elastic.apm.agent.bci.VisibleForAdvice;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decodes a stream of bytes which is provided in arbitrary chunks into a {@link CharBuffer}, without allocating memory per chunk.
+ * <p>
+ * As opposed to {@link IOUtils#decodeUtf8Bytes(byte[], int, int, CharBuffer)},
+ * characters whose bytes are split across two chunks are decoded correctly,
+ * as the bytes of an incomplete character are retained until the next chunk is decoded.
+ * This also supports reading a stream byte by byte, which is a common pattern for multi-byte characters.
+ * </p>
+ * <p>
+ * Note: This class is not thread safe, there has to be one instance per stream.
+ * </p>
+ */
+@VisibleForAdvice
+public class StreamingCharsetDecoder {
+
+    /**
+     * The maximum number of bytes of an incomplete character, which is 3 for UTF-8 but may be more for other charsets
+     */
+    private static final int MAX_PENDING_BYTES = 8;
+    private static final int BYTE_BUFFER_CAPACITY = 2048;
+    private static final ThreadLocal<ByteBuffer> threadLocalByteBuffer = new ThreadLocal<ByteBuffer>() {
+        @Override
+        protected ByteBuffer initialValue() {
+            return ByteBuffer.allocate(BYTE_BUFFER_CAPACITY + MAX_PENDING_BYTES);
+        }
+    };
+    /**
+     * Holds the decoder for the charset which has been used most recently on the current thread
+     */
+    private static final ThreadLocal<CharsetDecoder> threadLocalCharsetDecoder = new ThreadLocal<CharsetDecoder>() {
+        @Override
+        protected CharsetDecoder initialValue() {
+            return StandardCharsets.UTF_8.newDecoder();
+        }
+    };
+
+    private final Charset charset;
+    private final byte[] pendingBytes = new byte[MAX_PENDING_BYTES];
+    private int pendingBytesLength;
+    private final byte[] singleByte = new byte[1];
+
+    @VisibleForAdvice
+    public StreamingCharsetDecoder(Charset charset) {
+        this.charset = charset;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Decodes the next chunk of the stream into the provided char buffer.
+     * <p>
+     * If the bytes yield more chars than the {@link CharBuffer#limit()} of the provided {@link CharBuffer},
+     * the returned {@link CoderResult} will have the {@link CoderResult#isOverflow()} flag set to true.
+     * If the bytes are not valid for the charset of this decoder,
+     * the returned {@link CoderResult} will have the {@link CoderResult#isError()} flag set to true.
+     * </p>
+     * <p>
+     * NOTE: This method does not {@link CharBuffer#flip()} the provided {@link CharBuffer} so that this method can be called multiple times
+     * with the same {@link CharBuffer}.
+     * </p>
+     *
+     * @param bytes      the source byte[]
+     * @param offset     the start offset in array <code>bytes</code> at which the data is read
+     * @param length     the number of bytes to read
+     * @param charBuffer the {@link CharBuffer} the bytes should be decoded into
+     * @return a {@link CoderResult}, indicating the success or failure of the decoding
+     */
+    public CoderResult decode(final byte[] bytes, int offset, int length, final CharBuffer charBuffer) {
+        final CharsetDecoder charsetDecoder = getCharsetDecoder();
+        // to be compatible with Java 8, we have to cast to buffer because of different return types
+        final ByteBuffer buffer = threadLocalByteBuffer.get();
+        try {
+            while (length > 0) {
+                ((Buffer) buffer).clear();
+                buffer.put(pendingBytes, 0, pendingBytesLength);
+                pendingBytesLength = 0;
+                final int chunkLength = Math.min(length, BYTE_BUFFER_CAPACITY);
+                buffer.put(bytes, offset, chunkLength);
+                offset += chunkLength;
+                length -= chunkLength;
+                ((Buffer) buffer).flip();
+
+                charsetDecoder.reset();
+                final CoderResult coderResult = charsetDecoder.decode(buffer, charBuffer, false);
+                if (coderResult.isError() || coderResult.isOverflow()) {
+                    return coderResult;
+                }
+                // on underflow, the remaining bytes are the beginning of a character which continues in the next chunk
+                final int remaining = buffer.remaining();
+                if (remaining > MAX_PENDING_BYTES) {
+                    return CoderResult.malformedForLength(remaining);
+                }
+                buffer.get(pendingBytes, 0, remaining);
+                pendingBytesLength = remaining;
+            }
+            return CoderResult.UNDERFLOW;
+        } finally {
+            ((Buffer) buffer).clear();
+            charsetDecoder.reset();
+        }
+    }
+
+    /**
+     * Same as {@link #decode(byte[], int, int, CharBuffer)} for a single byte
+     */
+    public CoderResult decode(final byte b, final CharBuffer charBuffer) {
+        singleByte[0] = b;
+        return decode(singleByte, 0, 1, charBuffer);
+    }
+
+    private CharsetDecoder getCharsetDecoder() {
+        CharsetDecoder charsetDecoder = threadLocalCharsetDecoder.get();
+        if (!charsetDecoder.charset().equals(charset)) {
+            charsetDecoder = charset.newDecoder();
+            threadLocalCharsetDecoder.set(charsetDecoder);
+        }
+        return charsetDecoder;
+    }
+}
@@ -81,6 +81,43 @@ class HelperClassManagerTest {
         assertThatCode(() -> helperClassManager.doGetForClassLoaderOfClass(libClass1)).doesNotThrowAnyException();
     }
 
+    @Test
+    void testPreWarmSingleClassLoader() {
+        final HelperClassManager.ForSingleClassLoader<Object> helperClassManager = HelperClassManager.ForSingleClassLoader.of(mock(ElasticApmTracer.class),
+            "co.elastic.apm.agent.bci.HelperClassManagerTest$InnerTestClass$HelperClassImpl",
+            "co.elastic.apm.agent.bci.HelperClassManagerTest$InnerTestClass$AdditionalHelper");
+
+        helperClassManager.doPreWarm(HelperClassManagerTest.class);
+        Object helper = helperClassManager.getForClassLoaderOfClass(HelperClassManagerTest.class);
+        assertThat(helper).isNotNull();
+
+        // pre-warming an already loaded helper is a noop
+        helperClassManager.doPreWarm(HelperClassManagerTest.class);
+        assertThat(helperClassManager.getForClassLoaderOfClass(HelperClassManagerTest.class)).isSameAs(helper);
+    }
+
+    @Test
+    void testPreWarmFailureIsNotCachedSingleClassLoader() {
+        final HelperClassManager.ForSingleClassLoader<Object> helperClassManager = HelperClassManager.ForSingleClassLoader.of(mock(ElasticApmTracer.class),
+            "co.elastic.apm.agent.bci.NonExistingHelperClass");
+        assertThatThrownBy(() -> helperClassManager.doPreWarm(getClass())).isInstanceOf(RuntimeException.class);
+        // the lazy loading on first usage is still attempted once
+        assertFailLoadingOnlyOnce(helperClassManager, getClass());
+    }
+
+    @Test
+    void testPreWarmFailureIsNotCachedAnyClassLoader() throws ClassNotFoundException {
+        final HelperClassManager.ForAnyClassLoader<Object> helperClassManager = HelperClassManager.ForAnyClassLoader.of(mock(ElasticApmTracer.class),
+            "co.elastic.apm.agent.bci.NonExistingHelperClass");
+        URL[] urls = {getClass().getProtectionDomain().getCodeSource().getLocation()};
+        ClassLoader targetClassLoader = new URLClassLoader(urls, getClass().getClassLoader().getParent());
+        Class libClass = targetClassLoader.loadClass("co.elastic.apm.agent.bci.HelperClassManagerTest$InnerTestClass$LibClass");
+
+        assertThatThrownBy(() -> helperClassManager.doPreWarm(libClass)).isInstanceOf(RuntimeException.class);
+        assertThat(helperClassManager.clId2helperMap.containsKey(targetClassLoader)).isFalse();
+        assertFailLoadingOnlyOnce(helperClassManager, libClass);
+    }
+
     @SuppressWarnings("UnusedAssignment")
     @Test
     void testCaching() throws ClassNotFoundException, InterruptedException {
@@ -0,0 +1,63 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.cache;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FrequencyAwareCacheTest {
+
+    private final FrequencyAwareCache<String, String> cache = new FrequencyAwareCache<>(100);
+
+    @Test
+    void testIsBounded() {
+        for (int i = 0; i < 1000; i++) {
+            put("key" + i);
+        }
+        assertThat(cache.size()).isLessThanOrEqualTo(100);
+    }
+
+    @Test
+    void testFrequentEntriesAreNotEvictedByOneHitWonders() {
+        for (int i = 0; i < 50; i++) {
+            for (int j = 0; j < 5; j++) {
+                cache.get("frequent" + i);
+            }
+            put("frequent" + i);
+        }
+        for (int i = 0; i < 1000; i++) {
+            cache.get("rare" + i);
+            put("rare" + i);
+        }
+        for (int i = 0; i < 50; i++) {
+            assertThat(cache.get("frequent" + i)).isNotNull();
+        }
+    }
+
+    private void put(String key) {
+        cache.put(key, key);
+    }
+}
@@ -42,9 +42,11 @@ import org.junit.jupiter.api.Test;
 import org.stagemonitor.configuration.ConfigurationRegistry;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.FutureTask;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -120,6 +122,32 @@ class ElasticApmTracerTest {
         assertThat(reporter.getSpans()).hasSize(2);
     }
 
+    @Test
+    void testActivationOnNewThread() throws Exception {
+        // assertion errors are rethrown by FutureTask#get
+        FutureTask<Void> task = new FutureTask<>(() -> {
+            assertThat(tracerImpl.getActive()).isNull();
+            assertThat(tracerImpl.currentTransaction()).isNull();
+            Transaction transaction = tracerImpl.startRootTransaction(getClass().getClassLoader()).activate();
+            // exceeds the initial capacity of the activation stack
+            List<Span> spans = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                spans.add(tracerImpl.getActive().createSpan().activate());
+            }
+            assertThat(tracerImpl.getActive()).isSameAs(spans.get(spans.size() - 1));
+            assertThat(tracerImpl.currentTransaction()).isSameAs(transaction);
+            for (int i = spans.size() - 1; i >= 0; i--) {
+                spans.get(i).deactivate().end();
+            }
+            transaction.deactivate().end();
+            assertThat(tracerImpl.getActive()).isNull();
+        }, null);
+        new Thread(task).start();
+        task.get();
+        assertThat(reporter.getTransactions()).hasSize(1);
+        assertThat(reporter.getSpans()).hasSize(10);
+    }
+
     @Test
     void testDisableStacktraces() {
         when(tracerImpl.getConfig(StacktraceConfiguration.class).getSpanFramesMinDurationMs()).thenReturn(0L);
@@ -0,0 +1,235 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.impl;
+
+import co.elastic.apm.agent.MockReporter;
+import co.elastic.apm.agent.configuration.CoreConfiguration;
+import co.elastic.apm.agent.configuration.SpyConfiguration;
+import co.elastic.apm.agent.impl.sampling.ConstantSampler;
+import co.elastic.apm.agent.impl.stacktrace.StacktraceConfiguration;
+import co.elastic.apm.agent.impl.transaction.Span;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import co.elastic.apm.agent.objectpool.TestObjectPoolFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.stagemonitor.configuration.ConfigurationRegistry;
+
+import java.util.HashMap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+class SpanCompressionTest {
+
+    private ElasticApmTracer tracer;
+    private MockReporter reporter;
+    private ConfigurationRegistry config;
+    private TestObjectPoolFactory objectPoolFactory;
+
+    @BeforeEach
+    void setUp() {
+        objectPoolFactory = new TestObjectPoolFactory();
+        reporter = new MockReporter();
+        config = SpyConfiguration.createSpyConfig();
+        when(config.getConfig(CoreConfiguration.class).isSpanCompressionEnabled()).thenReturn(true);
+        tracer = new ElasticApmTracerBuilder()
+            .configurationRegistry(config)
+            .reporter(reporter)
+            .withObjectPoolFactory(objectPoolFactory)
+            .build();
+        tracer.start();
+    }
+
+    @AfterEach
+    void cleanupAndCheck() {
+        reporter.assertRecycledAfterDecrementingReferences();
+        objectPoolFactory.checkAllPooledObjectsHaveBeenRecycled();
+    }
+
+    @Test
+    void testConsecutiveExitSpansAreCompressed() {
+        Transaction transaction = startTransaction();
+        exitSpan(transaction, "SELECT FROM foo", 1000, 1000);
+        exitSpan(transaction, "SELECT FROM foo", 2500, 500);
+        exitSpan(transaction, "SELECT FROM foo", 3000, 2000);
+        assertThat(reporter.getSpans()).isEmpty();
+        transaction.end(10_000);
+
+        assertThat(reporter.getSpans()).hasSize(1);
+        Span composite = reporter.getFirstSpan();
+        assertThat(composite.getNameAsString()).isEqualTo("SELECT FROM foo");
+        assertThat(composite.getTimestamp()).isEqualTo(1000);
+        assertThat(composite.getDuration()).isEqualTo(4000);
+        assertThat(composite.getComposite().getCount()).isEqualTo(3);
+        assertThat(composite.getComposite().getSum()).isEqualTo(3500);
+        assertThat(composite.getComposite().getMin()).isEqualTo(500);
+        assertThat(composite.getComposite().getMax()).isEqualTo(2000);
+    }
+
+    @Test
+    void testDifferentSiblingFlushesBufferedSpan() {
+        Transaction transaction = startTransaction();
+        exitSpan(transaction, "SELECT FROM foo", 1000, 1000);
+        exitSpan(transaction, "SELECT FROM foo", 2000, 1000);
+        exitSpan(transaction, "SELECT FROM bar", 3000, 1000);
+        assertThat(reporter.getSpans()).hasSize(1);
+        assertThat(reporter.getFirstSpan().getComposite().getCount()).isEqualTo(2);
+
+        exitSpan(transaction, "SELECT FROM foo", 4000, 1000);
+        assertThat(reporter.getSpans()).hasSize(2);
+        transaction.end(10_000);
+
+        assertThat(reporter.getSpans()).hasSize(3);
+        assertThat(reporter.getSpans().get(1).getNameAsString()).isEqualTo("SELECT FROM bar");
+        assertThat(reporter.getSpans().get(1).getComposite().getCount()).isZero();
+        assertThat(reporter.getSpans().get(2).getNameAsString()).isEqualTo("SELECT FROM foo");
+        assertThat(reporter.getSpans().get(2).getComposite().getCount()).isZero();
+    }
+
+    @Test
+    void testDifferentDestinationIsNotCompressed() {
+        Transaction transaction = startTransaction();
+        exitSpan(transaction, "SELECT FROM foo", 1000, 1000);
+        Span span = transaction.createSpan(2000).asExit().withType("db").withSubtype("mysql").appendToName("SELECT FROM foo");
+        span.getContext().getDestination().withAddress("other-host").withPort(3306)
+            .getService().withName("mysql").withResource("mysql").withType("db");
+        span.end(3000);
+        transaction.end(10_000);
+
+        assertThat(reporter.getSpans()).hasSize(2);
+        assertThat(reporter.getSpans()).allSatisfy(s -> assertThat(s.getComposite().getCount()).isZero());
+    }
+
+    @Test
+    void testNonExitSpansAreNotCompressed() {
+        Transaction transaction = startTransaction();
+        transaction.createSpan(1000).withType("app").appendToName("foo").end(2000);
+        transaction.createSpan(2000).withType("app").appendToName("foo").end(3000);
+        assertThat(reporter.getSpans()).hasSize(2);
+        transaction.end(10_000);
+        assertThat(reporter.getSpans()).hasSize(2);
+    }
+
+    @Test
+    void testContextPropagatingSpansAreNotCompressed() {
+        Transaction transaction = startTransaction();
+        for (int i = 0; i < 2; i++) {
+            Span span = transaction.createSpan(1000).asExit().withType("external").withSubtype("http").appendToName("GET localhost");
+            span.getContext().getDestination().withAddress("localhost").withPort(8080)
+                .getService().withName("http://localhost:8080").withResource("localhost:8080").withType("external");
+            span.propagateTraceContext(new HashMap<>(), TextHeaderMapAccessor.INSTANCE);
+            span.end(2000);
+        }
+        assertThat(reporter.getSpans()).hasSize(2);
+        transaction.end(10_000);
+    }
+
+    @Test
+    void testSlowSpansAreNotCompressed() {
+        Transaction transaction = startTransaction();
+        exitSpan(transaction, "SELECT FROM foo", 1000, 1000);
+        exitSpan(transaction, "SELECT FROM foo", 2000, 100_000);
+        assertThat(reporter.getSpans()).hasSize(2);
+        transaction.end(200_000);
+        assertThat(reporter.getSpans()).hasSize(2);
+        assertThat(reporter.getSpans()).allSatisfy(span -> assertThat(span.getComposite().getCount()).isZero());
+    }
+
+    @Test
+    void testSpansEndingAfterParentAreReportedRightAway() {
+        Transaction transaction = startTransaction();
+        Span parent = transaction.createSpan(1000).withType("app").appendToName("parent");
+        Span child = parent.createSpan(2000).asExit().withType("db").withSubtype("mysql").appendToName("SELECT FROM foo");
+        child.getContext().getDestination().withAddress("localhost").withPort(3306)
+            .getService().withName("mysql").withResource("mysql").withType("db");
+        parent.end(3000);
+        assertThat(reporter.getSpans()).hasSize(1);
+        child.end(4000);
+        assertThat(reporter.getSpans()).hasSize(2);
+        transaction.end(10_000);
+    }
+
+    @Test
+    void testCompressedSpansDoNotCountTowardsSpanLimit() {
+        when(config.getConfig(CoreConfiguration.class).getTransactionMaxSpans()).thenReturn(3);
+        Transaction transaction = startTransaction();
+        for (int i = 0; i < 10; i++) {
+            exitSpan(transaction, "SELECT FROM foo", 1000 + i * 1000, 500);
+        }
+        exitSpan(transaction, "SELECT FROM bar", 20_000, 500);
+        exitSpan(transaction, "SELECT FROM baz", 21_000, 500);
+        transaction.end(30_000);
+
+        assertThat(reporter.getSpans()).hasSize(3);
+        assertThat(reporter.getFirstSpan().getComposite().getCount()).isEqualTo(10);
+        assertThat(transaction.getSpanCount().getCompressed()).hasValue(9);
+        assertThat(transaction.getSpanCount().getDropped()).hasValue(0);
+        assertThat(transaction.getSpanCount().getReported()).hasValue(3);
+    }
+
+    @Test
+    void testStackTraceIsNotCapturedForCompressionEligibleSpans() {
+        when(config.getConfig(StacktraceConfiguration.class).getSpanFramesMinDurationMs()).thenReturn(-1L);
+        Transaction transaction = startTransaction();
+        exitSpan(transaction, "SELECT FROM foo", 1000, 1000);
+        exitSpan(transaction, "SELECT FROM foo", 2000, 1000);
+        exitSpan(transaction, "SELECT FROM foo", 3000, 100_000);
+        transaction.end(200_000);
+
+        assertThat(reporter.getSpans()).hasSize(2);
+        assertThat(reporter.getSpans().get(0).getComposite().getCount()).isEqualTo(2);
+        assertThat(reporter.getSpans().get(0).getStacktrace()).isNull();
+        assertThat(reporter.getSpans().get(1).getComposite().getCount()).isZero();
+        assertThat(reporter.getSpans().get(1).getStacktrace()).isNotNull();
+    }
+
+    @Test
+    void testDisabled() {
+        when(config.getConfig(CoreConfiguration.class).isSpanCompressionEnabled()).thenReturn(false);
+        Transaction transaction = startTransaction();
+        exitSpan(transaction, "SELECT FROM foo", 1000, 1000);
+        exitSpan(transaction, "SELECT FROM foo", 2000, 1000);
+        assertThat(reporter.getSpans()).hasSize(2);
+        transaction.end(10_000);
+    }
+
+    private Transaction startTransaction() {
+        Transaction transaction = tracer.startRootTransaction(ConstantSampler.of(true), 0, null);
+        assertThat(transaction).isNotNull();
+        return transaction;
+    }
+
+    private static void exitSpan(Transaction transaction, String name, long timestamp, long duration) {
+        Span span = transaction.createSpan(timestamp)
+            .asExit()
+            .withType("db")
+            .withSubtype("mysql")
+            .appendToName(name);
+        span.getContext().getDestination().withAddress("localhost").withPort(3306)
+            .getService().withName("mysql").withResource("mysql").withType("db");
+        span.end(timestamp + duration);
+    }
+}
@@ -402,6 +402,39 @@ class SpanTypeBreakdownTest {
         });
     }
 
+    @Test
+    void testResponseMetrics() {
+        final Transaction transaction = tracer.startRootTransaction(ConstantSampler.of(false), 0, getClass().getClassLoader())
+            .withName("test")
+            .withType("request");
+        transaction.getContext().getResponse()
+            .withEncodedBodySize(42)
+            .withTimeToFirstByteUs(10);
+        transaction.end(30);
+
+        tracer.getMetricRegistry().report(metricSets -> {
+            final MetricSet metricSet = metricSets.get(Labels.Mutable.of().transactionName("test").transactionType("request"));
+            assertThat(metricSet.getCounters().get("transaction.response.body.count").get()).isEqualTo(1);
+            assertThat(metricSet.getCounters().get("transaction.response.body.bytes").get()).isEqualTo(42);
+            assertThat(getTimer(metricSets, "transaction.response.first_byte", null, null).getCount()).isEqualTo(1);
+            assertThat(getTimer(metricSets, "transaction.response.first_byte", null, null).getTotalTimeUs()).isEqualTo(10);
+        });
+    }
+
+    @Test
+    void testResponseMetrics_notTracked() {
+        tracer.startRootTransaction(ConstantSampler.of(true), 0, getClass().getClassLoader())
+            .withName("test")
+            .withType("request")
+            .end(30);
+
+        tracer.getMetricRegistry().report(metricSets -> {
+            final MetricSet metricSet = metricSets.get(Labels.Mutable.of().transactionName("test").transactionType("request"));
+            assertThat(metricSet.getCounters().get("transaction.response.body.count")).isNull();
+            assertThat(metricSet.getTimers().get("transaction.response.first_byte")).isNull();
+        });
+    }
+
     private void assertThatTransactionBreakdownCounterCreated(Map<? extends Labels, MetricSet> metricSets) {
         assertThat(metricSets.get(Labels.Mutable.of().transactionName("test").transactionType("request")).getCounters().get("transaction.breakdown.count").get()).isEqualTo(1);
     }
@@ -0,0 +1,188 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.impl;
+
+import co.elastic.apm.agent.MockReporter;
+import co.elastic.apm.agent.configuration.CoreConfiguration;
+import co.elastic.apm.agent.configuration.SpyConfiguration;
+import co.elastic.apm.agent.impl.sampling.ConstantSampler;
+import co.elastic.apm.agent.impl.transaction.Span;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import co.elastic.apm.agent.objectpool.TestObjectPoolFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.stagemonitor.configuration.ConfigurationRegistry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.when;
+
+class TailSamplingTest {
+
+    private ElasticApmTracer tracer;
+    private MockReporter reporter;
+    private ConfigurationRegistry config;
+    private TestObjectPoolFactory objectPoolFactory;
+
+    @BeforeEach
+    void setUp() {
+        objectPoolFactory = new TestObjectPoolFactory();
+        reporter = new MockReporter();
+        config = SpyConfiguration.createSpyConfig();
+        when(config.getConfig(CoreConfiguration.class).isTailSamplingEnabled()).thenReturn(true);
+        tracer = new ElasticApmTracerBuilder()
+            .configurationRegistry(config)
+            .reporter(reporter)
+            .withObjectPoolFactory(objectPoolFactory)
+            .build();
+        tracer.start();
+    }
+
+    @AfterEach
+    void cleanupAndCheck() {
+        assertThat(tracer.getTailSampler().getBufferedSpans()).isZero();
+        reporter.assertRecycledAfterDecrementingReferences();
+        objectPoolFactory.checkAllPooledObjectsHaveBeenRecycled();
+    }
+
+    @Test
+    void testFastTransactionIsNotKept() {
+        Transaction transaction = startUnsampledTransaction();
+        assertThat(transaction.isSampled()).isTrue();
+        assertThat(transaction.getTraceContext().isTailSamplingCandidate()).isTrue();
+
+        transaction.createSpan().end();
+        assertThat(reporter.getSpans()).isEmpty();
+        assertThat(tracer.getTailSampler().getBufferedSpans()).isOne();
+
+        transaction.end();
+
+        assertThat(reporter.getFirstTransaction().isSampled()).isFalse();
+        assertThat(reporter.getSpans()).isEmpty();
+        assertThat(transaction.getSpanCount().getDropped()).hasValue(1);
+        assertThat(transaction.getSpanCount().getReported()).hasValue(0);
+    }
+
+    @Test
+    void testSlowTransactionIsKept() {
+        Transaction transaction = startUnsampledTransaction();
+        transaction.createSpan().end();
+
+        transaction.end(transaction.getTimestamp() + 2_000_000);
+
+        assertThat(reporter.getFirstTransaction().isSampled()).isTrue();
+        assertThat(reporter.getSpans()).hasSize(1);
+        assertThat(transaction.getSpanCount().getDropped()).hasValue(0);
+        assertThat(transaction.getSpanCount().getReported()).hasValue(1);
+    }
+
+    @Test
+    void testTransactionWithMatchingResultIsKept() {
+        Transaction transaction = startUnsampledTransaction();
+        transaction.createSpan().end();
+
+        transaction.withResult("HTTP 5xx").end();
+
+        assertThat(reporter.getFirstTransaction().isSampled()).isTrue();
+        assertThat(reporter.getSpans()).hasSize(1);
+    }
+
+    @Test
+    void testTransactionWithErrorIsKept() {
+        Transaction transaction = startUnsampledTransaction();
+        Span span = transaction.createSpan();
+        span.captureException(new Exception());
+        span.end();
+
+        transaction.end();
+
+        assertThat(reporter.getFirstTransaction().isSampled()).isTrue();
+        assertThat(reporter.getSpans()).hasSize(1);
+    }
+
+    @Test
+    void testSpanEndingAfterDecision() {
+        Transaction transaction = startUnsampledTransaction();
+        Span span = transaction.createSpan();
+
+        transaction.end();
+        span.end();
+
+        assertThat(reporter.getFirstTransaction().isSampled()).isFalse();
+        assertThat(reporter.getSpans()).isEmpty();
+    }
+
+    @Test
+    void testBufferLimitFallsBackToHeadBasedDecision() {
+        when(config.getConfig(CoreConfiguration.class).getTailSamplingMaxBufferedSpans()).thenReturn(1);
+        Transaction transaction = startUnsampledTransaction();
+        transaction.createSpan().end();
+        transaction.createSpan().end();
+        assertThat(transaction.isSampled()).isFalse();
+
+        transaction.end(transaction.getTimestamp() + 2_000_000);
+
+        assertThat(reporter.getFirstTransaction().isSampled()).isFalse();
+        assertThat(reporter.getSpans()).isEmpty();
+        assertThat(transaction.getSpanCount().getDropped()).hasValue(2);
+    }
+
+    @Test
+    void testTailSamplingDecisionIsNotPropagated() {
+        Transaction transaction = startUnsampledTransaction();
+        Map<String, String> headers = new HashMap<>();
+        transaction.propagateTraceContext(headers, TextHeaderMapAccessor.INSTANCE);
+        assertThat(headers.get("traceparent")).endsWith("-00");
+        assertThat(headers.get("traceparent")).contains(transaction.getTraceContext().getTransactionId().toString());
+        transaction.end();
+    }
+
+    @Test
+    void testSampledTransactionIsNoCandidate() {
+        Transaction transaction = tracer.startRootTransaction(ConstantSampler.of(true), -1, null);
+        assertThat(transaction.getTraceContext().isTailSamplingCandidate()).isFalse();
+        transaction.createSpan().end();
+        assertThat(reporter.getSpans()).hasSize(1);
+        transaction.end();
+    }
+
+    @Test
+    void testDisabled() {
+        when(config.getConfig(CoreConfiguration.class).isTailSamplingEnabled()).thenReturn(false);
+        Transaction transaction = startUnsampledTransaction();
+        assertThat(transaction.isSampled()).isFalse();
+        assertThat(transaction.getTraceContext().isTailSamplingCandidate()).isFalse();
+        transaction.end();
+    }
+
+    private Transaction startUnsampledTransaction() {
+        Transaction transaction = tracer.startRootTransaction(ConstantSampler.of(false), -1, null);
+        assertThat(transaction).isNotNull();
+        return transaction;
+    }
+}
@@ -0,0 +1,130 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.impl.context;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RequestTest {
+
+    @Test
+    void testBodyBufferMemoryLimit() {
+        final Request first = new Request();
+        final Request second = new Request();
+        final long bytesInFlight = Request.getBodyBufferBytesInFlight();
+
+        assertThat((Object) first.withBodyBuffer(Long.MAX_VALUE)).isNotNull();
+        final long bytesPerBuffer = Request.getBodyBufferBytesInFlight() - bytesInFlight;
+        assertThat(bytesPerBuffer).isPositive();
+
+        // the limit is only just reached with the first buffer
+        assertThat((Object) second.withBodyBuffer(bytesInFlight + bytesPerBuffer)).isNull();
+        assertThat((Object) second.getBodyBuffer()).isNull();
+        assertThat(Request.getBodyBufferBytesInFlight()).isEqualTo(bytesInFlight + bytesPerBuffer);
+
+        first.resetState();
+        assertThat(Request.getBodyBufferBytesInFlight()).isEqualTo(bytesInFlight);
+        assertThat((Object) second.withBodyBuffer(bytesInFlight + bytesPerBuffer)).isNotNull();
+
+        second.redactBody();
+        assertThat(Request.getBodyBufferBytesInFlight()).isEqualTo(bytesInFlight);
+    }
+
+    @Test
+    void testBodyBufferIsOnlyAccountedOnce() {
+        final Request request = new Request();
+        final long bytesInFlight = Request.getBodyBufferBytesInFlight();
+
+        request.withBodyBuffer();
+        final long bytesWithBuffer = Request.getBodyBufferBytesInFlight();
+        request.withBodyBuffer();
+        request.withBodyBuffer(Long.MAX_VALUE);
+        assertThat(Request.getBodyBufferBytesInFlight()).isEqualTo(bytesWithBuffer);
+
+        request.resetState();
+        request.resetState();
+        assertThat(Request.getBodyBufferBytesInFlight()).isEqualTo(bytesInFlight);
+    }
+
+    @Test
+    void testLazyHeadersAreOnlyCopiedWhenMaterialized() {
+        final Request request = new Request();
+        final Map<String, String> source = new HashMap<>();
+        source.put("foo", "bar");
+        request.withLazyHeaders(source, MapHeaderCopier.INSTANCE);
+        assertThat(request.getHeaders().isEmpty()).isTrue();
+
+        request.materializeHeaders();
+        assertThat(request.getHeaders().get("foo")).isEqualTo("bar");
+
+        // the reference to the source has been released
+        source.put("baz", "qux");
+        request.materializeHeaders();
+        assertThat(request.getHeaders().size()).isEqualTo(1);
+    }
+
+    @Test
+    void testCopyFromCopiesLazyHeadersWithoutMaterializingThem() {
+        final Request request = new Request();
+        final Map<String, String> source = new HashMap<>();
+        source.put("foo", "bar");
+        request.withLazyHeaders(source, MapHeaderCopier.INSTANCE);
+
+        final Request copy = new Request();
+        copy.copyFrom(request);
+        assertThat(copy.getHeaders().get("foo")).isEqualTo("bar");
+        assertThat(request.getHeaders().isEmpty()).isTrue();
+
+        request.materializeHeaders();
+        assertThat(request.getHeaders().get("foo")).isEqualTo("bar");
+    }
+
+    @Test
+    void testResetReleasesLazyHeaders() {
+        final Request request = new Request();
+        final Map<String, String> source = new HashMap<>();
+        source.put("foo", "bar");
+        request.withLazyHeaders(source, MapHeaderCopier.INSTANCE);
+
+        request.resetState();
+        request.materializeHeaders();
+        assertThat(request.getHeaders().isEmpty()).isTrue();
+    }
+
+    private enum MapHeaderCopier implements HeaderCopier<Map<String, String>, Request> {
+        INSTANCE;
+
+        @Override
+        public void copyHeaders(Map<String, String> source, Request target) {
+            for (Map.Entry<String, String> header : source.entrySet()) {
+                target.addHeader(header.getKey(), header.getValue());
+            }
+        }
+    }
+}
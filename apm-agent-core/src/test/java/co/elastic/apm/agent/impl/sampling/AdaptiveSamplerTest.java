@@ -0,0 +1,109 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.impl.sampling;
+
+import co.elastic.apm.agent.impl.transaction.Id;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class AdaptiveSamplerTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void testStartsWithMaxSamplingRate() {
+        AdaptiveSampler sampler = new AdaptiveSampler(10, 0.5, 0);
+        assertThat(sampler.getSamplingRate()).isEqualTo(0.5);
+        assertThat(sampler.getEstimatedThroughput()).isNegative();
+    }
+
+    @Test
+    void testAdaptsToThroughput() {
+        AdaptiveSampler sampler = new AdaptiveSampler(100, 1.0, 0);
+        Id id = Id.new128BitId();
+        simulateWindow(sampler, id, 1000, 0);
+        // the first call of the next window triggers the adjustment
+        sampler.isSampled(id, SECOND);
+
+        assertThat(sampler.getEstimatedThroughput()).isCloseTo(1000, within(0.001));
+        assertThat(sampler.getSamplingRate()).isCloseTo(0.1, within(0.001));
+
+        int sampled = simulateWindow(sampler, id, 10_000, SECOND);
+        assertThat(sampled).isBetween(900, 1100);
+    }
+
+    @Test
+    void testNeverExceedsMaxSamplingRate() {
+        AdaptiveSampler sampler = new AdaptiveSampler(100, 0.5, 0);
+        Id id = Id.new128BitId();
+        simulateWindow(sampler, id, 10, 0);
+        sampler.isSampled(id, SECOND);
+
+        assertThat(sampler.getSamplingRate()).isEqualTo(0.5);
+    }
+
+    @Test
+    void testSmoothsThroughput() {
+        AdaptiveSampler sampler = new AdaptiveSampler(100, 1.0, 0);
+        Id id = Id.new128BitId();
+        simulateWindow(sampler, id, 1000, 0);
+        // the call which triggers the adjustment is accounted for in the next window
+        simulateWindow(sampler, id, 3000, SECOND);
+        sampler.isSampled(id, 2 * SECOND);
+
+        assertThat(sampler.getEstimatedThroughput()).isCloseTo(2000, within(0.001));
+        assertThat(sampler.getSamplingRate()).isCloseTo(0.05, within(0.001));
+    }
+
+    @Test
+    void testDeterministicForSameRate() {
+        AdaptiveSampler sampler = new AdaptiveSampler(100, 1.0, 0);
+        Id id = Id.new128BitId();
+        simulateWindow(sampler, id, 1000, 0);
+        sampler.isSampled(id, SECOND);
+
+        for (int i = 0; i < 1000; i++) {
+            id.setToRandomValue();
+            boolean sampled = sampler.isSampled(id, SECOND);
+            assertThat(sampler.isSampled(id, SECOND)).isEqualTo(sampled);
+            assertThat(ProbabilitySampler.of(sampler.getSamplingRate()).isSampled(id)).isEqualTo(sampled);
+        }
+    }
+
+    private static int simulateWindow(AdaptiveSampler sampler, Id id, int calls, long windowStart) {
+        int sampled = 0;
+        for (int i = 0; i < calls; i++) {
+            id.setToRandomValue();
+            if (sampler.isSampled(id, windowStart + i * (SECOND / calls))) {
+                sampled++;
+            }
+        }
+        return sampled;
+    }
+}
@@ -68,11 +68,11 @@ class TraceContextTest {
     /**
      * Test flow:
      * 1.  create a parent context from a fixed string
-     * 2.  create a child based on the string header - test {@link TraceContext#asChildOf(String)}
+     * 2.  create a child based on the string header - test {@link TraceContext#asChildOf(CharSequence)}
      * 3.  create a grandchild based on binary header - test {@link TraceContext#propagateTraceContext(Object, BinaryHeaderSetter)}
      * and {@link TraceContext#asChildOf(byte[])}
      * 4.  create a second grandchild based on text header - test both {@link TraceContext#getOutgoingTraceParentTextHeader()}
-     * and {@link TraceContext#asChildOf(String)}
+     * and {@link TraceContext#asChildOf(CharSequence)}
      *
      * @param flagsValue tested flags
      * @param isSampled  whether to test context propagation of sampled trace or not
@@ -290,6 +290,31 @@ class TraceContextTest {
         assertThat(binaryHeaderMap.get(TraceContext.TRACE_PARENT_BINARY_HEADER_NAME)).isSameAs(outgoingHeader);
     }
 
+    @Test
+    void testRenderedBinaryHeaderIsInvalidatedOnMutation() {
+        final Map<String, String> headerMap = Map.of(TraceContext.W3C_TRACE_PARENT_TEXTUAL_HEADER_NAME, "00-0af7651916cd43dd8448eb211c80319c-b9c7c989f97918e1-01");
+        final TraceContext child = TraceContext.with64BitId(tracer);
+        assertThat(TraceContext.<Map<String, String>>getFromTraceContextTextHeaders().asChildOf(child, headerMap, TextHeaderMapAccessor.INSTANCE)).isTrue();
+        final TraceContext other = TraceContext.with64BitId(tracer);
+        other.asRootSpan(ConstantSampler.of(true));
+        HashMap<String, byte[]> binaryHeaderMap = new HashMap<>();
+
+        assertThat(child.propagateTraceContext(binaryHeaderMap, BinaryHeaderMapAccessor.INSTANCE)).isTrue();
+        byte[] outgoingHeader = binaryHeaderMap.get(TraceContext.TRACE_PARENT_BINARY_HEADER_NAME);
+        byte[] childHeader = outgoingHeader.clone();
+        assertThat(outgoingHeader[TraceContext.BINARY_FORMAT_EXPECTED_LENGTH - 1]).isEqualTo((byte) 0x01);
+
+        // the buffer of the header setter is shared, the pre-rendered bytes of each context have to be copied into it
+        assertThat(other.propagateTraceContext(binaryHeaderMap, BinaryHeaderMapAccessor.INSTANCE)).isTrue();
+        assertThat(outgoingHeader).isNotEqualTo(childHeader);
+        assertThat(child.propagateTraceContext(binaryHeaderMap, BinaryHeaderMapAccessor.INSTANCE)).isTrue();
+        assertThat(outgoingHeader).isEqualTo(childHeader);
+
+        child.setRecorded(false);
+        assertThat(child.propagateTraceContext(binaryHeaderMap, BinaryHeaderMapAccessor.INSTANCE)).isTrue();
+        assertThat(outgoingHeader[TraceContext.BINARY_FORMAT_EXPECTED_LENGTH - 1]).isEqualTo((byte) 0x00);
+    }
+
     @Test
     void testBinaryHeader_CachingDisabled() {
         final Map<String, String> headerMap = Map.of(TraceContext.W3C_TRACE_PARENT_TEXTUAL_HEADER_NAME, "00-0af7651916cd43dd8448eb211c80319c-b9c7c989f97918e1-01");
@@ -391,6 +416,61 @@ class TraceContextTest {
         assertThat(traceContext.getOutgoingTraceParentTextHeader().toString()).isNotEqualTo(traceParentHeader);
     }
 
+    @Test
+    void testOutgoingTextHeaderIsCached() {
+        final TraceContext traceContext = TraceContext.with64BitId(tracer);
+        traceContext.asRootSpan(ConstantSampler.of(true));
+        Map<String, String> first = new HashMap<>();
+        Map<String, String> second = new HashMap<>();
+        traceContext.propagateTraceContext(first, TextHeaderMapAccessor.INSTANCE);
+        traceContext.propagateTraceContext(second, TextHeaderMapAccessor.INSTANCE);
+        assertThat(first.get(TraceContext.W3C_TRACE_PARENT_TEXTUAL_HEADER_NAME))
+            .isSameAs(second.get(TraceContext.W3C_TRACE_PARENT_TEXTUAL_HEADER_NAME))
+            .isSameAs(second.get(TraceContext.ELASTIC_TRACE_PARENT_TEXTUAL_HEADER_NAME));
+
+        traceContext.setRecorded(false);
+        assertThat(traceContext.getOutgoingTraceParentTextHeader()).endsWith("-00");
+        traceContext.setRecorded(true);
+        assertThat(traceContext.getOutgoingTraceParentTextHeader()).endsWith("-01");
+    }
+
+    @Test
+    void testOutgoingTracestateIsCached() {
+        PotentiallyMultiValuedMap incomingHeaders = new PotentiallyMultiValuedMap();
+        incomingHeaders.add("traceparent", "00-0af7651916cd43dd8448eb211c80319c-b9c7c989f97918e1-01");
+        incomingHeaders.add("tracestate", "foo=bar");
+        incomingHeaders.add("tracestate", "baz=qux");
+        final TraceContext child = TraceContext.with64BitId(tracer);
+        assertThat(TraceContext.<PotentiallyMultiValuedMap>getFromTraceContextTextHeaders().asChildOf(child, incomingHeaders, MultiValueMapAccessor.INSTANCE)).isTrue();
+        Map<String, String> first = new HashMap<>();
+        Map<String, String> second = new HashMap<>();
+        child.propagateTraceContext(first, TextHeaderMapAccessor.INSTANCE);
+        child.propagateTraceContext(second, TextHeaderMapAccessor.INSTANCE);
+        assertThat(first.get(TraceContext.TRACESTATE_HEADER_NAME)).isEqualTo("foo=bar,baz=qux");
+        assertThat(first.get(TraceContext.TRACESTATE_HEADER_NAME)).isSameAs(second.get(TraceContext.TRACESTATE_HEADER_NAME));
+
+        child.addTracestate("quux=quuz");
+        child.propagateTraceContext(second, TextHeaderMapAccessor.INSTANCE);
+        assertThat(second.get(TraceContext.TRACESTATE_HEADER_NAME)).isEqualTo("foo=bar,baz=qux,quux=quuz");
+    }
+
+    @Test
+    void testAsChildOfCharSequenceWithWhitespace() {
+        final TraceContext traceContext = TraceContext.with64BitId(tracer);
+        assertThat(traceContext.asChildOf(new StringBuilder(" 00-0af7651916cd43dd8448eb211c80319c-b9c7c989f97918e1-01\t"))).isTrue();
+        assertThat(traceContext.getTraceId().toString()).isEqualTo("0af7651916cd43dd8448eb211c80319c");
+        assertThat(traceContext.getParentId().toString()).isEqualTo("b9c7c989f97918e1");
+        assertThat(traceContext.isSampled()).isTrue();
+    }
+
+    @Test
+    void testOutgoingTextHeaderWith128BitId() {
+        final TraceContext traceContext = TraceContext.with128BitId(tracer);
+        traceContext.asRootSpan(ConstantSampler.of(true));
+        assertThat(traceContext.getOutgoingTraceParentTextHeader())
+            .isEqualTo("00-" + traceContext.getTraceId() + "-" + traceContext.getId() + "-01");
+    }
+
     @Test
     void testResetOutgoingBinaryHeader() {
         final TraceContext traceContext = TraceContext.with64BitId(tracer);
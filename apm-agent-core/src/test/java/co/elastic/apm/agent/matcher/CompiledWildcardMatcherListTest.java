@@ -0,0 +1,144 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.matcher;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.SoftAssertions.assertSoftly;
+
+class CompiledWildcardMatcherListTest {
+
+    @Test
+    void testSmallListsAreNotCompiled() {
+        List<WildcardMatcher> matchers = Arrays.asList(WildcardMatcher.valueOf("foo*"), WildcardMatcher.valueOf("bar*"));
+        assertThat(CompiledWildcardMatcherList.compile(matchers)).isSameAs(matchers);
+    }
+
+    @Test
+    void testCompiledListContainsSameMatchers() {
+        List<WildcardMatcher> matchers = matchers("foo*", "*bar", "*baz*", "qux", "/a/*/b");
+        List<WildcardMatcher> compiled = CompiledWildcardMatcherList.compile(matchers);
+        assertThat(compiled).isInstanceOf(CompiledWildcardMatcherList.class);
+        assertThat(compiled).isEqualTo(matchers);
+        assertThat(compiled.toString()).isEqualTo(matchers.toString());
+        assertThat(CompiledWildcardMatcherList.compile(compiled)).isSameAs(compiled);
+    }
+
+    @Test
+    void testReturnsFirstMatchInListOrder() {
+        List<WildcardMatcher> matchers = CompiledWildcardMatcherList.compile(matchers("*.js", "/static/*", "*static*", "/static/app.js"));
+        assertSoftly(softly -> {
+            softly.assertThat(WildcardMatcher.anyMatch(matchers, "/static/app.js")).hasToString("*.js");
+            softly.assertThat(WildcardMatcher.anyMatch(matchers, "/static/app.css")).hasToString("/static/*");
+            softly.assertThat(WildcardMatcher.anyMatch(matchers, "/foo/static/app.css")).hasToString("*static*");
+            softly.assertThat(WildcardMatcher.anyMatch(matchers, "/foo/app.css")).isNull();
+            softly.assertThat(WildcardMatcher.anyMatch(matchers, null)).isNull();
+        });
+    }
+
+    @Test
+    void testCaseSensitivity() {
+        List<WildcardMatcher> matchers = CompiledWildcardMatcherList.compile(matchers("(?-i)Foo*", "(?-i)*Bar", "(?-i)*Baz*", "qux*"));
+        assertSoftly(softly -> {
+            softly.assertThat(WildcardMatcher.anyMatch(matchers, "Foo")).hasToString("(?-i)Foo*");
+            softly.assertThat(WildcardMatcher.anyMatch(matchers, "foo")).isNull();
+            softly.assertThat(WildcardMatcher.anyMatch(matchers, "xBar")).hasToString("(?-i)*Bar");
+            softly.assertThat(WildcardMatcher.anyMatch(matchers, "xbar")).isNull();
+            softly.assertThat(WildcardMatcher.anyMatch(matchers, "xBazx")).hasToString("(?-i)*Baz*");
+            softly.assertThat(WildcardMatcher.anyMatch(matchers, "xBAZx")).isNull();
+            softly.assertThat(WildcardMatcher.anyMatch(matchers, "QUXx")).hasToString("qux*");
+        });
+    }
+
+    @Test
+    void testPartitionedString() {
+        List<WildcardMatcher> matchers = CompiledWildcardMatcherList.compile(matchers("/foo/*/baz", "*/bar/baz", "*oba*", "foo"));
+        assertSoftly(softly -> {
+            softly.assertThat(WildcardMatcher.anyMatch(matchers, "/foo/bar", "/baz")).hasToString("/foo/*/baz");
+            softly.assertThat(WildcardMatcher.anyMatch(matchers, "/x/bar/b", "az")).hasToString("*/bar/baz");
+            softly.assertThat(WildcardMatcher.anyMatch(matchers, "fo", "ob")).isNull();
+            softly.assertThat(WildcardMatcher.anyMatch(matchers, "fo", "oba")).hasToString("*oba*");
+            softly.assertThat(WildcardMatcher.anyMatch(matchers, "fo", "o")).hasToString("foo");
+        });
+    }
+
+    @Test
+    void testMatchersWithoutLiteral() {
+        List<WildcardMatcher> matchAll = CompiledWildcardMatcherList.compile(matchers("foo", "bar", "baz", "*"));
+        assertThat(WildcardMatcher.anyMatch(matchAll, "qux")).hasToString("*");
+        assertThat(WildcardMatcher.anyMatch(matchAll, "bar")).hasToString("bar");
+    }
+
+    @Test
+    void testSameResultAsEvaluatingEachMatcher() {
+        Random random = new Random(42);
+        String alphabet = "abAB/.*";
+        for (int round = 0; round < 2000; round++) {
+            List<WildcardMatcher> matchers = new ArrayList<>();
+            for (int i = 0; i < 4 + random.nextInt(12); i++) {
+                StringBuilder matcher = new StringBuilder(random.nextInt(4) == 0 ? "(?-i)" : "");
+                for (int j = random.nextInt(6); j > 0; j--) {
+                    matcher.append(alphabet.charAt(random.nextInt(alphabet.length())));
+                }
+                matchers.add(WildcardMatcher.valueOf(matcher.toString()));
+            }
+            List<WildcardMatcher> compiled = CompiledWildcardMatcherList.compile(matchers);
+            for (int i = 0; i < 20; i++) {
+                StringBuilder input = new StringBuilder();
+                for (int j = random.nextInt(10); j > 0; j--) {
+                    input.append("abAB/.x".charAt(random.nextInt(7)));
+                }
+                int split = random.nextInt(input.length() + 1);
+                String firstPart = input.substring(0, split);
+                String secondPart = input.substring(split);
+                assertThat(WildcardMatcher.anyMatch(compiled, firstPart, secondPart))
+                    .describedAs("%s matching %s|%s", matchers, firstPart, secondPart)
+                    .isSameAs(WildcardMatcher.anyMatch(matchers, firstPart, secondPart));
+            }
+        }
+    }
+
+    @Test
+    void testValueConverterCompilesList() {
+        List<WildcardMatcher> matchers = WildcardMatcherValueConverter.LIST.convert("foo*, *bar, *baz*, qux");
+        assertThat(matchers).isInstanceOf(CompiledWildcardMatcherList.class);
+        assertThat(matchers).hasSize(4);
+        assertThat(WildcardMatcher.anyMatch(matchers, "xbar")).hasToString("*bar");
+    }
+
+    private static List<WildcardMatcher> matchers(String... wildcardStrings) {
+        List<WildcardMatcher> matchers = new ArrayList<>();
+        for (String wildcardString : wildcardStrings) {
+            matchers.add(WildcardMatcher.valueOf(wildcardString));
+        }
+        return matchers;
+    }
+}
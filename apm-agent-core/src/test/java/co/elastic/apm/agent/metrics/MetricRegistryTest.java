@@ -67,6 +67,14 @@ class MetricRegistryTest {
         metricRegistry.report(metricSets -> assertThat(metricSets.get(Labels.EMPTY).getGauge("foo").get()).isEqualTo(42));
     }
 
+    @Test
+    void testAddToCounter() {
+        metricRegistry.addToCounter("foo", Labels.EMPTY, 40);
+        metricRegistry.incrementCounter("foo", Labels.EMPTY);
+        metricRegistry.incrementCounter("foo", Labels.EMPTY);
+        metricRegistry.report(metricSets -> assertThat(metricSets.get(Labels.EMPTY).getCounters().get("foo").get()).isEqualTo(42));
+    }
+
     @Test
     void testLimitTimers() {
         IntStream.range(1, 505).forEach(i -> metricRegistry.updateTimer("timer" + i, Labels.Mutable.of("foo", Integer.toString(i)), 1));
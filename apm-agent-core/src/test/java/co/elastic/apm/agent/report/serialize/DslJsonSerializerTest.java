@@ -595,6 +595,31 @@ class DslJsonSerializerTest {
         assertThat(ms.longValue()).isEqualTo(0);
     }
 
+    @Test
+    void testResponseBodySizeAndTimeToFirstByte() {
+        Transaction transaction = new Transaction(MockTracer.create());
+        transaction.getContext().getResponse()
+            .withStatusCode(200)
+            .withEncodedBodySize(42)
+            .withTimeToFirstByteUs(1500);
+
+        JsonNode json = readJsonString(serializer.toJsonString(transaction));
+
+        assertThat(json.get("context").get("response").get("encoded_body_size").asLong()).isEqualTo(42);
+        assertThat(json.get("marks").get("response").get("first_byte").asDouble()).isEqualTo(1.5);
+    }
+
+    @Test
+    void testNoMarksWithoutTimeToFirstByte() {
+        Transaction transaction = new Transaction(MockTracer.create());
+        transaction.getContext().getResponse().withStatusCode(200);
+
+        JsonNode json = readJsonString(serializer.toJsonString(transaction));
+
+        assertThat(json.get("context").get("response").get("encoded_body_size")).isNull();
+        assertThat(json.get("marks")).isNull();
+    }
+
     @Test
     void testBodyBuffer() throws IOException {
         final Transaction transaction = createTransactionWithRequiredValues();
@@ -0,0 +1,116 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class StreamingCharsetDecoderTest {
+
+    private static final String TEXT = "Gr\u00fc\u00dfe aus K\u00f6ln, \u00a1ol\u00e9! \ud83d\ude00 \u65e5\u672c\u8a9e";
+    private static final String JAPANESE_TEXT = "\u65e5\u672c\u8a9e\u306e\u30c6\u30ad\u30b9\u30c8";
+
+    @Test
+    void testDecodeInOneChunk() {
+        assertDecodedInChunksOf(TEXT, Integer.MAX_VALUE, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void testMultiByteCharactersSplitAcrossChunks() {
+        for (int chunkSize = 1; chunkSize <= 5; chunkSize++) {
+            assertDecodedInChunksOf(TEXT, chunkSize, StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    void testOtherCharsets() {
+        assertDecodedInChunksOf(TEXT, 1, StandardCharsets.UTF_16);
+        assertDecodedInChunksOf(TEXT, 3, StandardCharsets.UTF_16LE);
+        assertDecodedInChunksOf(TEXT, 2, Charset.forName("GB18030"));
+        assertDecodedInChunksOf(JAPANESE_TEXT, 1, Charset.forName("Shift_JIS"));
+    }
+
+    @Test
+    void testSingleBytes() {
+        byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+        StreamingCharsetDecoder decoder = new StreamingCharsetDecoder(StandardCharsets.UTF_8);
+        CharBuffer charBuffer = CharBuffer.allocate(100);
+        for (byte b : bytes) {
+            assertThat(decoder.decode(b, charBuffer).isError()).isFalse();
+        }
+        charBuffer.flip();
+        assertThat(charBuffer.toString()).isEqualTo(TEXT);
+    }
+
+    @Test
+    void testLargeChunks() {
+        StringBuilder sb = new StringBuilder();
+        while (sb.length() < 10_000) {
+            sb.append(TEXT);
+        }
+        String text = sb.toString();
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        StreamingCharsetDecoder decoder = new StreamingCharsetDecoder(StandardCharsets.UTF_8);
+        CharBuffer charBuffer = CharBuffer.allocate(text.length());
+        assertThat(decoder.decode(bytes, 0, bytes.length, charBuffer).isUnderflow()).isTrue();
+        charBuffer.flip();
+        assertThat(charBuffer.toString()).isEqualTo(text);
+    }
+
+    @Test
+    void testOverflow() {
+        byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+        CharBuffer charBuffer = CharBuffer.allocate(5);
+        CoderResult coderResult = new StreamingCharsetDecoder(StandardCharsets.UTF_8).decode(bytes, 0, bytes.length, charBuffer);
+        assertThat(coderResult.isOverflow()).isTrue();
+        charBuffer.flip();
+        assertThat(charBuffer.toString()).isEqualTo(TEXT.substring(0, 5));
+    }
+
+    @Test
+    void testInvalidBytes() {
+        byte[] bytes = {'f', 'o', 'o', (byte) 0xff, 'b', 'a', 'r'};
+        CharBuffer charBuffer = CharBuffer.allocate(10);
+        assertThat(new StreamingCharsetDecoder(StandardCharsets.UTF_8).decode(bytes, 0, bytes.length, charBuffer).isError()).isTrue();
+    }
+
+    private static void assertDecodedInChunksOf(String text, int chunkSize, Charset charset) {
+        byte[] bytes = text.getBytes(charset);
+        StreamingCharsetDecoder decoder = new StreamingCharsetDecoder(charset);
+        CharBuffer charBuffer = CharBuffer.allocate(100);
+        for (int offset = 0; offset < bytes.length; offset += chunkSize) {
+            int length = Math.min(chunkSize, bytes.length - offset);
+            assertThat(decoder.decode(bytes, offset, length, charBuffer).isError()).isFalse();
+        }
+        charBuffer.flip();
+        assertThat(charBuffer.toString()).isEqualTo(text);
+    }
+}
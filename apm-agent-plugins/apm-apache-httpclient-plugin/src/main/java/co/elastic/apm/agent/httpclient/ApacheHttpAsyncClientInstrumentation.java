@@ -43,6 +43,7 @@ import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
 import org.apache.http.protocol.HttpContext;
 
 import javax.annotation.Nullable;
+import java.security.ProtectionDomain;
 
 import static co.elastic.apm.agent.bci.bytebuddy.CustomElementMatchers.classLoaderCanLoadClass;
 import static net.bytebuddy.matcher.ElementMatchers.hasSuperType;
@@ -119,6 +120,12 @@ public class ApacheHttpAsyncClientInstrumentation extends BaseApacheHttpClientIn
         return ApacheHttpAsyncClientAdvice.class;
     }
 
+    @Override
+    public void onTypeMatch(TypeDescription typeDescription, ClassLoader classLoader, ProtectionDomain protectionDomain, @Nullable Class<?> classBeingRedefined) {
+        super.onTypeMatch(typeDescription, classLoader, protectionDomain, classBeingRedefined);
+        asyncHelperManager.preWarm(classLoader, "org.apache.http.nio.protocol.HttpAsyncRequestProducer");
+    }
+
     @Override
     public ElementMatcher.Junction<ClassLoader> getClassLoaderMatcher() {
         return not(isBootstrapClassLoader())
@@ -30,9 +30,11 @@ import co.elastic.apm.agent.bci.VisibleForAdvice;
 import co.elastic.apm.agent.impl.ElasticApmTracer;
 import co.elastic.apm.agent.impl.transaction.TextHeaderGetter;
 import co.elastic.apm.agent.impl.transaction.TextHeaderSetter;
+import net.bytebuddy.description.type.TypeDescription;
 import org.apache.http.HttpRequest;
 
 import javax.annotation.Nullable;
+import java.security.ProtectionDomain;
 import java.util.Arrays;
 import java.util.Collection;
 
@@ -61,6 +63,14 @@ public abstract class BaseApacheHttpClientInstrumentation extends ElasticApmInst
         }
     }
 
+    @Override
+    public void onTypeMatch(TypeDescription typeDescription, ClassLoader classLoader, ProtectionDomain protectionDomain, @Nullable Class<?> classBeingRedefined) {
+        if (headerGetterHelperClassManager != null && headerSetterHelperClassManager != null) {
+            headerGetterHelperClassManager.preWarm(classLoader, "org.apache.http.HttpRequest");
+            headerSetterHelperClassManager.preWarm(classLoader, "org.apache.http.HttpRequest");
+        }
+    }
+
     @Override
     public Collection<String> getInstrumentationGroupNames() {
         return Arrays.asList("http-client", "apache-httpclient");
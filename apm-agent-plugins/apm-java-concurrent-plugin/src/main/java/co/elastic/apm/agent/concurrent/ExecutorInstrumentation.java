@@ -106,11 +106,12 @@ public abstract class ExecutorInstrumentation extends ElasticApmInstrumentation
 
         @Advice.OnMethodEnter(suppress = Throwable.class)
         public static void onExecute(@Advice.This Executor thiz,
-                                     @Advice.Argument(value = 0, readOnly = false) @Nullable Runnable runnable) {
+                                     @Advice.Argument(value = 0, readOnly = false) @Nullable Runnable runnable,
+                                     @Advice.Origin("#m") String methodName) {
             if (ExecutorInstrumentation.isExcluded(thiz)) {
                 return;
             }
-            runnable = JavaConcurrent.withContext(runnable, tracer);
+            runnable = JavaConcurrent.withContext(runnable, thiz, "execute".equals(methodName), tracer);
         }
 
         @Advice.OnMethodExit(suppress = Throwable.class, onThrowable = Throwable.class)
@@ -144,7 +145,7 @@ public abstract class ExecutorInstrumentation extends ElasticApmInstrumentation
             if (ExecutorInstrumentation.isExcluded(thiz)) {
                 return;
             }
-            callable = JavaConcurrent.withContext(callable, tracer);
+            callable = JavaConcurrent.withContext(callable, thiz, tracer);
         }
 
         @Advice.OnMethodExit(suppress = Throwable.class, onThrowable = Throwable.class)
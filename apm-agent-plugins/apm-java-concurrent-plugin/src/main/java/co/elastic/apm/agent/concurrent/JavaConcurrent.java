@@ -34,11 +34,20 @@ import com.blogspot.mydailyjava.weaklockfree.WeakConcurrentMap;
 
 import javax.annotation.Nullable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class JavaConcurrent {
 
@@ -46,9 +55,29 @@ public class JavaConcurrent {
     private static final List<Class<? extends ElasticApmInstrumentation>> RUNNABLE_CALLABLE_FJTASK_INSTRUMENTATION = Collections.
         <Class<? extends ElasticApmInstrumentation>>singletonList(RunnableCallableForkJoinTaskInstrumentation.class);
     private static final ThreadLocal<Boolean> needsContext = new ThreadLocal<>();
+    /**
+     * The JDK executors which always create a {@link FutureTask} or a {@link ForkJoinTask} adapter for a submitted {@link Runnable} or {@link Callable}.
+     * Only the exact classes are included, as subclasses may override {@link java.util.concurrent.AbstractExecutorService#newTaskFor}.
+     */
+    private static final Set<String> TASK_CREATING_EXECUTORS = new HashSet<>(Arrays.asList(
+        ThreadPoolExecutor.class.getName(),
+        ScheduledThreadPoolExecutor.class.getName(),
+        ForkJoinPool.class.getName()
+    ));
+    private static final ThreadLocal<TaskCreation> taskCreation = new ThreadLocal<TaskCreation>() {
+        @Override
+        protected TaskCreation initialValue() {
+            return new TaskCreation();
+        }
+    };
 
     private static void removeContext(Object o) {
-        AbstractSpan<?> context = contextMap.remove(o);
+        final AbstractSpan<?> context;
+        if (o instanceof ContextHolder) {
+            context = ((ContextHolder) o).getAndSet(null);
+        } else {
+            context = contextMap.remove(o);
+        }
         if (context != null) {
             context.decrementReferences();
         }
@@ -61,7 +90,17 @@ public class JavaConcurrent {
         }
         // When an Executor executes directly on the current thread we need to enable this thread for context propagation again
         needsContext.set(Boolean.TRUE);
-        AbstractSpan<?> context = contextMap.remove(o);
+        return activateContext(contextMap.remove(o), tracer);
+    }
+
+    /**
+     * Activates the provided context, unless it is already active, and releases the reference which has been held on behalf of a task.
+     *
+     * @return the activated context which has to be deactivated after the task has been executed,
+     * or {@code null} if the context has not been activated
+     */
+    @Nullable
+    private static AbstractSpan<?> activateContext(@Nullable AbstractSpan<?> context, ElasticApmTracer tracer) {
         if (context == null) {
             return null;
         }
@@ -88,12 +127,13 @@ public class JavaConcurrent {
         if (active == null) {
             return runnable;
         }
+        active.incrementReferences();
         if (isLambda(runnable)) {
-            runnable = new RunnableLambdaWrapper(runnable);
+            runnable = new RunnableLambdaWrapper(runnable, active, tracer);
+        } else {
+            ElasticApmAgent.ensureInstrumented(runnable.getClass(), RUNNABLE_CALLABLE_FJTASK_INSTRUMENTATION);
+            contextMap.put(runnable, active);
         }
-        ElasticApmAgent.ensureInstrumented(runnable.getClass(), RUNNABLE_CALLABLE_FJTASK_INSTRUMENTATION);
-        contextMap.put(runnable, active);
-        active.incrementReferences();
         // Do no discard branches leading to async operations so not to break span references
         active.setNonDiscardable();
         return runnable;
@@ -112,15 +152,126 @@ public class JavaConcurrent {
         if (active == null) {
             return callable;
         }
+        active.incrementReferences();
         if (isLambda(callable)) {
-            callable = new CallableLambdaWrapper<>(callable);
+            callable = new CallableLambdaWrapper<>(callable, active, tracer);
+        } else {
+            ElasticApmAgent.ensureInstrumented(callable.getClass(), RUNNABLE_CALLABLE_FJTASK_INSTRUMENTATION);
+            contextMap.put(callable, active);
         }
-        ElasticApmAgent.ensureInstrumented(callable.getClass(), RUNNABLE_CALLABLE_FJTASK_INSTRUMENTATION);
-        contextMap.put(callable, active);
-        active.incrementReferences();
         return callable;
     }
 
+    /**
+     * Like {@link #withContext(Runnable, ElasticApmTracer)},
+     * but if the executor creates a {@link FutureTask} or {@link ForkJoinTask} for the runnable,
+     * the context is held by that task instead of the global map.
+     *
+     * @param execute whether {@link Executor#execute} is invoked, which does not create a task in {@link ThreadPoolExecutor}
+     */
+    @Nullable
+    public static Runnable withContext(@Nullable Runnable runnable, Executor executor, boolean execute, @Nullable ElasticApmTracer tracer) {
+        if (runnable == null || tracer == null || isDelegatingJdkExecutor(executor)) {
+            return runnable;
+        }
+        boolean createsTask = !execute || executor.getClass() != ThreadPoolExecutor.class;
+        if (createsTask && !(runnable instanceof ForkJoinTask) && handOverToCreatedTask(executor, tracer)) {
+            return runnable;
+        }
+        return withContext(runnable, tracer);
+    }
+
+    /**
+     * Like {@link #withContext(Callable, ElasticApmTracer)},
+     * but if the executor creates a {@link FutureTask} or {@link ForkJoinTask} for the callable,
+     * the context is held by that task instead of the global map.
+     */
+    @Nullable
+    public static <T> Callable<T> withContext(@Nullable Callable<T> callable, Executor executor, @Nullable ElasticApmTracer tracer) {
+        if (callable == null || tracer == null || isDelegatingJdkExecutor(executor)) {
+            return callable;
+        }
+        if (handOverToCreatedTask(executor, tracer)) {
+            return callable;
+        }
+        return withContext(callable, tracer);
+    }
+
+    /**
+     * The executors created by {@link java.util.concurrent.Executors} delegate to another executor,
+     * which propagates the context instead.
+     */
+    private static boolean isDelegatingJdkExecutor(Executor executor) {
+        return executor.getClass().getName().startsWith("java.util.concurrent.Executors$");
+    }
+
+    /**
+     * Makes the active context available to the task which a JDK executor creates on the current thread
+     * until {@link #doFinally} is called.
+     * The reference on the context is held on behalf of that task.
+     *
+     * @return {@code true} if the context is handed over to the created task
+     */
+    private static boolean handOverToCreatedTask(Executor executor, ElasticApmTracer tracer) {
+        if (needsContext.get() == Boolean.FALSE || !TASK_CREATING_EXECUTORS.contains(executor.getClass().getName())) {
+            return false;
+        }
+        AbstractSpan<?> active = tracer.getActive();
+        if (active == null) {
+            return false;
+        }
+        needsContext.set(Boolean.FALSE);
+        active.incrementReferences();
+        // Do no discard branches leading to async operations so not to break span references
+        active.setNonDiscardable();
+        TaskCreation creation = taskCreation.get();
+        creation.context = active;
+        creation.createdTask = null;
+        return true;
+    }
+
+    /**
+     * Called when a {@link FutureTask} or {@link ForkJoinTask} adapter is created.
+     * If a JDK executor creates the task for a submitted runnable on the current thread,
+     * the runnable is wrapped in a way that the task holds the context.
+     */
+    @Nullable
+    public static Runnable withContextOfCreatedTask(@Nullable Runnable runnable, @Nullable ElasticApmTracer tracer) {
+        if (runnable == null || tracer == null) {
+            return runnable;
+        }
+        TaskCreation creation = taskCreation.get();
+        AbstractSpan<?> context = creation.context;
+        if (context == null) {
+            return runnable;
+        }
+        creation.context = null;
+        RunnableLambdaWrapper wrapper = new RunnableLambdaWrapper(runnable, context, tracer);
+        creation.createdTask = wrapper;
+        return wrapper;
+    }
+
+    /**
+     * Called when a {@link FutureTask} or {@link ForkJoinTask} adapter is created.
+     * If a JDK executor creates the task for a submitted callable on the current thread,
+     * the callable is wrapped in a way that the task holds the context.
+     */
+    @Nullable
+    public static <T> Callable<T> withContextOfCreatedTask(@Nullable Callable<T> callable, @Nullable ElasticApmTracer tracer) {
+        if (callable == null || tracer == null) {
+            return callable;
+        }
+        TaskCreation creation = taskCreation.get();
+        AbstractSpan<?> context = creation.context;
+        if (context == null) {
+            return callable;
+        }
+        creation.context = null;
+        CallableLambdaWrapper<T> wrapper = new CallableLambdaWrapper<>(callable, context, tracer);
+        creation.createdTask = wrapper;
+        return wrapper;
+    }
+
     @Nullable
     public static <T> ForkJoinTask<T> withContext(@Nullable ForkJoinTask<T> task, @Nullable ElasticApmTracer tracer) {
         if (task == null || tracer == null  || needsContext.get() == Boolean.FALSE) {
@@ -137,13 +288,44 @@ public class JavaConcurrent {
         return task;
     }
 
+    /**
+     * Prevents the context from being propagated to the tasks which are submitted on the current thread until {@link #doFinally} is called.
+     * Used by instrumentations which wrap a task so that it propagates the context by itself.
+     */
+    public static void avoidPropagationOnCurrentThread() {
+        needsContext.set(Boolean.FALSE);
+    }
+
     public static void doFinally(@Nullable Throwable thrown, @Nullable Object contextObject) {
         needsContext.set(Boolean.TRUE);
+        if (endTaskCreation(thrown)) {
+            return;
+        }
         if (thrown != null && contextObject != null) {
             removeContext(contextObject);
         }
     }
 
+    /**
+     * Releases the context handed over to a created task if no task has been created or if the submission of the task failed.
+     *
+     * @return {@code true} if the context has been handed over to a created task
+     */
+    private static boolean endTaskCreation(@Nullable Throwable thrown) {
+        TaskCreation creation = taskCreation.get();
+        AbstractSpan<?> context = creation.context;
+        ContextHolder createdTask = creation.createdTask;
+        creation.context = null;
+        creation.createdTask = null;
+        if (context != null) {
+            context.decrementReferences();
+        }
+        if (createdTask != null && thrown != null) {
+            removeContext(createdTask);
+        }
+        return context != null || createdTask != null;
+    }
+
     public static void doFinally(@Nullable Throwable thrown, @Nullable Collection<? extends Callable<?>> callables) {
         needsContext.set(Boolean.TRUE);
         if (thrown != null && callables != null) {
@@ -191,30 +373,89 @@ public class JavaConcurrent {
         return false;
     }
 
-    public static class RunnableLambdaWrapper implements Runnable {
+    /**
+     * The state of the hand-over of a context from a JDK executor to the task it creates on the current thread.
+     */
+    private static class TaskCreation {
+        /**
+         * The context which is waiting to be picked up by a created task
+         */
+        @Nullable
+        private AbstractSpan<?> context;
+        /**
+         * The holder of the created task which has picked up the context
+         */
+        @Nullable
+        private ContextHolder createdTask;
+    }
+
+    /**
+     * Holds the context of a wrapped task in the wrapper itself,
+     * which avoids the lookups in the global {@link #contextMap} and having to instrument each lambda class.
+     * <p>
+     * The context is handed over to the first execution of the task,
+     * or released if the submission of the task fails.
+     * </p>
+     */
+    private abstract static class ContextHolder extends AtomicReference<AbstractSpan<?>> {
+
+        private final ElasticApmTracer tracer;
+
+        ContextHolder(AbstractSpan<?> context, ElasticApmTracer tracer) {
+            super(context);
+            this.tracer = tracer;
+        }
+
+        @Nullable
+        AbstractSpan<?> beforeExecute() {
+            // When an Executor executes directly on the current thread we need to enable this thread for context propagation again
+            needsContext.set(Boolean.TRUE);
+            return activateContext(getAndSet(null), tracer);
+        }
+
+        static void afterExecute(@Nullable AbstractSpan<?> context) {
+            if (context != null) {
+                context.deactivate();
+            }
+        }
+    }
+
+    public static class RunnableLambdaWrapper extends ContextHolder implements Runnable {
 
         private final Runnable delegate;
 
-        public RunnableLambdaWrapper(Runnable delegate) {
+        RunnableLambdaWrapper(Runnable delegate, AbstractSpan<?> context, ElasticApmTracer tracer) {
+            super(context, tracer);
             this.delegate = delegate;
         }
 
         @Override
         public void run() {
-            delegate.run();
+            final AbstractSpan<?> context = beforeExecute();
+            try {
+                delegate.run();
+            } finally {
+                afterExecute(context);
+            }
         }
     }
 
-    public static class CallableLambdaWrapper<V> implements Callable<V> {
+    public static class CallableLambdaWrapper<V> extends ContextHolder implements Callable<V> {
         private final Callable<V> delegate;
 
-        public CallableLambdaWrapper(Callable<V> delegate) {
+        CallableLambdaWrapper(Callable<V> delegate, AbstractSpan<?> context, ElasticApmTracer tracer) {
+            super(context, tracer);
             this.delegate = delegate;
         }
 
         @Override
         public V call() throws Exception {
-            return delegate.call();
+            final AbstractSpan<?> context = beforeExecute();
+            try {
+                return delegate.call();
+            } finally {
+                afterExecute(context);
+            }
         }
     }
 }
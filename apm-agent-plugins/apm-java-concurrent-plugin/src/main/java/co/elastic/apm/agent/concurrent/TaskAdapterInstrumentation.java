@@ -0,0 +1,110 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.concurrent;
+
+import co.elastic.apm.agent.bci.ElasticApmInstrumentation;
+import net.bytebuddy.asm.Advice;
+import net.bytebuddy.description.NamedElement;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.matcher.ElementMatcher;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.FutureTask;
+
+import static net.bytebuddy.matcher.ElementMatchers.isConstructor;
+import static net.bytebuddy.matcher.ElementMatchers.nameStartsWith;
+import static net.bytebuddy.matcher.ElementMatchers.named;
+import static net.bytebuddy.matcher.ElementMatchers.takesArgument;
+
+/**
+ * Instruments the constructors of the {@link FutureTask} and the {@link ForkJoinTask} adapters
+ * which the JDK executors create for submitted {@link Runnable}s and {@link Callable}s.
+ * <p>
+ * Fields can't be added to these already loaded classes,
+ * so the task holds the context by wrapping the {@link Runnable} or {@link Callable} it delegates to.
+ * See {@link JavaConcurrent#withContextOfCreatedTask}.
+ * </p>
+ */
+public abstract class TaskAdapterInstrumentation extends ElasticApmInstrumentation {
+
+    @Override
+    public ElementMatcher<? super NamedElement> getTypeMatcherPreFilter() {
+        return nameStartsWith("java.util.concurrent.");
+    }
+
+    @Override
+    public ElementMatcher<? super TypeDescription> getTypeMatcher() {
+        return named("java.util.concurrent.FutureTask")
+            .or(nameStartsWith("java.util.concurrent.ForkJoinTask$"));
+    }
+
+    @Override
+    public Collection<String> getInstrumentationGroupNames() {
+        return Arrays.asList("concurrent", "executor");
+    }
+
+    public static class RunnableTaskAdapterInstrumentation extends TaskAdapterInstrumentation {
+
+        @Advice.OnMethodEnter(suppress = Throwable.class)
+        private static void onEnter(@Advice.Argument(value = 0, readOnly = false) @Nullable Runnable runnable) {
+            runnable = JavaConcurrent.withContextOfCreatedTask(runnable, tracer);
+        }
+
+        /**
+         * <ul>
+         *     <li>{@link FutureTask#FutureTask(Runnable, Object)}</li>
+         *     <li>{@code ForkJoinTask.AdaptedRunnable}, {@code ForkJoinTask.AdaptedRunnableAction} and {@code ForkJoinTask.RunnableExecuteAction}</li>
+         * </ul>
+         */
+        @Override
+        public ElementMatcher<? super MethodDescription> getMethodMatcher() {
+            return isConstructor().and(takesArgument(0, Runnable.class));
+        }
+    }
+
+    public static class CallableTaskAdapterInstrumentation extends TaskAdapterInstrumentation {
+
+        @Advice.OnMethodEnter(suppress = Throwable.class)
+        private static void onEnter(@Advice.Argument(value = 0, readOnly = false) @Nullable Callable<?> callable) {
+            callable = JavaConcurrent.withContextOfCreatedTask(callable, tracer);
+        }
+
+        /**
+         * <ul>
+         *     <li>{@link FutureTask#FutureTask(Callable)}</li>
+         *     <li>{@code ForkJoinTask.AdaptedCallable} and, as of JDK 19, {@code ForkJoinTask.AdaptedInterruptibleCallable}</li>
+         * </ul>
+         */
+        @Override
+        public ElementMatcher<? super MethodDescription> getMethodMatcher() {
+            return isConstructor().and(takesArgument(0, Callable.class));
+        }
+    }
+}
@@ -0,0 +1,110 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.concurrent;
+
+import co.elastic.apm.agent.bci.ElasticApmInstrumentation;
+import net.bytebuddy.asm.Advice;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.matcher.ElementMatcher;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+import java.util.Collection;
+
+import static net.bytebuddy.matcher.ElementMatchers.isStatic;
+import static net.bytebuddy.matcher.ElementMatchers.named;
+import static net.bytebuddy.matcher.ElementMatchers.takesArguments;
+
+/**
+ * Propagates the context to the tasks of virtual threads which are started via {@code Thread.ofVirtual().start(Runnable)} or
+ * {@code Thread.startVirtualThread(Runnable)} (JDK 21+).
+ * <p>
+ * The tasks of a virtual-thread-per-task executor ({@code Executors.newVirtualThreadPerTaskExecutor()})
+ * are already covered by {@link ExecutorInstrumentation}.
+ * As a virtual thread has its own thread locals, which are not affected by the virtual thread being unmounted from its carrier thread,
+ * the context stays active when a task parks and continues on another carrier thread.
+ * </p>
+ * <p>
+ * Threads created via {@code Thread.ofVirtual().unstarted(Runnable)} don't inherit the context.
+ * The context would have to be referenced by the task until the thread is started, which may never happen.
+ * </p>
+ * <p>
+ * The classes are matched by name, as the agent is compiled against older JDKs.
+ * </p>
+ */
+public abstract class VirtualThreadInstrumentation extends ElasticApmInstrumentation {
+
+    @Override
+    public Collection<String> getInstrumentationGroupNames() {
+        return Arrays.asList("concurrent", "virtual-thread");
+    }
+
+    @Advice.OnMethodEnter(suppress = Throwable.class)
+    public static void onStart(@Advice.Argument(value = 0, readOnly = false) @Nullable Runnable task) {
+        task = JavaConcurrent.withContext(task, tracer);
+    }
+
+    @Advice.OnMethodExit(suppress = Throwable.class, onThrowable = Throwable.class)
+    public static void onExit(@Nullable @Advice.Thrown Throwable thrown,
+                              @Advice.Argument(value = 0) @Nullable Runnable task) {
+        JavaConcurrent.doFinally(thrown, task);
+    }
+
+    /**
+     * {@code Thread.Builder.OfVirtual#start(Runnable)}
+     */
+    public static class VirtualThreadBuilderInstrumentation extends VirtualThreadInstrumentation {
+
+        @Override
+        public ElementMatcher<? super TypeDescription> getTypeMatcher() {
+            return named("java.lang.ThreadBuilders$VirtualThreadBuilder");
+        }
+
+        @Override
+        public ElementMatcher<? super MethodDescription> getMethodMatcher() {
+            return named("start")
+                .and(takesArguments(Runnable.class));
+        }
+    }
+
+    /**
+     * {@code Thread#startVirtualThread(Runnable)}
+     */
+    public static class StartVirtualThreadInstrumentation extends VirtualThreadInstrumentation {
+
+        @Override
+        public ElementMatcher<? super TypeDescription> getTypeMatcher() {
+            return named("java.lang.Thread");
+        }
+
+        @Override
+        public ElementMatcher<? super MethodDescription> getMethodMatcher() {
+            return named("startVirtualThread")
+                .and(isStatic())
+                .and(takesArguments(Runnable.class));
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.concurrent;
+
+import co.elastic.apm.agent.AbstractInstrumentationTest;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * The JDK classes are excluded from instrumentation in tests,
+ * which is why the advices of {@link ExecutorInstrumentation} and {@link TaskAdapterInstrumentation} are simulated
+ * by calling {@link JavaConcurrent} directly.
+ */
+public class TaskAdapterContextTest extends AbstractInstrumentationTest {
+
+    private ThreadPoolExecutor executor;
+    private Transaction transaction;
+    private Callable<Boolean> isTransactionActive;
+
+    @Before
+    public void setUp() {
+        executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(1);
+        transaction = tracer.startRootTransaction(null).withName("Transaction").activate();
+        isTransactionActive = new Callable<Boolean>() {
+            @Override
+            public Boolean call() {
+                return tracer.getActive() == transaction;
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdown();
+        transaction.deactivate().end();
+        assertThat(tracer.getActive()).isNull();
+    }
+
+    @Test
+    public void testContextIsHeldByCreatedTask() throws Exception {
+        int references = transaction.getReferenceCount();
+        assertThat(JavaConcurrent.withContext(isTransactionActive, executor, tracer)).isSameAs(isTransactionActive);
+        Callable<Boolean> task = JavaConcurrent.withContextOfCreatedTask(isTransactionActive, tracer);
+        JavaConcurrent.doFinally(null, isTransactionActive);
+
+        assertThat(task).isNotSameAs(isTransactionActive);
+        assertThat(transaction.getReferenceCount()).isEqualTo(references + 1);
+        assertThat(executor.submit(task).get()).isTrue();
+        assertThat(transaction.getReferenceCount()).isEqualTo(references);
+    }
+
+    @Test
+    public void testRunnableContextIsHeldByCreatedTask() throws Exception {
+        final boolean[] active = new boolean[1];
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                active[0] = tracer.getActive() == transaction;
+            }
+        };
+        assertThat(JavaConcurrent.withContext(runnable, executor, false, tracer)).isSameAs(runnable);
+        Runnable task = JavaConcurrent.withContextOfCreatedTask(runnable, tracer);
+        JavaConcurrent.doFinally(null, runnable);
+
+        executor.submit(task).get();
+        assertThat(active[0]).isTrue();
+    }
+
+    @Test
+    public void testRejectedTaskReleasesContext() {
+        int references = transaction.getReferenceCount();
+        JavaConcurrent.withContext(isTransactionActive, executor, tracer);
+        JavaConcurrent.withContextOfCreatedTask(isTransactionActive, tracer);
+        JavaConcurrent.doFinally(new RejectedExecutionException(), isTransactionActive);
+
+        assertThat(transaction.getReferenceCount()).isEqualTo(references);
+    }
+
+    @Test
+    public void testContextIsReleasedIfNoTaskIsCreated() {
+        int references = transaction.getReferenceCount();
+        JavaConcurrent.withContext(isTransactionActive, executor, tracer);
+        JavaConcurrent.doFinally(null, isTransactionActive);
+
+        assertThat(transaction.getReferenceCount()).isEqualTo(references);
+        assertThat(JavaConcurrent.withContextOfCreatedTask(isTransactionActive, tracer)).isSameAs(isTransactionActive);
+    }
+
+    @Test
+    public void testExecuteOfThreadPoolExecutorDoesNotHandOverContext() {
+        int references = transaction.getReferenceCount();
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+            }
+        };
+        JavaConcurrent.withContext(runnable, executor, true, tracer);
+        assertThat(JavaConcurrent.withContextOfCreatedTask(runnable, tracer)).isSameAs(runnable);
+        JavaConcurrent.doFinally(new RejectedExecutionException(), runnable);
+
+        assertThat(transaction.getReferenceCount()).isEqualTo(references);
+    }
+
+    @Test
+    public void testUnknownExecutorDoesNotHandOverContext() {
+        int references = transaction.getReferenceCount();
+        ExecutorService unknownExecutor = ExecutorServiceWrapper.wrap(executor);
+        JavaConcurrent.withContext(isTransactionActive, unknownExecutor, tracer);
+        assertThat(JavaConcurrent.withContextOfCreatedTask(isTransactionActive, tracer)).isSameAs(isTransactionActive);
+        JavaConcurrent.doFinally(new RejectedExecutionException(), isTransactionActive);
+
+        assertThat(transaction.getReferenceCount()).isEqualTo(references);
+    }
+}
@@ -0,0 +1,135 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.concurrent;
+
+import co.elastic.apm.agent.MockReporter;
+import co.elastic.apm.agent.MockTracer;
+import co.elastic.apm.agent.bci.ElasticApmAgent;
+import co.elastic.apm.agent.configuration.CoreConfiguration;
+import co.elastic.apm.agent.configuration.SpyConfiguration;
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.transaction.AbstractSpan;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import co.elastic.apm.agent.matcher.WildcardMatcher;
+import net.bytebuddy.agent.ByteBuddyAgent;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.stagemonitor.configuration.ConfigurationRegistry;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Mockito.doReturn;
+
+/**
+ * Runs on JDK 21+ and is skipped on older JDKs.
+ * The virtual thread API is called via reflection, as the tests are compiled for older JDKs.
+ */
+public class VirtualThreadInstrumentationTest {
+
+    private static ElasticApmTracer tracer;
+    private static MockReporter reporter;
+    private static ConfigurationRegistry config;
+
+    private Transaction transaction;
+
+    @BeforeClass
+    public static void beforeClass() {
+        assumeTrue("virtual threads require JDK 21+", getStartVirtualThreadMethod() != null);
+        MockTracer.MockInstrumentationSetup mockInstrumentationSetup = MockTracer.getOrCreateInstrumentationTracer();
+        reporter = mockInstrumentationSetup.getReporter();
+        config = mockInstrumentationSetup.getConfig();
+        tracer = mockInstrumentationSetup.getTracer();
+    }
+
+    @Before
+    public void setUp() {
+        SpyConfiguration.reset(config);
+        reporter.reset();
+        // the test configuration excludes java.*, which would exclude java.lang.Thread and its virtual thread builder
+        doReturn(List.of(WildcardMatcher.valueOf("java.util.*"), WildcardMatcher.valueOf("com.sun.*"), WildcardMatcher.valueOf("sun.*")))
+            .when(config.getConfig(CoreConfiguration.class)).getClassesExcludedFromInstrumentation();
+        ElasticApmAgent.initInstrumentation(tracer, ByteBuddyAgent.install(), List.of(
+            new VirtualThreadInstrumentation.VirtualThreadBuilderInstrumentation(),
+            new VirtualThreadInstrumentation.StartVirtualThreadInstrumentation()));
+        transaction = tracer.startRootTransaction(null).withName("Transaction").activate();
+    }
+
+    @After
+    public void tearDown() {
+        transaction.deactivate().end();
+        assertThat(tracer.getActive()).isNull();
+        ElasticApmAgent.reset();
+    }
+
+    @Test
+    public void testStartVirtualThread() throws Exception {
+        AtomicReference<AbstractSpan<?>> activeInThread = new AtomicReference<>();
+        Thread thread = (Thread) getStartVirtualThreadMethod().invoke(null, (Runnable) () -> activeInThread.set(tracer.getActive()));
+        thread.join();
+
+        assertThat(activeInThread.get()).isSameAs(transaction);
+    }
+
+    @Test
+    public void testVirtualThreadBuilder() throws Exception {
+        AtomicReference<AbstractSpan<?>> activeInThread = new AtomicReference<>();
+        Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        Method start = Class.forName("java.lang.Thread$Builder").getMethod("start", Runnable.class);
+        Thread thread = (Thread) start.invoke(builder, (Runnable) () -> activeInThread.set(tracer.getActive()));
+        thread.join();
+
+        assertThat(activeInThread.get()).isSameAs(transaction);
+    }
+
+    @Test
+    public void testUnstartedVirtualThreadDoesNotInheritContext() throws Exception {
+        AtomicReference<AbstractSpan<?>> activeInThread = new AtomicReference<>(transaction);
+        Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+        Method unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+        int referenceCount = transaction.getReferenceCount();
+        Thread thread = (Thread) unstarted.invoke(builder, (Runnable) () -> activeInThread.set(tracer.getActive()));
+        // a thread which is never started must not keep a reference to the transaction
+        assertThat(transaction.getReferenceCount()).isEqualTo(referenceCount);
+
+        thread.start();
+        thread.join();
+
+        assertThat(activeInThread.get()).isNull();
+    }
+
+    private static Method getStartVirtualThreadMethod() {
+        try {
+            return Thread.class.getMethod("startVirtualThread", Runnable.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -29,8 +29,10 @@ import co.elastic.apm.agent.bci.HelperClassManager;
 import co.elastic.apm.agent.bci.VisibleForAdvice;
 import co.elastic.apm.agent.impl.ElasticApmTracer;
 import co.elastic.apm.agent.jdbc.helper.JdbcHelper;
+import net.bytebuddy.description.type.TypeDescription;
 
 import javax.annotation.Nullable;
+import java.security.ProtectionDomain;
 import java.util.Collection;
 import java.util.Collections;
 
@@ -47,11 +49,19 @@ public abstract class JdbcInstrumentation extends ElasticApmInstrumentation {
             if (jdbcHelperManager == null) {
                 jdbcHelperManager = HelperClassManager.ForSingleClassLoader.of(tracer,
                     "co.elastic.apm.agent.jdbc.helper.JdbcHelperImpl",
-                    "co.elastic.apm.agent.jdbc.helper.JdbcHelperImpl$1");
+                    "co.elastic.apm.agent.jdbc.helper.JdbcHelperImpl$1",
+                    "co.elastic.apm.agent.jdbc.helper.JdbcHelperImpl$2");
             }
         }
     }
 
+    @Override
+    public void onTypeMatch(TypeDescription typeDescription, ClassLoader classLoader, ProtectionDomain protectionDomain, @Nullable Class<?> classBeingRedefined) {
+        if (jdbcHelperManager != null) {
+            jdbcHelperManager.preWarm(classLoader, "java.sql.Statement");
+        }
+    }
+
     @Override
     public final Collection<String> getInstrumentationGroupNames() {
         return JDBC_GROUPS;
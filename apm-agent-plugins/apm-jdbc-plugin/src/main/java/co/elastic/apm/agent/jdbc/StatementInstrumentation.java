@@ -215,12 +215,62 @@ public abstract class StatementInstrumentation extends JdbcInstrumentation {
 
             JdbcHelper helperImpl = jdbcHelperManager.getForClassLoaderOfClass(Statement.class);
             if (helperImpl != null) {
-                helperImpl.mapStatementToSql(statement, sql);
+                helperImpl.addToBatch(statement, sql);
             }
         }
     }
 
-    // FIXME : what about .clearBatch() method ?
+    /**
+     * Instruments {@link PreparedStatement#addBatch()}
+     */
+    public static class AddPreparedStatementBatchInstrumentation extends StatementInstrumentation {
+
+        public AddPreparedStatementBatchInstrumentation(ElasticApmTracer tracer) {
+            super(tracer,
+                named("addBatch")
+                    .and(takesArguments(0))
+                    .and(isPublic())
+            );
+        }
+
+        @Advice.OnMethodEnter(suppress = Throwable.class)
+        public static void addToBatch(@Advice.This Statement statement) {
+            if (jdbcHelperManager == null) {
+                return;
+            }
+
+            JdbcHelper helperImpl = jdbcHelperManager.getForClassLoaderOfClass(Statement.class);
+            if (helperImpl != null) {
+                helperImpl.addToBatch(statement);
+            }
+        }
+    }
+
+    /**
+     * Instruments {@link Statement#clearBatch()}
+     */
+    public static class ClearBatchInstrumentation extends StatementInstrumentation {
+
+        public ClearBatchInstrumentation(ElasticApmTracer tracer) {
+            super(tracer,
+                named("clearBatch")
+                    .and(takesArguments(0))
+                    .and(isPublic())
+            );
+        }
+
+        @Advice.OnMethodEnter(suppress = Throwable.class)
+        public static void clearBatch(@Advice.This Statement statement) {
+            if (jdbcHelperManager == null) {
+                return;
+            }
+
+            JdbcHelper helperImpl = jdbcHelperManager.getForClassLoaderOfClass(Statement.class);
+            if (helperImpl != null) {
+                helperImpl.clearBatch(statement);
+            }
+        }
+    }
 
     /**
      * Instruments:
@@ -251,8 +301,7 @@ public abstract class StatementInstrumentation extends JdbcInstrumentation {
                 return null;
             }
 
-            String sql = helper.retrieveSqlForStatement(statement);
-            return helper.createJdbcSpan(sql, statement, tracer.getActive(), true);
+            return helper.createJdbcBatchSpan(helper.retrieveStatementInfo(statement), statement, tracer.getActive(), tracer.getMetricRegistry());
 
         }
 
@@ -320,8 +369,7 @@ public abstract class StatementInstrumentation extends JdbcInstrumentation {
                 return null;
             }
 
-            String sql = helperImpl.retrieveSqlForStatement(statement);
-            return helperImpl.createJdbcSpan(sql, statement, tracer.getActive(), true);
+            return helperImpl.createJdbcSpan(helperImpl.retrieveStatementInfo(statement), statement, tracer.getActive());
         }
 
         @Advice.OnMethodExit(suppress = Throwable.class, onThrowable = Throwable.class)
@@ -367,8 +415,7 @@ public abstract class StatementInstrumentation extends JdbcInstrumentation {
             if (tracer != null && jdbcHelperManager != null) {
                 JdbcHelper helperImpl = jdbcHelperManager.getForClassLoaderOfClass(Statement.class);
                 if (helperImpl != null) {
-                    @Nullable String sql = helperImpl.retrieveSqlForStatement(statement);
-                    return helperImpl.createJdbcSpan(sql, statement, tracer.getActive(), true);
+                    return helperImpl.createJdbcSpan(helperImpl.retrieveStatementInfo(statement), statement, tracer.getActive());
                 }
             }
             return null;
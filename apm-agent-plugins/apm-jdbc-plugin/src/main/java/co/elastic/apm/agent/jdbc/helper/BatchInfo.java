@@ -0,0 +1,145 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.jdbc.helper;
+
+import javax.annotation.Nullable;
+
+/**
+ * Tracks the statements which have been added to the current batch of a {@link java.sql.Statement}.
+ * <p>
+ * An instance is created once per statement and reused for all of its batches,
+ * so that adding to a batch does not allocate.
+ * The distinct SQL strings of a batch are kept together with their signatures.
+ * As long as the subsequent batches of a statement consist of the same SQL strings,
+ * the signatures are only parsed once.
+ * </p>
+ * <p>
+ * Not thread safe, as {@link java.sql.Statement}s are not meant to be shared across threads either.
+ * Accessors are public because {@link JdbcHelperImpl} is loaded by a different class loader than this class.
+ * </p>
+ */
+public class BatchInfo {
+
+    /**
+     * Additional distinct SQL strings are counted as part of the batch size but their signatures are not recorded.
+     * This bounds the memory and parsing overhead for batches of statements with inline literals.
+     */
+    static final int MAX_DISTINCT_STATEMENTS = 16;
+
+    private int size;
+    private int distinctCount;
+    private String[] sqls = new String[2];
+    private String[] signatures = new String[2];
+    /**
+     * The deduplicated signatures of the first {@link #joinedSignaturesCount} distinct SQL strings
+     */
+    @Nullable
+    private String joinedSignatures;
+    private int joinedSignaturesCount;
+
+    void add(String sql) {
+        size++;
+        int hash = sql.hashCode();
+        for (int i = 0; i < distinctCount; i++) {
+            String distinctSql = sqls[i];
+            if (distinctSql == sql || distinctSql.hashCode() == hash && distinctSql.equals(sql)) {
+                return;
+            }
+        }
+        if (distinctCount == MAX_DISTINCT_STATEMENTS) {
+            return;
+        }
+        if (distinctCount == sqls.length) {
+            String[] newSqls = new String[sqls.length * 2];
+            System.arraycopy(sqls, 0, newSqls, 0, distinctCount);
+            sqls = newSqls;
+            String[] newSignatures = new String[signatures.length * 2];
+            System.arraycopy(signatures, 0, newSignatures, 0, distinctCount);
+            signatures = newSignatures;
+        }
+        String previousSql = sqls[distinctCount];
+        // the slot still holds the SQL of a previous batch, reuse its signature if it's the same statement
+        if (previousSql == null || previousSql != sql && !previousSql.equals(sql)) {
+            sqls[distinctCount] = sql;
+            signatures[distinctCount] = null;
+            if (distinctCount < joinedSignaturesCount) {
+                joinedSignatures = null;
+            }
+        }
+        distinctCount++;
+    }
+
+    /**
+     * @return the number of statements which have been added to the current batch
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of distinct SQL strings in the current batch, at most {@value #MAX_DISTINCT_STATEMENTS}
+     */
+    public int getDistinctCount() {
+        return distinctCount;
+    }
+
+    public String getSql(int i) {
+        return sqls[i];
+    }
+
+    /**
+     * @return the signature of the i-th distinct SQL string, or {@code null} if it has not been computed yet
+     */
+    @Nullable
+    public String getSignature(int i) {
+        return signatures[i];
+    }
+
+    public void setSignature(int i, String signature) {
+        signatures[i] = signature;
+    }
+
+    /**
+     * @return the deduplicated signatures of all distinct SQL strings of the current batch,
+     * or {@code null} if they have not been computed for the current set of distinct SQL strings yet
+     */
+    @Nullable
+    public String getJoinedSignatures() {
+        return joinedSignaturesCount == distinctCount ? joinedSignatures : null;
+    }
+
+    public void setJoinedSignatures(String joinedSignatures) {
+        this.joinedSignatures = joinedSignatures;
+        this.joinedSignaturesCount = distinctCount;
+    }
+
+    /**
+     * Clears the current batch but keeps the SQL strings and signatures, so that they can be reused for the next batch
+     */
+    public void clear() {
+        size = 0;
+        distinctCount = 0;
+    }
+}
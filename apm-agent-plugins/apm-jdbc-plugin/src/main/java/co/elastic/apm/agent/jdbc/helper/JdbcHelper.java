@@ -27,13 +27,14 @@ package co.elastic.apm.agent.jdbc.helper;
 import co.elastic.apm.agent.collections.WeakMapSupplier;
 import co.elastic.apm.agent.impl.transaction.AbstractSpan;
 import co.elastic.apm.agent.impl.transaction.Span;
+import co.elastic.apm.agent.metrics.MetricRegistry;
 import com.blogspot.mydailyjava.weaklockfree.WeakConcurrentMap;
 
 import javax.annotation.Nullable;
 
 public abstract class JdbcHelper {
 
-    private static final WeakConcurrentMap<Object, String> statementSqlMap = WeakMapSupplier.createMap();
+    private static final WeakConcurrentMap<Object, StatementInfo> statementInfoMap = WeakMapSupplier.createMap();
 
     public static final String DB_SPAN_TYPE = "db";
     public static final String DB_SPAN_ACTION = "query";
@@ -45,7 +46,56 @@ public abstract class JdbcHelper {
      * @param sql       query string
      */
     public void mapStatementToSql(Object statement, String sql) {
-        statementSqlMap.putIfAbsent(statement, sql);
+        // avoids allocating when the same statement is mapped repeatedly, for example with Statement#addBatch
+        if (statementInfoMap.get(statement) == null) {
+            statementInfoMap.putIfAbsent(statement, new StatementInfo(sql));
+        }
+    }
+
+    /**
+     * Adds the provided sql to the current batch of the provided Statement, see {@link java.sql.Statement#addBatch(String)}
+     *
+     * @param statement javax.sql.Statement object
+     * @param sql       query string
+     */
+    public void addToBatch(Object statement, String sql) {
+        StatementInfo statementInfo = statementInfoMap.get(statement);
+        if (statementInfo == null) {
+            statementInfo = new StatementInfo(sql);
+            StatementInfo racyStatementInfo = statementInfoMap.putIfAbsent(statement, statementInfo);
+            if (racyStatementInfo != null) {
+                statementInfo = racyStatementInfo;
+            }
+        }
+        statementInfo.getOrCreateBatch().add(sql);
+    }
+
+    /**
+     * Adds the current parameters of the provided PreparedStatement to its current batch,
+     * see {@link java.sql.PreparedStatement#addBatch()}
+     *
+     * @param statement javax.sql.PreparedStatement object
+     */
+    public void addToBatch(Object statement) {
+        StatementInfo statementInfo = statementInfoMap.get(statement);
+        if (statementInfo != null) {
+            statementInfo.getOrCreateBatch().add(statementInfo.getSql());
+        }
+    }
+
+    /**
+     * Clears the current batch of the provided Statement, see {@link java.sql.Statement#clearBatch()}
+     *
+     * @param statement javax.sql.Statement object
+     */
+    public void clearBatch(Object statement) {
+        StatementInfo statementInfo = statementInfoMap.get(statement);
+        if (statementInfo != null) {
+            BatchInfo batch = statementInfo.getBatch();
+            if (batch != null) {
+                batch.clear();
+            }
+        }
     }
 
     /**
@@ -58,7 +108,21 @@ public abstract class JdbcHelper {
      */
     @Nullable
     public String retrieveSqlForStatement(Object statement) {
-        return statementSqlMap.get(statement);
+        StatementInfo statementInfo = statementInfoMap.get(statement);
+        return statementInfo != null ? statementInfo.getSql() : null;
+    }
+
+    /**
+     * Returns the SQL and the data cached from previous executions of the provided Statement.
+     * <p>
+     * Might return {@code null} when the provided Statement is a wrapper of the actual statement.
+     * </p>
+     *
+     * @return the info belonging to provided Statement, or {@code null}
+     */
+    @Nullable
+    public StatementInfo retrieveStatementInfo(Object statement) {
+        return statementInfoMap.get(statement);
     }
 
     /**
@@ -69,4 +133,20 @@ public abstract class JdbcHelper {
     @Nullable
     public abstract Span createJdbcSpan(@Nullable String sql, Object statement, @Nullable AbstractSpan<?> parent, boolean preparedStatement);
 
+    /**
+     * Creates a span for a statement which has been mapped to its SQL before, for example a prepared statement.
+     * The signature and connection metadata are computed on the first execution and cached in the {@link StatementInfo},
+     * so that repeated executions of the same statement don't have to parse the query or look up the metadata.
+     */
+    @Nullable
+    public abstract Span createJdbcSpan(@Nullable StatementInfo statementInfo, Object statement, @Nullable AbstractSpan<?> parent);
+
+    /**
+     * Creates a span for the execution of the current batch of a statement and clears the batch.
+     * The span records the size of the batch and the distinct signatures of the statements in the batch.
+     * The batch size is also recorded in the {@code db.batch.count} and {@code db.batch.statements} metrics.
+     */
+    @Nullable
+    public abstract Span createJdbcBatchSpan(@Nullable StatementInfo statementInfo, Object statement, @Nullable AbstractSpan<?> parent, MetricRegistry metricRegistry);
+
 }
@@ -26,10 +26,14 @@ package co.elastic.apm.agent.jdbc.helper;
 
 import co.elastic.apm.agent.bci.VisibleForAdvice;
 import co.elastic.apm.agent.collections.WeakMapSupplier;
+import co.elastic.apm.agent.configuration.CoreConfiguration;
+import co.elastic.apm.agent.impl.ElasticApmTracer;
 import co.elastic.apm.agent.impl.context.Destination;
 import co.elastic.apm.agent.impl.transaction.AbstractSpan;
 import co.elastic.apm.agent.impl.transaction.Span;
 import co.elastic.apm.agent.jdbc.signature.SignatureParser;
+import co.elastic.apm.agent.metrics.Labels;
+import co.elastic.apm.agent.metrics.MetricRegistry;
 import com.blogspot.mydailyjava.weaklockfree.WeakConcurrentMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -45,6 +49,17 @@ public class JdbcHelperImpl extends JdbcHelper {
 
     private static final Logger logger = LoggerFactory.getLogger(JdbcHelperImpl.class);
 
+    private static final String BATCH_SIZE_LABEL = "db_batch_size";
+    private static final String BATCH_SIGNATURES_LABEL = "db_batch_signatures";
+    private static final String BATCH_SIGNATURES_SEPARATOR = "; ";
+    private static final String BATCH_SIZE_BUCKET_LABEL = "batch_size_le";
+    /**
+     * Upper bounds of the batch size buckets
+     */
+    static final String[] BATCH_SIZE_BUCKETS = {
+        "1", "2", "4", "8", "16", "32", "64", "128", "256", "512", "1024", "2048", "4096", "8192", "16384", "32768", "65536", "+Inf"
+    };
+
     // Important implementation note:
     //
     // because this class is potentially loaded from multiple classloaders, making those fields 'static' will not
@@ -54,6 +69,13 @@ public class JdbcHelperImpl extends JdbcHelper {
     private final WeakConcurrentMap<Class<?>, Boolean> metadataSupported = WeakMapSupplier.createMap();
     private final WeakConcurrentMap<Class<?>, Boolean> connectionSupported = WeakMapSupplier.createMap();
 
+    private final ThreadLocal<Labels.Mutable> BATCH_LABELS_THREAD_LOCAL = new ThreadLocal<Labels.Mutable>() {
+        @Override
+        protected Labels.Mutable initialValue() {
+            return Labels.Mutable.of();
+        }
+    };
+
     @VisibleForAdvice
     public final ThreadLocal<SignatureParser> SIGNATURE_PARSER_THREAD_LOCAL = new ThreadLocal<SignatureParser>() {
         @Override
@@ -62,6 +84,12 @@ public class JdbcHelperImpl extends JdbcHelper {
         }
     };
 
+    private final CoreConfiguration coreConfiguration;
+
+    public JdbcHelperImpl(ElasticApmTracer tracer) {
+        coreConfiguration = tracer.getConfig(CoreConfiguration.class);
+    }
+
     @Override
     public void clearInternalStorage() {
         metaDataMap.clear();
@@ -75,14 +103,43 @@ public class JdbcHelperImpl extends JdbcHelper {
         if (!(statement instanceof Statement) || sql == null || isAlreadyMonitored(parent) || parent == null) {
             return null;
         }
+        return createJdbcSpan(sql, (Statement) statement, parent, preparedStatement, null);
+    }
 
-        Span span = parent.createSpan().activate();
+    @Override
+    @Nullable
+    public Span createJdbcSpan(@Nullable StatementInfo statementInfo, Object statement, @Nullable AbstractSpan<?> parent) {
+        if (!(statement instanceof Statement) || statementInfo == null || isAlreadyMonitored(parent) || parent == null) {
+            return null;
+        }
+        return createJdbcSpan(statementInfo.getSql(), (Statement) statement, parent, true, statementInfo);
+    }
+
+    /**
+     * @param statementInfo if not {@code null}, the signature and the connection meta data are taken from and stored in it
+     */
+    private Span createJdbcSpan(String sql, Statement statement, AbstractSpan<?> parent, boolean preparedStatement, @Nullable StatementInfo statementInfo) {
+        Span span = parent.createSpan();
+        if (coreConfiguration.isSpanCompressionEnabled()) {
+            // only exit spans are eligible for compression
+            // but exit spans suppress the spans a driver creates for its own remote calls, such as HTTP requests
+            span.asExit();
+        }
+        span.activate();
         if (sql.isEmpty()) {
             span.withName("empty query");
         } else if (span.isSampled()) {
-            StringBuilder spanName = span.getAndOverrideName(AbstractSpan.PRIO_DEFAULT);
-            if (spanName != null) {
-                SIGNATURE_PARSER_THREAD_LOCAL.get().querySignature(sql, spanName, preparedStatement);
+            String signature = statementInfo != null ? statementInfo.getSignature() : null;
+            if (signature != null) {
+                span.withName(signature, AbstractSpan.PRIO_DEFAULT);
+            } else {
+                StringBuilder spanName = span.getAndOverrideName(AbstractSpan.PRIO_DEFAULT);
+                if (spanName != null) {
+                    SIGNATURE_PARSER_THREAD_LOCAL.get().querySignature(sql, spanName, preparedStatement);
+                    if (statementInfo != null) {
+                        statementInfo.setSignature(spanName.toString());
+                    }
+                }
             }
         }
         // setting the type here is important
@@ -96,8 +153,118 @@ public class JdbcHelperImpl extends JdbcHelper {
             .withStatement(sql.isEmpty() ? "(empty query)" : sql)
             .withType("sql");
 
-        Connection connection = safeGetConnection((Statement) statement);
-        ConnectionMetaData connectionMetaData = connection == null ? null : getConnectionMetaData(connection);
+        ConnectionMetaData connectionMetaData;
+        if (statementInfo == null) {
+            connectionMetaData = getConnectionMetaData(statement);
+        } else {
+            if (!statementInfo.isConnectionMetaDataResolved()) {
+                statementInfo.setConnectionMetaData(getConnectionMetaData(statement));
+            }
+            connectionMetaData = statementInfo.getConnectionMetaData();
+        }
+        setConnectionMetaData(span, connectionMetaData);
+
+        return span;
+    }
+
+    @Nullable
+    private ConnectionMetaData getConnectionMetaData(Statement statement) {
+        Connection connection = safeGetConnection(statement);
+        return connection == null ? null : getConnectionMetaData(connection);
+    }
+
+    @Override
+    @Nullable
+    public Span createJdbcBatchSpan(@Nullable StatementInfo statementInfo, Object statement, @Nullable AbstractSpan<?> parent, MetricRegistry metricRegistry) {
+        Span span = createJdbcSpan(statementInfo, statement, parent);
+        BatchInfo batch = statementInfo != null ? statementInfo.getBatch() : null;
+        if (batch == null) {
+            return span;
+        }
+        try {
+            if (span != null && batch.getSize() > 0) {
+                if (span.isSampled() && batch.getDistinctCount() > 0) {
+                    // the statement info of a plain statement holds the first SQL ever added, which might be from a previous batch
+                    span.withName(getBatchSignature(batch, 0), AbstractSpan.PRIO_DEFAULT);
+                    span.getContext().getDb().withStatement(batch.getSql(0));
+                    span.addLabel(BATCH_SIZE_LABEL, batch.getSize());
+                    if (batch.getDistinctCount() > 1) {
+                        span.addLabel(BATCH_SIGNATURES_LABEL, getJoinedBatchSignatures(batch));
+                    }
+                }
+                recordBatchSize(metricRegistry, span.getSubtype(), batch.getSize());
+            }
+        } finally {
+            // the batch is cleared by the execution
+            batch.clear();
+        }
+        return span;
+    }
+
+    private String getBatchSignature(BatchInfo batch, int i) {
+        String signature = batch.getSignature(i);
+        if (signature == null) {
+            StringBuilder sb = new StringBuilder();
+            SIGNATURE_PARSER_THREAD_LOCAL.get().querySignature(batch.getSql(i), sb, true);
+            signature = sb.toString();
+            batch.setSignature(i, signature);
+        }
+        return signature;
+    }
+
+    private String getJoinedBatchSignatures(BatchInfo batch) {
+        String joinedSignatures = batch.getJoinedSignatures();
+        if (joinedSignatures == null) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < batch.getDistinctCount(); i++) {
+                String signature = getBatchSignature(batch, i);
+                if (!containsSignature(batch, i, signature)) {
+                    if (i > 0) {
+                        sb.append(BATCH_SIGNATURES_SEPARATOR);
+                    }
+                    sb.append(signature);
+                }
+            }
+            joinedSignatures = sb.toString();
+            batch.setJoinedSignatures(joinedSignatures);
+        }
+        return joinedSignatures;
+    }
+
+    /**
+     * Statements with inline literals have distinct SQL strings but the same signature
+     */
+    private static boolean containsSignature(BatchInfo batch, int end, String signature) {
+        for (int i = 0; i < end; i++) {
+            if (signature.equals(batch.getSignature(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void recordBatchSize(MetricRegistry metricRegistry, @Nullable String dbVendor, int batchSize) {
+        Labels.Mutable labels = BATCH_LABELS_THREAD_LOCAL.get();
+        labels.resetState();
+        labels.spanType(DB_SPAN_TYPE).spanSubType(dbVendor).add(BATCH_SIZE_BUCKET_LABEL, BATCH_SIZE_BUCKETS[getBatchSizeBucket(batchSize)]);
+        long criticalValueAtEnter = metricRegistry.writerCriticalSectionEnter();
+        try {
+            metricRegistry.incrementCounter("db.batch.count", labels);
+            metricRegistry.addToCounter("db.batch.statements", labels, batchSize);
+        } finally {
+            metricRegistry.writerCriticalSectionExit(criticalValueAtEnter);
+        }
+    }
+
+    /**
+     * @return the index of the smallest power of two bucket the batch size fits in
+     */
+    static int getBatchSizeBucket(int batchSize) {
+        int bucket = batchSize <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(batchSize - 1);
+        return Math.min(bucket, BATCH_SIZE_BUCKETS.length - 1);
+    }
+
+    private static void setConnectionMetaData(Span span, @Nullable ConnectionMetaData connectionMetaData) {
         if (connectionMetaData != null) {
             span.withSubtype(connectionMetaData.getDbVendor())
                 .withAction(DB_SPAN_ACTION);
@@ -111,8 +278,6 @@ public class JdbcHelperImpl extends JdbcHelper {
                 .withResource(connectionMetaData.getDbVendor())
                 .withType(DB_SPAN_TYPE);
         }
-
-        return span;
     }
 
     /*
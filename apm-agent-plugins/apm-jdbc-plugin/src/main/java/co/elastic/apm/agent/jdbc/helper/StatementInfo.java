@@ -0,0 +1,105 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.jdbc.helper;
+
+import javax.annotation.Nullable;
+
+/**
+ * Holds the SQL of a {@link java.sql.PreparedStatement} (or a batched {@link java.sql.Statement}) together with the data
+ * derived from it on the first execution, so that subsequent executions don't have to re-parse the query or
+ * look up the connection metadata again.
+ * <p>
+ * Fields are written without synchronization: concurrent first executions might compute the same values twice,
+ * which is harmless as they are idempotent.
+ * </p>
+ * <p>
+ * Accessors are public because {@link JdbcHelperImpl} is loaded by a different class loader than this class.
+ * </p>
+ */
+public class StatementInfo {
+
+    private final String sql;
+    @Nullable
+    private volatile String signature;
+    @Nullable
+    private volatile ConnectionMetaData connectionMetaData;
+    private volatile boolean connectionMetaDataResolved;
+    @Nullable
+    private BatchInfo batch;
+
+    StatementInfo(String sql) {
+        this.sql = sql;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * @return the cached signature, or {@code null} if it has not been computed yet
+     */
+    @Nullable
+    public String getSignature() {
+        return signature;
+    }
+
+    public void setSignature(String signature) {
+        this.signature = signature;
+    }
+
+    public boolean isConnectionMetaDataResolved() {
+        return connectionMetaDataResolved;
+    }
+
+    /**
+     * @return the cached connection metadata, might be {@code null} even when resolved if the driver does not support it
+     */
+    @Nullable
+    public ConnectionMetaData getConnectionMetaData() {
+        return connectionMetaData;
+    }
+
+    public void setConnectionMetaData(@Nullable ConnectionMetaData connectionMetaData) {
+        this.connectionMetaData = connectionMetaData;
+        this.connectionMetaDataResolved = true;
+    }
+
+    /**
+     * @return the current batch of this statement, or {@code null} if nothing has ever been added to a batch
+     */
+    @Nullable
+    public BatchInfo getBatch() {
+        return batch;
+    }
+
+    BatchInfo getOrCreateBatch() {
+        BatchInfo batch = this.batch;
+        if (batch == null) {
+            batch = new BatchInfo();
+            this.batch = batch;
+        }
+        return batch;
+    }
+}
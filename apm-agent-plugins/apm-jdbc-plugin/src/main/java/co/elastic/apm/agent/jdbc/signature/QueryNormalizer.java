@@ -0,0 +1,340 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.jdbc.signature;
+
+import javax.annotation.Nullable;
+
+/**
+ * Creates a fingerprint of a query in which numeric and string literals are replaced by placeholders
+ * and lists of literals, like in {@code IN ('a', 'b', 'c')}, are collapsed into a single placeholder.
+ * That way, queries which only differ in their literals share the same signature cache entry.
+ * <p>
+ * Literals never contribute to the signature, but the {@link Scanner} and {@link JdbcFilter} tokenize differently depending on them.
+ * That's why this class mirrors the rules of the {@link Scanner} for literals, quoted identifiers and comments
+ * and why the placeholders are literals themselves:
+ * numbers are replaced by {@code 0} and strings by {@code ''}.
+ * As the {@link JdbcFilter} toggles its state whenever a string literal starts,
+ * collapsed lists retain the parity of the number of string literals ({@code ''} or {@code '',''}).
+ * The first word of the query is never normalized, as it is used as the signature of unknown statements.
+ * </p>
+ * <p>
+ * If the query does not contain any literals, the query itself is returned, without allocating memory.
+ * </p>
+ */
+final class QueryNormalizer {
+
+    private QueryNormalizer() {
+    }
+
+    static String normalize(String query) {
+        final int length = query.length();
+        int i = getIndexAfterFirstWord(query);
+        if (i < 0) {
+            return query;
+        }
+        // lazily created when the first literal is found
+        StringBuilder normalized = null;
+        // the index up to which the query has been copied to the normalized query
+        int copiedUpTo = 0;
+        // the end of the last literal, used to detect lists of literals
+        int lastLiteralEnd = -1;
+        int pendingStrings = 0;
+        boolean pendingLiteral = false;
+        while (i < length) {
+            final char c = query.charAt(i);
+            final int literalEnd;
+            final boolean string;
+            if (c == '\'') {
+                literalEnd = skipStringLiteral(query, i + 1);
+                string = true;
+            } else if (isDigit(c)) {
+                literalEnd = skipNumericLiteral(query, i + 1);
+                string = false;
+            } else {
+                i = skipToken(query, c, i);
+                continue;
+            }
+            if (normalized == null) {
+                normalized = new StringBuilder(length);
+            }
+            if (!pendingLiteral || !isListSeparator(query, lastLiteralEnd, i)) {
+                appendPlaceholder(normalized, pendingLiteral, pendingStrings);
+                normalized.append(query, copiedUpTo, i);
+                pendingLiteral = true;
+                pendingStrings = 0;
+            }
+            if (string) {
+                pendingStrings++;
+            }
+            copiedUpTo = literalEnd;
+            lastLiteralEnd = literalEnd;
+            i = literalEnd;
+        }
+        if (normalized == null) {
+            return query;
+        }
+        appendPlaceholder(normalized, pendingLiteral, pendingStrings);
+        normalized.append(query, copiedUpTo, length);
+        return normalized.toString();
+    }
+
+    /**
+     * Returns the index after the first word of the trimmed query,
+     * or {@code -1} if the first word contains characters which may start a literal, quoted identifier or comment,
+     * in which case the query can't be normalized safely.
+     */
+    private static int getIndexAfterFirstWord(String query) {
+        int i = 0;
+        final int length = query.length();
+        while (i < length && query.charAt(i) <= ' ') {
+            i++;
+        }
+        for (; i < length; i++) {
+            switch (query.charAt(i)) {
+                case ' ':
+                    return i;
+                case '\'':
+                case '"':
+                case '`':
+                case '[':
+                case '$':
+                case '-':
+                case '/':
+                    return -1;
+            }
+        }
+        return length;
+    }
+
+    private static void appendPlaceholder(@Nullable StringBuilder normalized, boolean pendingLiteral, int strings) {
+        if (normalized == null || !pendingLiteral) {
+            return;
+        }
+        if (strings == 0) {
+            normalized.append('0');
+        } else if (strings % 2 == 1) {
+            normalized.append("''");
+        } else {
+            normalized.append("'',''");
+        }
+    }
+
+    /**
+     * @return {@code true} if there's nothing but whitespace and a single comma between {@code from} and {@code to}
+     */
+    private static boolean isListSeparator(String query, int from, int to) {
+        boolean comma = false;
+        for (int i = from; i < to; i++) {
+            final char c = query.charAt(i);
+            if (c == ',' && !comma) {
+                comma = true;
+            } else if (!Character.isSpaceChar(c)) {
+                return false;
+            }
+        }
+        return comma;
+    }
+
+    /**
+     * Skips a token which is not a literal.
+     *
+     * @return the index after the token
+     */
+    private static int skipToken(String query, char c, int i) {
+        final int length = query.length();
+        if (c == '_' || isLetter(c)) {
+            return skipIdentifier(query, i + 1);
+        }
+        switch (c) {
+            case '"':
+                return skipQuotedIdentifier(query, i + 1, '"');
+            case '[':
+                return skipQuotedIdentifier(query, i + 1, ']');
+            case '`':
+                return skipQuotedIdentifier(query, i + 1, '`');
+            case '-':
+                if (i + 1 < length && query.charAt(i + 1) == '-') {
+                    final int endOfLine = query.indexOf('\n', i + 2);
+                    return endOfLine < 0 ? length : endOfLine + 1;
+                }
+                return i + 1;
+            case '/':
+                if (i + 1 < length && query.charAt(i + 1) == '*') {
+                    return skipBracketedComment(query, i + 2);
+                }
+                return i + 1;
+            case '$':
+                return skipDollar(query, i + 1);
+            default:
+                return i + 1;
+        }
+    }
+
+    // fast paths for ASCII characters which are equivalent to the Character methods the Scanner uses
+    private static boolean isLetter(char c) {
+        if (c < 128) {
+            return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+        }
+        return Character.isLetter(c);
+    }
+
+    private static boolean isDigit(char c) {
+        if (c < 128) {
+            return c >= '0' && c <= '9';
+        }
+        return Character.isDigit(c);
+    }
+
+    private static int skipIdentifier(String query, int i) {
+        final int length = query.length();
+        for (; i < length; i++) {
+            final char c = query.charAt(i);
+            if (!isLetter(c) && !isDigit(c) && c != '_' && c != '$') {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @see Scanner#scan() case '$'
+     */
+    private static int skipDollar(String query, int i) {
+        final int length = query.length();
+        if (i >= length) {
+            return i;
+        }
+        final char next = query.charAt(i);
+        if (Character.isDigit(next)) {
+            // positional parameter like $1
+            while (i < length && Character.isDigit(query.charAt(i))) {
+                i++;
+            }
+            return i;
+        } else if (next == '$' || next == '_' || Character.isLetter(next)) {
+            // dollar-quoted string literal like $foo$...$foo$ whose content is copied as-is
+            final int tagStart = i - 1;
+            while (i < length) {
+                final char c = query.charAt(i++);
+                if (c == '$') {
+                    final int closingTag = query.indexOf(query.substring(tagStart, i), i);
+                    return closingTag >= 0 ? closingTag + i - tagStart : i;
+                } else if (Character.isSpaceChar(c)) {
+                    return i;
+                }
+            }
+            return length;
+        }
+        return i;
+    }
+
+    /**
+     * @see Scanner#scanStringLiteral()
+     */
+    private static int skipStringLiteral(String query, int i) {
+        final int length = query.length();
+        while (i < length) {
+            final char c = query.charAt(i++);
+            if (c == '\\' && i < length) {
+                i++;
+            } else if (c == '\'') {
+                if (i < length && query.charAt(i) == '\'') {
+                    i++;
+                } else {
+                    return i;
+                }
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @see Scanner#scanNumericLiteral()
+     */
+    private static int skipNumericLiteral(String query, int i) {
+        final int length = query.length();
+        boolean hasPeriod = false;
+        boolean hasExponent = false;
+        while (i < length) {
+            final char c = query.charAt(i);
+            if (isDigit(c)) {
+                i++;
+            } else if (c == '.' && !hasPeriod) {
+                hasPeriod = true;
+                i++;
+            } else if ((c == 'e' || c == 'E') && !hasExponent) {
+                hasExponent = true;
+                i++;
+                if (i < length && (query.charAt(i) == '+' || query.charAt(i) == '-')) {
+                    i++;
+                }
+            } else {
+                return i;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @see Scanner#scanQuotedIdentifier(char)
+     */
+    private static int skipQuotedIdentifier(String query, int i, char delimiter) {
+        final int length = query.length();
+        while (i < length) {
+            final char c = query.charAt(i++);
+            if (c == delimiter) {
+                if (delimiter == '"' && i < length && query.charAt(i) == '"') {
+                    i++;
+                } else {
+                    return i;
+                }
+            }
+        }
+        return length;
+    }
+
+    /**
+     * @see Scanner#scanBracketedComment()
+     */
+    private static int skipBracketedComment(String query, int i) {
+        final int length = query.length();
+        int nesting = 1;
+        while (i < length) {
+            final char c = query.charAt(i++);
+            if (c == '/' && i < length && query.charAt(i) == '*') {
+                i++;
+                nesting++;
+            }
+            if ((c == '/' || c == '*') && i < length && query.charAt(i) == '/') {
+                i++;
+                nesting--;
+                if (nesting == 0) {
+                    return i;
+                }
+            }
+        }
+        return length;
+    }
+}
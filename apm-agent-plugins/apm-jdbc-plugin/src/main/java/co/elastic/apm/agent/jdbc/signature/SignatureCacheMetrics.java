@@ -0,0 +1,58 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.jdbc.signature;
+
+import co.elastic.apm.agent.context.AbstractLifecycleListener;
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.metrics.DoubleSupplier;
+import co.elastic.apm.agent.metrics.Labels;
+import co.elastic.apm.agent.metrics.MetricRegistry;
+
+/**
+ * Reports how many SQL signatures have been served from the {@link SignatureParser}'s cache
+ * and how many had to be parsed although they were eligible for caching.
+ */
+public class SignatureCacheMetrics extends AbstractLifecycleListener {
+
+    @Override
+    public void start(ElasticApmTracer tracer) {
+        bindTo(tracer.getMetricRegistry());
+    }
+
+    void bindTo(MetricRegistry registry) {
+        registry.add("db.signature_cache.hits", Labels.EMPTY, new DoubleSupplier() {
+            @Override
+            public double get() {
+                return SignatureParser.getCacheHits();
+            }
+        });
+        registry.add("db.signature_cache.misses", Labels.EMPTY, new DoubleSupplier() {
+            @Override
+            public double get() {
+                return SignatureParser.getCacheMisses();
+            }
+        });
+    }
+}
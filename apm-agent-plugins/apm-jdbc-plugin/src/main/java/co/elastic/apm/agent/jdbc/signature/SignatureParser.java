@@ -24,9 +24,10 @@
  */
 package co.elastic.apm.agent.jdbc.signature;
 
+import co.elastic.apm.agent.cache.FrequencyAwareCache;
+
 import javax.annotation.Nullable;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static co.elastic.apm.agent.jdbc.signature.Scanner.Token.EOF;
 import static co.elastic.apm.agent.jdbc.signature.Scanner.Token.FROM;
@@ -38,11 +39,10 @@ import static co.elastic.apm.agent.jdbc.signature.Scanner.Token.RPAREN;
 public class SignatureParser {
 
     /**
-     * If the cache reaches this size we assume that the application creates a lot of dynamic queries.
-     * In that case it's inefficient to try to cache these as they are not likely to be repeated.
-     * But we still pay the price of allocating a Map.Entry and a String for the signature.
+     * The maximum number of cached signatures.
+     * Queries which are rarely repeated, like dynamically created ones, don't displace frequent ones as the cache is frequency-aware.
      */
-    private static final int DISABLE_CACHE_THRESHOLD = 512;
+    private static final int CACHE_SIZE = 1024;
     /**
      * The cache management overhead is probably not worth it for short queries
      */
@@ -54,10 +54,16 @@ public class SignatureParser {
     /**
      * Not using weak keys because ORMs like Hibernate generate equal SQL strings for the same query but don't reuse the same string instance.
      * When relying on weak keys, we would not leverage any caching benefits if the query string is collected.
-     * That means that we are leaking Strings but as the size of the map is limited that should not be an issue.
+     * The keys are {@linkplain QueryNormalizer normalized} so that queries which only differ in their literals share an entry.
+     */
+    private final static FrequencyAwareCache<String, String[]> signatureCache = new FrequencyAwareCache<>(CACHE_SIZE);
+
+    /**
+     * Counted across all parsers, as there's one parser per thread.
+     * Reported by {@link SignatureCacheMetrics}.
      */
-    private final static ConcurrentMap<String, String[]> signatureCache = new ConcurrentHashMap<String, String[]>(DISABLE_CACHE_THRESHOLD,
-            0.5f, Runtime.getRuntime().availableProcessors());
+    private static final AtomicLong cacheHits = new AtomicLong();
+    private static final AtomicLong cacheMisses = new AtomicLong();
 
     private final Scanner scanner = new Scanner();
 
@@ -65,30 +71,67 @@ public class SignatureParser {
         querySignature(query, signature, null, preparedStatement);
     }
 
+    /**
+     * Appends the signature of the query.
+     * <p>
+     * Both statements and prepared statements are cached,
+     * as inline literals of dynamically created statements are normalized before looking up the cache.
+     * </p>
+     *
+     * @param query             the SQL query
+     * @param signature         the {@link StringBuilder} the signature is appended to
+     * @param dbLink            the {@link StringBuilder} the database link is appended to, if any
+     * @param preparedStatement whether the query belongs to a prepared statement, doesn't affect caching
+     */
     public void querySignature(String query, StringBuilder signature, @Nullable StringBuilder dbLink, boolean preparedStatement) {
-        final boolean cacheable = preparedStatement // non-prepared statements are likely to be dynamic strings
-            && QUERY_LENGTH_CACHE_LOWER_THRESHOLD < query.length()
+        final boolean cacheable = QUERY_LENGTH_CACHE_LOWER_THRESHOLD < query.length()
             && query.length() < QUERY_LENGTH_CACHE_UPPER_THRESHOLD;
+        String cacheKey = null;
         if (cacheable) {
-            final String[] cachedSignature = signatureCache.get(query);
+            // queries without literals, like most prepared statements, are their own cache key
+            // so try that first to avoid normalizing them
+            cacheKey = query;
+            String[] cachedSignature = signatureCache.getIfPresent(query);
+            if (cachedSignature == null) {
+                cacheKey = QueryNormalizer.normalize(query);
+                cachedSignature = signatureCache.get(cacheKey);
+            }
             if (cachedSignature != null) {
+                cacheHits.incrementAndGet();
                 signature.append(cachedSignature[0]);
                 if (dbLink != null) {
                     dbLink.append(cachedSignature[1]);
                 }
                 return;
             }
+            cacheMisses.incrementAndGet();
         }
 
         scanner.setQuery(query);
         parse(query, signature, dbLink);
 
-        if (cacheable && signatureCache.size() <= DISABLE_CACHE_THRESHOLD) {
-            // we don't mind a small overshoot due to race conditions
-            signatureCache.put(query, new String[]{signature.toString(), dbLink != null ? dbLink.toString() : ""});
+        if (cacheKey != null) {
+            signatureCache.put(cacheKey, new String[]{signature.toString(), dbLink != null ? dbLink.toString() : ""});
         }
     }
 
+    /**
+     * @return the ratio of cache lookups of all parsers which have been served from the cache, or {@code 0} if there were no lookups
+     */
+    public static double getCacheHitRate() {
+        final long hits = cacheHits.get();
+        final long lookups = hits + cacheMisses.get();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public static long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public static long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
     private void parse(String query, StringBuilder signature, @Nullable StringBuilder dbLink) {
         final Scanner.Token firstToken = scanner.scanWhile(Scanner.Token.COMMENT);
         switch (firstToken) {
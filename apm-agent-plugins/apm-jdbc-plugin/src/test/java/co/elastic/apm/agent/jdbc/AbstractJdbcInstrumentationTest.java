@@ -30,6 +30,7 @@ import co.elastic.apm.agent.impl.context.Destination;
 import co.elastic.apm.agent.impl.transaction.Span;
 import co.elastic.apm.agent.impl.transaction.Transaction;
 import co.elastic.apm.agent.jdbc.helper.JdbcHelper;
+import co.elastic.apm.agent.jdbc.helper.StatementInfo;
 import co.elastic.apm.agent.jdbc.signature.SignatureParser;
 import org.junit.After;
 import org.junit.Before;
@@ -273,6 +274,27 @@ public abstract class AbstractJdbcInstrumentationTest extends AbstractInstrument
         // note: in that case, Statement.getUpdateCount() does not return the sum
         // of the returned array values.
         assertSpanRecorded(insert, false, 2);
+        assertBatchRecorded(2, signature(insert) + "; " + signature(delete));
+
+        // the batch has been cleared by the execution, the next batch is tracked on its own
+        reporter.reset();
+        statement.addBatch(delete);
+        statement.executeBatch();
+        assertThat(reporter.getSpans()).hasSize(1);
+        assertThat(reporter.getFirstSpan().getNameAsString()).isEqualTo(signature(delete));
+        assertBatchRecorded(1, null);
+    }
+
+    private void assertBatchRecorded(int expectedBatchSize, @Nullable String expectedSignatures) {
+        Span jdbcSpan = reporter.getFirstSpan();
+        assertThat(jdbcSpan.getContext().getLabel("db_batch_size")).isEqualTo(expectedBatchSize);
+        assertThat(jdbcSpan.getContext().getLabel("db_batch_signatures")).isEqualTo(expectedSignatures);
+    }
+
+    private String signature(String sql) {
+        StringBuilder signature = new StringBuilder();
+        signatureParser.querySignature(sql, signature, true);
+        return signature.toString();
     }
 
     private interface StatementExecutor<T> {
@@ -323,6 +345,15 @@ public abstract class AbstractJdbcInstrumentationTest extends AbstractInstrument
             ResultSet resultSet = preparedStatement.executeQuery();
             assertQuerySucceededAndSpanRecorded(resultSet, PREPARED_STATEMENT_SQL, true);
 
+            // signature and connection metadata are cached on the statement for subsequent executions
+            assertThat(JdbcInstrumentation.jdbcHelperManager).isNotNull();
+            JdbcHelper jdbcHelper = JdbcInstrumentation.jdbcHelperManager.getForClassLoaderOfClass(Statement.class);
+            assertThat(jdbcHelper).isNotNull();
+            StatementInfo statementInfo = jdbcHelper.retrieveStatementInfo(preparedStatement);
+            assertThat(statementInfo).isNotNull();
+            assertThat(statementInfo.getSignature()).isNotNull();
+            assertThat(statementInfo.isConnectionMetaDataResolved()).isTrue();
+
             // test a second recording with the same statement object
             reporter.reset();
             resultSet = preparedStatement.executeQuery();
@@ -374,6 +405,7 @@ public abstract class AbstractJdbcInstrumentationTest extends AbstractInstrument
         }
 
         assertSpanRecorded(query, false, expectedAffected);
+        assertBatchRecorded(2, null);
     }
 
     private void testMultipleRowsModifiedStatement() throws SQLException {
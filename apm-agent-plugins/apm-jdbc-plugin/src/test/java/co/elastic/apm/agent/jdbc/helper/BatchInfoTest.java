@@ -0,0 +1,101 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.jdbc.helper;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class BatchInfoTest {
+
+    private final BatchInfo batch = new BatchInfo();
+
+    @Test
+    void testDistinctStatements() {
+        batch.add("INSERT INTO foo VALUES (?)");
+        batch.add("DELETE FROM foo");
+        batch.add(new String("INSERT INTO foo VALUES (?)"));
+
+        assertThat(batch.getSize()).isEqualTo(3);
+        assertThat(batch.getDistinctCount()).isEqualTo(2);
+        assertThat(batch.getSql(0)).isEqualTo("INSERT INTO foo VALUES (?)");
+        assertThat(batch.getSql(1)).isEqualTo("DELETE FROM foo");
+    }
+
+    @Test
+    void testDistinctStatementsAreLimited() {
+        for (int i = 0; i < BatchInfo.MAX_DISTINCT_STATEMENTS * 2; i++) {
+            batch.add("INSERT INTO foo VALUES (" + i + ")");
+        }
+        assertThat(batch.getSize()).isEqualTo(BatchInfo.MAX_DISTINCT_STATEMENTS * 2);
+        assertThat(batch.getDistinctCount()).isEqualTo(BatchInfo.MAX_DISTINCT_STATEMENTS);
+    }
+
+    @Test
+    void testSignaturesAreReusedForTheSameStatements() {
+        batch.add("INSERT INTO foo VALUES (?)");
+        batch.add("DELETE FROM foo");
+        batch.setSignature(0, "INSERT INTO foo");
+        batch.setSignature(1, "DELETE FROM foo");
+        batch.setJoinedSignatures("INSERT INTO foo; DELETE FROM foo");
+        batch.clear();
+        assertThat(batch.getSize()).isZero();
+        assertThat(batch.getDistinctCount()).isZero();
+
+        batch.add("INSERT INTO foo VALUES (?)");
+        batch.add("DELETE FROM foo");
+        assertThat(batch.getSignature(0)).isEqualTo("INSERT INTO foo");
+        assertThat(batch.getSignature(1)).isEqualTo("DELETE FROM foo");
+        assertThat(batch.getJoinedSignatures()).isEqualTo("INSERT INTO foo; DELETE FROM foo");
+    }
+
+    @Test
+    void testSignaturesAreResetForOtherStatements() {
+        batch.add("INSERT INTO foo VALUES (?)");
+        batch.add("DELETE FROM foo");
+        batch.setSignature(0, "INSERT INTO foo");
+        batch.setSignature(1, "DELETE FROM foo");
+        batch.setJoinedSignatures("INSERT INTO foo; DELETE FROM foo");
+        batch.clear();
+
+        batch.add("INSERT INTO foo VALUES (?)");
+        assertThat(batch.getJoinedSignatures()).isNull();
+        batch.add("DELETE FROM bar");
+        assertThat(batch.getSignature(0)).isEqualTo("INSERT INTO foo");
+        assertThat(batch.getSignature(1)).isNull();
+        assertThat(batch.getJoinedSignatures()).isNull();
+    }
+
+    @Test
+    void testBatchSizeBuckets() {
+        assertThat(JdbcHelperImpl.BATCH_SIZE_BUCKETS[JdbcHelperImpl.getBatchSizeBucket(1)]).isEqualTo("1");
+        assertThat(JdbcHelperImpl.BATCH_SIZE_BUCKETS[JdbcHelperImpl.getBatchSizeBucket(2)]).isEqualTo("2");
+        assertThat(JdbcHelperImpl.BATCH_SIZE_BUCKETS[JdbcHelperImpl.getBatchSizeBucket(3)]).isEqualTo("4");
+        assertThat(JdbcHelperImpl.BATCH_SIZE_BUCKETS[JdbcHelperImpl.getBatchSizeBucket(1000)]).isEqualTo("1024");
+        assertThat(JdbcHelperImpl.BATCH_SIZE_BUCKETS[JdbcHelperImpl.getBatchSizeBucket(65536)]).isEqualTo("65536");
+        assertThat(JdbcHelperImpl.BATCH_SIZE_BUCKETS[JdbcHelperImpl.getBatchSizeBucket(65537)]).isEqualTo("+Inf");
+        assertThat(JdbcHelperImpl.BATCH_SIZE_BUCKETS[JdbcHelperImpl.getBatchSizeBucket(Integer.MAX_VALUE)]).isEqualTo("+Inf");
+    }
+}
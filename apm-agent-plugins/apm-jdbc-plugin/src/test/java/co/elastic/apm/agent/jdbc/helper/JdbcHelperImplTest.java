@@ -0,0 +1,94 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.jdbc.helper;
+
+import co.elastic.apm.agent.configuration.CoreConfiguration;
+import co.elastic.apm.agent.configuration.SpyConfiguration;
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.ElasticApmTracerBuilder;
+import co.elastic.apm.agent.impl.transaction.Span;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import co.elastic.apm.agent.report.Reporter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.stagemonitor.configuration.ConfigurationRegistry;
+
+import java.sql.Statement;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class JdbcHelperImplTest {
+
+    private ConfigurationRegistry config;
+    private ElasticApmTracer tracer;
+    private Transaction transaction;
+
+    @BeforeEach
+    void setUp() {
+        config = SpyConfiguration.createSpyConfig();
+        tracer = new ElasticApmTracerBuilder()
+            .configurationRegistry(config)
+            .reporter(mock(Reporter.class))
+            .build();
+        tracer.start();
+        transaction = tracer.startRootTransaction(null);
+    }
+
+    @AfterEach
+    void tearDown() {
+        transaction.end();
+        tracer.stop();
+    }
+
+    @Test
+    void testSpansCreatedByTheDriverAreNotSuppressed() {
+        Span span = new JdbcHelperImpl(tracer).createJdbcSpan("SELECT * FROM foo", mock(Statement.class), transaction, false);
+        assertThat(span).isNotNull();
+        try {
+            assertThat(span.isExit()).isFalse();
+            Span driverSpan = span.createExitSpan();
+            assertThat(driverSpan).isNotNull();
+            driverSpan.end();
+        } finally {
+            span.deactivate().end();
+        }
+    }
+
+    @Test
+    void testSpansAreExitSpansWithSpanCompression() {
+        when(config.getConfig(CoreConfiguration.class).isSpanCompressionEnabled()).thenReturn(true);
+        Span span = new JdbcHelperImpl(tracer).createJdbcSpan("SELECT * FROM foo", mock(Statement.class), transaction, false);
+        assertThat(span).isNotNull();
+        try {
+            assertThat(span.isExit()).isTrue();
+            assertThat(span.createExitSpan()).isNull();
+        } finally {
+            span.deactivate().end();
+        }
+    }
+}
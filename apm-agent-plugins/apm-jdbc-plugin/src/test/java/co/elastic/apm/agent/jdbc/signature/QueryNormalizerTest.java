@@ -0,0 +1,68 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.jdbc.signature;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class QueryNormalizerTest {
+
+    @Test
+    void testReplacesLiterals() {
+        assertThat(QueryNormalizer.normalize("SELECT * FROM foo WHERE id = 42 AND name = 'it''s' AND x = 1.5e+3"))
+            .isEqualTo("SELECT * FROM foo WHERE id = 0 AND name = '' AND x = 0");
+    }
+
+    @Test
+    void testCollapsesLists() {
+        assertThat(QueryNormalizer.normalize("SELECT * FROM foo WHERE id IN (1, 2, 3)"))
+            .isEqualTo("SELECT * FROM foo WHERE id IN (0)");
+        assertThat(QueryNormalizer.normalize("SELECT * FROM foo WHERE id IN ('a', 'b', 'c')"))
+            .isEqualTo(QueryNormalizer.normalize("SELECT * FROM foo WHERE id IN ('a')"));
+        // retains the parity of string literals
+        assertThat(QueryNormalizer.normalize("SELECT * FROM foo WHERE id IN ('a', 'b')"))
+            .isEqualTo("SELECT * FROM foo WHERE id IN ('','')");
+    }
+
+    @Test
+    void testReturnsSameInstanceWithoutLiterals() {
+        String query = "SELECT * FROM foo WHERE id = ?";
+        assertThat(QueryNormalizer.normalize(query)).isSameAs(query);
+    }
+
+    @Test
+    void testKeepsIdentifiersAndComments() {
+        assertThat(QueryNormalizer.normalize("SELECT * FROM t1 WHERE \"col'1\" = 1 -- it's\nAND y = 2"))
+            .isEqualTo("SELECT * FROM t1 WHERE \"col'1\" = 0 -- it's\nAND y = 0");
+        assertThat(QueryNormalizer.normalize("SELECT $tag$ it's 1 $tag$ FROM foo WHERE x = 3"))
+            .isEqualTo("SELECT $tag$ it's 1 $tag$ FROM foo WHERE x = 0");
+    }
+
+    @Test
+    void testKeepsFirstWord() {
+        assertThat(QueryNormalizer.normalize("123 foo 456")).isEqualTo("123 foo 0");
+    }
+}
@@ -67,6 +67,19 @@ class SignatureParserTest {
         assertThat(dblink.toString()).isEqualTo("DBLINK");
     }
 
+    @Test
+    void testCacheHitsAreCountedAcrossParsers() {
+        final String query = "SELECT id, name, email, created_at FROM customers_" + System.nanoTime() + " WHERE id = ?";
+        final long hits = SignatureParser.getCacheHits();
+        final long misses = SignatureParser.getCacheMisses();
+
+        signatureParser.querySignature(query, new StringBuilder(), true);
+        new SignatureParser().querySignature(query, new StringBuilder(), true);
+
+        assertThat(SignatureParser.getCacheMisses()).isEqualTo(misses + 1);
+        assertThat(SignatureParser.getCacheHits()).isEqualTo(hits + 1);
+    }
+
     @Test
     void testDbLinkCache() {
         final StringBuilder sb = new StringBuilder();
@@ -28,11 +28,13 @@ import co.elastic.apm.agent.bci.HelperClassManager;
 import co.elastic.apm.agent.bci.VisibleForAdvice;
 import co.elastic.apm.agent.impl.ElasticApmTracer;
 import co.elastic.apm.agent.kafka.helper.KafkaInstrumentationHeadersHelper;
+import net.bytebuddy.description.type.TypeDescription;
 import net.bytebuddy.matcher.ElementMatcher;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.producer.ProducerRecord;
 
 import javax.annotation.Nullable;
+import java.security.ProtectionDomain;
 
 import static co.elastic.apm.agent.bci.bytebuddy.CustomElementMatchers.classLoaderCanLoadClass;
 
@@ -61,6 +63,14 @@ public abstract class BaseKafkaHeadersInstrumentation extends BaseKafkaInstrumen
         BaseKafkaHeadersInstrumentation.init(tracer);
     }
 
+    @Override
+    public void onTypeMatch(TypeDescription typeDescription, ClassLoader classLoader, ProtectionDomain protectionDomain, @Nullable Class<?> classBeingRedefined) {
+        super.onTypeMatch(typeDescription, classLoader, protectionDomain, classBeingRedefined);
+        if (kafkaInstrHeadersHelperManager != null) {
+            kafkaInstrHeadersHelperManager.preWarm(classLoader, "org.apache.kafka.clients.producer.KafkaProducer");
+        }
+    }
+
     @Override
     public ElementMatcher.Junction<ClassLoader> getClassLoaderMatcher() {
         return super.getClassLoaderMatcher().and(classLoaderCanLoadClass("org.apache.kafka.common.header.Headers"));
@@ -0,0 +1,221 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.profiler;
+
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import co.elastic.apm.agent.metrics.Labels;
+import co.elastic.apm.agent.metrics.MetricRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Measures the time a thread has been blocked on entering a monitor while a root transaction was active on it.
+ * <p>
+ * The lock samples of async-profiler don't contain the duration a thread has been contended,
+ * that's why the blocked time is measured via the {@link ThreadMXBean}.
+ * If thread contention monitoring is not enabled yet, it's enabled when tracking is {@linkplain #start() started}
+ * and disabled again when tracking is {@linkplain #stop() stopped}.
+ * The time a thread has been waiting, for example in {@link Object#wait()} or {@link java.util.concurrent.locks.LockSupport#park()},
+ * is not included as it's mostly idle time, such as waiting for a task in a pool, rather than contention.
+ * The {@link ThreadInfo} only offers millisecond precision, so contentions shorter than a millisecond may not be reflected.
+ * </p>
+ * <p>
+ * To keep the overhead low, the {@link ThreadInfo} is only sampled twice per transaction:
+ * when it is {@linkplain #onActivation activated} for the first time and when it is {@linkplain #onDeactivation deactivated} after it has ended.
+ * The blocked time is only reported if both happen on the same thread.
+ * Transactions which end on another thread are {@linkplain #removeEnded() removed} by the profiling thread.
+ * </p>
+ * <p>
+ * {@link #start()}, {@link #stop()} and {@link #removeEnded()} are only meant to be called by the profiling thread,
+ * {@link #onActivation} and {@link #onDeactivation} are called by application threads.
+ * </p>
+ */
+class BlockedTimeTracker {
+
+    static final String METRIC_NAME = "profiling.lock.blocked";
+    private static final int MAX_TRACKED_TRANSACTIONS = 10_000;
+    private static final Logger logger = LoggerFactory.getLogger(BlockedTimeTracker.class);
+
+    private final ThreadMXBean threadMXBean;
+    /**
+     * Transaction id -> the thread and its blocked time when the transaction has been activated for the first time
+     */
+    private final ConcurrentMap<Long, BlockedTimeAtStart> blockedTimeAtStart = new ConcurrentHashMap<>();
+    private volatile boolean tracking;
+    private boolean enabledContentionMonitoring;
+
+    BlockedTimeTracker() {
+        this(ManagementFactory.getThreadMXBean());
+    }
+
+    BlockedTimeTracker(ThreadMXBean threadMXBean) {
+        this.threadMXBean = threadMXBean;
+    }
+
+    void start() {
+        if (tracking) {
+            return;
+        }
+        if (!threadMXBean.isThreadContentionMonitoringSupported()) {
+            logger.debug("Thread contention monitoring is not supported, not measuring the blocked time of transactions");
+            return;
+        }
+        try {
+            if (!threadMXBean.isThreadContentionMonitoringEnabled()) {
+                threadMXBean.setThreadContentionMonitoringEnabled(true);
+                enabledContentionMonitoring = true;
+            }
+            tracking = true;
+        } catch (SecurityException e) {
+            logger.debug("Not allowed to enable thread contention monitoring, not measuring the blocked time of transactions");
+        }
+    }
+
+    void stop() {
+        tracking = false;
+        blockedTimeAtStart.clear();
+        if (enabledContentionMonitoring) {
+            enabledContentionMonitoring = false;
+            try {
+                threadMXBean.setThreadContentionMonitoringEnabled(false);
+            } catch (SecurityException e) {
+                logger.debug("Not allowed to disable thread contention monitoring");
+            }
+        }
+    }
+
+    /**
+     * Removes the start samples of transactions which have ended without being deactivated on the thread they've been activated on.
+     * That happens when a transaction is ended on another thread, for example when an asynchronous request completes.
+     * <p>
+     * A sample is only removed if its transaction has already ended at the previous call,
+     * so that a transaction which is just about to be deactivated after it has ended is still reported.
+     * As transactions are pooled, a transaction that has been recycled in the meantime is detected by its changed id.
+     * </p>
+     */
+    void removeEnded() {
+        for (Iterator<BlockedTimeAtStart> iterator = blockedTimeAtStart.values().iterator(); iterator.hasNext(); ) {
+            BlockedTimeAtStart sample = iterator.next();
+            boolean ended = sample.hasEnded();
+            if (ended && sample.endedAtLastCheck) {
+                iterator.remove();
+            }
+            sample.endedAtLastCheck = ended;
+        }
+    }
+
+    /**
+     * Called on the thread a root transaction is activated on.
+     * Only the first activation while tracking samples the blocked time of the thread.
+     *
+     * @param transaction the activated transaction
+     */
+    void onActivation(Transaction transaction) {
+        if (!tracking) {
+            return;
+        }
+        long transactionId = getTransactionId(transaction);
+        if (blockedTimeAtStart.containsKey(transactionId) || blockedTimeAtStart.size() >= MAX_TRACKED_TRANSACTIONS) {
+            return;
+        }
+        long blockedTime = getBlockedTimeOfCurrentThread();
+        if (blockedTime >= 0) {
+            blockedTimeAtStart.putIfAbsent(transactionId, new BlockedTimeAtStart(transaction, transactionId, blockedTime));
+        }
+    }
+
+    /**
+     * Called on the thread a root transaction is deactivated on.
+     * If the transaction has ended, reports the blocked time since its first {@linkplain #onActivation activation} under its name.
+     * If tracking has only been started after the first activation, the transaction is not reported.
+     *
+     * @param transaction    the deactivated transaction
+     * @param metricRegistry the registry to report the blocked time to
+     */
+    void onDeactivation(Transaction transaction, MetricRegistry metricRegistry) {
+        if (!tracking || !transaction.isFinished()) {
+            return;
+        }
+        BlockedTimeAtStart sample = blockedTimeAtStart.remove(getTransactionId(transaction));
+        if (sample == null || sample.threadId != Thread.currentThread().getId()) {
+            return;
+        }
+        long blockedTime = getBlockedTimeOfCurrentThread();
+        if (blockedTime >= sample.blockedTime) {
+            metricRegistry.updateTimer(METRIC_NAME, Labels.Mutable.of().transactionName(transaction.getNameAsString()),
+                (blockedTime - sample.blockedTime) * 1000);
+        }
+    }
+
+    private static long getTransactionId(Transaction transaction) {
+        return transaction.getTraceContext().getTransactionId().getLeastSignificantBits();
+    }
+
+    /**
+     * @return the time in ms the current thread has been blocked since contention monitoring has been enabled,
+     * or {@code -1} if it's not known
+     */
+    int getTrackedTransactionCount() {
+        return blockedTimeAtStart.size();
+    }
+
+    private long getBlockedTimeOfCurrentThread() {
+        ThreadInfo threadInfo = threadMXBean.getThreadInfo(Thread.currentThread().getId());
+        if (threadInfo == null) {
+            return -1;
+        }
+        // -1 if contention monitoring has been disabled in the meantime
+        return threadInfo.getBlockedTime();
+    }
+
+    private static class BlockedTimeAtStart {
+        private final Transaction transaction;
+        private final long transactionId;
+        private final long threadId;
+        /**
+         * The blocked time of the thread in ms
+         */
+        private final long blockedTime;
+        private boolean endedAtLastCheck;
+
+        private BlockedTimeAtStart(Transaction transaction, long transactionId, long blockedTime) {
+            this.transaction = transaction;
+            this.transactionId = transactionId;
+            this.threadId = Thread.currentThread().getId();
+            this.blockedTime = blockedTime;
+        }
+
+        private boolean hasEnded() {
+            return transaction.isFinished() || getTransactionId(transaction) != transactionId;
+        }
+    }
+}
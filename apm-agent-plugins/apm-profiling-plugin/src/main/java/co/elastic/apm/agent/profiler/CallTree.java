@@ -58,6 +58,11 @@ import java.util.List;
  * This allows to {@linkplain Root#spanify() infer spans from the call tree} which have the correct parent/child relationships
  * with the regular spans.
  * </p>
+ * <p>
+ * As there are lots of nodes in deep call trees, the children are stored in a plain array which is only allocated once a node gets a child.
+ * The {@link StackFrame}s are {@linkplain co.elastic.apm.agent.profiler.asyncprofiler.JfrParser interned},
+ * so that comparing the frame of a node to the frame of a stack trace is mostly an identity check.
+ * </p>
  */
 public class CallTree implements Recyclable {
 
@@ -65,7 +70,9 @@ public class CallTree implements Recyclable {
     @Nullable
     private CallTree parent;
     protected int count;
-    private List<CallTree> children = new ArrayList<>(INITIAL_CHILD_SIZE);
+    private static final CallTree[] NO_CHILDREN = new CallTree[0];
+    private CallTree[] children = NO_CHILDREN;
+    private int childCount;
     @Nullable
     private StackFrame frame;
     protected long start;
@@ -239,10 +246,17 @@ public class CallTree implements Recyclable {
         if (traceContext != null) {
             callTree.activation(traceContext, activationTimestamp);
         }
-        children.add(callTree);
+        addChild(callTree);
         return callTree.addFrame(stackFrames, index, null, activationTimestamp, nanoTime, callTreePool, minDurationNs, root);
     }
 
+    private void addChild(CallTree child) {
+        if (childCount == children.length) {
+            children = Arrays.copyOf(children, Math.max(INITIAL_CHILD_SIZE, childCount * 2));
+        }
+        children[childCount++] = child;
+    }
+
     long getDurationUs() {
         return getDurationNs() / 1000;
     }
@@ -260,8 +274,20 @@ public class CallTree implements Recyclable {
         return frame;
     }
 
+    /**
+     * Returns a view of the children of this node.
+     * Prefer {@link #getChildCount()} and {@link #getChild(int)} which don't allocate.
+     */
     public List<CallTree> getChildren() {
-        return children;
+        return Arrays.asList(children).subList(0, childCount);
+    }
+
+    public int getChildCount() {
+        return childCount;
+    }
+
+    public CallTree getChild(int index) {
+        return children[index];
     }
 
     protected void end(ObjectPool<CallTree> pool, long minDurationNs, Root root) {
@@ -285,9 +311,8 @@ public class CallTree implements Recyclable {
                 parent.giveLastChildIdTo(this);
             }
 
-            List<CallTree> callTrees = getChildren();
-            for (int i = 0, size = callTrees.size(); i < size; i++) {
-                CallTree child = callTrees.get(i);
+            for (int i = 0; i < childCount; i++) {
+                CallTree child = children[i];
                 child.activation(activeContextOfDirectParent, activationTimestamp);
                 child.deactivationTimestamp = deactivationTimestamp;
                 // re-run this logic for all children, even if they have already ended
@@ -313,7 +338,13 @@ public class CallTree implements Recyclable {
     }
 
     private void removeChild(ObjectPool<CallTree> pool, CallTree child) {
-        children.remove(child);
+        for (int i = childCount - 1; i >= 0; i--) {
+            if (children[i] == child) {
+                System.arraycopy(children, i + 1, children, i, childCount - i - 1);
+                children[--childCount] = null;
+                break;
+            }
+        }
         child.recursiveGiveChildIdsTo(this);
         child.recycle(pool);
     }
@@ -327,7 +358,7 @@ public class CallTree implements Recyclable {
     }
 
     public boolean isLeaf() {
-        return children.isEmpty();
+        return childCount == 0;
     }
 
     /**
@@ -340,12 +371,12 @@ public class CallTree implements Recyclable {
      * </pre>
      */
     private boolean isPillar() {
-        return children.size() == 1 && children.get(0).count == count;
+        return childCount == 1 && children[0].count == count;
     }
 
     @Nullable
     public CallTree getLastChild() {
-        return children.size() > 0 ? children.get(children.size() - 1) : null;
+        return childCount > 0 ? children[childCount - 1] : null;
     }
 
     public boolean isEnded() {
@@ -376,8 +407,8 @@ public class CallTree implements Recyclable {
             .append(frame != null ? frame.getMethodName() : "null")
             .append(' ').append(Integer.toString(count))
             .append('\n');
-        for (CallTree node : children) {
-            node.toString(out, level + 1);
+        for (int i = 0; i < childCount; i++) {
+            children[i].toString(out, level + 1);
         }
     }
 
@@ -392,9 +423,8 @@ public class CallTree implements Recyclable {
             span = asSpan(root, parentContext);
             this.isSpan = true;
         }
-        List<CallTree> children = getChildren();
-        for (int i = 0, size = children.size(); i < size; i++) {
-            createdSpans += children.get(i).spanify(root, span != null ? span.getTraceContext() : parentContext);
+        for (int i = 0; i < childCount; i++) {
+            createdSpans += children[i].spanify(root, span != null ? span.getTraceContext() : parentContext);
         }
         if (span != null) {
             span.end(span.getTimestamp() + getDurationUs());
@@ -437,9 +467,8 @@ public class CallTree implements Recyclable {
     }
 
     public void recycle(ObjectPool<CallTree> pool) {
-        List<CallTree> children = this.children;
-        for (int i = 0, size = children.size(); i < size; i++) {
-            children.get(i).recycle(pool);
+        for (int i = 0; i < childCount; i++) {
+            children[i].recycle(pool);
         }
         pool.recycle(this);
     }
@@ -459,13 +488,14 @@ public class CallTree implements Recyclable {
         childIds = null;
         maybeChildIds = null;
         depth = 0;
-        if (children.size() > INITIAL_CHILD_SIZE) {
+        if (children.length > INITIAL_CHILD_SIZE) {
             // the overwhelming majority of call tree nodes has either one or two children
-            // don't let outliers grow all lists in the pool over time
-            children = new ArrayList<>(INITIAL_CHILD_SIZE);
+            // don't let outliers grow all arrays in the pool over time
+            children = NO_CHILDREN;
         } else {
-            children.clear();
+            Arrays.fill(children, 0, childCount, null);
         }
+        childCount = 0;
     }
 
     /**
@@ -511,8 +541,8 @@ public class CallTree implements Recyclable {
     }
 
     public void recursiveGiveChildIdsTo(CallTree giveTo) {
-        for (int i = 0, childrenSize = children.size(); i < childrenSize; i++) {
-            children.get(i).recursiveGiveChildIdsTo(giveTo);
+        for (int i = 0; i < childCount; i++) {
+            children[i].recursiveGiveChildIdsTo(giveTo);
         }
         giveChildIdsTo(giveTo);
         giveMaybeChildIdsTo(giveTo);
@@ -704,9 +734,8 @@ public class CallTree implements Recyclable {
          */
         public int spanify() {
             int createdSpans = 0;
-            List<CallTree> callTrees = getChildren();
-            for (int i = 0, size = callTrees.size(); i < size; i++) {
-                createdSpans += callTrees.get(i).spanify(this, rootContext);
+            for (int i = 0, size = getChildCount(); i < size; i++) {
+                createdSpans += getChild(i).spanify(this, rootContext);
             }
             return createdSpans;
         }
@@ -720,9 +749,8 @@ public class CallTree implements Recyclable {
         }
 
         public void recycle(ObjectPool<CallTree> pool) {
-            List<CallTree> children = getChildren();
-            for (int i = 0, size = children.size(); i < size; i++) {
-                children.get(i).recycle(pool);
+            for (int i = 0, size = getChildCount(); i < size; i++) {
+                getChild(i).recycle(pool);
             }
         }
 
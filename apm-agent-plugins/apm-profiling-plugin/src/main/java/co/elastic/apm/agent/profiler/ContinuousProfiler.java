@@ -0,0 +1,394 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.profiler;
+
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import co.elastic.apm.agent.matcher.WildcardMatcher;
+import co.elastic.apm.agent.profiler.asyncprofiler.AsyncProfiler;
+import co.elastic.apm.agent.profiler.asyncprofiler.JfrParser;
+import co.elastic.apm.agent.util.ExecutorUtils;
+import com.lmax.disruptor.EventFactory;
+import com.lmax.disruptor.EventPoller;
+import com.lmax.disruptor.EventTranslatorOneArg;
+import com.lmax.disruptor.RingBuffer;
+import com.lmax.disruptor.Sequence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Continuously samples the stack traces of all threads at a low rate
+ * and aggregates them into folded stacks per transaction name.
+ * <p>
+ * In contrast to the {@link SamplingProfiler}, which only profiles threads with an active sampled transaction during time-boxed sessions
+ * in order to create inferred spans,
+ * this profiler is meant to be always on so that hot code paths can be found in production.
+ * To make this feasible, the sampling interval is adapted by a {@link CpuBudgetController}
+ * so that the CPU time spent on profiling, as measured by the {@link CpuTimeMeter},
+ * stays within {@link ProfilingConfiguration#getContinuousProfilingCpuBudget()}.
+ * </p>
+ * <p>
+ * Each cycle starts async-profiler without a thread filter for the duration of the
+ * {@link ProfilingConfiguration#getContinuousProfilingFlushInterval() flush interval}.
+ * In the meantime, the activations and deactivations of root transactions are consumed from a ring buffer
+ * and recorded in {@link TransactionIntervals}.
+ * After stopping async-profiler, the samples in the JFR file are attributed to the transaction which was active on the sampled thread,
+ * aggregated by the {@link FoldedStackAggregator} and written to a new file in the output directory.
+ * </p>
+ * <p>
+ * This profiler has its own thread, so that it doesn't delay the {@link SamplingProfiler}.
+ * As async-profiler can only run one session at a time,
+ * this profiler pauses while {@linkplain ProfilingConfiguration#isSessionProfilingEnabled() profiling sessions} are enabled.
+ * When they are enabled during a cycle, the cycle ends early.
+ * In addition, both profilers hold the {@link SamplingProfiler#ASYNC_PROFILER_SESSION_LOCK} while async-profiler is running.
+ * </p>
+ */
+public class ContinuousProfiler implements Runnable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ContinuousProfiler.class);
+    static final int MAX_PROFILE_FILES = 60;
+    static final String FILE_PREFIX = "profile-";
+    static final String FILE_SUFFIX = ".folded";
+    private static final int MAX_STACK_DEPTH = 256;
+    private static final long IDLE_POLL_INTERVAL_MILLIS = 5000;
+    private static final long EVENT_POLL_INTERVAL_MILLIS = 100;
+    static final int RING_BUFFER_SIZE = 4 * 1024;
+
+    private final EventTranslatorOneArg<TransactionEvent, Transaction> ACTIVATION_EVENT_TRANSLATOR =
+        new EventTranslatorOneArg<TransactionEvent, Transaction>() {
+            @Override
+            public void translateTo(TransactionEvent event, long sequence, Transaction transaction) {
+                event.set(true, Thread.currentThread().getId(), null, nanoClock.nanoTime());
+            }
+        };
+    private final EventTranslatorOneArg<TransactionEvent, Transaction> DEACTIVATION_EVENT_TRANSLATOR =
+        new EventTranslatorOneArg<TransactionEvent, Transaction>() {
+            @Override
+            public void translateTo(TransactionEvent event, long sequence, Transaction transaction) {
+                event.set(false, Thread.currentThread().getId(), transaction.getNameForSerialization(), nanoClock.nanoTime());
+            }
+        };
+
+    private final ElasticApmTracer tracer;
+    private final ProfilingConfiguration config;
+    private final ScheduledExecutorService scheduler;
+    private final NanoClock nanoClock;
+    private final File jfrFile;
+    private final RingBuffer<TransactionEvent> eventBuffer;
+    private final Sequence sequence;
+    private final EventPoller<TransactionEvent> poller;
+    private final RecordTransactionEventHandler recordTransactionEventHandler = new RecordTransactionEventHandler();
+    private final AggregateSampleConsumer aggregateSampleConsumer = new AggregateSampleConsumer();
+    private final CpuBudgetController cpuBudgetController = new CpuBudgetController();
+    private final TransactionIntervals transactionIntervals = new TransactionIntervals();
+    private final FoldedStackAggregator aggregator = new FoldedStackAggregator();
+    private final CpuTimeMeter cpuTimeMeter = new CpuTimeMeter();
+    private final SimpleDateFormat fileDateFormat = new SimpleDateFormat("yyyyMMdd'T'HHmmss");
+    private volatile boolean recording = false;
+    @Nullable
+    private JfrParser jfrParser;
+
+    public ContinuousProfiler(ElasticApmTracer tracer, NanoClock nanoClock, File jfrFile) {
+        this.tracer = tracer;
+        this.config = tracer.getConfig(ProfilingConfiguration.class);
+        this.scheduler = ExecutorUtils.createSingleThreadSchedulingDeamonPool("continuous-profiler");
+        this.nanoClock = nanoClock;
+        this.jfrFile = jfrFile;
+        this.eventBuffer = RingBuffer.createMultiProducer(
+            new EventFactory<TransactionEvent>() {
+                @Override
+                public TransactionEvent newInstance() {
+                    return new TransactionEvent();
+                }
+            },
+            RING_BUFFER_SIZE,
+            new SamplingProfiler.NoWaitStrategy());
+        this.sequence = new Sequence();
+        // tells the ring buffer to not override slots which have not been read yet
+        this.eventBuffer.addGatingSequences(sequence);
+        this.poller = eventBuffer.newPoller();
+    }
+
+    /**
+     * Called whenever a transaction is activated on a thread which has no other active span.
+     *
+     * @param transaction the activated transaction
+     * @return {@code true}, if the event could be processed, {@code false} if the internal event queue is full which means the event has been discarded
+     */
+    public boolean onActivation(Transaction transaction) {
+        if (recording) {
+            boolean success = eventBuffer.tryPublishEvent(ACTIVATION_EVENT_TRANSLATOR, transaction);
+            if (!success && logger.isDebugEnabled()) {
+                logger.debug("Could not add transaction activation event to ring buffer as no slots are available");
+            }
+            return success;
+        }
+        return false;
+    }
+
+    /**
+     * Called whenever a transaction is deactivated and there's no other active span on the thread.
+     *
+     * @param transaction the deactivated transaction
+     * @return {@code true}, if the event could be processed, {@code false} if the internal event queue is full which means the event has been discarded
+     */
+    public boolean onDeactivation(Transaction transaction) {
+        if (recording) {
+            boolean success = eventBuffer.tryPublishEvent(DEACTIVATION_EVENT_TRANSLATOR, transaction);
+            if (!success && logger.isDebugEnabled()) {
+                logger.debug("Could not add transaction deactivation event to ring buffer as no slots are available");
+            }
+            return success;
+        }
+        return false;
+    }
+
+    private boolean isPaused() {
+        return !config.isContinuousProfilingEnabled() || config.isSessionProfilingEnabled() || !tracer.isRunning();
+    }
+
+    @Override
+    public void run() {
+        if (isPaused()) {
+            if (recording) {
+                setRecording(false);
+                jfrParser = null;
+                cpuBudgetController.reset();
+            }
+            scheduler.schedule(this, IDLE_POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+            return;
+        }
+
+        setRecording(true);
+        boolean cpuTimeSupported = cpuTimeMeter.isSupported();
+        if (cpuTimeSupported) {
+            cpuTimeMeter.start();
+        }
+        long start = System.nanoTime();
+        long processingTime;
+        int samples;
+        try {
+            if (!profile(config.getContinuousProfilingFlushInterval().getMillis())) {
+                // profiling sessions have been enabled in the meantime
+                scheduler.submit(this);
+                return;
+            }
+            long processingStart = System.nanoTime();
+            samples = processAndWrite();
+            processingTime = System.nanoTime() - processingStart;
+        } catch (InterruptedException | ClosedByInterruptException e) {
+            setRecording(false);
+            Thread.currentThread().interrupt();
+            return;
+        } catch (Throwable t) {
+            setRecording(false);
+            logger.error("Stopping continuous profiler", t);
+            return;
+        }
+        long cpuTime = cpuTimeSupported ? cpuTimeMeter.stop(samples) : processingTime + CpuTimeMeter.getSamplingCpuTime(samples);
+        long samplingInterval = cpuBudgetController.update(cpuTime, System.nanoTime() - start, config.getContinuousProfilingCpuBudget());
+        logger.debug("Continuous profiler used {}µs of CPU time, new sampling interval is {}µs", cpuTime / 1000, samplingInterval / 1000);
+
+        if (!Thread.currentThread().isInterrupted()) {
+            scheduler.submit(this);
+        }
+    }
+
+    /**
+     * Runs async-profiler for the provided duration, or until profiling is paused.
+     *
+     * @return {@code false}, if profiling has been paused before async-profiler has been started
+     */
+    private boolean profile(long durationMillis) throws Exception {
+        AsyncProfiler asyncProfiler = AsyncProfiler.getInstance();
+        SamplingProfiler.ASYNC_PROFILER_SESSION_LOCK.lockInterruptibly();
+        try {
+            if (isPaused()) {
+                // the SamplingProfiler may have started a session while this thread was waiting for the lock
+                return false;
+            }
+            String startCommand = "start,jfr,event=" + config.getContinuousProfilingEvent().getAsyncProfilerEvent() +
+                ",cstack=n,interval=" + cpuBudgetController.getSamplingIntervalNanos() +
+                ",file=" + jfrFile +
+                ",safemode=" + config.getAsyncProfilerSafeMode();
+            logger.debug(asyncProfiler.execute(startCommand));
+            long end = System.currentTimeMillis() + durationMillis;
+            // ends early when profiling sessions are enabled, so that the SamplingProfiler doesn't have to wait for the lock for long
+            for (long now = System.currentTimeMillis(); now < end && !isPaused(); now = System.currentTimeMillis()) {
+                consumeTransactionEvents();
+                Thread.sleep(Math.min(EVENT_POLL_INTERVAL_MILLIS, end - now));
+            }
+            logger.debug(asyncProfiler.execute("stop"));
+            consumeTransactionEvents();
+            return true;
+        } catch (InterruptedException e) {
+            try {
+                asyncProfiler.stop();
+            } catch (IllegalStateException ignore) {
+            }
+            throw e;
+        } finally {
+            SamplingProfiler.ASYNC_PROFILER_SESSION_LOCK.unlock();
+        }
+    }
+
+    private void consumeTransactionEvents() throws Exception {
+        poller.poll(recordTransactionEventHandler);
+    }
+
+    /**
+     * @return the number of samples in the JFR file
+     */
+    private int processAndWrite() throws IOException {
+        if (jfrParser == null) {
+            jfrParser = new JfrParser(config.isMemoryMappedFiles());
+        }
+        try {
+            // all frames are included as the profile is also meant to find hot code paths in libraries and the JDK
+            jfrParser.parse(jfrFile, Collections.<WildcardMatcher>emptyList(), WildcardMatcher.matchAllList());
+            jfrParser.consumeStackTraces(aggregateSampleConsumer);
+            if (!aggregator.isEmpty()) {
+                File outputDir = getOutputDir();
+                if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+                    throw new IOException("Could not create directory " + outputDir);
+                }
+                File file = new File(outputDir, FILE_PREFIX + fileDateFormat.format(new Date()) + FILE_SUFFIX);
+                try (Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+                    aggregator.write(jfrParser, MAX_STACK_DEPTH, writer);
+                }
+                logger.debug("Wrote {} samples to {}", aggregator.getSampleCount(), file);
+                deleteOldProfiles(outputDir);
+            }
+            return aggregator.getSampleCount();
+        } finally {
+            aggregator.clear();
+            transactionIntervals.removeFinished();
+            jfrParser.resetState();
+        }
+    }
+
+    File getOutputDir() {
+        String outputDir = config.getContinuousProfilingOutputDir();
+        if (outputDir == null || outputDir.isEmpty()) {
+            return new File(System.getProperty("java.io.tmpdir"), "elastic-apm-profiles");
+        }
+        return new File(outputDir);
+    }
+
+    static void deleteOldProfiles(File outputDir) {
+        File[] profiles = outputDir.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX);
+            }
+        });
+        if (profiles == null || profiles.length <= MAX_PROFILE_FILES) {
+            return;
+        }
+        // the file names contain the date so that the lexical order is the chronological order
+        Arrays.sort(profiles);
+        for (int i = 0; i < profiles.length - MAX_PROFILE_FILES; i++) {
+            if (!profiles[i].delete()) {
+                logger.warn("Could not delete old profile {}", profiles[i]);
+            }
+        }
+    }
+
+    private void setRecording(boolean recording) {
+        this.recording = recording;
+        if (!recording) {
+            transactionIntervals.clear();
+            aggregator.clear();
+        }
+    }
+
+    public void start() {
+        scheduler.submit(this);
+    }
+
+    public void stop() throws InterruptedException {
+        recording = false;
+        // cancels/interrupts the profiling thread
+        scheduler.shutdownNow();
+        scheduler.awaitTermination(1, TimeUnit.SECONDS);
+    }
+
+    private static class TransactionEvent {
+        private boolean activation;
+        private long threadId;
+        private final StringBuilder transactionName = new StringBuilder();
+        private long nanoTime;
+
+        private void set(boolean activation, long threadId, @Nullable CharSequence transactionName, long nanoTime) {
+            this.activation = activation;
+            this.threadId = threadId;
+            this.transactionName.setLength(0);
+            if (transactionName != null) {
+                this.transactionName.append(transactionName);
+            }
+            this.nanoTime = nanoTime;
+        }
+    }
+
+    // extracting to a class instead of instantiating an anonymous inner class avoids allocations
+    private class RecordTransactionEventHandler implements EventPoller.Handler<TransactionEvent> {
+        @Override
+        public boolean onEvent(TransactionEvent event, long sequence, boolean endOfBatch) {
+            if (endOfBatch) {
+                ContinuousProfiler.this.sequence.set(sequence);
+            }
+            if (event.activation) {
+                transactionIntervals.onActivation(event.threadId, event.nanoTime);
+            } else {
+                transactionIntervals.onDeactivation(event.threadId, event.transactionName.toString(), event.nanoTime);
+            }
+            return true;
+        }
+    }
+
+    private class AggregateSampleConsumer implements JfrParser.StackTraceConsumer {
+        @Override
+        public void onCallTree(long threadId, long stackTraceId, long nanoTime) {
+            aggregator.addSample(transactionIntervals.getTransactionName(threadId, nanoTime), stackTraceId);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.profiler;
+
+import co.elastic.apm.agent.impl.ActivationListener;
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.error.ErrorCapture;
+import co.elastic.apm.agent.impl.transaction.AbstractSpan;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+
+/**
+ * Notifies the {@link ContinuousProfiler} about the activations and deactivations of root transactions,
+ * regardless of whether they are sampled.
+ */
+public class ContinuousProfilingActivationListener implements ActivationListener {
+
+    private final ElasticApmTracer tracer;
+    private final ContinuousProfiler profiler;
+
+    ContinuousProfilingActivationListener(ElasticApmTracer tracer, ContinuousProfiler profiler) {
+        this.tracer = tracer;
+        this.profiler = profiler;
+    }
+
+    @Override
+    public void beforeActivate(AbstractSpan<?> context) {
+        if (context instanceof Transaction && tracer.getActive() == null) {
+            profiler.onActivation((Transaction) context);
+        }
+    }
+
+    @Override
+    public void beforeActivate(ErrorCapture error) {
+        // noop
+    }
+
+    @Override
+    public void afterDeactivate(AbstractSpan<?> deactivatedContext) {
+        if (deactivatedContext instanceof Transaction && tracer.getActive() == null) {
+            profiler.onDeactivation((Transaction) deactivatedContext);
+        }
+    }
+
+    @Override
+    public void afterDeactivate(ErrorCapture deactivatedError) {
+        // noop
+    }
+}
@@ -0,0 +1,52 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.profiler;
+
+/**
+ * The event which triggers taking a sample in continuous profiling mode.
+ */
+public enum ContinuousProfilingEvent {
+    /**
+     * Samples threads which are running on a CPU
+     */
+    CPU("cpu"),
+    /**
+     * Samples threads regardless of their state
+     */
+    WALL("wall");
+
+    private final String asyncProfilerEvent;
+
+    ContinuousProfilingEvent(String asyncProfilerEvent) {
+        this.asyncProfilerEvent = asyncProfilerEvent;
+    }
+
+    /**
+     * @return the value of async-profiler's {@code event} argument
+     */
+    public String getAsyncProfilerEvent() {
+        return asyncProfilerEvent;
+    }
+}
@@ -0,0 +1,79 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.profiler;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Adapts the sampling interval of the {@link ContinuousProfiler} so that the CPU time it uses stays within a budget.
+ * <p>
+ * After each period, the sampling interval is scaled proportionally to the ratio between the measured CPU usage
+ * and {@link #TARGET_UTILIZATION} of the budget.
+ * Leaving some headroom below the budget avoids oscillating around it,
+ * as the CPU time per sample is not constant.
+ * When the usage is below the target, the interval is at most halved per period so that a single quiet period
+ * doesn't lead to a sudden spike in overhead.
+ * </p>
+ * <p>
+ * This class is not thread safe and is only meant to be used by the profiling thread.
+ * </p>
+ */
+class CpuBudgetController {
+
+    static final long MIN_SAMPLING_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+    static final long MAX_SAMPLING_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+    static final long INITIAL_SAMPLING_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    static final double TARGET_UTILIZATION = 0.8;
+    private static final double MAX_DECREASE_FACTOR = 0.5;
+
+    private long samplingIntervalNanos = INITIAL_SAMPLING_INTERVAL_NANOS;
+
+    long getSamplingIntervalNanos() {
+        return samplingIntervalNanos;
+    }
+
+    /**
+     * Adapts the sampling interval based on the CPU usage of the last period.
+     *
+     * @param cpuTimeNanos the CPU time spent on profiling during the last period
+     * @param periodNanos  the wall clock duration of the last period
+     * @param budget       the maximum share of a single CPU core that may be spent on profiling
+     * @return the new sampling interval in nanoseconds
+     */
+    long update(long cpuTimeNanos, long periodNanos, double budget) {
+        if (periodNanos <= 0 || budget <= 0) {
+            return samplingIntervalNanos;
+        }
+        double usage = (double) Math.max(0, cpuTimeNanos) / periodNanos;
+        double factor = Math.max(MAX_DECREASE_FACTOR, usage / (budget * TARGET_UTILIZATION));
+        double newInterval = samplingIntervalNanos * factor;
+        samplingIntervalNanos = (long) Math.max(MIN_SAMPLING_INTERVAL_NANOS, Math.min(MAX_SAMPLING_INTERVAL_NANOS, newInterval));
+        return samplingIntervalNanos;
+    }
+
+    void reset() {
+        samplingIntervalNanos = INITIAL_SAMPLING_INTERVAL_NANOS;
+    }
+}
@@ -0,0 +1,88 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.profiler;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Estimates the CPU time the {@link ContinuousProfiler} uses during a profiling window.
+ * <p>
+ * The estimate only covers the cost of async-profiler and of the profiling thread:
+ * the CPU time of the profiling thread, which parses the JFR file and aggregates the samples,
+ * plus the number of samples times {@link #CPU_TIME_PER_SAMPLE_NANOS}.
+ * Taking a sample is mostly spent in the signal handler of async-profiler on the sampled thread and in its native threads,
+ * which can't be told apart from the rest of the process.
+ * </p>
+ * <p>
+ * Other CPU time of the process, like the one of GC and JIT compiler threads, is deliberately not accounted for.
+ * Otherwise, the sampling interval would be pushed to its maximum under GC pressure,
+ * which is exactly when profiling data is needed the most.
+ * </p>
+ * <p>
+ * This class is not thread safe and is only meant to be used by the profiling thread.
+ * </p>
+ */
+class CpuTimeMeter {
+
+    /**
+     * A conservative estimate of the CPU time async-profiler needs to walk a stack and to record it into the JFR file,
+     * based on its documented overhead of a few microseconds per sample.
+     */
+    static final long CPU_TIME_PER_SAMPLE_NANOS = TimeUnit.MICROSECONDS.toNanos(20);
+
+    private final ThreadMXBean threadMXBean;
+    private long profilingThreadCpuTimeAtStart;
+
+    CpuTimeMeter() {
+        this.threadMXBean = ManagementFactory.getThreadMXBean();
+    }
+
+    boolean isSupported() {
+        return threadMXBean.isCurrentThreadCpuTimeSupported() && threadMXBean.isThreadCpuTimeEnabled();
+    }
+
+    /**
+     * Starts a measurement window, must be called on the profiling thread.
+     */
+    void start() {
+        profilingThreadCpuTimeAtStart = threadMXBean.getCurrentThreadCpuTime();
+    }
+
+    /**
+     * Ends the measurement window which has been started by {@link #start()}, must be called on the profiling thread.
+     *
+     * @param samples the number of samples async-profiler has taken in the window
+     * @return the CPU time in nanoseconds which has been spent on profiling in the window
+     */
+    long stop(int samples) {
+        return threadMXBean.getCurrentThreadCpuTime() - profilingThreadCpuTimeAtStart + getSamplingCpuTime(samples);
+    }
+
+    static long getSamplingCpuTime(int samples) {
+        return samples * CPU_TIME_PER_SAMPLE_NANOS;
+    }
+}
@@ -0,0 +1,139 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.profiler;
+
+import co.elastic.apm.agent.impl.transaction.StackFrame;
+import co.elastic.apm.agent.profiler.asyncprofiler.JfrParser;
+import co.elastic.apm.agent.profiler.collections.Long2LongHashMap;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aggregates the samples of the {@link ContinuousProfiler} per transaction name and stack trace
+ * and writes them in the folded stacks format.
+ * <p>
+ * The folded stacks format is supported by most flame graph tools.
+ * Each line consists of the frames of a stack trace, starting with the bottom-most frame, separated by {@code ;},
+ * followed by a space and the number of samples of that stack trace.
+ * The first frame is the name of the transaction.
+ * </p>
+ * <p>
+ * Stack traces are only resolved when {@linkplain #write writing} the profile,
+ * so that each distinct stack trace is resolved once per transaction name,
+ * no matter how often it has been sampled.
+ * </p>
+ * <p>
+ * This class is not thread safe and is only meant to be used by the profiling thread.
+ * </p>
+ */
+class FoldedStackAggregator {
+
+    private final Map<String, Long2LongHashMap> samplesByTransactionName = new HashMap<>();
+    private final List<StackFrame> stackFrames = new ArrayList<>();
+    private final StringBuilder line = new StringBuilder();
+    private int sampleCount;
+
+    void addSample(String transactionName, long stackTraceId) {
+        Long2LongHashMap samples = samplesByTransactionName.get(transactionName);
+        if (samples == null) {
+            samples = new Long2LongHashMap(0);
+            samplesByTransactionName.put(transactionName, samples);
+        }
+        samples.put(stackTraceId, samples.get(stackTraceId) + 1);
+        sampleCount++;
+    }
+
+    int getStackTraceCount(String transactionName) {
+        Long2LongHashMap samples = samplesByTransactionName.get(transactionName);
+        return samples != null ? samples.size() : 0;
+    }
+
+    int getSampleCount() {
+        return sampleCount;
+    }
+
+    boolean isEmpty() {
+        return sampleCount == 0;
+    }
+
+    /**
+     * Writes the aggregated samples in the folded stacks format.
+     *
+     * @param jfrParser     the parser of the JFR file the samples have been taken from, used to resolve the stack traces
+     * @param maxStackDepth the maximum number of frames per stack trace, the top-most frames are truncated
+     * @param writer        the writer to write the folded stacks to
+     * @throws IOException if there's an error reading the JFR file or writing the profile
+     */
+    void write(JfrParser jfrParser, int maxStackDepth, Writer writer) throws IOException {
+        for (Map.Entry<String, Long2LongHashMap> entry : samplesByTransactionName.entrySet()) {
+            String transactionName = entry.getKey();
+            for (Long2LongHashMap.EntryIterator iterator = entry.getValue().entrySet().iterator(); iterator.hasNext(); ) {
+                iterator.next();
+                stackFrames.clear();
+                jfrParser.resolveStackTrace(iterator.getLongKey(), false, stackFrames, maxStackDepth);
+                line.setLength(0);
+                appendFrame(line, transactionName);
+                // the first element is the top-most frame
+                for (int i = stackFrames.size() - 1; i >= 0; i--) {
+                    line.append(';');
+                    StackFrame frame = stackFrames.get(i);
+                    if (frame.getClassName() != null) {
+                        appendFrame(line, frame.getClassName());
+                        line.append('.');
+                    }
+                    appendFrame(line, frame.getMethodName());
+                }
+                line.append(' ').append(iterator.getLongValue()).append('\n');
+                writer.append(line);
+            }
+        }
+    }
+
+    /**
+     * Frames must neither contain the frame separator nor a line break
+     */
+    private static void appendFrame(StringBuilder sb, String frame) {
+        for (int i = 0; i < frame.length(); i++) {
+            char c = frame.charAt(i);
+            if (c == ';') {
+                sb.append(':');
+            } else if (c == '\n' || c == '\r') {
+                sb.append(' ');
+            } else {
+                sb.append(c);
+            }
+        }
+    }
+
+    void clear() {
+        samplesByTransactionName.clear();
+        sampleCount = 0;
+    }
+}
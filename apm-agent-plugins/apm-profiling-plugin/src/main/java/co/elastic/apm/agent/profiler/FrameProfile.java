@@ -0,0 +1,197 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.profiler;
+
+import co.elastic.apm.agent.impl.transaction.StackFrame;
+import co.elastic.apm.agent.metrics.Labels;
+import co.elastic.apm.agent.metrics.MetricRegistry;
+import co.elastic.apm.agent.profiler.collections.Long2ObjectHashMap;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Aggregates the samples of an allocation or lock profiling session by the transaction they have been attributed to and the top frame
+ * and reports them as metrics.
+ * <p>
+ * The samples are attributed to the id of the transaction via the activation events, just like stack traces for inferred spans.
+ * As the activation events don't contain the name of the transaction,
+ * the names are {@linkplain #onTransactionEnd recorded} when a root transaction is deactivated.
+ * Samples of transactions whose name is not known at the time of {@linkplain #report reporting},
+ * for example because they are still running, are discarded.
+ * </p>
+ * <p>
+ * The total per transaction name and type is reported within the same metric set as the {@code transaction.duration} timer,
+ * so that it doesn't add to the number of metric sets.
+ * Only the {@link #TOP_FRAMES} frames with the most samples per transaction name and type are reported with a {@link #FRAME_LABEL},
+ * each of which requires a separate metric set.
+ * As the {@link MetricRegistry} never removes metric sets and limits their number,
+ * at most {@link #MAX_FRAME_METRIC_SETS} distinct combinations of frame and transaction are reported over the lifetime of the profile.
+ * The samples of other frames are only contained in the total.
+ * </p>
+ * <p>
+ * Except for {@link #onTransactionEnd}, this class is only meant to be used by the profiling thread.
+ * </p>
+ */
+class FrameProfile {
+
+    static final String FRAME_LABEL = "frame";
+    /**
+     * The number of frames which are reported per transaction name and type
+     */
+    static final int TOP_FRAMES = 3;
+    static final int MAX_FRAME_METRIC_SETS = 100;
+    private static final int MAX_TRANSACTION_NAMES = 10_000;
+    private static final Comparator<Map.Entry<StackFrame, long[]>> BY_SAMPLES_DESCENDING = new Comparator<Map.Entry<StackFrame, long[]>>() {
+        @Override
+        public int compare(Map.Entry<StackFrame, long[]> o1, Map.Entry<StackFrame, long[]> o2) {
+            return Long.compare(o2.getValue()[0], o1.getValue()[0]);
+        }
+    };
+
+    private final String metricName;
+    private final String frameMetricName;
+    /**
+     * Transaction id -> transaction name and type
+     */
+    private final ConcurrentMap<Long, Labels.Immutable> transactionLabels = new ConcurrentHashMap<>();
+    /**
+     * Transaction id -> (top frame -> number of samples)
+     * <p>
+     * The frames are interned by the {@link co.elastic.apm.agent.profiler.asyncprofiler.JfrParser},
+     * so the same frame is the same instance even if the stack traces come from different JFR files.
+     * </p>
+     */
+    private final Long2ObjectHashMap<Map<StackFrame, long[]>> samplesByTransactionId = new Long2ObjectHashMap<>();
+    /**
+     * The labels of the frame metric sets which have been reported so far
+     */
+    private final Set<Labels.Immutable> frameMetricSets = new HashSet<>();
+
+    /**
+     * @param metricName      the name of the counter the weighted samples per transaction are reported as
+     * @param frameMetricName the name of the counter the weighted samples per top frame and transaction are reported as
+     */
+    FrameProfile(String metricName, String frameMetricName) {
+        this.metricName = metricName;
+        this.frameMetricName = frameMetricName;
+    }
+
+    String getMetricName() {
+        return metricName;
+    }
+
+    /**
+     * Records the name and type of a root transaction when it ends, so that its samples can be reported under that name.
+     * May be called concurrently by application threads.
+     */
+    void onTransactionEnd(long transactionId, String transactionName, @Nullable String transactionType) {
+        if (transactionLabels.size() < MAX_TRANSACTION_NAMES) {
+            transactionLabels.put(transactionId, Labels.Mutable.of().transactionName(transactionName).transactionType(transactionType).immutableCopy());
+        }
+    }
+
+    void addSample(long transactionId, StackFrame frame) {
+        Map<StackFrame, long[]> samples = samplesByTransactionId.get(transactionId);
+        if (samples == null) {
+            samples = new HashMap<>();
+            samplesByTransactionId.put(transactionId, samples);
+        }
+        long[] count = samples.get(frame);
+        if (count == null) {
+            count = new long[1];
+            samples.put(frame, count);
+        }
+        count[0]++;
+    }
+
+    /**
+     * Reports the samples per transaction name and type, as well as the top frames, and clears the profile.
+     *
+     * @param metricRegistry  the registry to add the counters to
+     * @param weightPerSample the value each sample represents, for example the allocation sampling interval in bytes
+     * @return the number of reported transaction names
+     */
+    int report(MetricRegistry metricRegistry, long weightPerSample) {
+        Map<Labels.Immutable, Map<StackFrame, long[]>> samplesByTransaction = new HashMap<>();
+        for (Long2ObjectHashMap<Map<StackFrame, long[]>>.KeyIterator iterator = samplesByTransactionId.keySet().iterator(); iterator.hasNext(); ) {
+            long transactionId = iterator.nextLong();
+            Labels.Immutable labels = transactionLabels.get(transactionId);
+            if (labels == null) {
+                continue;
+            }
+            Map<StackFrame, long[]> samplesByFrame = samplesByTransaction.get(labels);
+            if (samplesByFrame == null) {
+                samplesByFrame = new HashMap<>();
+                samplesByTransaction.put(labels, samplesByFrame);
+            }
+            for (Map.Entry<StackFrame, long[]> entry : samplesByTransactionId.get(transactionId).entrySet()) {
+                long[] count = samplesByFrame.get(entry.getKey());
+                if (count == null) {
+                    count = new long[1];
+                    samplesByFrame.put(entry.getKey(), count);
+                }
+                count[0] += entry.getValue()[0];
+            }
+        }
+        for (Map.Entry<Labels.Immutable, Map<StackFrame, long[]>> entry : samplesByTransaction.entrySet()) {
+            Labels.Immutable labels = entry.getKey();
+            List<Map.Entry<StackFrame, long[]>> frames = new ArrayList<>(entry.getValue().entrySet());
+            long total = 0;
+            for (Map.Entry<StackFrame, long[]> frame : frames) {
+                total += frame.getValue()[0];
+            }
+            metricRegistry.addToCounter(metricName, labels, total * weightPerSample);
+            Collections.sort(frames, BY_SAMPLES_DESCENDING);
+            for (int i = 0; i < Math.min(TOP_FRAMES, frames.size()); i++) {
+                Map.Entry<StackFrame, long[]> frame = frames.get(i);
+                Labels.Immutable frameLabels = Labels.Mutable.of(FRAME_LABEL, frame.getKey().toString())
+                    .transactionName(labels.getTransactionName())
+                    .transactionType(labels.getTransactionType())
+                    .immutableCopy();
+                if (frameMetricSets.contains(frameLabels) || frameMetricSets.size() < MAX_FRAME_METRIC_SETS) {
+                    frameMetricSets.add(frameLabels);
+                    metricRegistry.addToCounter(frameMetricName, frameLabels, frame.getValue()[0] * weightPerSample);
+                }
+            }
+        }
+        clear();
+        return samplesByTransaction.size();
+    }
+
+    void clear() {
+        samplesByTransactionId.clear();
+        transactionLabels.clear();
+    }
+}
@@ -28,6 +28,7 @@ import co.elastic.apm.agent.impl.ActivationListener;
 import co.elastic.apm.agent.impl.ElasticApmTracer;
 import co.elastic.apm.agent.impl.error.ErrorCapture;
 import co.elastic.apm.agent.impl.transaction.AbstractSpan;
+import co.elastic.apm.agent.impl.transaction.Transaction;
 
 import java.util.Objects;
 
@@ -50,6 +51,9 @@ public class ProfilingActivationListener implements ActivationListener {
         if (context.isSampled()) {
             AbstractSpan<?> active = tracer.getActive();
             profiler.onActivation(context.getTraceContext(), active != null ? active.getTraceContext() : null);
+            if (active == null && context instanceof Transaction) {
+                profiler.onRootTransactionActivation((Transaction) context);
+            }
         }
     }
 
@@ -64,6 +68,9 @@ public class ProfilingActivationListener implements ActivationListener {
         if (deactivatedContext.isSampled()) {
             AbstractSpan<?> active = tracer.getActive();
             profiler.onDeactivation(deactivatedContext.getTraceContext(), active != null ? active.getTraceContext() : null);
+            if (active == null && deactivatedContext instanceof Transaction) {
+                profiler.onRootTransactionDeactivation((Transaction) deactivatedContext);
+            }
         }
     }
 
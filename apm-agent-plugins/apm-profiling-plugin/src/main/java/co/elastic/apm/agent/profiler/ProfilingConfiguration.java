@@ -24,7 +24,8 @@
  */
 package co.elastic.apm.agent.profiler;
 
-import co.elastic.apm.agent.configuration.converter.ListValueConverter;
+import co.elastic.apm.agent.configuration.converter.ByteValue;
+import co.elastic.apm.agent.configuration.converter.ByteValueConverter;
 import co.elastic.apm.agent.configuration.converter.TimeDuration;
 import co.elastic.apm.agent.configuration.converter.TimeDurationValueConverter;
 import co.elastic.apm.agent.matcher.WildcardMatcher;
@@ -32,6 +33,7 @@ import co.elastic.apm.agent.matcher.WildcardMatcherValueConverter;
 import org.stagemonitor.configuration.ConfigurationOption;
 import org.stagemonitor.configuration.ConfigurationOptionProvider;
 
+import javax.annotation.Nullable;
 import java.util.Arrays;
 import java.util.List;
 
@@ -101,7 +103,7 @@ public class ProfilingConfiguration extends ConfigurationOptionProvider {
         .buildWithDefault(TimeDuration.of("0ms"));
 
     private final ConfigurationOption<List<WildcardMatcher>> includedClasses = ConfigurationOption
-        .builder(new ListValueConverter<>(new WildcardMatcherValueConverter()), List.class)
+        .builder(WildcardMatcherValueConverter.LIST, List.class)
         .key("profiling_inferred_spans_included_classes")
         .configurationCategory(PROFILING_CATEGORY)
         .description("If set, the agent will only create inferred spans for methods which match this list.\n" +
@@ -114,7 +116,7 @@ public class ProfilingConfiguration extends ConfigurationOptionProvider {
         .buildWithDefault(WildcardMatcher.matchAllList());
 
     private final ConfigurationOption<List<WildcardMatcher>> excludedClasses = ConfigurationOption
-        .builder(new ListValueConverter<>(new WildcardMatcherValueConverter()), List.class)
+        .builder(WildcardMatcherValueConverter.LIST, List.class)
         .key("profiling_inferred_spans_excluded_classes")
         .configurationCategory(PROFILING_CATEGORY)
         .description("Excludes classes for which no profiler-inferred spans should be created.\n" +
@@ -138,6 +140,120 @@ public class ProfilingConfiguration extends ConfigurationOptionProvider {
             WildcardMatcher.caseSensitiveMatcher("io.undertow.*")
         ));
 
+    private final ConfigurationOption<Boolean> allocationProfilingEnabled = ConfigurationOption.booleanOption()
+        .key("profiling_allocation_enabled")
+        .configurationCategory(PROFILING_CATEGORY)
+        .description("Set to `true` to make the agent sample allocations of threads with an active sampled transaction\n" +
+            "and to report the bytes allocated per transaction name and type as the metric `profiling.allocation.bytes`.\n" +
+            "The three frames which allocated the most bytes per transaction are reported as the metric `profiling.allocation.frame.bytes`\n" +
+            "with the allocating frame as the `frame` label, for at most 100 distinct combinations of frame and transaction.\n" +
+            "It is the top-most frame which matches <<config-profiling-inferred-spans-included-classes, `profiling_inferred_spans_included_classes`>>\n" +
+            "and which does not match <<config-profiling-inferred-spans-excluded-classes, `profiling_inferred_spans_excluded_classes`>>.\n" +
+            "\n" +
+            "Allocation profiling uses the same periodic profiling sessions as inferred spans.\n" +
+            "Only the allocations of transactions which end within a session are reported.\n" +
+            "As async-profiler can only sample one kind of event at a time,\n" +
+            "sessions rotate between allocation profiling, creating inferred spans and lock profiling if those are also active.\n" +
+            "\n" +
+            "NOTE: This feature is not available on Windows")
+        .dynamic(true)
+        .tags("added[1.18.0]", "experimental")
+        .buildWithDefault(false);
+
+    private final ConfigurationOption<ByteValue> allocationProfilingInterval = ByteValueConverter.byteOption()
+        .key("profiling_allocation_interval")
+        .configurationCategory(PROFILING_CATEGORY)
+        .description("Takes a sample each time the profiled threads have allocated roughly this amount of memory.\n" +
+            "The reported bytes are estimated by multiplying the number of samples with this interval.\n" +
+            "Lower values increase the accuracy but also the overhead.\n" +
+            "\n" +
+            "Allowed byte units are `b`, `kb` and `mb`. `1kb` is equal to `1024b`.")
+        .dynamic(true)
+        .tags("added[1.18.0]")
+        .buildWithDefault(ByteValue.of("512kb"));
+
+    private final ConfigurationOption<Boolean> lockProfilingEnabled = ConfigurationOption.booleanOption()
+        .key("profiling_lock_enabled")
+        .configurationCategory(PROFILING_CATEGORY)
+        .description("Set to `true` to make the agent sample contended monitor enters and thread parks of threads with an active sampled transaction.\n" +
+            "The number of contention samples per transaction name and type is reported as the metric `profiling.lock.contentions`.\n" +
+            "The three frames which were contended the most per transaction are reported as the metric `profiling.lock.frame.contentions`\n" +
+            "with the contended frame as the `frame` label, for at most 100 distinct combinations of frame and transaction.\n" +
+            "In addition, the time threads were blocked on entering a monitor between the start and the end of a transaction\n" +
+            "is reported per transaction name as the timer `profiling.lock.blocked`, with millisecond precision.\n" +
+            "The blocked time is measured via thread contention monitoring which is enabled while lock profiling is active, unless it has already been enabled before.\n" +
+            "\n" +
+            "Lock profiling uses the same periodic profiling sessions as inferred spans.\n" +
+            "Only transactions which end within a session are reported.\n" +
+            "As async-profiler can only sample one kind of event at a time,\n" +
+            "sessions rotate between lock profiling, allocation profiling and creating inferred spans if those are also active.\n" +
+            "\n" +
+            "NOTE: This feature is not available on Windows")
+        .dynamic(true)
+        .tags("added[1.18.0]", "experimental")
+        .buildWithDefault(false);
+
+    private final ConfigurationOption<Boolean> continuousProfilingEnabled = ConfigurationOption.booleanOption()
+        .key("profiling_continuous_enabled")
+        .configurationCategory(PROFILING_CATEGORY)
+        .description("Set to `true` to continuously sample the stack traces of all threads at a low rate.\n" +
+            "The samples are aggregated into https://github.com/brendangregg/FlameGraph[folded stacks] per transaction name\n" +
+            "and written to <<config-profiling-continuous-output-dir, `profiling_continuous_output_dir`>>\n" +
+            "every <<config-profiling-continuous-flush-interval, `profiling_continuous_flush_interval`>>.\n" +
+            "Each line starts with the name of the transaction that was active on the sampled thread,\n" +
+            "followed by the stack frames and the number of samples.\n" +
+            "The files can be turned into flame graphs with tools like `flamegraph.pl` or https://www.speedscope.app[speedscope].\n" +
+            "\n" +
+            "Continuous profiling is paused while <<config-profiling-inferred-spans-enabled, `profiling_inferred_spans_enabled`>>\n" +
+            "<<config-profiling-allocation-enabled, `profiling_allocation_enabled`>>\n" +
+            "or <<config-profiling-lock-enabled, `profiling_lock_enabled`>> is active,\n" +
+            "as they are all based on async-profiler, which can only run one profiling session at a time.\n" +
+            "\n" +
+            "NOTE: This feature is not available on Windows")
+        .dynamic(true)
+        .tags("added[1.18.0]", "experimental")
+        .buildWithDefault(false);
+
+    private final ConfigurationOption<ContinuousProfilingEvent> continuousProfilingEvent = ConfigurationOption.enumOption(ContinuousProfilingEvent.class)
+        .key("profiling_continuous_event")
+        .configurationCategory(PROFILING_CATEGORY)
+        .description("The event that triggers taking a sample in continuous profiling mode.\n" +
+            "`CPU` only samples threads which are running on a CPU, which is suited to find hot code paths.\n" +
+            "`WALL` samples threads regardless of whether they are running, waiting or blocked, which is suited to find latency issues.")
+        .dynamic(true)
+        .tags("added[1.18.0]")
+        .buildWithDefault(ContinuousProfilingEvent.CPU);
+
+    private final ConfigurationOption<Double> continuousProfilingCpuBudget = ConfigurationOption.doubleOption()
+        .key("profiling_continuous_cpu_budget")
+        .configurationCategory(PROFILING_CATEGORY)
+        .description("The maximum share of a single CPU core the continuous profiler may use.\n" +
+            "For example, `0.01` means that the profiler may use up to 1% of a core.\n" +
+            "The sampling interval is adapted after each flush so that the CPU time spent on profiling stays within this budget.")
+        .dynamic(true)
+        .addValidator(isInRange(0.001, 1d))
+        .tags("added[1.18.0]")
+        .buildWithDefault(0.01);
+
+    private final ConfigurationOption<TimeDuration> continuousProfilingFlushInterval = TimeDurationValueConverter.durationOption("s")
+        .key("profiling_continuous_flush_interval")
+        .configurationCategory(PROFILING_CATEGORY)
+        .description("The interval at which the aggregated profiles of the continuous profiler are written.")
+        .dynamic(true)
+        .addValidator(min(TimeDuration.of("10s")))
+        .tags("added[1.18.0]")
+        .buildWithDefault(TimeDuration.of("1m"));
+
+    private final ConfigurationOption<String> continuousProfilingOutputDir = ConfigurationOption.stringOption()
+        .key("profiling_continuous_output_dir")
+        .configurationCategory(PROFILING_CATEGORY)
+        .description("The directory the folded stack files of the continuous profiler are written to.\n" +
+            "Only the last " + ContinuousProfiler.MAX_PROFILE_FILES + " files are retained.\n" +
+            "If not set, the files are written to the `elastic-apm-profiles` directory within the temp directory.")
+        .dynamic(true)
+        .tags("added[1.18.0]")
+        .build();
+
     private final ConfigurationOption<TimeDuration> profilerInterval = TimeDurationValueConverter.durationOption("s")
         .key("profiling_inferred_spans_interval")
         .description("The interval at which profiling sessions should be started.")
@@ -163,6 +279,45 @@ public class ProfilingConfiguration extends ConfigurationOptionProvider {
         .tags("added[1.15.0]", "internal")
         .buildWithDefault(TimeDuration.of("5s"));
 
+    private final ConfigurationOption<TimeDuration> profilingChunkDuration = TimeDurationValueConverter.durationOption("ms")
+        .key("profiling_inferred_spans_chunk_duration")
+        .description("When set to a value lower than the <<config-profiling-inferred-spans-duration, `profiling_inferred_spans_duration`>>,\n" +
+            "a profiling session is split up into chunks of this duration.\n" +
+            "The stack traces of each chunk are processed as soon as the chunk is over,\n" +
+            "while the call trees of ongoing transactions are retained across chunks.\n" +
+            "This makes inferred spans appear continuously instead of in bursts after each session\n" +
+            "and bounds the amount of stack trace events that are processed at once.\n" +
+            "\n" +
+            "Set to 0 to process the stack traces only after the session has ended.")
+        .configurationCategory(PROFILING_CATEGORY)
+        .dynamic(true)
+        .addValidator(min(TimeDuration.of("0ms")))
+        .tags("added[1.18.0]", "internal")
+        .buildWithDefault(TimeDuration.of("0ms"));
+
+    private final ConfigurationOption<Boolean> memoryMappedFiles = ConfigurationOption.booleanOption()
+        .key("profiling_inferred_spans_memory_mapped_files")
+        .description("Whether to memory map the JFR file and the activation events file instead of reading them into direct buffers.\n" +
+            "This avoids a system call for each random access when resolving stack traces and symbols,\n" +
+            "which can speed up processing, especially for big files.\n" +
+            "However, reading from a memory mapped file may block a thread while the page is loaded from disk,\n" +
+            "which may delay the JVM in reaching a safepoint if the disk is slow or busy.")
+        .configurationCategory(PROFILING_CATEGORY)
+        .dynamic(false)
+        .tags("added[1.18.0]", "internal")
+        .buildWithDefault(false);
+
+    private final ConfigurationOption<Integer> processingThreads = ConfigurationOption.integerOption()
+        .key("profiling_inferred_spans_processing_threads")
+        .description("The number of threads used to correlate stack traces with activation events and to build the call trees.\n" +
+            "The profiled threads are partitioned by their id so that the call trees of each thread are built by a single worker thread.\n" +
+            "Increasing this can help to keep up with processing the stack traces of applications with lots of threads.")
+        .configurationCategory(PROFILING_CATEGORY)
+        .dynamic(false)
+        .addValidator(isInRange(1, 64))
+        .tags("added[1.18.0]", "internal")
+        .buildWithDefault(1);
+
     public boolean isProfilingEnabled() {
         return profilingEnabled.get();
     }
@@ -191,6 +346,46 @@ public class ProfilingConfiguration extends ConfigurationOptionProvider {
         return excludedClasses.get();
     }
 
+    public boolean isAllocationProfilingEnabled() {
+        return allocationProfilingEnabled.get();
+    }
+
+    public ByteValue getAllocationProfilingInterval() {
+        return allocationProfilingInterval.get();
+    }
+
+    public boolean isLockProfilingEnabled() {
+        return lockProfilingEnabled.get();
+    }
+
+    /**
+     * @return whether profiling sessions should be started, either to create inferred spans or to profile allocations or locks
+     */
+    public boolean isSessionProfilingEnabled() {
+        return isProfilingEnabled() || isAllocationProfilingEnabled() || isLockProfilingEnabled();
+    }
+
+    public boolean isContinuousProfilingEnabled() {
+        return continuousProfilingEnabled.get();
+    }
+
+    public ContinuousProfilingEvent getContinuousProfilingEvent() {
+        return continuousProfilingEvent.get();
+    }
+
+    public double getContinuousProfilingCpuBudget() {
+        return continuousProfilingCpuBudget.get();
+    }
+
+    public TimeDuration getContinuousProfilingFlushInterval() {
+        return continuousProfilingFlushInterval.get();
+    }
+
+    @Nullable
+    public String getContinuousProfilingOutputDir() {
+        return continuousProfilingOutputDir.get();
+    }
+
     public TimeDuration getProfilingInterval() {
         return profilerInterval.get();
     }
@@ -199,6 +394,18 @@ public class ProfilingConfiguration extends ConfigurationOptionProvider {
         return profilingDuration.get();
     }
 
+    public TimeDuration getProfilingChunkDuration() {
+        return profilingChunkDuration.get();
+    }
+
+    public boolean isMemoryMappedFiles() {
+        return memoryMappedFiles.get();
+    }
+
+    public int getProcessingThreads() {
+        return processingThreads.get();
+    }
+
     public boolean isNonStopProfiling() {
         return getProfilingDuration().getMillis() >= getProfilingInterval().getMillis();
     }
@@ -34,9 +34,11 @@ import java.io.IOException;
 public class ProfilingFactory extends AbstractLifecycleListener {
 
     private final SamplingProfiler profiler;
+    private final ContinuousProfiler continuousProfiler;
     private final NanoClock nanoClock;
     private final File activationEventsFile;
     private final File jfrFile;
+    private final File continuousJfrFile;
 
     public ProfilingFactory(ElasticApmTracer tracer) throws IOException {
         boolean envTest = false;
@@ -45,26 +47,35 @@ public class ProfilingFactory extends AbstractLifecycleListener {
         nanoClock = envTest ? new FixedNanoClock() : new SystemNanoClock();
         activationEventsFile = File.createTempFile("apm-activation-events-", ".bin");
         jfrFile = File.createTempFile("apm-traces-", ".jfr");
+        continuousJfrFile = File.createTempFile("apm-continuous-traces-", ".jfr");
         profiler = new SamplingProfiler(tracer,
             ExecutorUtils.createSingleThreadSchedulingDeamonPool("sampling-profiler"),
             nanoClock,
             activationEventsFile,
             jfrFile);
+        continuousProfiler = new ContinuousProfiler(tracer, nanoClock, continuousJfrFile);
     }
 
     @Override
     public void start(ElasticApmTracer tracer) {
         profiler.start(tracer);
         tracer.registerSpanListener(new ProfilingActivationListener(tracer, profiler));
+        continuousProfiler.start();
+        tracer.registerSpanListener(new ContinuousProfilingActivationListener(tracer, continuousProfiler));
     }
 
     @Override
     public void stop() throws Exception {
         profiler.stop();
+        continuousProfiler.stop();
         if (!jfrFile.delete()) {
             jfrFile.deleteOnExit();
         }
 
+        if (!continuousJfrFile.delete()) {
+            continuousJfrFile.deleteOnExit();
+        }
+
         if (!activationEventsFile.delete()) {
             activationEventsFile.deleteOnExit();
         }
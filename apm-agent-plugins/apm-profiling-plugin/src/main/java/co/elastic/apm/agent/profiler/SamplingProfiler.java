@@ -31,27 +31,31 @@ import co.elastic.apm.agent.impl.ElasticApmTracer;
 import co.elastic.apm.agent.impl.transaction.Span;
 import co.elastic.apm.agent.impl.transaction.StackFrame;
 import co.elastic.apm.agent.impl.transaction.TraceContext;
+import co.elastic.apm.agent.impl.transaction.Transaction;
 import co.elastic.apm.agent.matcher.WildcardMatcher;
 import co.elastic.apm.agent.objectpool.Allocator;
 import co.elastic.apm.agent.objectpool.ObjectPool;
+import co.elastic.apm.agent.objectpool.Recyclable;
 import co.elastic.apm.agent.objectpool.impl.ListBasedObjectPool;
+import co.elastic.apm.agent.objectpool.impl.QueueBasedObjectPool;
 import co.elastic.apm.agent.profiler.asyncprofiler.AsyncProfiler;
 import co.elastic.apm.agent.profiler.asyncprofiler.JfrParser;
 import co.elastic.apm.agent.profiler.collections.Long2ObjectHashMap;
 import co.elastic.apm.agent.util.ExecutorUtils;
 import com.lmax.disruptor.EventFactory;
-import com.lmax.disruptor.EventPoller;
 import com.lmax.disruptor.EventTranslatorTwoArg;
 import com.lmax.disruptor.RingBuffer;
 import com.lmax.disruptor.Sequence;
 import com.lmax.disruptor.SequenceBarrier;
 import com.lmax.disruptor.WaitStrategy;
+import org.jctools.queues.atomic.AtomicQueueFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
+import java.lang.ref.WeakReference;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedByInterruptException;
@@ -62,15 +66,25 @@ import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static java.nio.file.StandardOpenOption.READ;
+import static org.jctools.queues.spec.ConcurrentQueueSpec.createBoundedMpmc;
 import static java.nio.file.StandardOpenOption.WRITE;
 
 /**
@@ -85,10 +99,15 @@ import static java.nio.file.StandardOpenOption.WRITE;
  * The {@link #onActivation} and {@link #onDeactivation} methods are called by {@link ProfilingActivationListener}
  * which register an {@link ActivationEvent} in to a {@linkplain #eventBuffer ring buffer} whenever a {@link Span}
  * gets {@link Span#activate()}d or {@link Span#deactivate()}d while a {@linkplain #profilingSessionOngoing profiling session is ongoing}.
- * A background thread consumes the {@link ActivationEvent}s and writes them to a {@linkplain #activationEventsBuffer direct buffer}
+ * Each thread has its own single-producer {@link ActivationEventBuffer} so that application threads don't contend on a shared sequence.
+ * If the buffer of a thread is full, the event is discarded and {@linkplain ActivationEventBuffer#droppedEvents counted}.
+ * As each buffer pre-allocates all of its events, the buffers of terminated threads are {@linkplain #recycledEventBuffers recycled}
+ * so that short-lived threads, such as virtual threads or the threads of a cached thread pool, don't allocate a new buffer each.
+ * A background thread {@linkplain #consumeActivationEventsAndWriteToFile() merges} the {@link ActivationEvent}s of all threads by their timestamp
+ * and writes them to a {@linkplain #activationEventsBuffer direct buffer}
  * which is flushed to a {@linkplain #activationEventsFileChannel file}.
  * That is necessary because within a profiling session (which lasts 10s by default) there may be many more {@link ActivationEvent}s
- * than the ring buffer can hold {@link #RING_BUFFER_SIZE}.
+ * than the ring buffers can hold {@link #RING_BUFFER_SIZE}.
  * The file can hold {@link #ACTIVATION_EVENTS_IN_FILE} events and each is {@link ActivationEvent#SERIALIZED_SIZE} in size.
  * This process is completely garbage free thanks to the {@link RingBuffer} acting as an object pool for {@link ActivationEvent}s.
  * </p>
@@ -100,6 +119,9 @@ import static java.nio.file.StandardOpenOption.WRITE;
  * {@link AsyncProfiler#execute(String)}.
  * After the {@link ProfilingConfiguration#getProfilingDuration()} is over it stops the profiling and starts processing the JFR file created
  * by async-profiler with {@link JfrParser}.
+ * If a {@link ProfilingConfiguration#getProfilingChunkDuration()} is set,
+ * the session is split up into chunks and the JFR file is processed after each chunk,
+ * retaining the {@link CallTree}s of ongoing transactions across chunks.
  * </p>
  * <p>
  * Correlating {@link ActivationEvent}s with the traces recorded by {@link AsyncProfiler}:
@@ -110,11 +132,27 @@ import static java.nio.file.StandardOpenOption.WRITE;
  * The result of this correlation, performed by {@link #processTraces},
  * are {@link CallTree}s which are created for each thread which has seen an {@linkplain Span#activate() activation}
  * and at least one stack trace.
- * Once {@linkplain ActivationEvent#handleDeactivationEvent(SamplingProfiler) handling the deactivation event} of the root span in a thread
+ * Once {@linkplain ActivationEvent#handleDeactivationEvent(SamplingProfiler, Long2ObjectHashMap) handling the deactivation event} of the root span in a thread
  * (after which {@link ElasticApmTracer#getActive()} would return {@code null}),
  * the {@link CallTree} is {@linkplain CallTree#spanify(CallTree.Root, TraceContext) converted into regular spans}.
  * </p>
  * <p>
+ * If {@link ProfilingConfiguration#getProcessingThreads()} is greater than one,
+ * the profiled threads are split up into {@link ProcessingPartition}s based on their id.
+ * Each stack trace is resolved only once and the partitions are then processed in parallel on the {@link #processingExecutor}.
+ * As all stack traces and activation events of a given thread are handled by the same partition,
+ * the call tree of a thread is only ever modified by a single thread.
+ * </p>
+ * <p>
+ * If {@link ProfilingConfiguration#isAllocationProfilingEnabled()} or {@link ProfilingConfiguration#isLockProfilingEnabled()},
+ * async-profiler samples allocations or contended locks instead of wall clock time in some sessions.
+ * As only one kind of event can be sampled at a time, the sessions rotate between the enabled {@link SessionEvent}s.
+ * In these sessions, no call trees are built.
+ * Instead, the top frame of each sample is attributed to the transaction of the thread's {@link CallTree.Root}
+ * and aggregated by a {@link FrameProfile}, which is reported as metrics at the end of the session.
+ * In lock sessions, the {@link BlockedTimeTracker} additionally measures the time each transaction has been blocked.
+ * </p>
+ * <p>
  * Overall, the allocation rate does not depend on the number of {@link ActivationEvent}s but only on
  * {@link ProfilingConfiguration#getProfilingInterval()} and {@link ProfilingConfiguration#getSamplingInterval()}.
  * Having said that, there are some optimizations so that the JFR file is not processed at all if there have not been any
@@ -131,6 +169,8 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
     private static final int PRE_ALLOCATE_ACTIVATION_EVENTS_FILE_MB = 10;
     private static final int MAX_ACTIVATION_EVENTS_FILE_SIZE = ACTIVATION_EVENTS_IN_FILE * ActivationEvent.SERIALIZED_SIZE;
     private static final int ACTIVATION_EVENTS_BUFFER_SIZE = ActivationEvent.SERIALIZED_SIZE * 4 * 1024;
+    // a multiple of the event size so that an event never spans two windows
+    private static final int MAPPED_ACTIVATION_EVENTS_WINDOW_SIZE = ActivationEvent.SERIALIZED_SIZE * 256 * 1024;
     private final EventTranslatorTwoArg<ActivationEvent, TraceContext, TraceContext> ACTIVATION_EVENT_TRANSLATOR =
         new EventTranslatorTwoArg<ActivationEvent, TraceContext, TraceContext>() {
             @Override
@@ -145,34 +185,102 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
                 event.deactivation(active, Thread.currentThread().getId(), previouslyActive, nanoClock.nanoTime());
             }
         };
-    // sizeof(ActivationEvent) is 176B so the ring buffer should be around 880KiB
-    static final int RING_BUFFER_SIZE = 4 * 1024;
+    // sizeof(ActivationEvent) is 176B so the ring buffer of each thread should be around 44KiB
+    static final int RING_BUFFER_SIZE = 256;
+    /**
+     * Limits the memory retained by the buffers of terminated threads to about 2.75MiB
+     */
+    static final int MAX_RECYCLED_EVENT_BUFFERS = 64;
+    /**
+     * async-profiler can only run one session at a time.
+     * This lock is held by the {@link SamplingProfiler} and the {@link ContinuousProfiler}, which run on separate threads,
+     * while they have started async-profiler.
+     */
+    static final ReentrantLock ASYNC_PROFILER_SESSION_LOCK = new ReentrantLock();
 
     private final ProfilingConfiguration config;
     private final CoreConfiguration coreConfig;
     private final ScheduledExecutorService scheduler;
     private final Long2ObjectHashMap<CallTree.Root> profiledThreads = new Long2ObjectHashMap<>();
-    private final RingBuffer<ActivationEvent> eventBuffer;
+    /**
+     * The ring buffer of the current thread.
+     * It's created on the first activation or deactivation of a thread during a profiling session.
+     */
+    private final ThreadLocal<ActivationEventBuffer> eventBuffer = new ThreadLocal<ActivationEventBuffer>() {
+        @Override
+        protected ActivationEventBuffer initialValue() {
+            ActivationEventBuffer buffer = recycledEventBuffers.poll();
+            if (buffer != null) {
+                buffer.setThread(Thread.currentThread());
+            } else {
+                allocatedEventBuffers.incrementAndGet();
+                buffer = new ActivationEventBuffer(Thread.currentThread());
+            }
+            newEventBuffers.add(buffer);
+            return buffer;
+        }
+    };
+    /**
+     * The buffers of threads which are not yet known to the profiling thread
+     */
+    private final Queue<ActivationEventBuffer> newEventBuffers = new ConcurrentLinkedQueue<>();
+    /**
+     * The empty buffers of terminated threads which can be reused by new threads.
+     * Only the profiling thread adds buffers, after it has consumed all their events.
+     */
+    private final Queue<ActivationEventBuffer> recycledEventBuffers = AtomicQueueFactory.newQueue(createBoundedMpmc(MAX_RECYCLED_EVENT_BUFFERS));
+    private final AtomicInteger allocatedEventBuffers = new AtomicInteger();
+    /**
+     * The buffers of all threads, only accessed by the profiling thread
+     */
+    private final List<ActivationEventBuffer> eventBuffers = new ArrayList<>();
+    private final PriorityQueue<ActivationEventBuffer> eventBuffersByTimestamp = new PriorityQueue<>(11, ActivationEventBuffer.BY_NEXT_TIMESTAMP);
+    /**
+     * The number of events which have been discarded because the buffer of a thread was full, only accessed by the profiling thread
+     */
+    private long droppedActivationEvents;
     private volatile boolean profilingSessionOngoing = false;
-    private final Sequence sequence;
     private final ElasticApmTracer tracer;
     private final NanoClock nanoClock;
     private final ObjectPool<CallTree.Root> rootPool;
     private final ThreadMatcher threadMatcher = new ThreadMatcher();
-    private final EventPoller<ActivationEvent> poller;
     private final File jfrFile;
-    private final WriteActivationEventToFileHandler writeActivationEventToFileHandler = new WriteActivationEventToFileHandler();
     @Nullable
     private JfrParser jfrParser;
     private volatile int profilingSessions;
+    /**
+     * The kind of event the current session samples
+     */
+    private volatile SessionEvent sessionEvent = SessionEvent.WALL;
+    private final FrameProfile allocationProfile = new FrameProfile("profiling.allocation.bytes", "profiling.allocation.frame.bytes");
+    private final FrameProfile lockProfile = new FrameProfile("profiling.lock.contentions", "profiling.lock.frame.contentions");
+    private final BlockedTimeTracker blockedTimeTracker = new BlockedTimeTracker();
+    /**
+     * The top frames of the stack traces in the current JFR file, by stack trace id
+     */
+    private final Long2ObjectHashMap<StackFrame> topFrames = new Long2ObjectHashMap<>();
 
     private final ByteBuffer activationEventsBuffer;
+    /**
+     * The buffer activation events are read from when processing them.
+     * This is either the {@link #activationEventsBuffer}
+     * or, if {@link ProfilingConfiguration#isMemoryMappedFiles()} is enabled, a window of the memory mapped activation events file.
+     */
+    private ByteBuffer activationEventsReadBuffer;
+    private final boolean memoryMappedFiles;
     /**
      * Used to efficiently write {@link #activationEventsBuffer} via {@link FileChannel#write(ByteBuffer)}
      */
     private final FileChannel activationEventsFileChannel;
     private final ObjectPool<CallTree> callTreePool;
     private final TraceContext contextForLogging;
+    /**
+     * Processes all but the first of the {@link #processingPartitions}, the first one is processed by the profiling thread itself.
+     * {@code null} if there's only a single partition.
+     */
+    @Nullable
+    private final ExecutorService processingExecutor;
+    private final ProcessingPartition[] processingPartitions;
 
     public SamplingProfiler(ElasticApmTracer tracer, NanoClock nanoClock) throws IOException {
         this(tracer,
@@ -188,31 +296,45 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
         this.coreConfig = tracer.getConfig(CoreConfiguration.class);
         this.scheduler = scheduler;
         this.nanoClock = nanoClock;
-        this.eventBuffer = createRingBuffer();
-        this.sequence = new Sequence();
-        // tells the ring buffer to not override slots which have not been read yet
-        this.eventBuffer.addGatingSequences(sequence);
-        this.poller = eventBuffer.newPoller();
         contextForLogging = TraceContext.with64BitId(tracer);
-        this.callTreePool = ListBasedObjectPool.<CallTree>ofRecyclable(2 * 1024, new Allocator<CallTree>() {
+        int processingThreads = config.getProcessingThreads();
+        // when processing in parallel, the pools are used concurrently
+        boolean concurrentPools = processingThreads > 1;
+        this.callTreePool = createPool(2 * 1024, concurrentPools, new Allocator<CallTree>() {
             @Override
             public CallTree createInstance() {
                 return new CallTree();
             }
         });
         // call tree roots are pooled so that fast activations/deactivations with no associated stack traces don't cause allocations
-        this.rootPool = ListBasedObjectPool.<CallTree.Root>ofRecyclable(512, new Allocator<CallTree.Root>() {
+        this.rootPool = createPool(512, concurrentPools, new Allocator<CallTree.Root>() {
             @Override
             public CallTree.Root createInstance() {
                 return new CallTree.Root(tracer);
             }
         });
+        this.processingExecutor = concurrentPools
+            ? ExecutorUtils.createThreadDaemonPool("profiling-processing", processingThreads - 1, processingThreads)
+            : null;
         this.jfrFile = jfrFile;
         activationEventsBuffer = ByteBuffer.allocateDirect(ACTIVATION_EVENTS_BUFFER_SIZE);
+        activationEventsReadBuffer = activationEventsBuffer;
+        memoryMappedFiles = config.isMemoryMappedFiles();
         activationEventsFileChannel = FileChannel.open(activationEventsFile.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
         if (activationEventsFileChannel.size() == 0) {
             preAllocate(activationEventsFileChannel, PRE_ALLOCATE_ACTIVATION_EVENTS_FILE_MB);
         }
+        this.processingPartitions = new ProcessingPartition[processingThreads];
+        for (int i = 0; i < processingThreads; i++) {
+            processingPartitions[i] = new ProcessingPartition(i);
+        }
+    }
+
+    private static <T extends Recyclable> ObjectPool<T> createPool(int maxCapacity, boolean concurrent, Allocator<T> allocator) {
+        if (concurrent) {
+            return QueueBasedObjectPool.ofRecyclable(AtomicQueueFactory.<T>newQueue(createBoundedMpmc(maxCapacity)), false, allocator);
+        }
+        return ListBasedObjectPool.<T>ofRecyclable(maxCapacity, allocator);
     }
 
     // visible for benchmarks
@@ -233,18 +355,6 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
         channel.position(initialPos);
     }
 
-    private RingBuffer<ActivationEvent> createRingBuffer() {
-        return RingBuffer.<ActivationEvent>createMultiProducer(
-            new EventFactory<ActivationEvent>() {
-                @Override
-                public ActivationEvent newInstance() {
-                    return new ActivationEvent();
-                }
-            },
-            RING_BUFFER_SIZE,
-            new NoWaitStrategy());
-    }
-
     /**
      * Called whenever a span is activated.
      * <p>
@@ -261,7 +371,7 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
             if (previouslyActive == null) {
                 AsyncProfiler.getInstance().enableProfilingCurrentThread();
             }
-            boolean success = eventBuffer.tryPublishEvent(ACTIVATION_EVENT_TRANSLATOR, activeSpan, previouslyActive);
+            boolean success = eventBuffer.get().tryPublishEvent(ACTIVATION_EVENT_TRANSLATOR, activeSpan, previouslyActive);
             if (!success && logger.isDebugEnabled()) {
                 logger.debug("Could not add activation event to ring buffer as no slots are available");
             }
@@ -286,7 +396,7 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
             if (previouslyActive == null) {
                 AsyncProfiler.getInstance().disableProfilingCurrentThread();
             }
-            boolean success = eventBuffer.tryPublishEvent(DEACTIVATION_EVENT_TRANSLATOR, activeSpan, previouslyActive);
+            boolean success = eventBuffer.get().tryPublishEvent(DEACTIVATION_EVENT_TRANSLATOR, activeSpan, previouslyActive);
             if (!success && logger.isDebugEnabled()) {
                 logger.debug("Could not add deactivation event to ring buffer as no slots are available");
             }
@@ -295,9 +405,54 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
         return false;
     }
 
+    /**
+     * Called when a sampled transaction is activated and there's no other active span on the thread,
+     * so that the time the transaction is blocked can be measured in lock profiling sessions.
+     *
+     * @param transaction the activated transaction
+     */
+    public void onRootTransactionActivation(Transaction transaction) {
+        if (profilingSessionOngoing && sessionEvent == SessionEvent.LOCK) {
+            blockedTimeTracker.onActivation(transaction);
+        }
+    }
+
+    /**
+     * Called when a sampled transaction is deactivated and there's no other active span on the thread,
+     * so that the allocations or lock contentions of the transaction can be reported under its name.
+     *
+     * @param transaction the deactivated transaction
+     */
+    public void onRootTransactionDeactivation(Transaction transaction) {
+        if (!profilingSessionOngoing) {
+            return;
+        }
+        SessionEvent sessionEvent = this.sessionEvent;
+        FrameProfile frameProfile = getFrameProfile(sessionEvent);
+        if (frameProfile != null) {
+            frameProfile.onTransactionEnd(transaction.getTraceContext().getTransactionId().getLeastSignificantBits(),
+                transaction.getNameAsString(), transaction.getType());
+        }
+        if (sessionEvent == SessionEvent.LOCK) {
+            blockedTimeTracker.onDeactivation(transaction, tracer.getMetricRegistry());
+        }
+    }
+
+    @Nullable
+    private FrameProfile getFrameProfile(SessionEvent sessionEvent) {
+        switch (sessionEvent) {
+            case ALLOC:
+                return allocationProfile;
+            case LOCK:
+                return lockProfile;
+            default:
+                return null;
+        }
+    }
+
     @Override
     public void run() {
-        if (config.isProfilingDisabled() || !tracer.isRunning()) {
+        if (!config.isSessionProfilingEnabled() || !tracer.isRunning()) {
             if (jfrParser != null) {
                 jfrParser = null;
                 rootPool.clear();
@@ -309,12 +464,24 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
 
         TimeDuration sampleRate = config.getSamplingInterval();
         TimeDuration profilingDuration = config.getProfilingDuration();
+        SessionEvent sessionEvent = getNextSessionEvent();
+        if (sessionEvent != this.sessionEvent) {
+            // call trees of the other mode can't be continued
+            setProfilingSessionOngoing(false);
+            this.sessionEvent = sessionEvent;
+        }
 
         setProfilingSessionOngoing(true);
 
-        logger.debug("Start profiling session");
+        logger.debug("Start {} profiling session", sessionEvent);
         try {
             profile(sampleRate, profilingDuration);
+            FrameProfile frameProfile = getFrameProfile(sessionEvent);
+            if (frameProfile != null) {
+                long weightPerSample = sessionEvent == SessionEvent.ALLOC ? config.getAllocationProfilingInterval().getBytes() : 1;
+                int transactions = frameProfile.report(tracer.getMetricRegistry(), weightPerSample);
+                logger.debug("Reported {} of {} transactions", frameProfile.getMetricName(), transactions);
+            }
         } catch (Throwable t) {
             setProfilingSessionOngoing(false);
             logger.error("Stopping profiler", t);
@@ -323,7 +490,8 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
         logger.debug("End profiling session");
 
         boolean interrupted = Thread.currentThread().isInterrupted();
-        boolean continueProfilingSession = config.isNonStopProfiling() && !interrupted && config.isProfilingEnabled();
+        boolean continueProfilingSession = config.isNonStopProfiling() && !interrupted && getNextSessionEvent() == sessionEvent
+            && config.isSessionProfilingEnabled();
         setProfilingSessionOngoing(continueProfilingSession);
 
         if (!interrupted) {
@@ -332,23 +500,71 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
         }
     }
 
+    /**
+     * As async-profiler can only sample one kind of event at a time,
+     * sessions rotate between wall clock, allocation and lock profiling, depending on which ones are enabled.
+     */
+    private SessionEvent getNextSessionEvent() {
+        List<SessionEvent> enabledEvents = new ArrayList<>(SessionEvent.values().length);
+        if (config.isProfilingEnabled()) {
+            enabledEvents.add(SessionEvent.WALL);
+        }
+        if (config.isAllocationProfilingEnabled()) {
+            enabledEvents.add(SessionEvent.ALLOC);
+        }
+        if (config.isLockProfilingEnabled()) {
+            enabledEvents.add(SessionEvent.LOCK);
+        }
+        if (enabledEvents.isEmpty()) {
+            return SessionEvent.WALL;
+        }
+        return enabledEvents.get(profilingSessions % enabledEvents.size());
+    }
+
     private void profile(TimeDuration sampleRate, TimeDuration profilingDuration) throws Exception {
         AsyncProfiler asyncProfiler = AsyncProfiler.getInstance();
         try {
-            String startCommand = "start,jfr,event=wall,cstack=n,interval=" + sampleRate.getMillis() + "ms,filter,file=" + jfrFile + ",safemode=" + config.getAsyncProfilerSafeMode();
-            String startMessage = asyncProfiler.execute(startCommand);
-            logger.debug(startMessage);
-            if (!profiledThreads.isEmpty()) {
-                restoreFilterState(asyncProfiler);
+            String event;
+            switch (sessionEvent) {
+                case ALLOC:
+                    event = "event=alloc,interval=" + config.getAllocationProfilingInterval().getBytes();
+                    break;
+                case LOCK:
+                    event = "event=lock";
+                    blockedTimeTracker.start();
+                    break;
+                default:
+                    event = "event=wall,interval=" + sampleRate.getMillis() + "ms";
             }
+            String startCommand = "start,jfr," + event + ",cstack=n,filter,file=" + jfrFile + ",safemode=" + config.getAsyncProfilerSafeMode();
             profilingSessions++;
+            long sessionEnd = System.currentTimeMillis() + profilingDuration.getMillis();
+            long chunkDuration = getChunkDurationMillis(profilingDuration);
+            do {
+                // async-profiler only writes the stack traces and symbols to the JFR file when it's stopped
+                // that's why it's re-started for each chunk, overwriting the JFR file of the previous chunk which has already been processed
+                // the continuous profiler stops shortly after profiling sessions have been enabled
+                ASYNC_PROFILER_SESSION_LOCK.lockInterruptibly();
+                try {
+                    String startMessage = asyncProfiler.execute(startCommand);
+                    logger.debug(startMessage);
+                    if (!profiledThreads.isEmpty()) {
+                        restoreFilterState(asyncProfiler);
+                    }
 
-            consumeActivationEventsFromRingBufferAndWriteToFile(profilingDuration);
+                    consumeActivationEventsAndWriteToFile(Math.min(chunkDuration, sessionEnd - System.currentTimeMillis()));
 
-            String stopMessage = asyncProfiler.execute("stop");
-            logger.debug(stopMessage);
+                    String stopMessage = asyncProfiler.execute("stop");
+                    logger.debug(stopMessage);
+                } finally {
+                    ASYNC_PROFILER_SESSION_LOCK.unlock();
+                }
 
-            processTraces();
+                processTraces();
+                if (sessionEvent == SessionEvent.LOCK) {
+                    blockedTimeTracker.removeEnded();
+                }
+            } while (System.currentTimeMillis() < sessionEnd && !Thread.currentThread().isInterrupted());
         } catch (InterruptedException | ClosedByInterruptException e) {
             try {
                 asyncProfiler.stop();
@@ -358,8 +574,16 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
         }
     }
 
+    private long getChunkDurationMillis(TimeDuration profilingDuration) {
+        long chunkDuration = config.getProfilingChunkDuration().getMillis();
+        if (chunkDuration <= 0 || chunkDuration >= profilingDuration.getMillis()) {
+            return profilingDuration.getMillis();
+        }
+        return chunkDuration;
+    }
+
     /**
-     * When doing continuous profiling (interval=duration),
+     * When doing continuous profiling (interval=duration) or when a session is split into chunks,
      * we have to tell async-profiler which threads it should profile after re-starting it.
      */
     private void restoreFilterState(AsyncProfiler asyncProfiler) {
@@ -376,16 +600,16 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
         }, asyncProfiler);
     }
 
-    private void consumeActivationEventsFromRingBufferAndWriteToFile(TimeDuration profilingDuration) throws Exception {
+    private void consumeActivationEventsAndWriteToFile(long durationMillis) throws Exception {
         resetActivationEventBuffer();
-        long threshold = System.currentTimeMillis() + profilingDuration.getMillis();
+        long droppedActivationEventsBefore = droppedActivationEvents;
+        long threshold = System.currentTimeMillis() + durationMillis;
         long initialSleep = 100_000;
         long maxSleep = 10_000_000;
         long sleep = initialSleep;
         while (System.currentTimeMillis() < threshold && !Thread.currentThread().isInterrupted()) {
             if (activationEventsFileChannel.position() < MAX_ACTIVATION_EVENTS_FILE_SIZE) {
-                EventPoller.PollState poll = consumeActivationEventsFromRingBufferAndWriteToFile();
-                if (poll == EventPoller.PollState.PROCESSING) {
+                if (consumeActivationEventsAndWriteToFile()) {
                     sleep = initialSleep;
                     // don't sleep, after consuming the events there might be new ones in the ring buffer
                 } else {
@@ -400,15 +624,84 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
                 Thread.sleep(Math.max(0, threshold - System.currentTimeMillis()));
             }
         }
+        if (droppedActivationEvents > droppedActivationEventsBefore) {
+            logger.warn("Dropped {} activation events as the buffers of the threads were full",
+                droppedActivationEvents - droppedActivationEventsBefore);
+        }
+    }
+
+    /**
+     * Merges the available events of all threads by their timestamp and writes them to the activation events file.
+     * <p>
+     * The events of each thread are ordered by their timestamp, so a k-way merge over the buffers yields the events in timestamp order.
+     * Only the events which are available when calling this method are merged so that busy threads can't delay returning indefinitely.
+     * Buffers of terminated threads are removed and recycled once they are empty.
+     * </p>
+     *
+     * @return {@code true} if there were any events, {@code false} if all buffers were empty
+     */
+    public boolean consumeActivationEventsAndWriteToFile() throws IOException {
+        for (ActivationEventBuffer newBuffer = newEventBuffers.poll(); newBuffer != null; newBuffer = newEventBuffers.poll()) {
+            eventBuffers.add(newBuffer);
+        }
+        for (int i = eventBuffers.size() - 1; i >= 0; i--) {
+            ActivationEventBuffer buffer = eventBuffers.get(i);
+            // checked before consuming so that a thread can't publish events after its buffer has been found to be empty
+            boolean threadTerminated = buffer.isThreadTerminated();
+            droppedActivationEvents += buffer.getNewlyDroppedEvents();
+            if (buffer.startConsuming()) {
+                eventBuffersByTimestamp.offer(buffer);
+            } else if (threadTerminated) {
+                // swap remove as the order of the buffers does not matter
+                eventBuffers.set(i, eventBuffers.get(eventBuffers.size() - 1));
+                eventBuffers.remove(eventBuffers.size() - 1);
+                recycledEventBuffers.offer(buffer);
+            }
+        }
+        if (eventBuffersByTimestamp.isEmpty()) {
+            return false;
+        }
+        try {
+            for (ActivationEventBuffer buffer = eventBuffersByTimestamp.poll(); buffer != null; buffer = eventBuffersByTimestamp.poll()) {
+                buffer.next().serialize(activationEventsBuffer);
+                if (!activationEventsBuffer.hasRemaining()) {
+                    flushActivationEvents();
+                    if (activationEventsFileChannel.position() >= MAX_ACTIVATION_EVENTS_FILE_SIZE) {
+                        return true;
+                    }
+                }
+                if (buffer.hasNext()) {
+                    eventBuffersByTimestamp.offer(buffer);
+                }
+            }
+        } finally {
+            eventBuffersByTimestamp.clear();
+            for (int i = 0; i < eventBuffers.size(); i++) {
+                eventBuffers.get(i).commit();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the number of {@link ActivationEventBuffer}s which have been allocated so far.
+     * As the buffers of terminated threads are recycled, that's roughly the maximum number of threads
+     * which have concurrently recorded activation events.
+     *
+     * @return the number of allocated buffers
+     */
+    public int getAllocatedActivationEventBuffers() {
+        return allocatedEventBuffers.get();
     }
 
-    EventPoller.PollState consumeActivationEventsFromRingBufferAndWriteToFile() throws Exception {
-        return poller.poll(writeActivationEventToFileHandler);
+    // visible for testing
+    long getDroppedActivationEvents() {
+        return droppedActivationEvents;
     }
 
     public void processTraces() throws IOException {
         if (jfrParser == null) {
-            jfrParser = new JfrParser();
+            jfrParser = new JfrParser(memoryMappedFiles);
         }
         if (Thread.currentThread().isInterrupted()) {
             return;
@@ -430,10 +723,18 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
             if (logger.isDebugEnabled()) {
                 logger.debug("Processing {} stack traces", stackTraceEvents.size());
             }
+            FrameProfile frameProfile = getFrameProfile(sessionEvent);
+            if (frameProfile != null) {
+                processTopFrames(jfrParser, stackTraceEvents, eof, frameProfile);
+                return;
+            }
+            long inferredSpansMinDuration = getInferredSpansMinDurationNs();
+            if (processingExecutor != null) {
+                processTracesInParallel(processingExecutor, jfrParser, stackTraceEvents, eof, inferredSpansMinDuration);
+                return;
+            }
             List<StackFrame> stackFrames = new ArrayList<>();
-            ElasticApmTracer tracer = this.tracer;
             ActivationEvent event = new ActivationEvent();
-            long inferredSpansMinDuration = getInferredSpansMinDurationNs();
             for (StackTraceEvent stackTrace : stackTraceEvents) {
                 processActivationEventsUpTo(stackTrace.nanoTime, event, eof);
                 CallTree.Root root = profiledThreads.get(stackTrace.threadId);
@@ -445,14 +746,7 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
                     // stack frames may not contain any Java frames
                     // see https://github.com/jvm-profiling-tools/async-profiler/issues/271#issuecomment-582430233
                     if (!stackFrames.isEmpty()) {
-                        try {
-                            root.addStackTrace(tracer, stackFrames, stackTrace.nanoTime, callTreePool, inferredSpansMinDuration);
-                        } catch (Exception e) {
-                            logger.warn("Removing call tree for thread {} because of exception while adding a stack trace: {} {}",
-                                stackTrace.threadId, e.getClass(), e.getMessage());
-                            logger.debug(e.getMessage(), e);
-                            profiledThreads.remove(stackTrace.threadId);
-                        }
+                        addStackTrace(profiledThreads, root, stackTrace, stackFrames, inferredSpansMinDuration);
                     }
                 }
                 stackFrames.clear();
@@ -469,6 +763,129 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
         }
     }
 
+    /**
+     * Attributes the top frame of each allocation or lock sample to the transaction which was active on the thread.
+     * The call tree roots are only used to keep track of the active transaction, they don't contain any stack traces.
+     */
+    private void processTopFrames(JfrParser jfrParser, List<StackTraceEvent> stackTraceEvents, long eof, FrameProfile frameProfile) throws IOException {
+        List<StackFrame> stackFrames = new ArrayList<>();
+        ActivationEvent event = new ActivationEvent();
+        try {
+            for (StackTraceEvent stackTrace : stackTraceEvents) {
+                processActivationEventsUpTo(stackTrace.nanoTime, event, eof);
+                CallTree.Root root = profiledThreads.get(stackTrace.threadId);
+                if (root != null) {
+                    StackFrame topFrame = topFrames.get(stackTrace.stackTraceId);
+                    if (topFrame == null) {
+                        // not limiting the depth as that would truncate the top-most frames
+                        jfrParser.resolveStackTrace(stackTrace.stackTraceId, true, stackFrames, Integer.MAX_VALUE);
+                        if (stackFrames.isEmpty()) {
+                            continue;
+                        }
+                        topFrame = stackFrames.get(0);
+                        topFrames.put(stackTrace.stackTraceId, topFrame);
+                        stackFrames.clear();
+                    }
+                    // the root context is the first span which has been activated on the thread, which is not necessarily the transaction
+                    frameProfile.addSample(root.getRootContext().getTransactionId().getLeastSignificantBits(), topFrame);
+                }
+            }
+            processActivationEventsUpTo(System.nanoTime(), event, eof);
+        } finally {
+            // stack trace ids are only valid within a JFR file
+            topFrames.clear();
+        }
+    }
+
+    private void addStackTrace(Long2ObjectHashMap<CallTree.Root> profiledThreads, CallTree.Root root, StackTraceEvent stackTrace,
+                               List<StackFrame> stackFrames, long inferredSpansMinDuration) {
+        try {
+            root.addStackTrace(tracer, stackFrames, stackTrace.nanoTime, callTreePool, inferredSpansMinDuration);
+        } catch (Exception e) {
+            logger.warn("Removing call tree for thread {} because of exception while adding a stack trace: {} {}",
+                stackTrace.threadId, e.getClass(), e.getMessage());
+            logger.debug(e.getMessage(), e);
+            profiledThreads.remove(stackTrace.threadId);
+        }
+    }
+
+    /**
+     * Resolves each distinct stack trace once, distributes the stack trace events and the {@link #profiledThreads}
+     * to the {@link #processingPartitions} and processes the partitions in parallel.
+     * After all partitions are done, the call trees of ongoing transactions are moved back to {@link #profiledThreads}
+     * so that they are retained until the next time traces are processed.
+     */
+    private void processTracesInParallel(ExecutorService processingExecutor, JfrParser jfrParser, List<StackTraceEvent> stackTraceEvents,
+                                         long eof, long inferredSpansMinDuration) throws IOException {
+        ProcessingPartition[] partitions = this.processingPartitions;
+        // the parser is not thread safe, that's why all stack traces are resolved upfront
+        Long2ObjectHashMap<List<StackFrame>> resolvedStackTraces = new Long2ObjectHashMap<>();
+        for (StackTraceEvent stackTrace : stackTraceEvents) {
+            List<StackFrame> stackFrames = resolvedStackTraces.get(stackTrace.stackTraceId);
+            if (stackFrames == null) {
+                stackFrames = new ArrayList<>();
+                jfrParser.resolveStackTrace(stackTrace.stackTraceId, true, stackFrames, MAX_STACK_DEPTH);
+                if (stackFrames.size() == MAX_STACK_DEPTH) {
+                    logger.debug("Max stack depth reached. Set profiling_included_classes or profiling_excluded_classes.");
+                }
+                resolvedStackTraces.put(stackTrace.stackTraceId, stackFrames);
+            }
+            getPartition(stackTrace.threadId).add(stackTrace, stackFrames);
+        }
+        for (ProcessingPartition partition : partitions) {
+            partition.start(eof, inferredSpansMinDuration);
+        }
+        for (Long2ObjectHashMap<CallTree.Root>.KeyIterator iterator = profiledThreads.keySet().iterator(); iterator.hasNext(); ) {
+            long threadId = iterator.nextLong();
+            getPartition(threadId).profiledThreads.put(threadId, profiledThreads.get(threadId));
+        }
+        profiledThreads.clear();
+
+        List<Future<?>> futures = new ArrayList<>(partitions.length - 1);
+        for (int i = 1; i < partitions.length; i++) {
+            futures.add(processingExecutor.submit(partitions[i]));
+        }
+        partitions[0].run();
+        boolean interrupted = false;
+        for (Future<?> future : futures) {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    // the partitions still reference the call trees, so wait for them to stop before recycling
+                    interrupted = true;
+                    for (ProcessingPartition partition : partitions) {
+                        partition.cancelled = true;
+                    }
+                } catch (ExecutionException e) {
+                    logger.warn("Exception while processing a partition of stack traces", e.getCause());
+                    break;
+                }
+            }
+        }
+        if (interrupted) {
+            // the profiler is being stopped, the call trees of the partitions are discarded
+            for (ProcessingPartition partition : partitions) {
+                partition.recycleProfiledThreads();
+            }
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        for (ProcessingPartition partition : partitions) {
+            for (Long2ObjectHashMap<CallTree.Root>.KeyIterator iterator = partition.profiledThreads.keySet().iterator(); iterator.hasNext(); ) {
+                long threadId = iterator.nextLong();
+                profiledThreads.put(threadId, partition.profiledThreads.get(threadId));
+            }
+            partition.profiledThreads.clear();
+        }
+    }
+
+    private ProcessingPartition getPartition(long threadId) {
+        return processingPartitions[(int) (Math.abs(threadId) % processingPartitions.length)];
+    }
+
     private void backupDiagnosticFiles(long eof) throws IOException {
         String now = String.format("%tFT%<tT.%<tL", new Date());
         Path profilerDir = Paths.get(System.getProperty("java.io.tmpdir"), "profiler");
@@ -516,11 +933,15 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
 
     public void processActivationEventsUpTo(long timestamp, ActivationEvent event, long eof) throws IOException {
         FileChannel activationEventsFileChannel = this.activationEventsFileChannel;
-        ByteBuffer buf = activationEventsBuffer;
+        ByteBuffer buf = activationEventsReadBuffer;
         long previousTimestamp = 0;
         while (buf.hasRemaining() || activationEventsFileChannel.position() < eof) {
             if (!buf.hasRemaining()) {
-                readActivationEventsToBuffer(activationEventsFileChannel, eof, buf);
+                if (memoryMappedFiles) {
+                    buf = mapActivationEvents(activationEventsFileChannel, eof);
+                } else {
+                    readActivationEventsToBuffer(activationEventsFileChannel, eof, buf);
+                }
             }
             long eventTimestamp = peekLong(buf);
             if (eventTimestamp < previousTimestamp && logger.isDebugEnabled()) {
@@ -554,6 +975,15 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
         }
     }
 
+    private ByteBuffer mapActivationEvents(FileChannel activationEventsFileChannel, long eof) throws IOException {
+        long position = activationEventsFileChannel.position();
+        long size = Math.min(eof - position, MAPPED_ACTIVATION_EVENTS_WINDOW_SIZE);
+        // the previously mapped window is unmapped when it's garbage collected
+        activationEventsReadBuffer = activationEventsFileChannel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        activationEventsFileChannel.position(position + size);
+        return activationEventsReadBuffer;
+    }
+
     private static long peekLong(ByteBuffer buf) {
         int pos = buf.position();
         try {
@@ -565,6 +995,7 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
 
     public void resetActivationEventBuffer() throws IOException {
         ((Buffer) activationEventsBuffer).clear();
+        activationEventsReadBuffer = activationEventsBuffer;
         activationEventsFileChannel.position(0L);
     }
 
@@ -578,6 +1009,7 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
 
     long startProcessingActivationEventsFile() throws IOException {
         Buffer activationEventsBuffer = this.activationEventsBuffer;
+        activationEventsReadBuffer = this.activationEventsBuffer;
         if (activationEventsFileChannel.position() > 0) {
             flushActivationEvents();
             activationEventsBuffer.limit(0);
@@ -608,13 +1040,21 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
         // implicitly clears profiled threads
         scheduler.shutdownNow();
         scheduler.awaitTermination(1, TimeUnit.SECONDS);
+        if (processingExecutor != null) {
+            processingExecutor.shutdownNow();
+        }
+        blockedTimeTracker.stop();
         activationEventsFileChannel.close();
     }
 
-    void setProfilingSessionOngoing(boolean profilingSessionOngoing) {
+    // visible for benchmarks
+    public void setProfilingSessionOngoing(boolean profilingSessionOngoing) {
         this.profilingSessionOngoing = profilingSessionOngoing;
         if (!profilingSessionOngoing) {
             clearProfiledThreads();
+            allocationProfile.clear();
+            lockProfile.clear();
+            blockedTimeTracker.stop();
         } else if (!profiledThreads.isEmpty() && logger.isDebugEnabled()) {
             logger.debug("Retaining {} call tree roots", profiledThreads.size());
         }
@@ -634,17 +1074,12 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
 
     void clear() throws IOException {
         profiledThreads.clear();
-        // consume all remaining events from the ring buffer
-        try {
-            poller.poll(new EventPoller.Handler<ActivationEvent>() {
-                @Override
-                public boolean onEvent(ActivationEvent event, long sequence, boolean endOfBatch) {
-                    SamplingProfiler.this.sequence.set(sequence);
-                    return true;
-                }
-            });
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+        // consume all remaining events from the ring buffers
+        for (ActivationEventBuffer newBuffer = newEventBuffers.poll(); newBuffer != null; newBuffer = newEventBuffers.poll()) {
+            eventBuffers.add(newBuffer);
+        }
+        for (int i = 0; i < eventBuffers.size(); i++) {
+            eventBuffers.get(i).skipAll();
         }
         resetActivationEventBuffer();
     }
@@ -654,6 +1089,133 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
     }
     // --
 
+    /**
+     * Correlates the stack traces and activation events of the threads which are mapped to this partition.
+     * <p>
+     * Each partition has its own map of profiled threads and reads the activation events independently of the other partitions,
+     * skipping the events of threads that belong to a different partition.
+     * That makes it possible to process the partitions concurrently without synchronization.
+     * </p>
+     */
+    private class ProcessingPartition implements Runnable {
+
+        private final int index;
+        private final Long2ObjectHashMap<CallTree.Root> profiledThreads = new Long2ObjectHashMap<>();
+        private final List<StackTraceEvent> stackTraceEvents = new ArrayList<>();
+        // the resolved stack frames for each of the stackTraceEvents
+        private final List<List<StackFrame>> stackTraces = new ArrayList<>();
+        private final ActivationEvent event = new ActivationEvent();
+        @Nullable
+        private ByteBuffer readBuffer;
+        private ByteBuffer buf = activationEventsBuffer;
+        private long filePosition;
+        private long eof;
+        private long inferredSpansMinDuration;
+        private volatile boolean cancelled;
+
+        private ProcessingPartition(int index) {
+            this.index = index;
+        }
+
+        void add(StackTraceEvent stackTrace, List<StackFrame> stackFrames) {
+            stackTraceEvents.add(stackTrace);
+            stackTraces.add(stackFrames);
+        }
+
+        void start(long eof, long inferredSpansMinDuration) {
+            this.eof = eof;
+            this.inferredSpansMinDuration = inferredSpansMinDuration;
+            // shares the content but has an independent position
+            // if all events fit into the buffer, they are read from there, otherwise it has no remaining bytes and the events are read from the file
+            buf = activationEventsBuffer.duplicate();
+            filePosition = 0;
+            cancelled = false;
+            recycleProfiledThreads();
+        }
+
+        void recycleProfiledThreads() {
+            for (CallTree.Root root : profiledThreads.values()) {
+                root.recycle(callTreePool);
+            }
+            profiledThreads.clear();
+        }
+
+        @Override
+        public void run() {
+            try {
+                for (int i = 0; i < stackTraceEvents.size() && !cancelled; i++) {
+                    StackTraceEvent stackTrace = stackTraceEvents.get(i);
+                    processActivationEventsUpTo(stackTrace.nanoTime);
+                    CallTree.Root root = profiledThreads.get(stackTrace.threadId);
+                    List<StackFrame> stackFrames = stackTraces.get(i);
+                    // stack frames may not contain any Java frames
+                    if (root != null && !stackFrames.isEmpty()) {
+                        addStackTrace(profiledThreads, root, stackTrace, stackFrames, inferredSpansMinDuration);
+                    }
+                }
+                if (!cancelled) {
+                    // process all activation events that happened after the last stack trace event
+                    // otherwise we may miss root deactivations
+                    processActivationEventsUpTo(System.nanoTime());
+                }
+            } catch (Exception e) {
+                logger.warn("Removing call trees of partition {} because of exception while processing: {} {}", index, e.getClass(), e.getMessage());
+                logger.debug(e.getMessage(), e);
+                recycleProfiledThreads();
+            } finally {
+                stackTraceEvents.clear();
+                stackTraces.clear();
+                buf = activationEventsBuffer;
+            }
+        }
+
+        private void processActivationEventsUpTo(long timestamp) throws IOException {
+            while (buf.hasRemaining() || filePosition < eof) {
+                if (!buf.hasRemaining()) {
+                    readActivationEvents();
+                }
+                if (getPartition(buf.getLong(buf.position() + ActivationEvent.THREAD_ID_OFFSET)) != this) {
+                    ((Buffer) buf).position(buf.position() + ActivationEvent.SERIALIZED_SIZE);
+                } else if (peekLong(buf) <= timestamp) {
+                    event.deserialize(buf);
+                    try {
+                        event.handle(SamplingProfiler.this, profiledThreads);
+                    } catch (Exception e) {
+                        logger.warn("Removing call tree for thread {} because of exception while handling activation event: {} {}",
+                            event.threadId, e.getClass(), e.getMessage());
+                        logger.debug(e.getMessage(), e);
+                        profiledThreads.remove(event.threadId);
+                    }
+                } else {
+                    return;
+                }
+            }
+        }
+
+        private void readActivationEvents() throws IOException {
+            // uses positional reads as the file is read by all partitions concurrently
+            long size = Math.min(eof - filePosition, memoryMappedFiles ? MAPPED_ACTIVATION_EVENTS_WINDOW_SIZE : ACTIVATION_EVENTS_BUFFER_SIZE);
+            if (memoryMappedFiles) {
+                buf = activationEventsFileChannel.map(FileChannel.MapMode.READ_ONLY, filePosition, size);
+            } else {
+                if (readBuffer == null) {
+                    readBuffer = ByteBuffer.allocateDirect(ACTIVATION_EVENTS_BUFFER_SIZE);
+                }
+                Buffer readBuffer = this.readBuffer;
+                readBuffer.clear();
+                readBuffer.limit((int) size);
+                while (readBuffer.hasRemaining()) {
+                    if (activationEventsFileChannel.read(this.readBuffer, filePosition + readBuffer.position()) < 0) {
+                        throw new IOException("Unexpected end of activation events file");
+                    }
+                }
+                readBuffer.flip();
+                buf = this.readBuffer;
+            }
+            filePosition += size;
+        }
+    }
+
     public static class StackTraceEvent implements Comparable<StackTraceEvent> {
         private final long nanoTime;
         private final long stackTraceId;
@@ -683,6 +1245,24 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
         }
     }
 
+    /**
+     * The kinds of events async-profiler samples in a profiling session
+     */
+    enum SessionEvent {
+        /**
+         * Wall clock samples which are used to create inferred spans
+         */
+        WALL,
+        /**
+         * Allocation samples, reported via the allocation {@link FrameProfile}
+         */
+        ALLOC,
+        /**
+         * Contended monitor enters and thread parks, reported via the lock {@link FrameProfile} and the {@link BlockedTimeTracker}
+         */
+        LOCK
+    }
+
     private static class ActivationEvent {
         public static final int SERIALIZED_SIZE =
             Long.SIZE / Byte.SIZE + // timestamp
@@ -692,6 +1272,8 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
                 1 + // rootContext
                 Long.SIZE / Byte.SIZE + // threadId
                 1; // activation
+        // the offset of the threadId within a serialized event
+        static final int THREAD_ID_OFFSET = SERIALIZED_SIZE - Long.SIZE / Byte.SIZE - 1;
 
         private static final Map<String, Short> serviceNameMap = new HashMap<>();
         private static final Map<Short, String> serviceNameBackMap = new HashMap<>();
@@ -728,21 +1310,28 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
         }
 
         public void handle(SamplingProfiler samplingProfiler) {
+            handle(samplingProfiler, samplingProfiler.profiledThreads);
+        }
+
+        /**
+         * @param profiledThreads the call tree roots of the threads this event may belong to
+         */
+        public void handle(SamplingProfiler samplingProfiler, Long2ObjectHashMap<CallTree.Root> profiledThreads) {
             if (logger.isDebugEnabled()) {
                 logger.debug("Handling event timestamp={} root={} threadId={} activation={}", timestamp, rootContext, threadId, activation);
             }
             if (activation) {
-                handleActivationEvent(samplingProfiler);
+                handleActivationEvent(samplingProfiler, profiledThreads);
             } else {
-                handleDeactivationEvent(samplingProfiler);
+                handleDeactivationEvent(samplingProfiler, profiledThreads);
             }
         }
 
-        private void handleActivationEvent(SamplingProfiler samplingProfiler) {
+        private void handleActivationEvent(SamplingProfiler samplingProfiler, Long2ObjectHashMap<CallTree.Root> profiledThreads) {
             if (rootContext) {
-                startProfiling(samplingProfiler);
+                startProfiling(samplingProfiler, profiledThreads);
             } else {
-                CallTree.Root root = samplingProfiler.profiledThreads.get(threadId);
+                CallTree.Root root = profiledThreads.get(threadId);
                 if (root != null) {
                     if (logger.isDebugEnabled()) {
                         logger.debug("Handling activation for thread {}", threadId);
@@ -754,13 +1343,13 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
             }
         }
 
-        private void startProfiling(SamplingProfiler samplingProfiler) {
+        private void startProfiling(SamplingProfiler samplingProfiler, Long2ObjectHashMap<CallTree.Root> profiledThreads) {
             CallTree.Root root = CallTree.createRoot(samplingProfiler.rootPool, traceContextBuffer, serviceName, timestamp);
             if (logger.isDebugEnabled()) {
                 logger.debug("Create call tree ({}) for thread {}", deserialize(samplingProfiler, traceContextBuffer), threadId);
             }
 
-            CallTree.Root orphaned = samplingProfiler.profiledThreads.put(threadId, root);
+            CallTree.Root orphaned = profiledThreads.put(threadId, root);
             if (orphaned != null) {
                 if (logger.isDebugEnabled()) {
                     logger.warn("Illegal state when stopping profiling for thread {}: orphaned root", threadId);
@@ -770,16 +1359,19 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
             }
         }
 
-        private TraceContext deserialize(SamplingProfiler samplingProfiler, byte[] traceContextBuffer) {
-            samplingProfiler.contextForLogging.deserialize(traceContextBuffer, null);
-            return samplingProfiler.contextForLogging;
+        private String deserialize(SamplingProfiler samplingProfiler, byte[] traceContextBuffer) {
+            // events may be handled concurrently when there are multiple processing partitions
+            synchronized (samplingProfiler.contextForLogging) {
+                samplingProfiler.contextForLogging.deserialize(traceContextBuffer, null);
+                return samplingProfiler.contextForLogging.toString();
+            }
         }
 
-        private void handleDeactivationEvent(SamplingProfiler samplingProfiler) {
+        private void handleDeactivationEvent(SamplingProfiler samplingProfiler, Long2ObjectHashMap<CallTree.Root> profiledThreads) {
             if (rootContext) {
-                stopProfiling(samplingProfiler);
+                stopProfiling(samplingProfiler, profiledThreads);
             } else {
-                CallTree.Root root = samplingProfiler.profiledThreads.get(threadId);
+                CallTree.Root root = profiledThreads.get(threadId);
                 if (root != null) {
                     if (logger.isDebugEnabled()) {
                         logger.debug("Handling deactivation for thread {}", threadId);
@@ -791,13 +1383,13 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
             }
         }
 
-        private void stopProfiling(SamplingProfiler samplingProfiler) {
-            CallTree.Root callTree = samplingProfiler.profiledThreads.get(threadId);
+        private void stopProfiling(SamplingProfiler samplingProfiler, Long2ObjectHashMap<CallTree.Root> profiledThreads) {
+            CallTree.Root callTree = profiledThreads.get(threadId);
             if (callTree != null && callTree.getRootContext().traceIdAndIdEquals(traceContextBuffer)) {
                 if (logger.isDebugEnabled()) {
                     logger.debug("End call tree ({}) for thread {}", deserialize(samplingProfiler, traceContextBuffer), threadId);
                 }
-                samplingProfiler.profiledThreads.remove(threadId);
+                profiledThreads.remove(threadId);
                 callTree.end(samplingProfiler.callTreePool, samplingProfiler.getInferredSpansMinDurationNs());
                 int createdSpans = callTree.spanify();
                 if (logger.isDebugEnabled()) {
@@ -848,7 +1440,7 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
      * We never want to wait until new elements are available,
      * we just want to process all available events
      */
-    private static class NoWaitStrategy implements WaitStrategy {
+    static class NoWaitStrategy implements WaitStrategy {
 
         @Override
         public long waitFor(long sequence, Sequence cursor, Sequence dependentSequence, SequenceBarrier barrier) {
@@ -860,21 +1452,119 @@ public class SamplingProfiler extends AbstractLifecycleListener implements Runna
         }
     }
 
-    // extracting to a class instead of instantiating an anonymous inner class makes a huge difference in allocations
-    private class WriteActivationEventToFileHandler implements EventPoller.Handler<ActivationEvent> {
-        @Override
-        public boolean onEvent(ActivationEvent event, long sequence, boolean endOfBatch) throws IOException {
-            if (endOfBatch) {
-                SamplingProfiler.this.sequence.set(sequence);
+    /**
+     * A single-producer ring buffer of the {@link ActivationEvent}s of one thread.
+     * <p>
+     * Publishing an event only requires an ordered write and no CAS as there's only one producer.
+     * The profiling thread reads the events directly from the ring buffer and only advances the {@link #sequence},
+     * which frees up the slots, after they have been written.
+     * </p>
+     * <p>
+     * Once the thread has terminated and all events have been consumed, the buffer is handed over to a new thread.
+     * As the hand-over happens via concurrent queues, the single-producer state of the ring buffer is safely published to the new owner.
+     * </p>
+     */
+    private static class ActivationEventBuffer {
+
+        static final Comparator<ActivationEventBuffer> BY_NEXT_TIMESTAMP = new Comparator<ActivationEventBuffer>() {
+            @Override
+            public int compare(ActivationEventBuffer o1, ActivationEventBuffer o2) {
+                return Long.compare(o1.peekTimestamp(), o2.peekTimestamp());
             }
-            if (activationEventsFileChannel.size() < MAX_ACTIVATION_EVENTS_FILE_SIZE) {
-                event.serialize(activationEventsBuffer);
-                if (!activationEventsBuffer.hasRemaining()) {
-                    flushActivationEvents();
-                }
+        };
+
+        private final RingBuffer<ActivationEvent> ringBuffer;
+        /**
+         * The sequence of the last event which has been consumed,
+         * tells the ring buffer to not override slots which have not been read yet
+         */
+        private final Sequence sequence = new Sequence();
+        /**
+         * Only changes when the buffer is recycled, which happens-before the profiling thread sees the buffer again
+         */
+        private WeakReference<Thread> thread;
+        /**
+         * Only incremented by the thread the buffer belongs to
+         */
+        private volatile long droppedEvents;
+        // the following fields are only accessed by the profiling thread
+        private long reportedDroppedEvents;
+        private long nextSequence;
+        private long availableSequence;
+
+        private ActivationEventBuffer(Thread thread) {
+            this.thread = new WeakReference<>(thread);
+            this.ringBuffer = RingBuffer.createSingleProducer(
+                new EventFactory<ActivationEvent>() {
+                    @Override
+                    public ActivationEvent newInstance() {
+                        return new ActivationEvent();
+                    }
+                },
+                RING_BUFFER_SIZE,
+                new NoWaitStrategy());
+            this.ringBuffer.addGatingSequences(sequence);
+        }
+
+        boolean tryPublishEvent(EventTranslatorTwoArg<ActivationEvent, TraceContext, TraceContext> translator,
+                                TraceContext active, @Nullable TraceContext previouslyActive) {
+            if (ringBuffer.tryPublishEvent(translator, active, previouslyActive)) {
                 return true;
             }
+            // there's only a single writer, so there's no need for an atomic increment
+            droppedEvents++;
             return false;
         }
+
+        /**
+         * Captures the events which are currently available
+         *
+         * @return whether there are any events available
+         */
+        boolean startConsuming() {
+            nextSequence = sequence.get() + 1;
+            availableSequence = ringBuffer.getCursor();
+            return hasNext();
+        }
+
+        boolean hasNext() {
+            return nextSequence <= availableSequence;
+        }
+
+        long peekTimestamp() {
+            return ringBuffer.get(nextSequence).timestamp;
+        }
+
+        ActivationEvent next() {
+            return ringBuffer.get(nextSequence++);
+        }
+
+        /**
+         * Frees up the slots of the events which have been consumed
+         */
+        void commit() {
+            sequence.set(nextSequence - 1);
+        }
+
+        void skipAll() {
+            nextSequence = ringBuffer.getCursor() + 1;
+            commit();
+        }
+
+        long getNewlyDroppedEvents() {
+            long droppedEvents = this.droppedEvents;
+            long newlyDroppedEvents = droppedEvents - reportedDroppedEvents;
+            reportedDroppedEvents = droppedEvents;
+            return newlyDroppedEvents;
+        }
+
+        void setThread(Thread thread) {
+            this.thread = new WeakReference<>(thread);
+        }
+
+        boolean isThreadTerminated() {
+            Thread thread = this.thread.get();
+            return thread == null || !thread.isAlive();
+        }
     }
 }
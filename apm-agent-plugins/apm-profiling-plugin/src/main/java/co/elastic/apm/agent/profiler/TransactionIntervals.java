@@ -0,0 +1,153 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.profiler;
+
+import co.elastic.apm.agent.collections.LongList;
+import co.elastic.apm.agent.profiler.collections.Long2ObjectHashMap;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Records the time intervals in which root transactions have been active on a thread,
+ * so that the samples of the {@link ContinuousProfiler} can be attributed to the name of the transaction.
+ * <p>
+ * The name is recorded on deactivation as it's commonly only known at the end of a transaction.
+ * The activations and deactivations of each thread are expected to be recorded in chronological order.
+ * </p>
+ * <p>
+ * This class is not thread safe and is only meant to be used by the profiling thread.
+ * </p>
+ */
+class TransactionIntervals {
+
+    /**
+     * Samples which have not been taken while a transaction was active on the thread
+     */
+    static final String NO_TRANSACTION = "<no transaction>";
+    /**
+     * Samples which have been taken while a transaction was active whose name is not known yet,
+     * as it has not been deactivated at the time of the flush
+     */
+    static final String UNFINISHED_TRANSACTION = "<unfinished transaction>";
+
+    private final Long2ObjectHashMap<ThreadIntervals> intervalsByThread = new Long2ObjectHashMap<>();
+
+    void onActivation(long threadId, long nanoTime) {
+        ThreadIntervals intervals = intervalsByThread.get(threadId);
+        if (intervals == null) {
+            intervals = new ThreadIntervals();
+            intervalsByThread.put(threadId, intervals);
+        }
+        intervals.pendingStart = nanoTime;
+    }
+
+    void onDeactivation(long threadId, String transactionName, long nanoTime) {
+        ThreadIntervals intervals = intervalsByThread.get(threadId);
+        // the activation may have happened before the profiler started recording
+        if (intervals != null && intervals.pendingStart != -1) {
+            intervals.starts.add(intervals.pendingStart);
+            intervals.ends.add(nanoTime);
+            intervals.names.add(transactionName);
+            intervals.pendingStart = -1;
+        }
+    }
+
+    /**
+     * Returns the name of the transaction which has been active on the provided thread at the provided time.
+     *
+     * @param threadId the id of the thread the sample has been taken on
+     * @param nanoTime the time the sample has been taken at
+     * @return the name of the transaction,
+     * {@link #UNFINISHED_TRANSACTION} if the transaction is still active,
+     * or {@link #NO_TRANSACTION} if there was no active transaction
+     */
+    String getTransactionName(long threadId, long nanoTime) {
+        ThreadIntervals intervals = intervalsByThread.get(threadId);
+        if (intervals == null) {
+            return NO_TRANSACTION;
+        }
+        if (intervals.pendingStart != -1 && nanoTime >= intervals.pendingStart) {
+            return UNFINISHED_TRANSACTION;
+        }
+        int index = intervals.indexOfLastStartBefore(nanoTime);
+        if (index >= 0 && nanoTime <= intervals.ends.get(index)) {
+            return intervals.names.get(index);
+        }
+        return NO_TRANSACTION;
+    }
+
+    /**
+     * Removes all finished intervals but retains ongoing activations
+     */
+    void removeFinished() {
+        for (Iterator<ThreadIntervals> iterator = intervalsByThread.values().iterator(); iterator.hasNext(); ) {
+            ThreadIntervals intervals = iterator.next();
+            if (intervals.pendingStart == -1) {
+                iterator.remove();
+            } else {
+                intervals.clearFinished();
+            }
+        }
+    }
+
+    void clear() {
+        intervalsByThread.clear();
+    }
+
+    private static class ThreadIntervals {
+        private final LongList starts = new LongList();
+        private final LongList ends = new LongList();
+        private final List<String> names = new ArrayList<>();
+        private long pendingStart = -1;
+
+        /**
+         * Binary search as the intervals are sorted by their start
+         */
+        private int indexOfLastStartBefore(long nanoTime) {
+            int low = 0;
+            int high = starts.getSize() - 1;
+            int result = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (starts.get(mid) <= nanoTime) {
+                    result = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            return result;
+        }
+
+        private void clearFinished() {
+            starts.clear();
+            ends.clear();
+            names.clear();
+        }
+    }
+}
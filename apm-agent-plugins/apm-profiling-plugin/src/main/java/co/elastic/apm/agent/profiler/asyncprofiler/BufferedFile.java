@@ -55,6 +55,13 @@ import java.nio.file.StandardOpenOption;
  * As reading a file from disk can get stuck (for example when the disk is busy) calling {@link MappedByteBuffer#get()} may take a while to execute.
  * While it's executing other threads have to wait for it to finish if the JVM wants to reach a safe point.
  * </p>
+ * <p>
+ * Still, when the file is stored on a fast disk or is already in the page cache,
+ * {@linkplain #BufferedFile(int) memory mapping} the file avoids a system call for every random access,
+ * for example when resolving stack traces and symbols.
+ * In that mode, the {@linkplain #buffer buffer} is a {@link MappedByteBuffer} that maps a window of the file.
+ * Files that are larger than the window, for example files exceeding 2 GiB, are read by re-mapping the window.
+ * </p>
  */
 class BufferedFile implements Recyclable {
 
@@ -63,8 +70,15 @@ class BufferedFile implements Recyclable {
     private static final int SIZE_OF_INT = 4;
     private static final int SIZE_OF_LONG = 8;
     private ByteBuffer buffer;
+    @Nullable
     private final ByteBuffer bigBuffer;
+    @Nullable
     private final ByteBuffer smallBuffer;
+    /**
+     * The max size of a mapped window of the file,
+     * or {@code 0} if the file is read into {@link #bigBuffer} or {@link #smallBuffer} instead of being mapped
+     */
+    private final int mappedWindowSize;
     /**
      * The offset of the file from where the {@link #buffer} starts
      */
@@ -81,6 +95,21 @@ class BufferedFile implements Recyclable {
     public BufferedFile(ByteBuffer bigBuffer, ByteBuffer smallBuffer) {
         this.bigBuffer = bigBuffer;
         this.smallBuffer = smallBuffer;
+        this.mappedWindowSize = 0;
+    }
+
+    /**
+     * Creates a file which is read by mapping windows of the file into memory.
+     *
+     * @param mappedWindowSize the max number of bytes of the file which are mapped at once
+     */
+    public BufferedFile(int mappedWindowSize) {
+        if (mappedWindowSize <= 0) {
+            throw new IllegalArgumentException("mappedWindowSize has to be positive but was " + mappedWindowSize);
+        }
+        this.bigBuffer = null;
+        this.smallBuffer = null;
+        this.mappedWindowSize = mappedWindowSize;
     }
 
     /**
@@ -91,7 +120,10 @@ class BufferedFile implements Recyclable {
      */
     public void setFile(File file) throws IOException {
         fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
-        if (fileChannel.size() <= bigBuffer.capacity()) {
+        if (isMemoryMapped()) {
+            map(0);
+            wholeFileInBuffer = fileChannel.size() <= mappedWindowSize;
+        } else if (fileChannel.size() <= bigBuffer.capacity()) {
             buffer = bigBuffer;
             read(0, bigBuffer.capacity());
             wholeFileInBuffer = true;
@@ -147,7 +179,7 @@ class BufferedFile implements Recyclable {
      * @throws IllegalStateException If minRemaining is greater than the buffer's capacity
      */
     public void ensureRemaining(int minRemaining) throws IOException {
-        ensureRemaining(minRemaining, buffer.capacity());
+        ensureRemaining(minRemaining, getMaxBufferSize());
     }
 
     /**
@@ -162,8 +194,8 @@ class BufferedFile implements Recyclable {
         if (wholeFileInBuffer) {
             return;
         }
-        if (minRemaining > buffer.capacity()) {
-            throw new IllegalStateException(String.format("Length (%d) greater than buffer capacity (%d)", minRemaining, buffer.capacity()));
+        if (minRemaining > getMaxBufferSize()) {
+            throw new IllegalStateException(String.format("Length (%d) greater than buffer capacity (%d)", minRemaining, getMaxBufferSize()));
         }
         if (buffer.remaining() < minRemaining) {
             read(position(), maxRead);
@@ -292,6 +324,15 @@ class BufferedFile implements Recyclable {
         return fileChannel != null;
     }
 
+    boolean isMemoryMapped() {
+        return mappedWindowSize > 0;
+    }
+
+    private int getMaxBufferSize() {
+        // the window that is currently mapped may be smaller than mappedWindowSize if it's at the end of the file
+        return isMemoryMapped() ? mappedWindowSize : buffer.capacity();
+    }
+
     @Override
     public void resetState() {
         if (fileChannel == null) {
@@ -310,6 +351,11 @@ class BufferedFile implements Recyclable {
     }
 
     private void read(long offset, int limit) throws IOException {
+        if (isMemoryMapped()) {
+            // mapping is lazy, so there's no need to only map the limit
+            map(offset);
+            return;
+        }
         if (limit > buffer.capacity()) {
             limit = buffer.capacity();
         }
@@ -321,4 +367,15 @@ class BufferedFile implements Recyclable {
         buffer.flip();
         this.offset = offset;
     }
+
+    private void map(long offset) throws IOException {
+        FileChannel fileChannel = this.fileChannel;
+        if (fileChannel == null) {
+            throw new IllegalStateException("setFile has not been called yet");
+        }
+        long size = Math.min(mappedWindowSize, Math.max(0, fileChannel.size() - offset));
+        // the previously mapped window is unmapped when it's garbage collected
+        buffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        this.offset = offset;
+    }
 }
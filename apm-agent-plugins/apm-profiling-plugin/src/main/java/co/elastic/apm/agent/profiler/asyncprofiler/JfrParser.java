@@ -39,8 +39,10 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 
@@ -61,6 +63,8 @@ public class JfrParser implements Recyclable {
     private static final Set<String> JAVA_FRAME_TYPES = new HashSet<>(Arrays.asList("Interpreted", "JIT compiled", "Inlined"));
     private static final int BIG_FILE_BUFFER_SIZE = 5 * 1024 * 1024;
     private static final int SMALL_FILE_BUFFER_SIZE = 4 * 1024;
+    private static final int MAPPED_WINDOW_SIZE = 256 * 1024 * 1024;
+    private static final int MAX_INTERNED_FRAMES = 64 * 1024;
     private static final String SYMBOL_EXCLUDED = "3x cluded";
     private static final String SYMBOL_NULL = "n u11";
     private final static StackFrame FRAME_EXCLUDED = new StackFrame("excluded", "excluded");
@@ -68,13 +72,18 @@ public class JfrParser implements Recyclable {
 
     private final BufferedFile bufferedFile;
     private final Int2IntHashMap classIdToClassNameSymbolId = new Int2IntHashMap(-1);
-    private final Int2IntHashMap symbolIdToPos = new Int2IntHashMap(-1);
+    private final Long2LongHashMap symbolIdToPos = new Long2LongHashMap(-1);
     private final Int2ObjectHashMap<String> symbolIdToString = new Int2ObjectHashMap<String>();
-    private final Int2IntHashMap stackTraceIdToFilePositions = new Int2IntHashMap(-1);
+    private final Long2LongHashMap stackTraceIdToFilePositions = new Long2LongHashMap(-1);
     private final Long2LongHashMap nativeTidToJavaTid = new Long2LongHashMap(-1);
     private final Long2ObjectHashMap<StackFrame> frameIdToFrame = new Long2ObjectHashMap<StackFrame>();
     private final Long2LongHashMap frameIdToMethodSymbol = new Long2LongHashMap(-1);
     private final Long2LongHashMap frameIdToClassId = new Long2LongHashMap(-1);
+    /**
+     * Not cleared in {@link #resetState()} so that the frames of a call tree which spans multiple JFR files are the same instances.
+     * This makes comparing frames cheap and avoids retaining duplicate frames.
+     */
+    private final Map<StackFrame, StackFrame> internedFrames = new HashMap<>();
     // used to resolve a symbol with minimal allocations
     private final StringBuilder symbolBuilder = new StringBuilder();
     private long eventsOffset;
@@ -87,11 +96,29 @@ public class JfrParser implements Recyclable {
     private List<WildcardMatcher> includedClasses;
 
     public JfrParser() {
-        this(ByteBuffer.allocateDirect(BIG_FILE_BUFFER_SIZE), ByteBuffer.allocateDirect(SMALL_FILE_BUFFER_SIZE));
+        this(false);
+    }
+
+    /**
+     * @param memoryMapped whether to memory map the JFR file instead of reading it into a direct buffer.
+     *                     See {@link BufferedFile} for the trade-offs.
+     */
+    public JfrParser(boolean memoryMapped) {
+        this(memoryMapped
+            ? new BufferedFile(MAPPED_WINDOW_SIZE)
+            : new BufferedFile(ByteBuffer.allocateDirect(BIG_FILE_BUFFER_SIZE), ByteBuffer.allocateDirect(SMALL_FILE_BUFFER_SIZE)));
     }
 
     JfrParser(ByteBuffer bigBuffer, ByteBuffer smallBuffer) {
-        bufferedFile = new BufferedFile(bigBuffer, smallBuffer);
+        this(new BufferedFile(bigBuffer, smallBuffer));
+    }
+
+    JfrParser(int mappedWindowSize) {
+        this(new BufferedFile(mappedWindowSize));
+    }
+
+    private JfrParser(BufferedFile bufferedFile) {
+        this.bufferedFile = bufferedFile;
     }
 
     /**
@@ -181,7 +208,7 @@ public class JfrParser implements Recyclable {
             case ContentTypeId.CONTENT_STACKTRACE:
                 for (int i = 0; i < count; i++) {
                     bufferedFile.ensureRemaining(13);
-                    int pos = (int) bufferedFile.position();
+                    long pos = bufferedFile.position();
                     // always an integer
                     // see profiler.h
                     // MAX_CALLTRACES = 65536
@@ -225,7 +252,7 @@ public class JfrParser implements Recyclable {
                 for (int i = 0; i < count; i++) {
                     // symbol ids are incrementing integers, no way there are more than 2 billion distinct ones
                     int symbolId = (int) bufferedFile.getLong();
-                    int pos = (int) bufferedFile.position();
+                    long pos = bufferedFile.position();
                     symbolIdToPos.put(symbolId, pos);
                     symbolIdToString.put(symbolId, SYMBOL_NULL);
                     skipString();
@@ -364,7 +391,7 @@ public class JfrParser implements Recyclable {
         return symbol;
     }
 
-    private StringBuilder resolveSymbolBuilder(int pos, boolean replaceSlashWithDot) throws IOException {
+    private StringBuilder resolveSymbolBuilder(long pos, boolean replaceSlashWithDot) throws IOException {
         long currentPos = bufferedFile.position();
         bufferedFile.position(pos);
         try {
@@ -378,6 +405,18 @@ public class JfrParser implements Recyclable {
         return WildcardMatcher.isAnyMatch(includedClasses, className) && WildcardMatcher.isNoneMatch(excludedClasses, className);
     }
 
+    private StackFrame intern(StackFrame stackFrame) {
+        StackFrame interned = internedFrames.get(stackFrame);
+        if (interned != null) {
+            return interned;
+        }
+        if (internedFrames.size() >= MAX_INTERNED_FRAMES) {
+            internedFrames.clear();
+        }
+        internedFrames.put(stackFrame, stackFrame);
+        return stackFrame;
+    }
+
     private StackFrame resolveStackFrame(long frameId) throws IOException {
         StackFrame stackFrame = frameIdToFrame.get(frameId);
         if (stackFrame != FRAME_NULL) {
@@ -388,7 +427,7 @@ public class JfrParser implements Recyclable {
             stackFrame = FRAME_EXCLUDED;
         } else {
             String method = resolveSymbol((int) frameIdToMethodSymbol.get(frameId), false);
-            stackFrame = new StackFrame(className, Objects.requireNonNull(method));
+            stackFrame = intern(new StackFrame(className, Objects.requireNonNull(method)));
         }
         frameIdToFrame.put(frameId, stackFrame);
         return stackFrame;
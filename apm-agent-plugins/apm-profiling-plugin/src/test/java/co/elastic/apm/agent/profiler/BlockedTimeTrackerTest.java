@@ -0,0 +1,176 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.profiler;
+
+import co.elastic.apm.agent.impl.transaction.Id;
+import co.elastic.apm.agent.impl.transaction.TraceContext;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import co.elastic.apm.agent.metrics.Labels;
+import co.elastic.apm.agent.metrics.MetricRegistry;
+import co.elastic.apm.agent.report.ReporterConfiguration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class BlockedTimeTrackerTest {
+
+    private final ThreadMXBean threadMXBean = mock(ThreadMXBean.class);
+    private final ThreadInfo threadInfo = mock(ThreadInfo.class);
+    private final Transaction transaction = mock(Transaction.class);
+    private final MetricRegistry metricRegistry = new MetricRegistry(mock(ReporterConfiguration.class));
+    private final BlockedTimeTracker blockedTimeTracker = new BlockedTimeTracker(threadMXBean);
+
+    @BeforeEach
+    void setUp() {
+        when(threadMXBean.isThreadContentionMonitoringSupported()).thenReturn(true);
+        when(threadMXBean.getThreadInfo(anyLong())).thenReturn(threadInfo);
+        TraceContext traceContext = mock(TraceContext.class);
+        Id transactionId = Id.new64BitId();
+        transactionId.setToRandomValue();
+        when(traceContext.getTransactionId()).thenReturn(transactionId);
+        when(transaction.getTraceContext()).thenReturn(traceContext);
+        when(transaction.getNameAsString()).thenReturn("GET /foo");
+    }
+
+    @Test
+    void testReportsBlockedTimeBetweenStartAndEnd() {
+        blockedTimeTracker.start();
+        when(threadInfo.getBlockedTime()).thenReturn(10L);
+        when(threadInfo.getWaitedTime()).thenReturn(20L);
+        blockedTimeTracker.onActivation(transaction);
+
+        when(threadInfo.getBlockedTime()).thenReturn(15L);
+        when(threadInfo.getWaitedTime()).thenReturn(25L);
+        when(transaction.isFinished()).thenReturn(true);
+        blockedTimeTracker.onDeactivation(transaction, metricRegistry);
+
+        metricRegistry.report(metricSets -> {
+            assertThat(metricSets).hasSize(1);
+            // the waited time is not included
+            assertThat(metricSets.get(Labels.Mutable.of().transactionName("GET /foo")).getTimers().get(BlockedTimeTracker.METRIC_NAME).getTotalTimeUs())
+                .isEqualTo(5_000);
+        });
+    }
+
+    @Test
+    void testSamplesThreadInfoOnlyAtStartAndEnd() {
+        blockedTimeTracker.start();
+        blockedTimeTracker.onActivation(transaction);
+        blockedTimeTracker.onDeactivation(transaction, metricRegistry);
+        blockedTimeTracker.onActivation(transaction);
+        blockedTimeTracker.onDeactivation(transaction, metricRegistry);
+        verify(threadMXBean, times(1)).getThreadInfo(anyLong());
+
+        when(transaction.isFinished()).thenReturn(true);
+        blockedTimeTracker.onActivation(transaction);
+        blockedTimeTracker.onDeactivation(transaction, metricRegistry);
+        verify(threadMXBean, times(2)).getThreadInfo(anyLong());
+        metricRegistry.report(metricSets -> assertThat(metricSets).hasSize(1));
+    }
+
+    @Test
+    void testIgnoresTransactionsEndedOnOtherThreads() throws Exception {
+        blockedTimeTracker.start();
+        blockedTimeTracker.onActivation(transaction);
+
+        when(transaction.isFinished()).thenReturn(true);
+        Thread thread = new Thread(() -> blockedTimeTracker.onDeactivation(transaction, metricRegistry));
+        thread.start();
+        thread.join();
+
+        metricRegistry.report(metricSets -> assertThat(metricSets).isEmpty());
+    }
+
+    @Test
+    void testIgnoresTransactionsActivatedBeforeStart() {
+        blockedTimeTracker.onActivation(transaction);
+        blockedTimeTracker.start();
+        when(transaction.isFinished()).thenReturn(true);
+        blockedTimeTracker.onDeactivation(transaction, metricRegistry);
+
+        metricRegistry.report(metricSets -> assertThat(metricSets).isEmpty());
+    }
+
+    @Test
+    void testRemovesTransactionsEndedWithoutDeactivation() {
+        blockedTimeTracker.start();
+        blockedTimeTracker.onActivation(transaction);
+        blockedTimeTracker.onDeactivation(transaction, metricRegistry);
+        blockedTimeTracker.removeEnded();
+        assertThat(blockedTimeTracker.getTrackedTransactionCount()).isEqualTo(1);
+
+        // the transaction is ended on another thread without being activated there
+        when(transaction.isFinished()).thenReturn(true);
+        blockedTimeTracker.removeEnded();
+        // a deactivation after the end might still be in flight
+        assertThat(blockedTimeTracker.getTrackedTransactionCount()).isEqualTo(1);
+        blockedTimeTracker.removeEnded();
+        assertThat(blockedTimeTracker.getTrackedTransactionCount()).isZero();
+    }
+
+    @Test
+    void testRemovesRecycledTransactions() {
+        blockedTimeTracker.start();
+        blockedTimeTracker.onActivation(transaction);
+
+        Id newTransactionId = Id.new64BitId();
+        newTransactionId.setToRandomValue();
+        when(transaction.getTraceContext().getTransactionId()).thenReturn(newTransactionId);
+        blockedTimeTracker.removeEnded();
+        blockedTimeTracker.removeEnded();
+        assertThat(blockedTimeTracker.getTrackedTransactionCount()).isZero();
+    }
+
+    @Test
+    void testRestoresContentionMonitoringOnStop() {
+        blockedTimeTracker.start();
+        verify(threadMXBean).setThreadContentionMonitoringEnabled(true);
+        blockedTimeTracker.stop();
+        verify(threadMXBean).setThreadContentionMonitoringEnabled(false);
+
+        blockedTimeTracker.stop();
+        verify(threadMXBean, times(1)).setThreadContentionMonitoringEnabled(false);
+    }
+
+    @Test
+    void testKeepsContentionMonitoringEnabledByOthers() {
+        when(threadMXBean.isThreadContentionMonitoringEnabled()).thenReturn(true);
+        blockedTimeTracker.start();
+        blockedTimeTracker.stop();
+
+        verify(threadMXBean, never()).setThreadContentionMonitoringEnabled(true);
+        verify(threadMXBean, never()).setThreadContentionMonitoringEnabled(false);
+    }
+}
@@ -905,7 +905,7 @@ class CallTreeTest {
                 stackTraceEvents.add(new StackTraceEvent(trace, nanoClock.nanoTime()));
             }
         }
-        profiler.consumeActivationEventsFromRingBufferAndWriteToFile();
+        profiler.consumeActivationEventsAndWriteToFile();
         long eof = profiler.startProcessingActivationEventsFile();
         CallTree.Root root = null;
         NoopObjectPool<CallTree> callTreePool = NoopObjectPool.ofRecyclable(CallTree::new);
@@ -0,0 +1,79 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.profiler;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static co.elastic.apm.agent.profiler.CpuBudgetController.INITIAL_SAMPLING_INTERVAL_NANOS;
+import static co.elastic.apm.agent.profiler.CpuBudgetController.MAX_SAMPLING_INTERVAL_NANOS;
+import static co.elastic.apm.agent.profiler.CpuBudgetController.MIN_SAMPLING_INTERVAL_NANOS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class CpuBudgetControllerTest {
+
+    private static final long PERIOD = TimeUnit.SECONDS.toNanos(1);
+    private final CpuBudgetController controller = new CpuBudgetController();
+
+    @Test
+    void testIncreasesIntervalProportionallyWhenOverBudget() {
+        // 2% usage with a target of 0.8% (80% of a 1% budget)
+        long interval = controller.update(TimeUnit.MILLISECONDS.toNanos(20), PERIOD, 0.01);
+        assertThat(interval).isCloseTo(INITIAL_SAMPLING_INTERVAL_NANOS * 5 / 2, within(1000L));
+    }
+
+    @Test
+    void testKeepsIntervalWhenOnTarget() {
+        long interval = controller.update(TimeUnit.MILLISECONDS.toNanos(8), PERIOD, 0.01);
+        assertThat(interval).isCloseTo(INITIAL_SAMPLING_INTERVAL_NANOS, within(1000L));
+    }
+
+    @Test
+    void testDecreasesIntervalAtMostByHalf() {
+        assertThat(controller.update(0, PERIOD, 0.01)).isEqualTo(INITIAL_SAMPLING_INTERVAL_NANOS / 2);
+        assertThat(controller.update(TimeUnit.MILLISECONDS.toNanos(6), PERIOD, 0.01)).isCloseTo(INITIAL_SAMPLING_INTERVAL_NANOS * 3 / 8, within(1000L));
+    }
+
+    @Test
+    void testIntervalIsBounded() {
+        for (int i = 0; i < 20; i++) {
+            controller.update(PERIOD, PERIOD, 0.01);
+        }
+        assertThat(controller.getSamplingIntervalNanos()).isEqualTo(MAX_SAMPLING_INTERVAL_NANOS);
+        for (int i = 0; i < 20; i++) {
+            controller.update(0, PERIOD, 0.01);
+        }
+        assertThat(controller.getSamplingIntervalNanos()).isEqualTo(MIN_SAMPLING_INTERVAL_NANOS);
+    }
+
+    @Test
+    void testReset() {
+        controller.update(0, PERIOD, 0.01);
+        controller.reset();
+        assertThat(controller.getSamplingIntervalNanos()).isEqualTo(INITIAL_SAMPLING_INTERVAL_NANOS);
+    }
+}
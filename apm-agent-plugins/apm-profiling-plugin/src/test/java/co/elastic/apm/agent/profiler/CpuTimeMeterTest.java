@@ -0,0 +1,93 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.profiler;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class CpuTimeMeterTest {
+
+    private static final long SPIN_NANOS = TimeUnit.MILLISECONDS.toNanos(300);
+    private final CpuTimeMeter cpuTimeMeter = new CpuTimeMeter();
+
+    @BeforeEach
+    void setUp() {
+        assumeTrue(cpuTimeMeter.isSupported());
+    }
+
+    @Test
+    void testMeasuresProfilingThread() {
+        cpuTimeMeter.start();
+        spin();
+        // the thread may not be scheduled all the time
+        assertThat(cpuTimeMeter.stop(0)).isGreaterThan(SPIN_NANOS / 4);
+    }
+
+    @Test
+    void testAddsCostOfSamples() {
+        cpuTimeMeter.start();
+        assertThat(cpuTimeMeter.stop(1000)).isGreaterThanOrEqualTo(1000 * CpuTimeMeter.CPU_TIME_PER_SAMPLE_NANOS);
+    }
+
+    @Test
+    void testExcludesOtherThreads() throws Exception {
+        AtomicBoolean stop = new AtomicBoolean();
+        Thread thread = new Thread(() -> {
+            while (!stop.get()) {
+                Thread.onSpinWait();
+            }
+        });
+        thread.start();
+        cpuTimeMeter.start();
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(SPIN_NANOS) / 2);
+        stop.set(true);
+        // the CPU time of terminated threads isn't attributed to profiling either
+        thread.join();
+        Thread.sleep(TimeUnit.NANOSECONDS.toMillis(SPIN_NANOS) / 2);
+        assertThat(cpuTimeMeter.stop(0)).isLessThan(SPIN_NANOS / 2);
+    }
+
+    @Test
+    void testExcludesGarbageCollection() {
+        cpuTimeMeter.start();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        assertThat(cpuTimeMeter.stop(0)).isLessThan(SPIN_NANOS);
+    }
+
+    private static void spin() {
+        long end = System.nanoTime() + SPIN_NANOS;
+        while (System.nanoTime() < end) {
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,106 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.profiler;
+
+import co.elastic.apm.agent.matcher.WildcardMatcher;
+import co.elastic.apm.agent.profiler.asyncprofiler.JfrParser;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.StringWriter;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static co.elastic.apm.agent.profiler.TransactionIntervals.NO_TRANSACTION;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class FoldedStackAggregatorTest {
+
+    private final FoldedStackAggregator aggregator = new FoldedStackAggregator();
+    private final JfrParser jfrParser = new JfrParser();
+
+    @BeforeEach
+    void setUp() throws Exception {
+        File file = Paths.get(FoldedStackAggregatorTest.class.getClassLoader().getResource("recording.jfr").toURI()).toFile();
+        jfrParser.parse(file, List.of(), WildcardMatcher.matchAllList());
+    }
+
+    @Test
+    void testWriteFoldedStacks() throws Exception {
+        AtomicLong firstThreadId = new AtomicLong(-1);
+        AtomicInteger samples = new AtomicInteger();
+        jfrParser.consumeStackTraces((threadId, stackTraceId, nanoTime) -> {
+            firstThreadId.compareAndSet(-1, threadId);
+            aggregator.addSample(threadId == firstThreadId.get() ? "GET /foo" : NO_TRANSACTION, stackTraceId);
+            samples.incrementAndGet();
+        });
+        assertThat(samples.get()).isPositive();
+        assertThat(aggregator.getSampleCount()).isEqualTo(samples.get());
+
+        StringWriter writer = new StringWriter();
+        aggregator.write(jfrParser, 256, writer);
+
+        String[] lines = writer.toString().split("\n");
+        int sampleCountInProfile = 0;
+        for (String line : lines) {
+            assertThat(line).matches("(GET /foo|<no transaction>)(;[^;\\n]+)* \\d+");
+            sampleCountInProfile += Integer.parseInt(line.substring(line.lastIndexOf(' ') + 1));
+        }
+        assertThat(sampleCountInProfile).isEqualTo(samples.get());
+        assertThat(writer.toString()).contains("GET /foo;");
+    }
+
+    @Test
+    void testAggregatesSameStackTrace() throws Exception {
+        AtomicLong firstStackTraceId = new AtomicLong(-1);
+        jfrParser.consumeStackTraces((threadId, stackTraceId, nanoTime) -> firstStackTraceId.compareAndSet(-1, stackTraceId));
+        aggregator.addSample("foo;bar", firstStackTraceId.get());
+        aggregator.addSample("foo;bar", firstStackTraceId.get());
+
+        StringWriter writer = new StringWriter();
+        aggregator.write(jfrParser, 256, writer);
+
+        assertThat(writer.toString()).startsWith("foo:bar;").endsWith(" 2\n");
+        assertThat(writer.toString().split("\n")).hasSize(1);
+    }
+
+    @Test
+    void testDoesNotTruncateStackTraceIds() {
+        aggregator.addSample("foo", 1);
+        aggregator.addSample("foo", 1 + (1L << 32));
+        assertThat(aggregator.getStackTraceCount("foo")).isEqualTo(2);
+        assertThat(aggregator.getSampleCount()).isEqualTo(2);
+    }
+
+    @Test
+    void testClear() {
+        aggregator.addSample("foo", 1);
+        aggregator.clear();
+        assertThat(aggregator.isEmpty()).isTrue();
+    }
+}
@@ -0,0 +1,148 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.profiler;
+
+import co.elastic.apm.agent.impl.transaction.StackFrame;
+import co.elastic.apm.agent.metrics.Labels;
+import co.elastic.apm.agent.metrics.MetricRegistry;
+import co.elastic.apm.agent.metrics.MetricSet;
+import co.elastic.apm.agent.report.ReporterConfiguration;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static co.elastic.apm.agent.profiler.FrameProfile.FRAME_LABEL;
+import static co.elastic.apm.agent.profiler.FrameProfile.MAX_FRAME_METRIC_SETS;
+import static co.elastic.apm.agent.profiler.FrameProfile.TOP_FRAMES;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class FrameProfileTest {
+
+    private static final String METRIC_NAME = "profiling.allocation.bytes";
+    private static final String FRAME_METRIC_NAME = "profiling.allocation.frame.bytes";
+
+    private final FrameProfile frameProfile = new FrameProfile(METRIC_NAME, FRAME_METRIC_NAME);
+    private final MetricRegistry metricRegistry = new MetricRegistry(mock(ReporterConfiguration.class));
+    private final StackFrame foo = StackFrame.of("com.example.Foo", "foo");
+    private final StackFrame bar = StackFrame.of("com.example.Bar", "bar");
+
+    @Test
+    void testAggregatesByTransactionName() {
+        frameProfile.addSample(1, foo);
+        frameProfile.addSample(1, foo);
+        frameProfile.addSample(1, bar);
+        frameProfile.addSample(2, foo);
+        frameProfile.onTransactionEnd(1, "GET /foo", "request");
+        frameProfile.onTransactionEnd(2, "GET /foo", "request");
+
+        assertThat(frameProfile.report(metricRegistry, 512)).isEqualTo(1);
+
+        metricRegistry.report(metricSets -> {
+            assertThat(metricSets).hasSize(3);
+            assertThat(getCounter(metricSets, labels("GET /foo"), METRIC_NAME)).isEqualTo(4 * 512);
+            assertThat(getCounter(metricSets, labels("GET /foo", "com.example.Foo.foo"), FRAME_METRIC_NAME)).isEqualTo(3 * 512);
+            assertThat(getCounter(metricSets, labels("GET /foo", "com.example.Bar.bar"), FRAME_METRIC_NAME)).isEqualTo(512);
+        });
+    }
+
+    @Test
+    void testDiscardsSamplesOfUnfinishedTransactions() {
+        frameProfile.addSample(1, foo);
+
+        assertThat(frameProfile.report(metricRegistry, 512)).isZero();
+
+        metricRegistry.report(metricSets -> assertThat(metricSets).isEmpty());
+    }
+
+    @Test
+    void testReportsOnlyTopFrames() {
+        for (int i = 0; i <= TOP_FRAMES; i++) {
+            StackFrame frame = StackFrame.of("com.example.Foo", "method" + i);
+            // method0 has the least samples
+            for (int j = 0; j <= i; j++) {
+                frameProfile.addSample(1, frame);
+            }
+        }
+        frameProfile.onTransactionEnd(1, "GET /foo", "request");
+
+        frameProfile.report(metricRegistry, 1);
+
+        metricRegistry.report(metricSets -> {
+            assertThat(metricSets).hasSize(TOP_FRAMES + 1);
+            assertThat(metricSets.get(labels("GET /foo", "com.example.Foo.method0"))).isNull();
+            assertThat(getCounter(metricSets, labels("GET /foo", "com.example.Foo.method" + TOP_FRAMES), FRAME_METRIC_NAME)).isEqualTo(TOP_FRAMES + 1);
+            // the samples of frames which are not reported individually are contained in the total
+            assertThat(getCounter(metricSets, labels("GET /foo"), METRIC_NAME)).isEqualTo((TOP_FRAMES + 1) * (TOP_FRAMES + 2) / 2);
+        });
+    }
+
+    @Test
+    void testLimitsFrameMetricSets() {
+        for (int i = 0; i < MAX_FRAME_METRIC_SETS; i++) {
+            frameProfile.addSample(i, foo);
+            frameProfile.onTransactionEnd(i, "GET /foo/" + i, "request");
+        }
+        frameProfile.report(metricRegistry, 1);
+
+        frameProfile.addSample(0, foo);
+        frameProfile.onTransactionEnd(0, "GET /foo/0", "request");
+        frameProfile.addSample(MAX_FRAME_METRIC_SETS, foo);
+        frameProfile.onTransactionEnd(MAX_FRAME_METRIC_SETS, "GET /foo/" + MAX_FRAME_METRIC_SETS, "request");
+        frameProfile.report(metricRegistry, 1);
+
+        metricRegistry.report(metricSets -> {
+            assertThat(metricSets.keySet().stream().filter(labels -> labels.getKeys().contains(FRAME_LABEL))).hasSize(MAX_FRAME_METRIC_SETS);
+            // frames which have already been reported are reported again
+            assertThat(metricSets.get(labels("GET /foo/0", "com.example.Foo.foo"))).isNotNull();
+            // the samples of new combinations are only contained in the total
+            assertThat(metricSets.get(labels("GET /foo/" + MAX_FRAME_METRIC_SETS, "com.example.Foo.foo"))).isNull();
+            assertThat(getCounter(metricSets, labels("GET /foo/" + MAX_FRAME_METRIC_SETS), METRIC_NAME)).isEqualTo(1);
+        });
+    }
+
+    @Test
+    void testReportClearsProfile() {
+        frameProfile.addSample(1, foo);
+        frameProfile.onTransactionEnd(1, "GET /foo", "request");
+        frameProfile.report(metricRegistry, 512);
+
+        assertThat(frameProfile.report(metricRegistry, 512)).isZero();
+    }
+
+    private static long getCounter(Map<? extends Labels, MetricSet> metricSets, Labels labels, String metricName) {
+        MetricSet metricSet = metricSets.get(labels);
+        assertThat(metricSet).isNotNull();
+        return metricSet.getCounters().get(metricName).get();
+    }
+
+    private static Labels labels(String transactionName) {
+        return Labels.Mutable.of().transactionName(transactionName).transactionType("request");
+    }
+
+    private static Labels labels(String transactionName, String frame) {
+        return Labels.Mutable.of(FRAME_LABEL, frame).transactionName(transactionName).transactionType("request");
+    }
+}
@@ -29,6 +29,8 @@ import co.elastic.apm.agent.impl.ElasticApmTracer;
 import co.elastic.apm.agent.impl.transaction.TraceContext;
 import org.junit.jupiter.api.Test;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 public class SamplingProfilerQueueTest {
@@ -52,9 +54,81 @@ public class SamplingProfilerQueueTest {
         // no more free slots after adding RING_BUFFER_SIZE events
         assertThat(profiler.onActivation(traceContext, null)).isFalse();
 
-        profiler.consumeActivationEventsFromRingBufferAndWriteToFile();
+        assertThat(profiler.consumeActivationEventsAndWriteToFile()).isTrue();
+        assertThat(profiler.getDroppedActivationEvents()).isEqualTo(1);
 
         // now there should be free slots
         assertThat(profiler.onActivation(traceContext, null)).isTrue();
     }
+
+    @Test
+    void testBuffersArePerThread() throws Exception {
+        ElasticApmTracer tracer = MockTracer.create();
+
+        SamplingProfiler profiler = new SamplingProfiler(tracer, new SystemNanoClock());
+        profiler.setProfilingSessionOngoing(true);
+        TraceContext traceContext = TraceContext.with64BitId(tracer);
+
+        for (int i = 0; i < SamplingProfiler.RING_BUFFER_SIZE; i++) {
+            assertThat(profiler.onActivation(traceContext, null)).isTrue();
+        }
+        assertThat(profiler.onActivation(traceContext, null)).isFalse();
+
+        // the buffer of another thread is not affected
+        AtomicBoolean success = new AtomicBoolean();
+        Thread thread = new Thread(() -> success.set(profiler.onActivation(traceContext, null)));
+        thread.start();
+        thread.join();
+        assertThat(success).isTrue();
+    }
+
+    @Test
+    void testBuffersOfTerminatedThreadsAreRecycled() throws Exception {
+        ElasticApmTracer tracer = MockTracer.create();
+
+        SamplingProfiler profiler = new SamplingProfiler(tracer, new SystemNanoClock());
+        profiler.setProfilingSessionOngoing(true);
+        TraceContext traceContext = TraceContext.with64BitId(tracer);
+
+        for (int i = 0; i < 10; i++) {
+            AtomicBoolean success = new AtomicBoolean();
+            Thread thread = new Thread(() -> success.set(profiler.onActivation(traceContext, null)));
+            thread.start();
+            thread.join();
+            assertThat(success).isTrue();
+            // the events of the terminated thread are consumed before its buffer is recycled
+            assertThat(profiler.consumeActivationEventsAndWriteToFile()).isTrue();
+            assertThat(profiler.consumeActivationEventsAndWriteToFile()).isFalse();
+        }
+        assertThat(profiler.getAllocatedActivationEventBuffers()).isEqualTo(1);
+        assertThat(profiler.getDroppedActivationEvents()).isZero();
+    }
+
+    @Test
+    void testMergesEventsOfThreadsByTimestamp() throws Exception {
+        ElasticApmTracer tracer = MockTracer.create();
+        FixedNanoClock nanoClock = new FixedNanoClock();
+
+        SamplingProfiler profiler = new SamplingProfiler(tracer, nanoClock);
+        profiler.setProfilingSessionOngoing(true);
+        TraceContext traceContext = TraceContext.with64BitId(tracer);
+
+        Thread otherThread = new Thread(() -> {
+            nanoClock.setNanoTime(1);
+            profiler.onActivation(traceContext, null);
+            nanoClock.setNanoTime(3);
+            profiler.onDeactivation(traceContext, null);
+        });
+        otherThread.start();
+        otherThread.join();
+        nanoClock.setNanoTime(2);
+        profiler.onActivation(traceContext, null);
+
+        profiler.consumeActivationEventsAndWriteToFile();
+        long eof = profiler.startProcessingActivationEventsFile();
+
+        // if the events of the other thread were written first, processing would stop at its deactivation
+        profiler.processActivationEventsUpTo(2, eof);
+        assertThat(profiler.getRoot()).isNotNull();
+    }
 }
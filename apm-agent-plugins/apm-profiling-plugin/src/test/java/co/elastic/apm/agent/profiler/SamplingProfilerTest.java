@@ -55,17 +55,22 @@ class SamplingProfilerTest {
     private MockReporter reporter;
     private ElasticApmTracer tracer;
     private SamplingProfiler profiler;
+    private ProfilingConfiguration profilingConfig;
+    private ConfigurationRegistry config;
 
     @BeforeEach
     void setUp() {
         reporter = new MockReporter();
-        ConfigurationRegistry config = SpyConfiguration.createSpyConfig();
-        ProfilingConfiguration profilingConfig = config.getConfig(ProfilingConfiguration.class);
+        config = SpyConfiguration.createSpyConfig();
+        profilingConfig = config.getConfig(ProfilingConfiguration.class);
         when(profilingConfig.getIncludedClasses()).thenReturn(List.of(WildcardMatcher.valueOf(getClass().getName())));
         when(profilingConfig.isProfilingEnabled()).thenReturn(true);
         when(profilingConfig.getProfilingDuration()).thenReturn(TimeDuration.of("500ms"));
         when(profilingConfig.getProfilingInterval()).thenReturn(TimeDuration.of("500ms"));
         when(profilingConfig.getSamplingInterval()).thenReturn(TimeDuration.of("5ms"));
+    }
+
+    private void startProfiler() {
         tracer = MockTracer.createRealTracer(reporter, config);
         profiler = tracer.getLifecycleListener(ProfilingFactory.class).getProfiler();
         // ensure profiler is initialized
@@ -82,6 +87,32 @@ class SamplingProfilerTest {
 
     @Test
     void testProfileTransaction() throws Exception {
+        startProfiler();
+        profileTransaction();
+    }
+
+    @Test
+    void testProfileTransactionWithParallelProcessing() throws Exception {
+        when(profilingConfig.getProcessingThreads()).thenReturn(2);
+        startProfiler();
+        profileTransaction();
+    }
+
+    @Test
+    void testProfileTransactionInChunks() throws Exception {
+        startProfiler();
+        when(profilingConfig.getProfilingChunkDuration()).thenReturn(TimeDuration.of("100ms"));
+        int profilingSessions = profiler.getProfilingSessions();
+        // makes sure the chunk duration is picked up by the next session
+        await()
+            .pollDelay(10, TimeUnit.MILLISECONDS)
+            .timeout(5000, TimeUnit.MILLISECONDS)
+            .until(() -> profiler.getProfilingSessions() > profilingSessions);
+
+        profileTransaction();
+    }
+
+    private void profileTransaction() throws Exception {
         Transaction transaction = tracer.startRootTransaction(null).withName("transaction");
         try (Scope scope = transaction.activateInScope()) {
             // makes sure that the rest will be captured by another profiling session
@@ -97,13 +128,13 @@ class SamplingProfilerTest {
             .timeout(5000, TimeUnit.MILLISECONDS)
             .untilAsserted(() -> assertThat(reporter.getSpans()).hasSize(5));
 
-        Optional<Span> testProfileTransaction = reporter.getSpans().stream().filter(s -> s.getNameAsString().equals("SamplingProfilerTest#testProfileTransaction")).findAny();
-        assertThat(testProfileTransaction).isPresent();
-        assertThat(testProfileTransaction.get().isChildOf(transaction)).isTrue();
+        Optional<Span> profileTransaction = reporter.getSpans().stream().filter(s -> s.getNameAsString().equals("SamplingProfilerTest#profileTransaction")).findAny();
+        assertThat(profileTransaction).isPresent();
+        assertThat(profileTransaction.get().isChildOf(transaction)).isTrue();
 
         Optional<Span> inferredSpanA = reporter.getSpans().stream().filter(s -> s.getNameAsString().equals("SamplingProfilerTest#aInferred")).findAny();
         assertThat(inferredSpanA).isPresent();
-        assertThat(inferredSpanA.get().isChildOf(testProfileTransaction.get())).isTrue();
+        assertThat(inferredSpanA.get().isChildOf(profileTransaction.get())).isTrue();
 
         Optional<Span> explicitSpanB = reporter.getSpans().stream().filter(s -> s.getNameAsString().equals("bExplicit")).findAny();
         assertThat(explicitSpanB).isPresent();
@@ -0,0 +1,76 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.profiler;
+
+import org.junit.jupiter.api.Test;
+
+import static co.elastic.apm.agent.profiler.TransactionIntervals.NO_TRANSACTION;
+import static co.elastic.apm.agent.profiler.TransactionIntervals.UNFINISHED_TRANSACTION;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TransactionIntervalsTest {
+
+    private final TransactionIntervals intervals = new TransactionIntervals();
+
+    @Test
+    void testLookup() {
+        intervals.onActivation(1, 10);
+        intervals.onDeactivation(1, "first", 20);
+        intervals.onActivation(1, 30);
+        intervals.onDeactivation(1, "second", 40);
+        intervals.onActivation(1, 50);
+
+        assertThat(intervals.getTransactionName(1, 5)).isEqualTo(NO_TRANSACTION);
+        assertThat(intervals.getTransactionName(1, 10)).isEqualTo("first");
+        assertThat(intervals.getTransactionName(1, 20)).isEqualTo("first");
+        assertThat(intervals.getTransactionName(1, 25)).isEqualTo(NO_TRANSACTION);
+        assertThat(intervals.getTransactionName(1, 35)).isEqualTo("second");
+        assertThat(intervals.getTransactionName(1, 45)).isEqualTo(NO_TRANSACTION);
+        assertThat(intervals.getTransactionName(1, 55)).isEqualTo(UNFINISHED_TRANSACTION);
+        assertThat(intervals.getTransactionName(2, 15)).isEqualTo(NO_TRANSACTION);
+    }
+
+    @Test
+    void testDeactivationWithoutActivationIsIgnored() {
+        intervals.onDeactivation(1, "foo", 20);
+        assertThat(intervals.getTransactionName(1, 10)).isEqualTo(NO_TRANSACTION);
+    }
+
+    @Test
+    void testRemoveFinishedRetainsOngoingActivations() {
+        intervals.onActivation(1, 10);
+        intervals.onDeactivation(1, "first", 20);
+        intervals.onActivation(1, 30);
+        intervals.onActivation(2, 10);
+        intervals.onDeactivation(2, "other", 20);
+
+        intervals.removeFinished();
+
+        assertThat(intervals.getTransactionName(1, 15)).isEqualTo(NO_TRANSACTION);
+        assertThat(intervals.getTransactionName(2, 15)).isEqualTo(NO_TRANSACTION);
+        intervals.onDeactivation(1, "second", 40);
+        assertThat(intervals.getTransactionName(1, 35)).isEqualTo("second");
+    }
+}
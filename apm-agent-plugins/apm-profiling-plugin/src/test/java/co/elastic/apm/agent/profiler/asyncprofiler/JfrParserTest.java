@@ -45,8 +45,39 @@ class JfrParserTest {
     void name() throws Exception {
         // using the smallest prime number possible for the buffer
         // should trigger most edge cases in the buffer being exhausted
-        JfrParser jfrParser = new JfrParser(ByteBuffer.allocate(113), ByteBuffer.allocate(113));
+        assertStackTraces(new JfrParser(ByteBuffer.allocate(113), ByteBuffer.allocate(113)));
+    }
+
+    @Test
+    void testMemoryMapped() throws Exception {
+        // a tiny window makes sure the file is re-mapped a lot
+        assertStackTraces(new JfrParser(113));
+    }
+
+    @Test
+    void testFramesAreInternedAcrossFiles() throws Exception {
+        JfrParser jfrParser = new JfrParser();
+        File file = Paths.get(JfrParserTest.class.getClassLoader().getResource("recording.jfr").toURI()).toFile();
+
+        List<StackFrame> firstParse = resolveAllStackFrames(jfrParser, file);
+        List<StackFrame> secondParse = resolveAllStackFrames(jfrParser, file);
+
+        assertThat(firstParse).isNotEmpty();
+        assertThat(secondParse).hasSameSizeAs(firstParse);
+        for (int i = 0; i < firstParse.size(); i++) {
+            assertThat(secondParse.get(i)).isSameAs(firstParse.get(i));
+        }
+    }
+
+    private List<StackFrame> resolveAllStackFrames(JfrParser jfrParser, File file) throws Exception {
+        jfrParser.parse(file, List.of(), List.of(caseSensitiveMatcher("co.elastic.apm.*")));
+        List<StackFrame> stackFrames = new ArrayList<>();
+        jfrParser.consumeStackTraces((threadId, stackTraceId, nanoTime) -> jfrParser.resolveStackTrace(stackTraceId, true, stackFrames, MAX_STACK_DEPTH));
+        jfrParser.resetState();
+        return stackFrames;
+    }
 
+    private void assertStackTraces(JfrParser jfrParser) throws Exception {
         File file = Paths.get(JfrParserTest.class.getClassLoader().getResource("recording.jfr").toURI()).toFile();
 
         jfrParser.parse(file, List.of(), List.of(caseSensitiveMatcher("co.elastic.apm.*")));
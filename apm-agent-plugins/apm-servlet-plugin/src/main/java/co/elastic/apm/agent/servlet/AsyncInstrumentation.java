@@ -28,6 +28,7 @@ import co.elastic.apm.agent.bci.HelperClassManager;
 import co.elastic.apm.agent.bci.VisibleForAdvice;
 import co.elastic.apm.agent.concurrent.JavaConcurrent;
 import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.transaction.Transaction;
 import net.bytebuddy.asm.Advice;
 import net.bytebuddy.description.NamedElement;
 import net.bytebuddy.description.method.MethodDescription;
@@ -69,13 +70,22 @@ public abstract class AsyncInstrumentation extends AbstractServletInstrumentatio
     // referring to AsyncContext is legal because of type erasure
     public static HelperClassManager<AsyncContextAdviceHelper<AsyncContext>> asyncHelperManager;
 
+    /**
+     * The holder of the asynchronous request which is currently processed on this thread, if any.
+     * Used to hand off the transaction to the non-blocking IO listeners which are registered while processing the request
+     * (see {@link NonBlockingIoInstrumentation}).
+     */
+    @VisibleForAdvice
+    public static final ThreadLocal<AsyncTransactionHolder> currentAsyncHolder = new ThreadLocal<>();
+
     public AsyncInstrumentation(ElasticApmTracer tracer) {
         synchronized (AsyncInstrumentation.class) {
             if (asyncHelperManager == null) {
                 asyncHelperManager = HelperClassManager.ForSingleClassLoader.of(tracer,
                     "co.elastic.apm.agent.servlet.helper.AsyncContextAdviceHelperImpl",
                     "co.elastic.apm.agent.servlet.helper.AsyncContextAdviceHelperImpl$ApmAsyncListenerAllocator",
-                    "co.elastic.apm.agent.servlet.helper.ApmAsyncListener");
+                    "co.elastic.apm.agent.servlet.helper.ApmAsyncListener",
+                    "co.elastic.apm.agent.servlet.helper.AsyncRunnableWrapper");
             }
 
         }
@@ -88,6 +98,51 @@ public abstract class AsyncInstrumentation extends AbstractServletInstrumentatio
 
     public interface AsyncContextAdviceHelper<T> {
         void onExitStartAsync(T asyncContext);
+
+        /**
+         * Wraps the provided runnable so that it activates the transaction of the asynchronous request via its {@link AsyncTransactionHolder}.
+         *
+         * @return the wrapped runnable or {@code null} if the request has no {@link AsyncTransactionHolder},
+         * or if a span of the transaction is currently active which should be propagated instead
+         */
+        @Nullable
+        Runnable wrap(T asyncContext, Runnable runnable);
+    }
+
+    /**
+     * Hands off the transaction of an asynchronous request to the threads which process it.
+     * <p>
+     * There's a single pooled holder per asynchronous request.
+     * It is stored in the {@link ServletTransactionHelper#ASYNC_ATTRIBUTE} request attribute so that async dispatches can look it up,
+     * and it is referenced by the wrappers of the {@link Runnable}s and non-blocking IO listeners of the request.
+     * As the holder is recycled after the request has completed,
+     * the wrappers also keep the {@linkplain #getGeneration() generation} of the holder they have been created with.
+     * </p>
+     */
+    @VisibleForAdvice
+    public interface AsyncTransactionHolder {
+
+        /**
+         * @return an identifier of the request the holder is currently used for, which changes whenever the holder is recycled
+         */
+        int getGeneration();
+
+        /**
+         * Activates the transaction on the current thread and makes this holder the {@link #currentAsyncHolder}.
+         *
+         * @param generation the generation of the holder the caller has been created with
+         * @return the activated transaction, or {@code null} if the holder is used for another request by now,
+         * if the request has already completed, or if the transaction is already active on the current thread
+         */
+        @Nullable
+        Transaction activate(int generation);
+
+        /**
+         * Reverts {@link #activate(int)}
+         *
+         * @param transaction the transaction returned by {@link #activate(int)}
+         */
+        void deactivate(Transaction transaction);
     }
 
     public static class StartAsyncInstrumentation extends AsyncInstrumentation {
@@ -180,8 +235,23 @@ public abstract class AsyncInstrumentation extends AbstractServletInstrumentatio
         public static class AsyncContextStartAdvice {
 
             @Advice.OnMethodEnter(suppress = Throwable.class)
-            private static void onEnterAsyncContextStart(@Advice.Argument(value = 0, readOnly = false) @Nullable Runnable runnable) {
-                runnable = JavaConcurrent.withContext(runnable, tracer);
+            private static void onEnterAsyncContextStart(@Advice.This AsyncContext asyncContext,
+                                                         @Advice.Argument(value = 0, readOnly = false) @Nullable Runnable runnable) {
+                Runnable wrapped = null;
+                if (runnable != null && asyncHelperManager != null) {
+                    AsyncContextAdviceHelper<AsyncContext> helperImpl = asyncHelperManager.getForClassLoaderOfClass(AsyncContext.class);
+                    if (helperImpl != null) {
+                        wrapped = helperImpl.wrap(asyncContext, runnable);
+                    }
+                }
+                if (wrapped != null) {
+                    // the wrapper activates the transaction by itself,
+                    // there's no need to propagate the context via the executor of the container
+                    JavaConcurrent.avoidPropagationOnCurrentThread();
+                    runnable = wrapped;
+                } else {
+                    runnable = JavaConcurrent.withContext(runnable, tracer);
+                }
             }
 
             @Advice.OnMethodExit(suppress = Throwable.class, onThrowable = Exception.class)
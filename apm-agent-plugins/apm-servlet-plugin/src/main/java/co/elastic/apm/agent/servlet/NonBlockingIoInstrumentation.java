@@ -0,0 +1,190 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.servlet;
+
+import co.elastic.apm.agent.bci.HelperClassManager;
+import co.elastic.apm.agent.bci.VisibleForAdvice;
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import net.bytebuddy.asm.Advice;
+import net.bytebuddy.description.NamedElement;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.matcher.ElementMatcher;
+
+import javax.annotation.Nullable;
+import javax.servlet.ReadListener;
+import javax.servlet.WriteListener;
+import java.util.Arrays;
+import java.util.Collection;
+
+import static co.elastic.apm.agent.servlet.ServletInstrumentation.SERVLET_API;
+import static net.bytebuddy.matcher.ElementMatchers.hasSuperType;
+import static net.bytebuddy.matcher.ElementMatchers.isInterface;
+import static net.bytebuddy.matcher.ElementMatchers.nameContains;
+import static net.bytebuddy.matcher.ElementMatchers.named;
+import static net.bytebuddy.matcher.ElementMatchers.not;
+import static net.bytebuddy.matcher.ElementMatchers.takesArgument;
+import static net.bytebuddy.matcher.ElementMatchers.takesArguments;
+
+/**
+ * Instruments the Servlet 3.1 non-blocking IO API, so that the transaction of an asynchronous request is active within the callbacks of
+ * {@link ReadListener}s and {@link WriteListener}s.
+ * <p>
+ * The listeners are wrapped when they are registered while processing an asynchronous request.
+ * The wrappers activate the transaction via the {@link AsyncInstrumentation.AsyncTransactionHolder} of the request,
+ * so that no lookup is required when the container invokes a callback.
+ * </p>
+ */
+public abstract class NonBlockingIoInstrumentation extends AbstractServletInstrumentation {
+
+    @Nullable
+    @VisibleForAdvice
+    // referring to ReadListener and WriteListener is legal because of type erasure
+    public static HelperClassManager<NonBlockingIoListenerWrapperFactory<ReadListener, WriteListener>> listenerWrapperHelperManager;
+
+    public NonBlockingIoInstrumentation(ElasticApmTracer tracer) {
+        synchronized (NonBlockingIoInstrumentation.class) {
+            if (listenerWrapperHelperManager == null) {
+                listenerWrapperHelperManager = HelperClassManager.ForSingleClassLoader.of(tracer,
+                    "co.elastic.apm.agent.servlet.helper.NonBlockingIoListenerWrapperFactoryImpl",
+                    "co.elastic.apm.agent.servlet.helper.ReadListenerWrapper",
+                    "co.elastic.apm.agent.servlet.helper.WriteListenerWrapper");
+            }
+        }
+    }
+
+    @Override
+    public Collection<String> getInstrumentationGroupNames() {
+        return Arrays.asList(SERVLET_API, "servlet-api-async");
+    }
+
+    @VisibleForAdvice
+    public interface NonBlockingIoListenerWrapperFactory<R, W> {
+
+        R wrapReadListener(R readListener, AsyncInstrumentation.AsyncTransactionHolder holder);
+
+        W wrapWriteListener(W writeListener, AsyncInstrumentation.AsyncTransactionHolder holder);
+    }
+
+    /**
+     * Instruments {@link javax.servlet.ServletInputStream#setReadListener(ReadListener)}
+     */
+    public static class SetReadListenerInstrumentation extends NonBlockingIoInstrumentation {
+
+        public SetReadListenerInstrumentation(ElasticApmTracer tracer) {
+            super(tracer);
+        }
+
+        @Override
+        public ElementMatcher<? super NamedElement> getTypeMatcherPreFilter() {
+            // for example Jetty's org.eclipse.jetty.server.HttpInput
+            return nameContains("Input").or(nameContains("Stream"));
+        }
+
+        @Override
+        public ElementMatcher<? super TypeDescription> getTypeMatcher() {
+            return not(isInterface()).and(hasSuperType(named("javax.servlet.ServletInputStream")));
+        }
+
+        @Override
+        public ElementMatcher<? super MethodDescription> getMethodMatcher() {
+            return named("setReadListener")
+                .and(takesArguments(1))
+                .and(takesArgument(0, named("javax.servlet.ReadListener")));
+        }
+
+        @Override
+        public Class<?> getAdviceClass() {
+            return SetReadListenerAdvice.class;
+        }
+
+        @VisibleForAdvice
+        public static class SetReadListenerAdvice {
+
+            @Advice.OnMethodEnter(suppress = Throwable.class)
+            private static void onEnterSetReadListener(@Advice.Argument(value = 0, readOnly = false) @Nullable ReadListener readListener) {
+                final AsyncInstrumentation.AsyncTransactionHolder holder = AsyncInstrumentation.currentAsyncHolder.get();
+                if (holder == null || readListener == null || listenerWrapperHelperManager == null) {
+                    return;
+                }
+                NonBlockingIoListenerWrapperFactory<ReadListener, WriteListener> wrapperFactory =
+                    listenerWrapperHelperManager.getForClassLoaderOfClass(ReadListener.class);
+                if (wrapperFactory != null) {
+                    readListener = wrapperFactory.wrapReadListener(readListener, holder);
+                }
+            }
+        }
+    }
+
+    /**
+     * Instruments {@link javax.servlet.ServletOutputStream#setWriteListener(WriteListener)}
+     */
+    public static class SetWriteListenerInstrumentation extends NonBlockingIoInstrumentation {
+
+        public SetWriteListenerInstrumentation(ElasticApmTracer tracer) {
+            super(tracer);
+        }
+
+        @Override
+        public ElementMatcher<? super NamedElement> getTypeMatcherPreFilter() {
+            // for example Jetty's org.eclipse.jetty.server.HttpOutput
+            return nameContains("Output").or(nameContains("Stream"));
+        }
+
+        @Override
+        public ElementMatcher<? super TypeDescription> getTypeMatcher() {
+            return not(isInterface()).and(hasSuperType(named("javax.servlet.ServletOutputStream")));
+        }
+
+        @Override
+        public ElementMatcher<? super MethodDescription> getMethodMatcher() {
+            return named("setWriteListener")
+                .and(takesArguments(1))
+                .and(takesArgument(0, named("javax.servlet.WriteListener")));
+        }
+
+        @Override
+        public Class<?> getAdviceClass() {
+            return SetWriteListenerAdvice.class;
+        }
+
+        @VisibleForAdvice
+        public static class SetWriteListenerAdvice {
+
+            @Advice.OnMethodEnter(suppress = Throwable.class)
+            private static void onEnterSetWriteListener(@Advice.Argument(value = 0, readOnly = false) @Nullable WriteListener writeListener) {
+                final AsyncInstrumentation.AsyncTransactionHolder holder = AsyncInstrumentation.currentAsyncHolder.get();
+                if (holder == null || writeListener == null || listenerWrapperHelperManager == null) {
+                    return;
+                }
+                NonBlockingIoListenerWrapperFactory<ReadListener, WriteListener> wrapperFactory =
+                    listenerWrapperHelperManager.getForClassLoaderOfClass(WriteListener.class);
+                if (wrapperFactory != null) {
+                    writeListener = wrapperFactory.wrapWriteListener(writeListener, holder);
+                }
+            }
+        }
+    }
+}
@@ -37,6 +37,7 @@ import net.bytebuddy.matcher.ElementMatcher;
 
 import javax.annotation.Nullable;
 import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
 import java.util.Arrays;
 import java.util.Collection;
 
@@ -92,7 +93,7 @@ public class RequestStreamRecordingInstrumentation extends AbstractServletInstru
     }
 
     public interface InputStreamWrapperFactory {
-        ServletInputStream wrap(Request request, ServletInputStream servletInputStream);
+        ServletInputStream wrap(Request request, ServletInputStream servletInputStream, @Nullable String characterEncoding);
     }
 
     public static class GetInputStreamAdvice {
@@ -114,7 +115,8 @@ public class RequestStreamRecordingInstrumentation extends AbstractServletInstru
         }
 
         @Advice.OnMethodExit(suppress = Throwable.class)
-        public static void afterGetInputStream(@Advice.Return(readOnly = false) ServletInputStream inputStream,
+        public static void afterGetInputStream(@Advice.This ServletRequest servletRequest,
+                                               @Advice.Return(readOnly = false) ServletInputStream inputStream,
                                                @Advice.Local("nested") boolean nested) {
             if (nested || tracer == null || wrapperHelperClassManager == null) {
                 return;
@@ -123,7 +125,7 @@ public class RequestStreamRecordingInstrumentation extends AbstractServletInstru
                 final Transaction transaction = tracer.currentTransaction();
                 // only wrap if the body buffer has been initialized via ServletTransactionHelper.startCaptureBody
                 if (transaction != null && transaction.getContext().getRequest().getBodyBuffer() != null) {
-                    inputStream = wrapperHelperClassManager.getForClassLoaderOfClass(inputStream.getClass()).wrap(transaction.getContext().getRequest(), inputStream);
+                    inputStream = wrapperHelperClassManager.getForClassLoaderOfClass(inputStream.getClass()).wrap(transaction.getContext().getRequest(), inputStream, servletRequest.getCharacterEncoding());
                 }
             } finally {
                 nestedThreadLocal.set(Boolean.FALSE);
@@ -0,0 +1,112 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.servlet;
+
+import co.elastic.apm.agent.collections.WeakMapSupplier;
+import co.elastic.apm.agent.impl.context.Response;
+import co.elastic.apm.agent.impl.transaction.Id;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import com.blogspot.mydailyjava.weaklockfree.WeakConcurrentMap;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts the bytes of a response body and records when its first byte has been written.
+ * <p>
+ * The wrappers of the response's output stream and writer count into this counter instead of into the {@link Response} of the transaction,
+ * as the application may keep writing after the transaction has ended and has been recycled for another request.
+ * The counter does not reference the transaction.
+ * The totals are {@linkplain #publish(Transaction) published} to the transaction once, before it ends.
+ * </p>
+ */
+public class ResponseBodyCounter {
+
+    /**
+     * Transactions are pooled, which is why the key alone does not identify a request.
+     * See {@link #isFor(Transaction)}.
+     */
+    private static final WeakConcurrentMap<Transaction, ResponseBodyCounter> counters = WeakMapSupplier.createMap();
+
+    private final Id transactionId = Id.new64BitId();
+    /**
+     * The {@link System#nanoTime()} at which the transaction has started
+     */
+    private final long transactionStartNanos;
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong timeToFirstByteUs = new AtomicLong(-1);
+
+    private ResponseBodyCounter(Transaction transaction) {
+        transactionId.copyFrom(transaction.getTraceContext().getId());
+        final long durationUs = transaction.getTraceContext().getClock().getEpochMicros() - transaction.getTimestamp();
+        transactionStartNanos = System.nanoTime() - durationUs * 1000;
+    }
+
+    /**
+     * Returns the counter of the response body of the provided transaction.
+     * The response stream may be retrieved multiple times, all of them count into the same counter.
+     */
+    public static ResponseBodyCounter getOrCreate(Transaction transaction) {
+        ResponseBodyCounter counter = counters.get(transaction);
+        if (counter == null || !counter.isFor(transaction)) {
+            // a counter of a previous request has not been published, for example because the transaction was not created by a servlet
+            counter = new ResponseBodyCounter(transaction);
+            counters.put(transaction, counter);
+        }
+        return counter;
+    }
+
+    /**
+     * Sets the size of the response body and the time to first byte on the {@link Response} of the transaction,
+     * if the response body of the transaction has been counted.
+     * Subsequent writes are not reflected in the transaction.
+     */
+    public static void publish(Transaction transaction) {
+        final ResponseBodyCounter counter = counters.remove(transaction);
+        if (counter != null && counter.isFor(transaction)) {
+            transaction.getContext().getResponse()
+                .withEncodedBodySize(counter.bytes.get())
+                .withTimeToFirstByteUs(counter.timeToFirstByteUs.get());
+        }
+    }
+
+    private boolean isFor(Transaction transaction) {
+        return transactionId.equals(transaction.getTraceContext().getId());
+    }
+
+    /**
+     * Safe to call concurrently and after the transaction has ended.
+     *
+     * @param bytes the number of bytes which have been written
+     */
+    public void onWrite(long bytes) {
+        if (bytes <= 0) {
+            return;
+        }
+        if (timeToFirstByteUs.get() < 0) {
+            timeToFirstByteUs.compareAndSet(-1, Math.max(0, (System.nanoTime() - transactionStartNanos) / 1000));
+        }
+        this.bytes.addAndGet(bytes);
+    }
+}
@@ -0,0 +1,199 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.servlet;
+
+import co.elastic.apm.agent.bci.HelperClassManager;
+import co.elastic.apm.agent.bci.VisibleForAdvice;
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import net.bytebuddy.asm.Advice;
+import net.bytebuddy.description.NamedElement;
+import net.bytebuddy.description.method.MethodDescription;
+import net.bytebuddy.description.type.TypeDescription;
+import net.bytebuddy.matcher.ElementMatcher;
+
+import javax.annotation.Nullable;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletResponse;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Collection;
+
+import static co.elastic.apm.agent.servlet.ServletInstrumentation.SERVLET_API;
+import static net.bytebuddy.matcher.ElementMatchers.hasSuperType;
+import static net.bytebuddy.matcher.ElementMatchers.isInterface;
+import static net.bytebuddy.matcher.ElementMatchers.nameContains;
+import static net.bytebuddy.matcher.ElementMatchers.named;
+import static net.bytebuddy.matcher.ElementMatchers.not;
+import static net.bytebuddy.matcher.ElementMatchers.returns;
+import static net.bytebuddy.matcher.ElementMatchers.takesArguments;
+
+/**
+ * Wraps the {@link ServletOutputStream} and the {@link PrintWriter} of the response,
+ * in order to count the bytes of the response body and to record when the first byte has been written.
+ * <p>
+ * The wrappers don't buffer anything and don't allocate memory when being written to.
+ * As some containers rely on the concrete type of their streams, for example to serve static files more efficiently,
+ * this instrumentation is experimental.
+ * </p>
+ */
+public abstract class ResponseStreamCountingInstrumentation extends AbstractServletInstrumentation {
+
+    @Nullable
+    @VisibleForAdvice
+    // referring to ResponseOutputWrapperFactory is legal because of type erasure
+    public static HelperClassManager<ResponseOutputWrapperFactory> wrapperHelperClassManager;
+
+    /**
+     * Shared by both advices as {@link ServletResponse#getWriter()} may be implemented in terms of {@link ServletResponse#getOutputStream()}
+     * and response wrappers delegate to the wrapped response.
+     * Only the outermost invocation wraps the return value so that no byte is counted twice.
+     */
+    @VisibleForAdvice
+    public static final ThreadLocal<Boolean> nestedThreadLocal = new ThreadLocal<Boolean>() {
+        @Override
+        protected Boolean initialValue() {
+            return Boolean.FALSE;
+        }
+    };
+
+    public ResponseStreamCountingInstrumentation(ElasticApmTracer tracer) {
+        synchronized (ResponseStreamCountingInstrumentation.class) {
+            if (wrapperHelperClassManager == null) {
+                wrapperHelperClassManager = HelperClassManager.ForSingleClassLoader.of(tracer,
+                    "co.elastic.apm.agent.servlet.helper.ResponseOutputWrapperFactoryHelperImpl",
+                    "co.elastic.apm.agent.servlet.helper.CountingServletOutputStreamWrapper",
+                    "co.elastic.apm.agent.servlet.helper.CountingPrintWriterWrapper");
+            }
+        }
+    }
+
+    @Override
+    public ElementMatcher<? super NamedElement> getTypeMatcherPreFilter() {
+        return nameContains("Response");
+    }
+
+    @Override
+    public ElementMatcher<? super TypeDescription> getTypeMatcher() {
+        return hasSuperType(named("javax.servlet.ServletResponse")).and(not(isInterface()));
+    }
+
+    @Override
+    public Collection<String> getInstrumentationGroupNames() {
+        return Arrays.asList(SERVLET_API, "servlet-output-stream", "experimental");
+    }
+
+    public interface ResponseOutputWrapperFactory {
+        ServletOutputStream wrap(Transaction transaction, ServletOutputStream servletOutputStream);
+
+        PrintWriter wrap(Transaction transaction, PrintWriter writer, @Nullable String characterEncoding);
+    }
+
+    public static class GetOutputStreamInstrumentation extends ResponseStreamCountingInstrumentation {
+
+        public GetOutputStreamInstrumentation(ElasticApmTracer tracer) {
+            super(tracer);
+        }
+
+        @Override
+        public ElementMatcher<? super MethodDescription> getMethodMatcher() {
+            return named("getOutputStream").and(takesArguments(0)).and(returns(named("javax.servlet.ServletOutputStream")));
+        }
+
+        @Override
+        public Class<?> getAdviceClass() {
+            return GetOutputStreamAdvice.class;
+        }
+
+        public static class GetOutputStreamAdvice {
+
+            @Advice.OnMethodEnter(suppress = Throwable.class)
+            public static void onEnter(@Advice.Local("nested") boolean nested) {
+                nested = nestedThreadLocal.get();
+                nestedThreadLocal.set(Boolean.TRUE);
+            }
+
+            @Advice.OnMethodExit(suppress = Throwable.class, onThrowable = Throwable.class)
+            public static void afterGetOutputStream(@Advice.Return(readOnly = false) @Nullable ServletOutputStream outputStream,
+                                                    @Advice.Local("nested") boolean nested) {
+                if (nested) {
+                    return;
+                }
+                nestedThreadLocal.set(Boolean.FALSE);
+                if (tracer == null || wrapperHelperClassManager == null || outputStream == null) {
+                    return;
+                }
+                final Transaction transaction = tracer.currentTransaction();
+                if (transaction != null) {
+                    outputStream = wrapperHelperClassManager.getForClassLoaderOfClass(outputStream.getClass()).wrap(transaction, outputStream);
+                }
+            }
+        }
+    }
+
+    public static class GetWriterInstrumentation extends ResponseStreamCountingInstrumentation {
+
+        public GetWriterInstrumentation(ElasticApmTracer tracer) {
+            super(tracer);
+        }
+
+        @Override
+        public ElementMatcher<? super MethodDescription> getMethodMatcher() {
+            return named("getWriter").and(takesArguments(0)).and(returns(named("java.io.PrintWriter")));
+        }
+
+        @Override
+        public Class<?> getAdviceClass() {
+            return GetWriterAdvice.class;
+        }
+
+        public static class GetWriterAdvice {
+
+            @Advice.OnMethodEnter(suppress = Throwable.class)
+            public static void onEnter(@Advice.Local("nested") boolean nested) {
+                nested = nestedThreadLocal.get();
+                nestedThreadLocal.set(Boolean.TRUE);
+            }
+
+            @Advice.OnMethodExit(suppress = Throwable.class, onThrowable = Throwable.class)
+            public static void afterGetWriter(@Advice.This ServletResponse servletResponse,
+                                              @Advice.Return(readOnly = false) @Nullable PrintWriter writer,
+                                              @Advice.Local("nested") boolean nested) {
+                if (nested) {
+                    return;
+                }
+                nestedThreadLocal.set(Boolean.FALSE);
+                if (tracer == null || wrapperHelperClassManager == null || writer == null) {
+                    return;
+                }
+                final Transaction transaction = tracer.currentTransaction();
+                if (transaction != null) {
+                    writer = wrapperHelperClassManager.getForClassLoaderOfClass(servletResponse.getClass())
+                        .wrap(transaction, writer, servletResponse.getCharacterEncoding());
+                }
+            }
+        }
+    }
+}
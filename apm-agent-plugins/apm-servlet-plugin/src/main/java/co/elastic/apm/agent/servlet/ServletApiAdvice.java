@@ -27,9 +27,6 @@ package co.elastic.apm.agent.servlet;
 import co.elastic.apm.agent.bci.VisibleForAdvice;
 import co.elastic.apm.agent.configuration.CoreConfiguration;
 import co.elastic.apm.agent.impl.ElasticApmTracer;
-import co.elastic.apm.agent.impl.Scope;
-import co.elastic.apm.agent.impl.context.Request;
-import co.elastic.apm.agent.impl.context.Response;
 import co.elastic.apm.agent.impl.transaction.Transaction;
 import net.bytebuddy.asm.Advice;
 
@@ -38,17 +35,15 @@ import javax.servlet.DispatcherType;
 import javax.servlet.ServletContext;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
-import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.security.Principal;
 import java.util.Arrays;
-import java.util.Enumeration;
 import java.util.List;
 import java.util.Map;
 
-import static co.elastic.apm.agent.servlet.ServletTransactionHelper.TRANSACTION_ATTRIBUTE;
+import static co.elastic.apm.agent.servlet.ServletTransactionHelper.ASYNC_ATTRIBUTE;
 import static co.elastic.apm.agent.servlet.ServletTransactionHelper.determineServiceName;
 
 /**
@@ -88,14 +83,16 @@ public class ServletApiAdvice {
     @Advice.OnMethodEnter(suppress = Throwable.class)
     public static void onEnterServletService(@Advice.Argument(0) ServletRequest servletRequest,
                                              @Advice.Local("transaction") Transaction transaction,
-                                             @Advice.Local("scope") Scope scope) {
+                                             @Advice.Local("asyncHolder") AsyncInstrumentation.AsyncTransactionHolder asyncHolder,
+                                             @Advice.Local("asyncTransaction") Transaction asyncTransaction) {
         if (tracer == null) {
             return;
         }
         // re-activate transactions for async requests
-        final Transaction transactionAttr = (Transaction) servletRequest.getAttribute(TRANSACTION_ATTRIBUTE);
-        if (tracer.currentTransaction() == null && transactionAttr != null) {
-            scope = transactionAttr.activateInScope();
+        final Object asyncAttr = servletRequest.getAttribute(ASYNC_ATTRIBUTE);
+        if (asyncAttr instanceof AsyncInstrumentation.AsyncTransactionHolder && tracer.currentTransaction() == null) {
+            asyncHolder = (AsyncInstrumentation.AsyncTransactionHolder) asyncAttr;
+            asyncTransaction = asyncHolder.activate(asyncHolder.getGeneration());
         }
         if (tracer.isRunning() &&
             servletTransactionHelper != null &&
@@ -123,19 +120,13 @@ public class ServletApiAdvice {
                 excluded.set(Boolean.TRUE);
                 return;
             }
-            final Request req = transaction.getContext().getRequest();
-            if (transaction.isSampled() && tracer.getConfig(CoreConfiguration.class).isCaptureHeaders()) {
-                if (request.getCookies() != null) {
-                    for (Cookie cookie : request.getCookies()) {
-                        req.addCookie(cookie.getName(), cookie.getValue());
-                    }
-                }
-                final Enumeration<String> headerNames = request.getHeaderNames();
-                if (headerNames != null) {
-                    while (headerNames.hasMoreElements()) {
-                        final String headerName = headerNames.nextElement();
-                        req.addHeader(headerName, request.getHeaders(headerName));
-                    }
+            if (transaction.isSampled() && tracer.getConfig(CoreConfiguration.class).isCaptureHeaders() &&
+                ServletInstrumentation.lazyHeaderCaptureHelperManager != null) {
+                // the headers are only copied if the transaction is actually reported or if an error is captured
+                ServletInstrumentation.LazyHeaderCaptureHelper<HttpServletRequest, HttpServletResponse> headerCaptureHelper =
+                    ServletInstrumentation.lazyHeaderCaptureHelperManager.getForClassLoaderOfClass(HttpServletRequest.class);
+                if (headerCaptureHelper != null) {
+                    headerCaptureHelper.captureRequestHeaders(request, transaction.getContext().getRequest());
                 }
             }
             transaction.setFrameworkName(FRAMEWORK_NAME);
@@ -150,15 +141,20 @@ public class ServletApiAdvice {
     public static void onExitServletService(@Advice.Argument(0) ServletRequest servletRequest,
                                             @Advice.Argument(1) ServletResponse servletResponse,
                                             @Advice.Local("transaction") @Nullable Transaction transaction,
-                                            @Advice.Local("scope") @Nullable Scope scope,
+                                            @Advice.Local("asyncHolder") @Nullable AsyncInstrumentation.AsyncTransactionHolder asyncHolder,
+                                            @Advice.Local("asyncTransaction") @Nullable Transaction asyncTransaction,
                                             @Advice.Thrown @Nullable Throwable t,
                                             @Advice.This Object thiz) {
         if (tracer == null) {
             return;
         }
         excluded.set(Boolean.FALSE);
-        if (scope != null) {
-            scope.close();
+        if (asyncHolder != null && asyncTransaction != null) {
+            asyncHolder.deactivate(asyncTransaction);
+        } else if (AsyncInstrumentation.currentAsyncHolder.get() != null) {
+            // startAsync has been invoked while processing this request
+            // non-blocking IO listeners which are registered after the servlet or filter has returned are not wrapped
+            AsyncInstrumentation.currentAsyncHolder.remove();
         }
         if (thiz instanceof HttpServlet && servletRequest instanceof HttpServletRequest) {
             Transaction currentTransaction = tracer.currentTransaction();
@@ -175,17 +171,19 @@ public class ServletApiAdvice {
             servletResponse instanceof HttpServletResponse) {
 
             final HttpServletRequest request = (HttpServletRequest) servletRequest;
-            if (request.getAttribute(ServletTransactionHelper.ASYNC_ATTRIBUTE) != null) {
+            if (request.getAttribute(ASYNC_ATTRIBUTE) != null) {
                 // HttpServletRequest.startAsync was invoked on this request.
                 // The transaction should be handled from now on by the other thread committing the response
                 transaction.deactivate();
             } else {
                 // this is not an async request, so we can end the transaction immediately
                 final HttpServletResponse response = (HttpServletResponse) servletResponse;
-                if (transaction.isSampled() && tracer.getConfig(CoreConfiguration.class).isCaptureHeaders()) {
-                    final Response resp = transaction.getContext().getResponse();
-                    for (String headerName : response.getHeaderNames()) {
-                        resp.addHeader(headerName, response.getHeaders(headerName));
+                if (transaction.isSampled() && tracer.getConfig(CoreConfiguration.class).isCaptureHeaders() &&
+                    ServletInstrumentation.lazyHeaderCaptureHelperManager != null) {
+                    ServletInstrumentation.LazyHeaderCaptureHelper<HttpServletRequest, HttpServletResponse> headerCaptureHelper =
+                        ServletInstrumentation.lazyHeaderCaptureHelperManager.getForClassLoaderOfClass(HttpServletResponse.class);
+                    if (headerCaptureHelper != null) {
+                        headerCaptureHelper.captureResponseHeaders(response, transaction.getContext().getResponse());
                     }
                 }
                 // request.getParameterMap() may allocate a new map, depending on the servlet container implementation
@@ -27,6 +27,8 @@ package co.elastic.apm.agent.servlet;
 import co.elastic.apm.agent.bci.HelperClassManager;
 import co.elastic.apm.agent.bci.VisibleForAdvice;
 import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.context.Request;
+import co.elastic.apm.agent.impl.context.Response;
 import co.elastic.apm.agent.impl.transaction.Transaction;
 import net.bytebuddy.description.NamedElement;
 import net.bytebuddy.description.method.MethodDescription;
@@ -35,6 +37,7 @@ import net.bytebuddy.matcher.ElementMatcher;
 
 import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 
 import static net.bytebuddy.matcher.ElementMatchers.hasSuperType;
 import static net.bytebuddy.matcher.ElementMatchers.isInterface;
@@ -62,6 +65,11 @@ public class ServletInstrumentation extends AbstractServletInstrumentation {
     // referring to HttpServletRequest is legal because of type erasure
     public static HelperClassManager<ServletTransactionCreationHelper<HttpServletRequest>> servletTransactionCreationHelperManager;
 
+    @Nullable
+    @VisibleForAdvice
+    // referring to HttpServletRequest and HttpServletResponse is legal because of type erasure
+    public static HelperClassManager<LazyHeaderCaptureHelper<HttpServletRequest, HttpServletResponse>> lazyHeaderCaptureHelperManager;
+
     public ServletInstrumentation(ElasticApmTracer tracer) {
         ServletApiAdvice.init(tracer);
         if (servletTransactionCreationHelperManager == null) {
@@ -70,6 +78,13 @@ public class ServletInstrumentation extends AbstractServletInstrumentation {
                 "co.elastic.apm.agent.servlet.helper.ServletRequestHeaderGetter"
             );
         }
+        if (lazyHeaderCaptureHelperManager == null) {
+            lazyHeaderCaptureHelperManager = HelperClassManager.ForSingleClassLoader.of(tracer,
+                "co.elastic.apm.agent.servlet.helper.LazyHeaderCaptureHelperImpl",
+                "co.elastic.apm.agent.servlet.helper.RequestHeaderCopier",
+                "co.elastic.apm.agent.servlet.helper.ResponseHeaderCopier"
+            );
+        }
     }
 
     @Override
@@ -100,4 +115,17 @@ public class ServletInstrumentation extends AbstractServletInstrumentation {
         @Nullable
         Transaction createAndActivateTransaction(R request);
     }
+
+    /**
+     * Registers the headers of requests and responses to be copied into the transaction context lazily,
+     * only if the transaction is actually reported or if an error is captured.
+     *
+     * @see Request#withLazyHeaders(Object, co.elastic.apm.agent.impl.context.HeaderCopier)
+     */
+    @VisibleForAdvice
+    public interface LazyHeaderCaptureHelper<REQ, RES> {
+        void captureRequestHeaders(REQ request, Request target);
+
+        void captureResponseHeaders(RES response, Response target);
+    }
 }
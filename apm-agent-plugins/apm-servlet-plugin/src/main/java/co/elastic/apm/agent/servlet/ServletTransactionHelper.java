@@ -47,6 +47,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
+import static co.elastic.apm.agent.configuration.CoreConfiguration.EventType.ERRORS;
 import static co.elastic.apm.agent.configuration.CoreConfiguration.EventType.OFF;
 import static co.elastic.apm.agent.impl.transaction.AbstractSpan.PRIO_DEFAULT;
 import static co.elastic.apm.agent.impl.transaction.AbstractSpan.PRIO_LOW_LEVEL_FRAMEWORK;
@@ -58,21 +59,35 @@ import static co.elastic.apm.agent.impl.transaction.AbstractSpan.PRIO_LOW_LEVEL_
 @VisibleForAdvice
 public class ServletTransactionHelper {
 
-    @VisibleForAdvice
-    public static final String TRANSACTION_ATTRIBUTE = ServletApiAdvice.class.getName() + ".transaction";
-
+    /**
+     * Set when {@code ServletRequest#startAsync()} has been invoked for a sampled transaction.
+     * Holds the {@link AsyncInstrumentation.AsyncTransactionHolder} of the request until it completes,
+     * and {@link Boolean#TRUE} afterwards.
+     */
     @VisibleForAdvice
     public static final String ASYNC_ATTRIBUTE = ServletApiAdvice.class.getName() + ".async";
 
     private static final String CONTENT_TYPE_FROM_URLENCODED = "application/x-www-form-urlencoded";
     private static final WildcardMatcher ENDS_WITH_JSP = WildcardMatcher.valueOf("*.jsp");
     private static final Set<String> nameInitialized = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /**
+     * servlet class name -> method -> transaction name
+     */
+    private static final TransactionNameCache namesByServletClass = new TransactionNameCache();
 
     private final Logger logger = LoggerFactory.getLogger(ServletTransactionHelper.class);
 
     private final Set<String> METHODS_WITH_BODY = new HashSet<>(Arrays.asList("POST", "PUT", "PATCH", "DELETE"));
     private final CoreConfiguration coreConfiguration;
     private final WebConfiguration webConfiguration;
+    /**
+     * url_group -> method -> transaction name
+     */
+    private final TransactionNameCache namesByUrlGroup = new TransactionNameCache();
+    /**
+     * "" -> method -> transaction name
+     */
+    private final TransactionNameCache unknownRouteNames = new TransactionNameCache();
 
     @VisibleForAdvice
     public ServletTransactionHelper(ElasticApmTracer tracer) {
@@ -128,7 +143,11 @@ public class ServletTransactionHelper {
                 // as the container might not call ServletRequest.getInputStream
                 && !contentTypeHeader.startsWith(CONTENT_TYPE_FROM_URLENCODED)
                 && WildcardMatcher.isAnyMatch(webConfiguration.getCaptureContentTypes(), contentTypeHeader)) {
-                request.withBodyBuffer();
+                if (request.withBodyBuffer(coreConfiguration.getCaptureBodyMemoryLimit()) == null) {
+                    request.redactBody();
+                    logger.debug("Not capturing request body because the capture_body_memory_limit has been reached. " +
+                        "Consider increasing the limit if this happens frequently.");
+                }
             } else {
                 request.redactBody();
                 if (coreConfiguration.getCaptureBody() == OFF) {
@@ -173,6 +192,8 @@ public class ServletTransactionHelper {
             // in case we screwed up, don't bring down the monitored application with us
             logger.warn("Exception while capturing Elastic APM transaction", e);
         }
+        // the response body might still be written to after the transaction has ended
+        ResponseBodyCounter.publish(transaction);
         if (deactivate) {
             transaction.deactivate();
         }
@@ -194,6 +215,12 @@ public class ServletTransactionHelper {
         if (exception != null) {
             transaction.captureException(exception);
         }
+        Request request = transaction.getContext().getRequest();
+        if (coreConfiguration.getCaptureBody() == ERRORS && request.getBody() != null) {
+            // errors have already copied the request body at this point,
+            // releasing the body buffer now frees it up while the transaction waits to be reported
+            request.redactBody();
+        }
     }
 
     void applyDefaultTransactionName(String method, String servletPath, @Nullable String pathInfo, Transaction transaction) {
@@ -204,8 +231,16 @@ public class ServletTransactionHelper {
             if (transactionName != null) {
                 WildcardMatcher groupMatcher = WildcardMatcher.anyMatch(webConfiguration.getUrlGroups(), servletPath, pathInfo);
                 if (groupMatcher != null) {
-                    transactionName.append(method).append(' ').append(groupMatcher.toString());
+                    final String urlGroup = groupMatcher.toString();
+                    final String cachedName = namesByUrlGroup.get(urlGroup, method);
+                    if (cachedName != null) {
+                        transactionName.append(cachedName);
+                        return;
+                    }
+                    transactionName.append(method).append(' ').append(urlGroup);
+                    namesByUrlGroup.put(urlGroup, method, transactionName.toString());
                 } else {
+                    // not cached, as paths may have an unbounded cardinality, like REST resources containing IDs
                     transactionName.append(method).append(' ').append(servletPath);
                     if (pathInfo != null) {
                         transactionName.append(pathInfo);
@@ -215,7 +250,13 @@ public class ServletTransactionHelper {
         } else {
             StringBuilder transactionName = transaction.getAndOverrideName(PRIO_DEFAULT);
             if (transactionName != null) {
+                final String cachedName = unknownRouteNames.get("", method);
+                if (cachedName != null) {
+                    transactionName.append(cachedName);
+                    return;
+                }
                 transactionName.append(method).append(" unknown route");
+                unknownRouteNames.put("", method, transactionName.toString());
             }
         }
     }
@@ -330,6 +371,12 @@ public class ServletTransactionHelper {
             return;
         }
         String servletClassName = servletClass.getName();
+        final String methodKey = method != null ? method : "";
+        final String cachedName = namesByServletClass.get(servletClassName, methodKey);
+        if (cachedName != null) {
+            transactionName.append(cachedName);
+            return;
+        }
         transactionName.append(servletClassName, servletClassName.lastIndexOf('.') + 1, servletClassName.length());
         if (method != null) {
             transactionName.append('#');
@@ -359,6 +406,7 @@ public class ServletTransactionHelper {
                     transactionName.append(method);
             }
         }
+        namesByServletClass.put(servletClassName, methodKey, transactionName.toString());
     }
 
     public boolean isCaptureHeaders() {
@@ -0,0 +1,77 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.servlet;
+
+import co.elastic.apm.agent.cache.FrequencyAwareCache;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Caches prebuilt transaction names by a key and the HTTP method, for example by the matched {@code url_group} or by the servlet class.
+ * <p>
+ * Callers should only use keys with a bounded cardinality.
+ * Names which are derived from the request path, like the path of a REST resource containing an ID, should not be cached.
+ * As a safeguard, the keys are held in a {@link FrequencyAwareCache} which evicts the least frequently used keys once it's full,
+ * instead of no longer accepting new keys.
+ * </p>
+ */
+class TransactionNameCache {
+
+    static final int MAX_ENTRIES = 1024;
+    /**
+     * Limits the names per key, as the method is provided by the client
+     */
+    static final int MAX_METHODS_PER_KEY = 16;
+
+    private final FrequencyAwareCache<String, ConcurrentMap<String, String>> namesByKey = new FrequencyAwareCache<>(MAX_ENTRIES);
+
+    @Nullable
+    String get(String key, String method) {
+        final ConcurrentMap<String, String> namesByMethod = namesByKey.get(key);
+        if (namesByMethod == null) {
+            return null;
+        }
+        return namesByMethod.get(method);
+    }
+
+    void put(String key, String method, String name) {
+        ConcurrentMap<String, String> namesByMethod = namesByKey.getIfPresent(key);
+        if (namesByMethod == null) {
+            namesByMethod = new ConcurrentHashMap<>();
+            // if another thread adds the key concurrently, only the name of one of them is cached
+            namesByKey.put(key, namesByMethod);
+        }
+        // we don't mind a small overshoot due to race conditions
+        if (namesByMethod.size() < MAX_METHODS_PER_KEY) {
+            namesByMethod.putIfAbsent(method, name);
+        }
+    }
+
+    int size() {
+        return namesByKey.size();
+    }
+}
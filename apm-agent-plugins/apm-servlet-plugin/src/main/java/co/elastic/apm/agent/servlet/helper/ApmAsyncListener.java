@@ -24,9 +24,10 @@
  */
 package co.elastic.apm.agent.servlet.helper;
 
-import co.elastic.apm.agent.impl.context.Response;
 import co.elastic.apm.agent.impl.transaction.Transaction;
 import co.elastic.apm.agent.objectpool.Recyclable;
+import co.elastic.apm.agent.servlet.AsyncInstrumentation;
+import co.elastic.apm.agent.servlet.ServletInstrumentation;
 import co.elastic.apm.agent.servlet.ServletTransactionHelper;
 
 import javax.annotation.Nullable;
@@ -39,7 +40,7 @@ import javax.servlet.http.HttpServletResponse;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
-import static co.elastic.apm.agent.servlet.ServletTransactionHelper.TRANSACTION_ATTRIBUTE;
+import static co.elastic.apm.agent.servlet.ServletTransactionHelper.ASYNC_ATTRIBUTE;
 
 /**
  * Based on brave.servlet.ServletRuntime$TracingAsyncListener (under Apache license 2.0)
@@ -57,26 +58,70 @@ import static co.elastic.apm.agent.servlet.ServletTransactionHelper.TRANSACTION_
  *  - Jetty fails to invoke onError after AsyncContext.dispatch to a Servlet that ends with ServletException
  *  - JBoss EAP 6.4 does not invoke onComplete after onError is invoked
  */
-public class ApmAsyncListener implements AsyncListener, Recyclable {
+public class ApmAsyncListener implements AsyncListener, AsyncInstrumentation.AsyncTransactionHolder, Recyclable {
 
     private final AtomicBoolean completed = new AtomicBoolean(false);
     private final AsyncContextAdviceHelperImpl asyncContextAdviceHelperImpl;
     private final ServletTransactionHelper servletTransactionHelper;
+    /**
+     * Only modified while holding the lock on {@code this}.
+     * This listener holds a reference to the transaction until it's recycled.
+     */
     @Nullable
     private volatile Transaction transaction;
     @Nullable
     private volatile Throwable throwable;
+    private volatile int generation;
 
     ApmAsyncListener(AsyncContextAdviceHelperImpl asyncContextAdviceHelperImpl) {
         this.asyncContextAdviceHelperImpl = asyncContextAdviceHelperImpl;
         this.servletTransactionHelper = asyncContextAdviceHelperImpl.getServletTransactionHelper();
     }
 
-    ApmAsyncListener withTransaction(Transaction transaction) {
+    synchronized ApmAsyncListener withTransaction(Transaction transaction) {
+        // makes sure the transaction is not recycled while wrappers may still activate it
+        transaction.incrementReferences();
         this.transaction = transaction;
         return this;
     }
 
+    @Nullable
+    Transaction getTransaction() {
+        return transaction;
+    }
+
+    @Override
+    public int getGeneration() {
+        return generation;
+    }
+
+    @Nullable
+    @Override
+    public Transaction activate(int generation) {
+        if (AsyncInstrumentation.currentAsyncHolder.get() == this) {
+            // for example when a listener is invoked while registering it
+            return null;
+        }
+        final Transaction transaction;
+        synchronized (this) {
+            transaction = this.transaction;
+            if (generation != this.generation || transaction == null || completed.get()) {
+                return null;
+            }
+            transaction.incrementReferences();
+        }
+        transaction.activate();
+        AsyncInstrumentation.currentAsyncHolder.set(this);
+        return transaction;
+    }
+
+    @Override
+    public void deactivate(Transaction transaction) {
+        AsyncInstrumentation.currentAsyncHolder.remove();
+        transaction.deactivate();
+        transaction.decrementReferences();
+    }
+
     @Override
     public void onComplete(AsyncEvent event) {
         endTransaction(event);
@@ -148,13 +193,16 @@ public class ApmAsyncListener implements AsyncListener, Recyclable {
 
         try {
             HttpServletRequest request = (HttpServletRequest) event.getSuppliedRequest();
-            request.removeAttribute(TRANSACTION_ATTRIBUTE);
+            // releases this listener, which is about to be recycled, but still marks the request as asynchronous
+            request.setAttribute(ASYNC_ATTRIBUTE, Boolean.TRUE);
 
             HttpServletResponse response = (HttpServletResponse) event.getSuppliedResponse();
-            final Response resp = transaction.getContext().getResponse();
-            if (transaction.isSampled() && servletTransactionHelper.isCaptureHeaders()) {
-                for (String headerName : response.getHeaderNames()) {
-                    resp.addHeader(headerName, response.getHeaders(headerName));
+            if (transaction.isSampled() && servletTransactionHelper.isCaptureHeaders() &&
+                ServletInstrumentation.lazyHeaderCaptureHelperManager != null) {
+                ServletInstrumentation.LazyHeaderCaptureHelper<HttpServletRequest, HttpServletResponse> headerCaptureHelper =
+                    ServletInstrumentation.lazyHeaderCaptureHelperManager.getForClassLoaderOfClass(HttpServletResponse.class);
+                if (headerCaptureHelper != null) {
+                    headerCaptureHelper.captureResponseHeaders(response, transaction.getContext().getResponse());
                 }
             }
             // request.getParameterMap() may allocate a new map, depending on the servlet container implementation
@@ -180,8 +228,13 @@ public class ApmAsyncListener implements AsyncListener, Recyclable {
     }
 
     @Override
-    public void resetState() {
-        transaction = null;
+    public synchronized void resetState() {
+        final Transaction transaction = this.transaction;
+        if (transaction != null) {
+            transaction.decrementReferences();
+        }
+        this.transaction = null;
+        generation++;
         throwable = null;
         completed.set(false);
     }
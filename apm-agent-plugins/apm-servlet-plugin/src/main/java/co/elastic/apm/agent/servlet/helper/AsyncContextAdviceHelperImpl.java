@@ -30,20 +30,18 @@ import co.elastic.apm.agent.objectpool.Allocator;
 import co.elastic.apm.agent.objectpool.ObjectPool;
 import co.elastic.apm.agent.objectpool.impl.QueueBasedObjectPool;
 import co.elastic.apm.agent.servlet.AsyncInstrumentation;
-import co.elastic.apm.agent.servlet.ServletApiAdvice;
 import co.elastic.apm.agent.servlet.ServletTransactionHelper;
 import org.jctools.queues.atomic.AtomicQueueFactory;
 
+import javax.annotation.Nullable;
 import javax.servlet.AsyncContext;
 import javax.servlet.ServletRequest;
 
 import static co.elastic.apm.agent.servlet.ServletTransactionHelper.ASYNC_ATTRIBUTE;
-import static co.elastic.apm.agent.servlet.ServletTransactionHelper.TRANSACTION_ATTRIBUTE;
 import static org.jctools.queues.spec.ConcurrentQueueSpec.createBoundedMpmc;
 
 public class AsyncContextAdviceHelperImpl implements AsyncInstrumentation.AsyncContextAdviceHelper<AsyncContext> {
 
-    private static final String ASYNC_LISTENER_ADDED = ServletApiAdvice.class.getName() + ".asyncListenerAdded";
     private static final int MAX_POOLED_ELEMENTS = 256;
 
     private final ObjectPool<ApmAsyncListener> asyncListenerObjectPool;
@@ -74,23 +72,39 @@ public class AsyncContextAdviceHelperImpl implements AsyncInstrumentation.AsyncC
     @Override
     public void onExitStartAsync(AsyncContext asyncContext) {
         final ServletRequest request = asyncContext.getRequest();
-        if (request.getAttribute(ASYNC_LISTENER_ADDED) != null) {
+        if (request.getAttribute(ASYNC_ATTRIBUTE) != null) {
+            // makes sure that the listener is only added once, even if the request is wrapped
+            // which leads to multiple invocations of startAsync for the same underlying request
             return;
         }
         final Transaction transaction = tracer.currentTransaction();
-        if (transaction != null && transaction.isSampled() && request.getAttribute(ASYNC_LISTENER_ADDED) == null) {
-            // makes sure that the listener is only added once, even if the request is wrapped
-            // which leads to multiple invocations of startAsync for the same underlying request
-            request.setAttribute(ASYNC_LISTENER_ADDED, Boolean.TRUE);
+        if (transaction != null && transaction.isSampled()) {
+            final ApmAsyncListener listener = asyncListenerObjectPool.createInstance().withTransaction(transaction);
             // specifying the request and response is important
             // otherwise AsyncEvent.getSuppliedRequest returns null per spec
             // however, only some application server like WebSphere actually implement it that way
-            asyncContext.addListener(asyncListenerObjectPool.createInstance().withTransaction(transaction),
-                asyncContext.getRequest(), asyncContext.getResponse());
+            asyncContext.addListener(listener, asyncContext.getRequest(), asyncContext.getResponse());
 
-            request.setAttribute(ASYNC_ATTRIBUTE, Boolean.TRUE);
-            request.setAttribute(TRANSACTION_ATTRIBUTE, transaction);
+            // the listener is the single holder which hands off the transaction to the threads processing the request
+            request.setAttribute(ASYNC_ATTRIBUTE, listener);
+            // the transaction is already active on this thread,
+            // this only makes non-blocking IO listeners registered during the current dispatch aware of the holder
+            AsyncInstrumentation.currentAsyncHolder.set(listener);
+        }
+    }
+
+    @Nullable
+    @Override
+    public Runnable wrap(AsyncContext asyncContext, Runnable runnable) {
+        final Object holder = asyncContext.getRequest().getAttribute(ASYNC_ATTRIBUTE);
+        if (holder instanceof ApmAsyncListener) {
+            final Transaction transaction = ((ApmAsyncListener) holder).getTransaction();
+            // if a span is active, it should be propagated instead of only the transaction
+            if (transaction != null && tracer.getActive() == transaction) {
+                return new AsyncRunnableWrapper((ApmAsyncListener) holder, runnable);
+            }
         }
+        return null;
     }
 
     void recycle(ApmAsyncListener apmAsyncListener) {
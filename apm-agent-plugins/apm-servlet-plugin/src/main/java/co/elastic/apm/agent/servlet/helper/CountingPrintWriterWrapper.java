@@ -0,0 +1,123 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.servlet.helper;
+
+import co.elastic.apm.agent.servlet.ResponseBodyCounter;
+
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+
+/**
+ * Counts the bytes written to the response body and records the time to the first byte,
+ * without buffering or allocating anything per write.
+ * <p>
+ * As a {@link PrintWriter} deals with chars, the number of bytes is derived from the character encoding of the response.
+ * It's exact for UTF-8 and for single byte encodings, and an estimate for other encodings.
+ * </p>
+ * <p>
+ * Doesn't reference the transaction, as the writer may be written to after the transaction has ended.
+ * </p>
+ */
+public class CountingPrintWriterWrapper extends PrintWriter {
+
+    private static final int LINE_SEPARATOR_LENGTH = System.getProperty("line.separator").length();
+
+    private final ResponseBodyCounter counter;
+    private final boolean utf8;
+    private final float bytesPerChar;
+
+    public CountingPrintWriterWrapper(ResponseBodyCounter counter, PrintWriter writer, Charset charset) {
+        super(writer);
+        this.counter = counter;
+        this.utf8 = "UTF-8".equals(charset.name());
+        this.bytesPerChar = getBytesPerChar(charset);
+    }
+
+    private static float getBytesPerChar(Charset charset) {
+        try {
+            return charset.newEncoder().averageBytesPerChar();
+        } catch (UnsupportedOperationException e) {
+            // the charset does not support encoding
+            return 1;
+        }
+    }
+
+    @Override
+    public void write(int c) {
+        super.write(c);
+        counter.onWrite(utf8 ? getUtf8Length((char) c) : Math.round(bytesPerChar));
+    }
+
+    @Override
+    public void write(char[] buf, int off, int len) {
+        super.write(buf, off, len);
+        if (utf8) {
+            long bytes = 0;
+            for (int i = off; i < off + len; i++) {
+                bytes += getUtf8Length(buf[i]);
+            }
+            counter.onWrite(bytes);
+        } else {
+            counter.onWrite(Math.round(len * bytesPerChar));
+        }
+    }
+
+    @Override
+    public void write(String s, int off, int len) {
+        super.write(s, off, len);
+        if (utf8) {
+            long bytes = 0;
+            for (int i = off; i < off + len; i++) {
+                bytes += getUtf8Length(s.charAt(i));
+            }
+            counter.onWrite(bytes);
+        } else {
+            counter.onWrite(Math.round(len * bytesPerChar));
+        }
+    }
+
+    /**
+     * {@link PrintWriter#println()} writes the line separator directly to the underlying writer, bypassing the write methods
+     */
+    @Override
+    public void println() {
+        super.println();
+        counter.onWrite(Math.round(LINE_SEPARATOR_LENGTH * bytesPerChar));
+    }
+
+    /**
+     * Returns the number of bytes the char occupies when encoded with UTF-8.
+     * A surrogate pair takes four bytes, which is why each surrogate accounts for two.
+     */
+    private static int getUtf8Length(char c) {
+        if (c < 0x80) {
+            return 1;
+        } else if (c < 0x800 || Character.isSurrogate(c)) {
+            return 2;
+        } else {
+            return 3;
+        }
+    }
+}
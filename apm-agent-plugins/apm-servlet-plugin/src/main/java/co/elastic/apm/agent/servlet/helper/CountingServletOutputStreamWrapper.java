@@ -0,0 +1,103 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.servlet.helper;
+
+import co.elastic.apm.agent.servlet.ResponseBodyCounter;
+
+import javax.annotation.Nullable;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.IOException;
+
+/**
+ * Counts the bytes written to the response body and records the time to the first byte,
+ * without buffering or allocating anything per write.
+ * <p>
+ * Doesn't reference the transaction, as the stream may be written to after the transaction has ended.
+ * </p>
+ */
+public class CountingServletOutputStreamWrapper extends ServletOutputStream {
+
+    private final ResponseBodyCounter counter;
+    private final ServletOutputStream servletOutputStream;
+
+    public CountingServletOutputStreamWrapper(ResponseBodyCounter counter, ServletOutputStream servletOutputStream) {
+        this.counter = counter;
+        this.servletOutputStream = servletOutputStream;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        servletOutputStream.write(b);
+        counter.onWrite(1);
+    }
+
+    @Override
+    public void write(byte[] b) throws IOException {
+        servletOutputStream.write(b);
+        counter.onWrite(b.length);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        servletOutputStream.write(b, off, len);
+        counter.onWrite(len);
+    }
+
+    /**
+     * {@link ServletOutputStream#print(String)} writes each char separately, which fails in non-blocking mode,
+     * as a write must not be issued before the previous one has completed.
+     * Containers override it to write the whole string at once, which is why this is delegated.
+     * The other print and println methods are implemented in terms of this method.
+     * <p>
+     * The size is exact for single byte encodings, such as the default ISO-8859-1, and an estimate otherwise.
+     * </p>
+     */
+    @Override
+    public void print(@Nullable String s) throws IOException {
+        servletOutputStream.print(s);
+        counter.onWrite(s == null ? 4 : s.length());
+    }
+
+    @Override
+    public void flush() throws IOException {
+        servletOutputStream.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        servletOutputStream.close();
+    }
+
+    @Override
+    public boolean isReady() {
+        return servletOutputStream.isReady();
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+        servletOutputStream.setWriteListener(writeListener);
+    }
+}
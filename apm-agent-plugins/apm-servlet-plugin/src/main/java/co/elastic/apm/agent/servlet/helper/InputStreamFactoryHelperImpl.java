@@ -27,11 +27,28 @@ package co.elastic.apm.agent.servlet.helper;
 import co.elastic.apm.agent.impl.context.Request;
 import co.elastic.apm.agent.servlet.RequestStreamRecordingInstrumentation;
 
+import javax.annotation.Nullable;
 import javax.servlet.ServletInputStream;
+import java.nio.charset.Charset;
 
 public class InputStreamFactoryHelperImpl implements RequestStreamRecordingInstrumentation.InputStreamWrapperFactory {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
     @Override
-    public ServletInputStream wrap(Request request, ServletInputStream servletInputStream) {
-        return new RecordingServletInputStreamWrapper(request, servletInputStream);
+    public ServletInputStream wrap(Request request, ServletInputStream servletInputStream, @Nullable String characterEncoding) {
+        return new RecordingServletInputStreamWrapper(request, servletInputStream, getCharset(characterEncoding));
+    }
+
+    private static Charset getCharset(@Nullable String characterEncoding) {
+        if (characterEncoding == null) {
+            return UTF_8;
+        }
+        try {
+            return Charset.forName(characterEncoding);
+        } catch (IllegalArgumentException e) {
+            // illegal or unsupported charset name
+            return UTF_8;
+        }
     }
 }
@@ -0,0 +1,83 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.servlet.helper;
+
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.context.Request;
+import co.elastic.apm.agent.impl.context.Response;
+import co.elastic.apm.agent.servlet.ServletInstrumentation;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+@SuppressWarnings("unused")
+public class LazyHeaderCaptureHelperImpl implements ServletInstrumentation.LazyHeaderCaptureHelper<HttpServletRequest, HttpServletResponse> {
+
+    /**
+     * The number of distinct header names is usually small.
+     * The limit only protects against applications which use unique header names per request.
+     */
+    private static final int MAX_INTERNED_HEADER_NAMES = 256;
+    private static final ConcurrentMap<String, String> headerNames = new ConcurrentHashMap<>();
+
+    private final RequestHeaderCopier requestHeaderCopier;
+    private final ResponseHeaderCopier responseHeaderCopier;
+
+    public LazyHeaderCaptureHelperImpl(ElasticApmTracer tracer) {
+        requestHeaderCopier = new RequestHeaderCopier(tracer);
+        responseHeaderCopier = new ResponseHeaderCopier(tracer);
+    }
+
+    @Override
+    public void captureRequestHeaders(HttpServletRequest request, Request target) {
+        target.withLazyHeaders(request, requestHeaderCopier);
+    }
+
+    @Override
+    public void captureResponseHeaders(HttpServletResponse response, Response target) {
+        target.withLazyHeaders(response, responseHeaderCopier);
+    }
+
+    /**
+     * Returns a canonical instance of the provided header name so that the header names of all captured requests share the same instances,
+     * instead of each of them retaining a copy until the transaction is reported.
+     *
+     * @param headerName the header name, as returned by the servlet container
+     * @return a canonical instance of the header name
+     */
+    static String internHeaderName(String headerName) {
+        final String interned = headerNames.get(headerName);
+        if (interned != null) {
+            return interned;
+        }
+        if (headerNames.size() >= MAX_INTERNED_HEADER_NAMES) {
+            return headerName;
+        }
+        final String previous = headerNames.putIfAbsent(headerName, headerName);
+        return previous != null ? previous : headerName;
+    }
+}
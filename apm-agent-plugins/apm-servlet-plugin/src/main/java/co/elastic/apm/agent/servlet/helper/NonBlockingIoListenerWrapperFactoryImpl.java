@@ -0,0 +1,52 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.servlet.helper;
+
+import co.elastic.apm.agent.servlet.AsyncInstrumentation;
+import co.elastic.apm.agent.servlet.NonBlockingIoInstrumentation;
+
+import javax.servlet.ReadListener;
+import javax.servlet.WriteListener;
+
+@SuppressWarnings("unused")
+public class NonBlockingIoListenerWrapperFactoryImpl implements NonBlockingIoInstrumentation.NonBlockingIoListenerWrapperFactory<ReadListener, WriteListener> {
+
+    @Override
+    public ReadListener wrapReadListener(ReadListener readListener, AsyncInstrumentation.AsyncTransactionHolder holder) {
+        // stream wrappers delegate to the wrapped stream which is instrumented as well
+        if (readListener instanceof ReadListenerWrapper) {
+            return readListener;
+        }
+        return new ReadListenerWrapper(readListener, holder);
+    }
+
+    @Override
+    public WriteListener wrapWriteListener(WriteListener writeListener, AsyncInstrumentation.AsyncTransactionHolder holder) {
+        if (writeListener instanceof WriteListenerWrapper) {
+            return writeListener;
+        }
+        return new WriteListenerWrapper(writeListener, holder);
+    }
+}
@@ -26,12 +26,13 @@ package co.elastic.apm.agent.servlet.helper;
 
 import co.elastic.apm.agent.bci.VisibleForAdvice;
 import co.elastic.apm.agent.impl.context.Request;
-import co.elastic.apm.agent.util.IOUtils;
+import co.elastic.apm.agent.util.StreamingCharsetDecoder;
 
 import javax.servlet.ReadListener;
 import javax.servlet.ServletInputStream;
 import java.io.IOException;
 import java.nio.CharBuffer;
+import java.nio.charset.Charset;
 import java.nio.charset.CoderResult;
 
 @VisibleForAdvice
@@ -39,11 +40,13 @@ public class RecordingServletInputStreamWrapper extends ServletInputStream {
 
     private final Request request;
     private final ServletInputStream servletInputStream;
+    private final StreamingCharsetDecoder decoder;
 
     @VisibleForAdvice
-    public RecordingServletInputStreamWrapper(Request request, ServletInputStream servletInputStream) {
+    public RecordingServletInputStreamWrapper(Request request, ServletInputStream servletInputStream, Charset charset) {
         this.request = request;
         this.servletInputStream = servletInputStream;
+        this.decoder = new StreamingCharsetDecoder(charset);
     }
 
     @Override
@@ -167,7 +170,7 @@ public class RecordingServletInputStreamWrapper extends ServletInputStream {
         } else {
             final CharBuffer bodyBuffer = request.getBodyBuffer();
             if (bodyBuffer != null) {
-                final CoderResult coderResult = IOUtils.decodeUtf8Bytes(b, off, read, bodyBuffer);
+                final CoderResult coderResult = decoder.decode(b, off, read, bodyBuffer);
                 handleCoderResult(coderResult);
             }
         }
@@ -179,7 +182,7 @@ public class RecordingServletInputStreamWrapper extends ServletInputStream {
         } else {
             final CharBuffer bodyBuffer = request.getBodyBuffer();
             if (bodyBuffer != null) {
-                final CoderResult coderResult = IOUtils.decodeUtf8Byte((byte) b, bodyBuffer);
+                final CoderResult coderResult = decoder.decode((byte) b, bodyBuffer);
                 handleCoderResult(coderResult);
             }
         }
@@ -187,7 +190,7 @@ public class RecordingServletInputStreamWrapper extends ServletInputStream {
 
     private void handleCoderResult(CoderResult coderResult) {
         if (coderResult.isError()) {
-            request.setRawBody("[Non UTF-8 data]");
+            request.setRawBody("[Non " + decoder.getCharset().name() + " data]");
         } else if (coderResult.isOverflow()) {
             request.endOfBufferInput();
         }
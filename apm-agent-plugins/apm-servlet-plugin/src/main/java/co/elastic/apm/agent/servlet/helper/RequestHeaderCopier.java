@@ -0,0 +1,80 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.servlet.helper;
+
+import co.elastic.apm.agent.configuration.CoreConfiguration;
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.context.HeaderCopier;
+import co.elastic.apm.agent.impl.context.Request;
+import co.elastic.apm.agent.matcher.WildcardMatcher;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import java.util.Enumeration;
+
+import static co.elastic.apm.agent.impl.context.AbstractContext.REDACTED_CONTEXT_STRING;
+
+/**
+ * Copies the headers and cookies of a {@link HttpServletRequest} into a {@link Request},
+ * redacting the values of sensitive headers and cookies on the fly.
+ */
+class RequestHeaderCopier implements HeaderCopier<HttpServletRequest, Request> {
+
+    private final CoreConfiguration coreConfiguration;
+
+    RequestHeaderCopier(ElasticApmTracer tracer) {
+        coreConfiguration = tracer.getConfig(CoreConfiguration.class);
+    }
+
+    @Override
+    public void copyHeaders(HttpServletRequest source, Request target) {
+        final Cookie[] cookies = source.getCookies();
+        if (cookies != null) {
+            for (Cookie cookie : cookies) {
+                final String name = cookie.getName();
+                target.addCookie(name, isSensitive(name) ? REDACTED_CONTEXT_STRING : cookie.getValue());
+            }
+        }
+        final Enumeration<String> headerNames = source.getHeaderNames();
+        if (headerNames != null) {
+            while (headerNames.hasMoreElements()) {
+                final String headerName = LazyHeaderCaptureHelperImpl.internHeaderName(headerNames.nextElement());
+                if ("Cookie".equalsIgnoreCase(headerName)) {
+                    // the cookies have already been copied as parsed key-value pairs
+                    continue;
+                }
+                if (isSensitive(headerName)) {
+                    target.addHeader(headerName, REDACTED_CONTEXT_STRING);
+                } else {
+                    target.addHeader(headerName, source.getHeaders(headerName));
+                }
+            }
+        }
+    }
+
+    private boolean isSensitive(String name) {
+        return WildcardMatcher.isAnyMatch(coreConfiguration.getSanitizeFieldNames(), name);
+    }
+}
@@ -0,0 +1,64 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.servlet.helper;
+
+import co.elastic.apm.agent.configuration.CoreConfiguration;
+import co.elastic.apm.agent.impl.ElasticApmTracer;
+import co.elastic.apm.agent.impl.context.HeaderCopier;
+import co.elastic.apm.agent.impl.context.Response;
+import co.elastic.apm.agent.matcher.WildcardMatcher;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.Collection;
+
+import static co.elastic.apm.agent.impl.context.AbstractContext.REDACTED_CONTEXT_STRING;
+
+/**
+ * Copies the headers of a {@link HttpServletResponse} into a {@link Response},
+ * redacting the values of sensitive headers on the fly.
+ */
+class ResponseHeaderCopier implements HeaderCopier<HttpServletResponse, Response> {
+
+    private final CoreConfiguration coreConfiguration;
+
+    ResponseHeaderCopier(ElasticApmTracer tracer) {
+        coreConfiguration = tracer.getConfig(CoreConfiguration.class);
+    }
+
+    @Override
+    public void copyHeaders(HttpServletResponse source, Response target) {
+        final Collection<String> headerNames = source.getHeaderNames();
+        if (headerNames != null) {
+            for (String name : headerNames) {
+                final String headerName = LazyHeaderCaptureHelperImpl.internHeaderName(name);
+                if (WildcardMatcher.isAnyMatch(coreConfiguration.getSanitizeFieldNames(), headerName)) {
+                    target.addHeader(headerName, REDACTED_CONTEXT_STRING);
+                } else {
+                    target.addHeader(headerName, source.getHeaders(headerName));
+                }
+            }
+        }
+    }
+}
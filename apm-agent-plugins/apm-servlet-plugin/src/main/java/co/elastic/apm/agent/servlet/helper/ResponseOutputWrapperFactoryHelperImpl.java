@@ -0,0 +1,64 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.servlet.helper;
+
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import co.elastic.apm.agent.servlet.ResponseBodyCounter;
+import co.elastic.apm.agent.servlet.ResponseStreamCountingInstrumentation;
+
+import javax.annotation.Nullable;
+import javax.servlet.ServletOutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+
+public class ResponseOutputWrapperFactoryHelperImpl implements ResponseStreamCountingInstrumentation.ResponseOutputWrapperFactory {
+
+    /**
+     * The default encoding of {@link javax.servlet.ServletResponse#getCharacterEncoding()}
+     */
+    private static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
+
+    @Override
+    public ServletOutputStream wrap(Transaction transaction, ServletOutputStream servletOutputStream) {
+        return new CountingServletOutputStreamWrapper(ResponseBodyCounter.getOrCreate(transaction), servletOutputStream);
+    }
+
+    @Override
+    public PrintWriter wrap(Transaction transaction, PrintWriter writer, @Nullable String characterEncoding) {
+        return new CountingPrintWriterWrapper(ResponseBodyCounter.getOrCreate(transaction), writer, getCharset(characterEncoding));
+    }
+
+    private static Charset getCharset(@Nullable String characterEncoding) {
+        if (characterEncoding == null) {
+            return ISO_8859_1;
+        }
+        try {
+            return Charset.forName(characterEncoding);
+        } catch (IllegalArgumentException e) {
+            // illegal or unsupported charset name
+            return ISO_8859_1;
+        }
+    }
+}
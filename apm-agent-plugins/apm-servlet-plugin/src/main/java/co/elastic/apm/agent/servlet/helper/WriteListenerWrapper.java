@@ -0,0 +1,71 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.servlet.helper;
+
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import co.elastic.apm.agent.servlet.AsyncInstrumentation;
+
+import javax.servlet.WriteListener;
+import java.io.IOException;
+
+/**
+ * Activates the transaction of an asynchronous request while the container invokes the callbacks of a {@link WriteListener}.
+ */
+class WriteListenerWrapper implements WriteListener {
+
+    private final WriteListener delegate;
+    private final AsyncInstrumentation.AsyncTransactionHolder holder;
+    private final int generation;
+
+    WriteListenerWrapper(WriteListener delegate, AsyncInstrumentation.AsyncTransactionHolder holder) {
+        this.delegate = delegate;
+        this.holder = holder;
+        this.generation = holder.getGeneration();
+    }
+
+    @Override
+    public void onWritePossible() throws IOException {
+        final Transaction transaction = holder.activate(generation);
+        try {
+            delegate.onWritePossible();
+        } finally {
+            if (transaction != null) {
+                holder.deactivate(transaction);
+            }
+        }
+    }
+
+    @Override
+    public void onError(Throwable t) {
+        final Transaction transaction = holder.activate(generation);
+        try {
+            delegate.onError(t);
+        } finally {
+            if (transaction != null) {
+                holder.deactivate(transaction);
+            }
+        }
+    }
+}
@@ -26,6 +26,7 @@ package co.elastic.apm.agent.servlet;
 
 import co.elastic.apm.agent.AbstractInstrumentationTest;
 import okhttp3.OkHttpClient;
+import okhttp3.RequestBody;
 import okhttp3.Response;
 import org.eclipse.jetty.server.NetworkConnector;
 import org.eclipse.jetty.server.Server;
@@ -84,6 +85,10 @@ abstract class AbstractServletTest extends AbstractInstrumentationTest {
         return httpClient.newCall(new okhttp3.Request.Builder().url("http://localhost:" + getPort() + path).build()).execute();
     }
 
+    protected Response post(String path, RequestBody body) throws IOException {
+        return httpClient.newCall(new okhttp3.Request.Builder().url("http://localhost:" + getPort() + path).post(body).build()).execute();
+    }
+
     protected abstract void setUpHandler(ServletContextHandler handler);
 
     protected int getPort() {
@@ -291,6 +291,26 @@ class ApmFilterTest extends AbstractInstrumentationTest {
         assertThat(response.getHeaders().get("bar")).isEqualTo("baz");
     }
 
+    @Test
+    void testSensitiveHeadersAreRedacted() throws IOException, ServletException {
+        when(coreConfiguration.isCaptureHeaders()).thenReturn(true);
+        filterChain = new MockFilterChain(new TestServlet());
+        final MockHttpServletRequest get = new MockHttpServletRequest("GET", "/foo");
+        get.addHeader("Authorization", "Basic secret");
+        get.setCookies(new Cookie("JSESSIONID", "42"), new Cookie("foo", "bar"));
+        final MockHttpServletResponse mockResponse = new MockHttpServletResponse();
+        mockResponse.addHeader("Set-Cookie", "JSESSIONID=42");
+        filterChain.doFilter(get, mockResponse);
+        assertThat(reporter.getTransactions()).hasSize(1);
+        final Request request = reporter.getFirstTransaction().getContext().getRequest();
+        assertThat(request.getHeaders().get("Authorization")).isEqualTo("[REDACTED]");
+        assertThat(request.getHeaders().containsIgnoreCase("Cookie")).isFalse();
+        assertThat(request.getCookies().get("JSESSIONID")).isEqualTo("[REDACTED]");
+        assertThat(request.getCookies().get("foo")).isEqualTo("bar");
+        final Response response = reporter.getFirstTransaction().getContext().getResponse();
+        assertThat(response.getHeaders().get("Set-Cookie")).isEqualTo("[REDACTED]");
+    }
+
     public static class TestServlet extends HttpServlet {
     }
 
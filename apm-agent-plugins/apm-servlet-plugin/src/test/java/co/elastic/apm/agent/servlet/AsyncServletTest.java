@@ -26,6 +26,9 @@ package co.elastic.apm.agent.servlet;
 
 import co.elastic.apm.agent.impl.context.TransactionContext;
 import co.elastic.apm.agent.impl.transaction.Transaction;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.junit.jupiter.api.Test;
 
@@ -34,15 +37,21 @@ import javax.servlet.DispatcherType;
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
 import javax.servlet.FilterConfig;
+import javax.servlet.ReadListener;
+import javax.servlet.ServletInputStream;
 import javax.servlet.ServletException;
 import javax.servlet.ServletRequest;
 import javax.servlet.ServletResponse;
+import javax.servlet.WriteListener;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.EnumSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -61,6 +70,8 @@ class AsyncServletTest extends AbstractServletTest {
         handler.addServlet(AsyncErrorServlet.class, "/async-error").setAsyncSupported(true);
         handler.addServlet(ErrorServlet.class, "/error").setAsyncSupported(true);
         handler.addServlet(AsyncTimeoutServlet.class, "/async-timeout").setAsyncSupported(true);
+        handler.addServlet(NonBlockingIoServlet.class, "/non-blocking-io").setAsyncSupported(true);
+        handler.addServlet(NonBlockingReadServlet.class, "/non-blocking-read").setAsyncSupported(true);
         handler.addFilter(CurrentTransactionTestFilter.class, "/*",
             EnumSet.of(DispatcherType.REQUEST, DispatcherType.ASYNC, DispatcherType.FORWARD, DispatcherType.INCLUDE, DispatcherType.ERROR))
             .setAsyncSupported(true);
@@ -99,6 +110,41 @@ class AsyncServletTest extends AbstractServletTest {
         assertThat(reporter.getFirstError().getException().getMessage()).isEqualTo("Testing async servlet error handling");
     }
 
+    @Test
+    void testNonBlockingIoListeners() throws Exception {
+        assertHasOneTransaction("/non-blocking-io", Predicate.isEqual("read listener: true, write listener: true"), 200);
+    }
+
+    @Test
+    void testNonBlockingReadListenerOnContainerThread() throws Exception {
+        // the body is sent in delayed chunks so that the read listener is invoked by the container after the servlet has returned
+        RequestBody body = new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return MediaType.parse("text/plain");
+            }
+
+            @Override
+            public void writeTo(BufferedSink sink) throws IOException {
+                for (int i = 0; i < 3; i++) {
+                    sink.writeUtf8("chunk" + i);
+                    sink.flush();
+                    try {
+                        Thread.sleep(100);
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+            }
+        };
+
+        assertThat(post("/non-blocking-read", body).body().string())
+            .isEqualTo("body: chunk0chunk1chunk2, callbacks after servlet returned: true, active in all callbacks: true");
+        assertThat(reporter.getFirstTransaction(500)).isNotNull();
+        assertThat(reporter.getTransactions()).hasSize(1);
+        assertThat(reporter.getFirstTransaction().getNameAsString()).endsWith("NonBlockingReadServlet#doPost");
+    }
+
     private void assertHasOneTransaction(String path, Predicate<String> bodyPredicate, int status) throws IOException, InterruptedException {
         assertThat(get(path).body().string()).matches(bodyPredicate);
         assertThat(reporter.getFirstTransaction(500)).isNotNull();
@@ -127,6 +173,93 @@ class AsyncServletTest extends AbstractServletTest {
         }
     }
 
+    public static class NonBlockingIoServlet extends HttpServlet {
+        @Override
+        protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+            final Transaction transaction = tracer.currentTransaction();
+            final AsyncContext asyncContext = req.startAsync();
+            req.getInputStream().setReadListener(new ReadListener() {
+                @Override
+                public void onDataAvailable() {
+                }
+
+                @Override
+                public void onAllDataRead() throws IOException {
+                    final boolean activeOnRead = tracer.currentTransaction() == transaction;
+                    resp.getOutputStream().setWriteListener(new WriteListener() {
+                        @Override
+                        public void onWritePossible() throws IOException {
+                            final boolean activeOnWrite = tracer.currentTransaction() == transaction;
+                            resp.getOutputStream().print("read listener: " + activeOnRead + ", write listener: " + activeOnWrite);
+                            asyncContext.complete();
+                        }
+
+                        @Override
+                        public void onError(Throwable t) {
+                            asyncContext.complete();
+                        }
+                    });
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    asyncContext.complete();
+                }
+            });
+        }
+    }
+
+    public static class NonBlockingReadServlet extends HttpServlet {
+        @Override
+        protected void doPost(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
+            final Transaction transaction = tracer.currentTransaction();
+            final AtomicBoolean servletReturned = new AtomicBoolean();
+            final AtomicInteger callbacksAfterServletReturned = new AtomicInteger();
+            final AtomicBoolean activeInAllCallbacks = new AtomicBoolean(true);
+            final StringBuilder body = new StringBuilder();
+            final AsyncContext asyncContext = req.startAsync();
+            final ServletInputStream inputStream = req.getInputStream();
+            inputStream.setReadListener(new ReadListener() {
+                @Override
+                public void onDataAvailable() throws IOException {
+                    onCallback();
+                    final byte[] buffer = new byte[64];
+                    while (inputStream.isReady()) {
+                        final int read = inputStream.read(buffer);
+                        if (read == -1) {
+                            return;
+                        }
+                        body.append(new String(buffer, 0, read, StandardCharsets.UTF_8));
+                    }
+                }
+
+                @Override
+                public void onAllDataRead() throws IOException {
+                    onCallback();
+                    resp.getWriter().print("body: " + body +
+                        ", callbacks after servlet returned: " + (callbacksAfterServletReturned.get() > 0) +
+                        ", active in all callbacks: " + activeInAllCallbacks.get());
+                    asyncContext.complete();
+                }
+
+                private void onCallback() {
+                    if (servletReturned.get()) {
+                        callbacksAfterServletReturned.incrementAndGet();
+                    }
+                    if (tracer.currentTransaction() != transaction) {
+                        activeInAllCallbacks.set(false);
+                    }
+                }
+
+                @Override
+                public void onError(Throwable t) {
+                    asyncContext.complete();
+                }
+            });
+            servletReturned.set(true);
+        }
+    }
+
     public static class DispatchTwiceServlet extends HttpServlet {
         @Override
         protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws ServletException, IOException {
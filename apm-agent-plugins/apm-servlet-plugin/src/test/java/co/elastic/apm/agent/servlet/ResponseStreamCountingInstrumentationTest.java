@@ -0,0 +1,181 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.servlet;
+
+import co.elastic.apm.agent.AbstractInstrumentationTest;
+import co.elastic.apm.agent.impl.context.Response;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ResponseStreamCountingInstrumentationTest extends AbstractInstrumentationTest {
+
+    private ResponseWriter responseWriter;
+
+    @BeforeEach
+    void setUp() {
+        responseWriter = response -> {
+        };
+    }
+
+    @Test
+    void testOutputStream() throws Exception {
+        responseWriter = response -> {
+            response.getOutputStream().write("foo".getBytes(StandardCharsets.UTF_8));
+            response.getOutputStream().write('\n');
+            response.getOutputStream().print("bar");
+        };
+        executeRequest(new MockHttpServletResponse());
+
+        final Response response = reporter.getFirstTransaction().getContext().getResponse();
+        assertThat(response.getEncodedBodySize()).isEqualTo(7);
+        assertThat(response.getTimeToFirstByteUs()).isGreaterThanOrEqualTo(0);
+    }
+
+    @Test
+    void testWriterUtf8() throws Exception {
+        responseWriter = response -> {
+            response.setCharacterEncoding("UTF-8");
+            final PrintWriter writer = response.getWriter();
+            // 1 + 2 + 3 + 4 bytes
+            writer.print("a\u00e4\u20ac\uD83D\uDE00");
+            writer.write('b');
+            writer.println();
+        };
+        final MockHttpServletResponse servletResponse = new MockHttpServletResponse();
+        executeRequest(servletResponse);
+
+        final Response response = reporter.getFirstTransaction().getContext().getResponse();
+        assertThat(response.getEncodedBodySize()).isEqualTo(servletResponse.getContentAsByteArray().length);
+        assertThat(response.getTimeToFirstByteUs()).isGreaterThanOrEqualTo(0);
+    }
+
+    @Test
+    void testWriterSingleByteEncoding() throws Exception {
+        responseWriter = response -> {
+            response.setCharacterEncoding("ISO-8859-1");
+            response.getWriter().print("foo\u00e4");
+        };
+        executeRequest(new MockHttpServletResponse());
+
+        assertThat(reporter.getFirstTransaction().getContext().getResponse().getEncodedBodySize()).isEqualTo(4);
+    }
+
+    @Test
+    void testResponseWrapperIsCountedOnce() throws Exception {
+        responseWriter = response -> response.getOutputStream().write("foo".getBytes(StandardCharsets.UTF_8));
+        executeRequest(new HttpServletResponseWrapper(new MockHttpServletResponse()));
+
+        assertThat(reporter.getFirstTransaction().getContext().getResponse().getEncodedBodySize()).isEqualTo(3);
+    }
+
+    @Test
+    void testNothingWritten() throws Exception {
+        responseWriter = ServletResponse::getOutputStream;
+        executeRequest(new MockHttpServletResponse());
+
+        final Response response = reporter.getFirstTransaction().getContext().getResponse();
+        assertThat(response.getEncodedBodySize()).isEqualTo(0);
+        assertThat(response.getTimeToFirstByteUs()).isEqualTo(-1);
+    }
+
+    @Test
+    void testStreamNotRetrieved() throws Exception {
+        executeRequest(new MockHttpServletResponse());
+
+        final Response response = reporter.getFirstTransaction().getContext().getResponse();
+        assertThat(response.getEncodedBodySize()).isEqualTo(-1);
+        assertThat(response.getTimeToFirstByteUs()).isEqualTo(-1);
+    }
+
+    @Test
+    void testWritesAfterTheTransactionHasBeenRecycled() throws Exception {
+        final AtomicReference<ServletOutputStream> firstOutputStream = new AtomicReference<>();
+        responseWriter = response -> {
+            firstOutputStream.set(response.getOutputStream());
+            response.getOutputStream().write('a');
+        };
+        executeRequest(new MockHttpServletResponse());
+        assertThat(reporter.getFirstTransaction().getContext().getResponse().getEncodedBodySize()).isEqualTo(1);
+
+        // the transaction is recycled and may be reused for the next request
+        reporter.decrementReferences();
+        reporter.reset();
+        firstOutputStream.get().write("late".getBytes(StandardCharsets.UTF_8));
+
+        responseWriter = response -> {
+            response.getOutputStream().write("bc".getBytes(StandardCharsets.UTF_8));
+            firstOutputStream.get().write("late".getBytes(StandardCharsets.UTF_8));
+        };
+        executeRequest(new MockHttpServletResponse());
+        firstOutputStream.get().write("late".getBytes(StandardCharsets.UTF_8));
+
+        assertThat(reporter.getFirstTransaction().getContext().getResponse().getEncodedBodySize()).isEqualTo(2);
+    }
+
+    @Test
+    void testWritesAfterTheTransactionHasEndedAreNotReflected() throws Exception {
+        final AtomicReference<ServletOutputStream> outputStream = new AtomicReference<>();
+        responseWriter = response -> {
+            outputStream.set(response.getOutputStream());
+            response.getOutputStream().write('a');
+        };
+        executeRequest(new MockHttpServletResponse());
+        outputStream.get().write("late".getBytes(StandardCharsets.UTF_8));
+
+        final Response response = reporter.getFirstTransaction().getContext().getResponse();
+        assertThat(response.getEncodedBodySize()).isEqualTo(1);
+        assertThat(response.getTimeToFirstByteUs()).isGreaterThanOrEqualTo(0);
+    }
+
+    private void executeRequest(HttpServletResponse response) throws IOException, ServletException {
+        new MockFilterChain(new HttpServlet() {
+            @Override
+            protected void doGet(HttpServletRequest req, HttpServletResponse resp) throws IOException {
+                responseWriter.write(resp);
+            }
+        }).doFilter(new MockHttpServletRequest("GET", "/foo"), response);
+    }
+
+    interface ResponseWriter {
+        void write(HttpServletResponse response) throws IOException;
+    }
+}
@@ -36,6 +36,7 @@ import org.junit.jupiter.api.Test;
 import org.stagemonitor.configuration.ConfigurationRegistry;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.util.List;
 
 import static org.assertj.core.api.Assertions.assertThat;
@@ -97,10 +98,55 @@ class ServletTransactionHelperTest {
         assertThat(transaction.getNameAsString()).isEqualTo("GET /foo/bar/*");
     }
 
+    @Test
+    void testCachedNamesAreEqualToBuiltNames() {
+        when(webConfig.isUsePathAsName()).thenReturn(true);
+        when(webConfig.getUrlGroups()).thenReturn(List.of(WildcardMatcher.valueOf("/foo/bar/*")));
+
+        for (int i = 0; i < 2; i++) {
+            assertThat(getTransactionName("GET", "/foo/bar/baz")).isEqualTo("GET /foo/bar/*");
+            assertThat(getTransactionName("POST", "/foo/bar/baz")).isEqualTo("POST /foo/bar/*");
+            assertThat(getTransactionName("GET", "/foo", "/bar")).isEqualTo("GET /foo/bar");
+            assertThat(getTransactionName("GET", "/foo/bar")).isEqualTo("GET /foo/bar");
+        }
+    }
+
+    @Test
+    void testChangingUrlGroupsInvalidatesCachedNames() {
+        when(webConfig.isUsePathAsName()).thenReturn(true);
+        when(webConfig.getUrlGroups()).thenReturn(List.of(WildcardMatcher.valueOf("/foo/*")));
+        assertThat(getTransactionName("GET", "/foo/bar/baz")).isEqualTo("GET /foo/*");
+
+        when(webConfig.getUrlGroups()).thenReturn(List.of(WildcardMatcher.valueOf("/foo/bar/*")));
+        assertThat(getTransactionName("GET", "/foo/bar/baz")).isEqualTo("GET /foo/bar/*");
+    }
+
+    @Test
+    void testUnknownRoute() {
+        for (int i = 0; i < 2; i++) {
+            assertThat(getTransactionName("GET", "/foo")).isEqualTo("GET unknown route");
+            assertThat(getTransactionName("POST", "/foo")).isEqualTo("POST unknown route");
+        }
+    }
+
+    @Test
+    void setTransactionNameByServletClassCached() {
+        for (int i = 0; i < 2; i++) {
+            Transaction transaction = new Transaction(MockTracer.create());
+            ServletTransactionHelper.setTransactionNameByServletClass("POST", ServletTransactionHelperTest.class, transaction);
+            assertThat(transaction.getNameAsString()).isEqualTo("ServletTransactionHelperTest#doPost");
+        }
+    }
+
     @Nonnull
     private String getTransactionName(String method, String path) {
+        return getTransactionName(method, path, null);
+    }
+
+    @Nonnull
+    private String getTransactionName(String method, String servletPath, @Nullable String pathInfo) {
         Transaction transaction = new Transaction(MockTracer.create());
-        servletTransactionHelper.applyDefaultTransactionName(method, path, null, transaction);
+        servletTransactionHelper.applyDefaultTransactionName(method, servletPath, pathInfo, transaction);
         return transaction.getNameAsString();
     }
 }
@@ -153,8 +153,13 @@ class TestRequestBodyCapturing extends AbstractInstrumentationTest {
         final Transaction transaction = reporter.getFirstTransaction();
         final Object body = transaction.getContext().getRequest().getBody();
         assertThat(body).isNotNull();
-        // this is not [REDACTED] in this test as the BodyProcessor is not active in MockReporter
-        assertThat(body.toString()).isEqualTo("foo");
+        if (eventType == CoreConfiguration.EventType.ERRORS) {
+            // the body buffer is released when the transaction ends, as the error has already copied the body
+            assertThat(body.toString()).isEqualTo(REDACTED_CONTEXT_STRING);
+        } else {
+            // this is not [REDACTED] in this test as the BodyProcessor is not active in MockReporter
+            assertThat(body.toString()).isEqualTo("foo");
+        }
 
         final ErrorCapture error = reporter.getFirstError();
         assertThat(error).isNotNull();
@@ -190,6 +195,27 @@ class TestRequestBodyCapturing extends AbstractInstrumentationTest {
         assertThat(body.toString()).isEqualTo("[Non UTF-8 data]");
     }
 
+    @ParameterizedTest
+    @MethodSource("streamConsumers")
+    void testReadTextPlainWithCharset(InputStreamConsumer consumer) throws Exception {
+        streamConsumer = consumer;
+        executeRequest(filterChain, "foo\u00e4\u20ac".getBytes(StandardCharsets.UTF_16), "text/plain;charset=UTF-16");
+
+        final Object body = reporter.getFirstTransaction().getContext().getRequest().getBody();
+        assertThat(body).isNotNull();
+        assertThat(body.toString()).isEqualTo("foo\u00e4\u20ac");
+    }
+
+    @Test
+    void testReadTextPlainMemoryLimitReached() throws Exception {
+        doReturn(0L).when(coreConfiguration).getCaptureBodyMemoryLimit();
+        executeRequest(filterChain, "foo".getBytes(StandardCharsets.UTF_8), "text/plain");
+
+        final Object body = reporter.getFirstTransaction().getContext().getRequest().getBody();
+        assertThat(body).isNotNull();
+        assertThat(body.toString()).isEqualTo(REDACTED_CONTEXT_STRING);
+    }
+
     @Test
     void testReadUnknownContentType() throws Exception {
         executeRequest(filterChain, "foo".getBytes(StandardCharsets.UTF_8), "application/unknown");
@@ -0,0 +1,78 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.servlet;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TransactionNameCacheTest {
+
+    private final TransactionNameCache cache = new TransactionNameCache();
+
+    @Test
+    void testGetAndPut() {
+        assertThat(cache.get("/foo/*", "GET")).isNull();
+
+        cache.put("/foo/*", "GET", "GET /foo/*");
+        cache.put("/foo/*", "POST", "POST /foo/*");
+        cache.put("/bar/*", "GET", "GET /bar/*");
+
+        assertThat(cache.get("/foo/*", "GET")).isEqualTo("GET /foo/*");
+        assertThat(cache.get("/foo/*", "POST")).isEqualTo("POST /foo/*");
+        assertThat(cache.get("/bar/*", "GET")).isEqualTo("GET /bar/*");
+        assertThat(cache.get("/bar/*", "POST")).isNull();
+        assertThat(cache.get("/baz/*", "GET")).isNull();
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    void testLimitsMethodsPerKey() {
+        for (int i = 0; i < TransactionNameCache.MAX_METHODS_PER_KEY * 2; i++) {
+            cache.put("/foo/*", "METHOD" + i, "METHOD" + i + " /foo/*");
+        }
+        assertThat(cache.get("/foo/*", "METHOD0")).isEqualTo("METHOD0 /foo/*");
+        assertThat(cache.get("/foo/*", "METHOD" + TransactionNameCache.MAX_METHODS_PER_KEY)).isNull();
+    }
+
+    @Test
+    void testKeepsAcceptingNewKeysWhenFull() {
+        for (int i = 0; i < TransactionNameCache.MAX_ENTRIES * 2; i++) {
+            putIfAbsent("/foo/" + i);
+        }
+        assertThat(cache.size()).isLessThanOrEqualTo(TransactionNameCache.MAX_ENTRIES);
+
+        for (int i = 0; i < 5; i++) {
+            putIfAbsent("/bar");
+        }
+        assertThat(cache.get("/bar", "GET")).isEqualTo("GET /bar");
+    }
+
+    private void putIfAbsent(String key) {
+        if (cache.get(key, "GET") == null) {
+            cache.put(key, "GET", "GET " + key);
+        }
+    }
+}
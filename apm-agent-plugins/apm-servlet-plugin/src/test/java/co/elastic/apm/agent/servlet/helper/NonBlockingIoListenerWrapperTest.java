@@ -0,0 +1,154 @@
+/*-
+ * #%L
+ * Elastic APM Java agent
+ * %%
+ * Copyright (C) 2018 - 2020 Elastic and contributors
+ * %%
+ * Licensed to Elasticsearch B.V. under one or more contributor
+ * license agreements. See the NOTICE file distributed with
+ * this work for additional information regarding copyright
+ * ownership. Elasticsearch B.V. licenses this file to you under
+ * the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * #L%
+ */
+package co.elastic.apm.agent.servlet.helper;
+
+import co.elastic.apm.agent.AbstractInstrumentationTest;
+import co.elastic.apm.agent.impl.transaction.Transaction;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import javax.servlet.ReadListener;
+import javax.servlet.WriteListener;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NonBlockingIoListenerWrapperTest extends AbstractInstrumentationTest {
+
+    private final NonBlockingIoListenerWrapperFactoryImpl wrapperFactory = new NonBlockingIoListenerWrapperFactoryImpl();
+    private final AtomicReference<Transaction> activeInCallback = new AtomicReference<>();
+    private ApmAsyncListener holder;
+    private Transaction transaction;
+
+    @BeforeEach
+    void setUp() {
+        holder = new ApmAsyncListener(new AsyncContextAdviceHelperImpl(tracer));
+        transaction = tracer.startRootTransaction(getClass().getClassLoader());
+        holder.withTransaction(transaction);
+    }
+
+    @AfterEach
+    void tearDown() {
+        holder.resetState();
+        transaction.end();
+    }
+
+    @Test
+    void testReadListenerActivatesTransactionOnOtherThread() throws Throwable {
+        ReadListener readListener = wrapperFactory.wrapReadListener(new RecordingReadListener(), holder);
+
+        runOnOtherThread(() -> {
+            readListener.onDataAvailable();
+            return null;
+        });
+
+        assertThat(activeInCallback.get()).isSameAs(transaction);
+    }
+
+    @Test
+    void testWriteListenerActivatesTransactionOnOtherThread() throws Throwable {
+        WriteListener writeListener = wrapperFactory.wrapWriteListener(new RecordingWriteListener(), holder);
+
+        runOnOtherThread(() -> {
+            writeListener.onWritePossible();
+            return null;
+        });
+
+        assertThat(activeInCallback.get()).isSameAs(transaction);
+    }
+
+    @Test
+    void testStaleWrappersDoNotActivateTransactionOfRecycledHolder() throws Throwable {
+        ReadListener readListener = wrapperFactory.wrapReadListener(new RecordingReadListener(), holder);
+        WriteListener writeListener = wrapperFactory.wrapWriteListener(new RecordingWriteListener(), holder);
+
+        // the holder is recycled and reused for another request
+        holder.resetState();
+        Transaction otherTransaction = tracer.startRootTransaction(getClass().getClassLoader());
+        holder.withTransaction(otherTransaction);
+
+        activeInCallback.set(otherTransaction);
+        runOnOtherThread(() -> {
+            readListener.onDataAvailable();
+            return null;
+        });
+        assertThat(activeInCallback.get()).isNull();
+
+        activeInCallback.set(otherTransaction);
+        runOnOtherThread(() -> {
+            writeListener.onWritePossible();
+            return null;
+        });
+        assertThat(activeInCallback.get()).isNull();
+
+        otherTransaction.end();
+    }
+
+    private static void runOnOtherThread(Callable<Void> callback) throws Throwable {
+        AtomicReference<Throwable> exception = new AtomicReference<>();
+        Thread thread = new Thread(() -> {
+            try {
+                callback.call();
+                assertThat(tracer.getActive()).isNull();
+            } catch (Throwable t) {
+                exception.set(t);
+            }
+        });
+        thread.start();
+        thread.join();
+        if (exception.get() != null) {
+            throw exception.get();
+        }
+    }
+
+    private class RecordingReadListener implements ReadListener {
+        @Override
+        public void onDataAvailable() {
+            activeInCallback.set(tracer.currentTransaction());
+        }
+
+        @Override
+        public void onAllDataRead() {
+            activeInCallback.set(tracer.currentTransaction());
+        }
+
+        @Override
+        public void onError(Throwable t) {
+        }
+    }
+
+    private class RecordingWriteListener implements WriteListener {
+        @Override
+        public void onWritePossible() {
+            activeInCallback.set(tracer.currentTransaction());
+        }
+
+        @Override
+        public void onError(Throwable t) {
+        }
+    }
+}